@@ -0,0 +1,153 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.examples;
+
+import uk.ac.ed.ph.qtiworks.samples.QtiSampleAssessment;
+import uk.ac.ed.ph.qtiworks.samples.QtiSampleAssessment.Feature;
+import uk.ac.ed.ph.qtiworks.samples.QtiSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.StandardQtiSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.UpmcSampleSet;
+
+import uk.ac.ed.ph.jqtiplus.SimpleJqtiFacade;
+import uk.ac.ed.ph.jqtiplus.node.AssessmentObjectType;
+import uk.ac.ed.ph.jqtiplus.node.item.response.declaration.ResponseDeclaration;
+import uk.ac.ed.ph.jqtiplus.running.ItemSessionController;
+import uk.ac.ed.ph.jqtiplus.running.ItemSessionControllerSettings;
+import uk.ac.ed.ph.jqtiplus.state.ItemProcessingMap;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.validation.ItemValidationResult;
+import uk.ac.ed.ph.jqtiplus.value.Value;
+import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ClassPathResourceLocator;
+import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ResourceLocator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Times response processing on the (valid) sample items, run in the same way as a
+ * delivered item would be, i.e. from an {@link ItemProcessingMap} built from a successful
+ * validation result.
+ * <p>
+ * Each item is given its correct responses before response processing is run. Processing
+ * is run for a number of untimed warm-up rounds, then the median of a number of timed rounds
+ * is reported.
+ * <p>
+ * This only uses API that has been stable for some time, so the effect of a change to
+ * JQTI+ can be measured by running this against builds before and after the change.
+ *
+ * <h3>How to run</h3>
+ *
+ * You can run this via Maven as follows:
+ * <pre>
+ * mvn exec:java -Dexec.mainClass=uk.ac.ed.ph.qtiworks.examples.ResponseProcessingBenchmarkExample
+ * </pre>
+ *
+ * @author David McKain
+ */
+public final class ResponseProcessingBenchmarkExample {
+
+    /** Number of times response processing is run on each item in each round */
+    private static final int PROCESSING_COUNT = 2000;
+
+    /** Number of untimed rounds run first to warm up the JVM */
+    private static final int WARM_UP_ROUND_COUNT = 5;
+
+    /** Number of timed rounds */
+    private static final int TIMED_ROUND_COUNT = 11;
+
+    public static void main(final String[] args) {
+        /* Load and validate the sample items, setting up sessions on the valid ones */
+        final SimpleJqtiFacade simpleJqtiFacade = new SimpleJqtiFacade();
+        final ResourceLocator assessmentResourceLocator = new ClassPathResourceLocator();
+        final List<ItemSessionController> itemSessionControllers = new ArrayList<ItemSessionController>();
+        for (final QtiSampleSet sampleSet : new QtiSampleSet[] { StandardQtiSampleSet.instance(), UpmcSampleSet.instance() }) {
+            final QtiSampleSet itemSampleSet = sampleSet.havingType(AssessmentObjectType.ASSESSMENT_ITEM)
+                    .withoutFeatures(Feature.NOT_RUNNABLE, Feature.REQUIRES_MATHASSES);
+            for (final QtiSampleAssessment sampleAssessment : itemSampleSet) {
+                final ItemValidationResult itemValidationResult = simpleJqtiFacade.loadResolveAndValidateItem(assessmentResourceLocator,
+                        sampleAssessment.assessmentClassPathUri());
+                if (itemValidationResult.isValid()) {
+                    final ItemProcessingMap itemProcessingMap = simpleJqtiFacade.buildItemProcessingMap(itemValidationResult);
+                    itemSessionControllers.add(createItemSessionController(simpleJqtiFacade, itemProcessingMap));
+                }
+            }
+        }
+
+        /* Warm up, then time each round */
+        for (int i=0; i<WARM_UP_ROUND_COUNT; i++) {
+            processAll(itemSessionControllers);
+        }
+        final long[] durations = new long[TIMED_ROUND_COUNT];
+        for (int i=0; i<TIMED_ROUND_COUNT; i++) {
+            durations[i] = processAll(itemSessionControllers);
+        }
+        Arrays.sort(durations);
+
+        System.out.println("\nRan response processing on " + itemSessionControllers.size() + " items " + PROCESSING_COUNT + " times each");
+        System.out.println("Median of " + TIMED_ROUND_COUNT + " rounds: " + durations[TIMED_ROUND_COUNT / 2] + "ms"
+                + " (min " + durations[0] + "ms, max " + durations[TIMED_ROUND_COUNT - 1] + "ms)");
+    }
+    private static ItemSessionController createItemSessionController(final SimpleJqtiFacade simpleJqtiFacade,
+            final ItemProcessingMap itemProcessingMap) {
+        final ItemSessionControllerSettings itemSessionControllerSettings = new ItemSessionControllerSettings();
+        itemSessionControllerSettings.setMaxAttempts(0); /* (So that items stay open) */
+        final ItemSessionController itemSessionController = simpleJqtiFacade.createItemSessionController(itemSessionControllerSettings,
+                itemProcessingMap, new ItemSessionState());
+        final Date timestamp = new Date();
+        itemSessionController.initialize(timestamp);
+        itemSessionController.performTemplateProcessing(timestamp);
+        itemSessionController.enterItem(timestamp);
+        for (final ResponseDeclaration responseDeclaration : itemProcessingMap.getValidResponseDeclarationMap().values()) {
+            final Value correctResponse = itemSessionController.computeCorrectResponse(responseDeclaration);
+            if (correctResponse!=null) {
+                itemSessionController.getItemSessionState().setResponseValue(responseDeclaration, correctResponse);
+            }
+        }
+        return itemSessionController;
+    }
+
+    private static long processAll(final List<ItemSessionController> itemSessionControllers) {
+        final long startTime = System.currentTimeMillis();
+        for (int i=0; i<PROCESSING_COUNT; i++) {
+            for (final ItemSessionController itemSessionController : itemSessionControllers) {
+                if (!itemSessionController.getItemSessionState().isEnded()) {
+                    itemSessionController.performResponseProcessing(new Date());
+                }
+            }
+        }
+        return System.currentTimeMillis() - startTime;
+    }
+}
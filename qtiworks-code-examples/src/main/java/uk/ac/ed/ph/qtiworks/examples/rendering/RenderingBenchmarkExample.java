@@ -0,0 +1,145 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTITools and MathAssessEngine.
+ * QTITools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.examples.rendering;
+
+import uk.ac.ed.ph.qtiworks.rendering.AssessmentRenderer;
+import uk.ac.ed.ph.qtiworks.rendering.ItemRenderingRequest;
+import uk.ac.ed.ph.qtiworks.rendering.SaxEventBuffer;
+import uk.ac.ed.ph.qtiworks.samples.QtiSampleAssessment;
+import uk.ac.ed.ph.qtiworks.samples.QtiSampleAssessment.Feature;
+import uk.ac.ed.ph.qtiworks.samples.QtiSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.StandardQtiSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.UpmcSampleSet;
+
+import uk.ac.ed.ph.jqtiplus.node.AssessmentObjectType;
+import uk.ac.ed.ph.jqtiplus.running.ItemSessionController;
+import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ClassPathResourceLocator;
+import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ResourceLocator;
+
+import java.io.StringWriter;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.transform.stream.StreamResult;
+
+/**
+ * Compares the time taken to render the sample items using the original three stage
+ * rendering pipeline (always re-parsing the item XML and running MathML C-to-P conversion
+ * and serialization as separate stages) with the time taken using cached item XML and
+ * fused single-pass rendering.
+ *
+ * <h3>How to run</h3>
+ *
+ * You can run this via Maven as follows:
+ * <pre>
+ * mvn exec:java -Dexec.mainClass=uk.ac.ed.ph.qtiworks.examples.rendering.RenderingBenchmarkExample
+ * </pre>
+ *
+ * @author David McKain
+ */
+public final class RenderingBenchmarkExample {
+
+    /** Number of times each item is rendered in each run */
+    private static final int RENDER_COUNT = 20;
+
+    public static void main(final String[] args) {
+        /* Set up the sample items, entering each one */
+        final ResourceLocator assessmentResourceLocator = new ClassPathResourceLocator();
+        final List<ItemRenderingRequest> renderingRequests = new ArrayList<ItemRenderingRequest>();
+        for (final QtiSampleSet sampleSet : new QtiSampleSet[] { StandardQtiSampleSet.instance(), UpmcSampleSet.instance() }) {
+            final QtiSampleSet itemSampleSet = sampleSet.havingType(AssessmentObjectType.ASSESSMENT_ITEM)
+                    .withoutFeatures(Feature.NOT_RUNNABLE, Feature.REQUIRES_MATHASSES);
+            for (final QtiSampleAssessment sampleAssessment : itemSampleSet) {
+                final URI itemUri = sampleAssessment.assessmentClassPathUri();
+                final ItemSessionController itemSessionController = RenderingExampleHelpers.createItemSessionController(assessmentResourceLocator, itemUri);
+                final Date timestamp = new Date();
+                itemSessionController.initialize(timestamp);
+                itemSessionController.performTemplateProcessing(timestamp);
+                itemSessionController.enterItem(timestamp);
+
+                final ItemRenderingRequest renderingRequest = new ItemRenderingRequest();
+                renderingRequest.setAssessmentResourceLocator(assessmentResourceLocator);
+                renderingRequest.setAssessmentResourceUri(itemUri);
+                renderingRequest.setRenderingOptions(RenderingExampleHelpers.createItemRenderingOptions());
+                renderingRequest.setItemSessionState(itemSessionController.getItemSessionState());
+                renderingRequests.add(renderingRequest);
+            }
+        }
+
+        /* Original pipeline */
+        final AssessmentRenderer threeStageRenderer = RenderingExampleHelpers.createAssessmentRenderer();
+        threeStageRenderer.setFusedRendering(false);
+        threeStageRenderer.precompileStylesheets();
+        for (final ItemRenderingRequest renderingRequest : renderingRequests) {
+            renderingRequest.setAssessmentSourceCache(null);
+        }
+        renderAll(threeStageRenderer, renderingRequests); /* (Warm up) */
+        final long threeStageDuration = renderAll(threeStageRenderer, renderingRequests);
+
+        /* Cached sources and fused rendering where possible */
+        final AssessmentRenderer fusedRenderer = RenderingExampleHelpers.createAssessmentRenderer();
+        fusedRenderer.precompileStylesheets();
+        final ConcurrentMap<URI, SaxEventBuffer> assessmentSourceCache = new ConcurrentHashMap<URI, SaxEventBuffer>();
+        for (final ItemRenderingRequest renderingRequest : renderingRequests) {
+            renderingRequest.setAssessmentSourceCache(assessmentSourceCache);
+        }
+        renderAll(fusedRenderer, renderingRequests); /* (Warm up) */
+        final long fusedDuration = renderAll(fusedRenderer, renderingRequests);
+
+        int contentMathmlCount = 0;
+        for (final SaxEventBuffer assessmentSource : assessmentSourceCache.values()) {
+            if (assessmentSource.containsContentMathml()) {
+                contentMathmlCount++;
+            }
+        }
+        System.out.println("\nRendered " + renderingRequests.size() + " items " + RENDER_COUNT + " times each"
+                + " (" + contentMathmlCount + " items needing MathML C-to-P conversion)");
+        System.out.println("Three stage pipeline: " + threeStageDuration + "ms");
+        System.out.println("Cached and fused pipeline: " + fusedDuration + "ms");
+    }
+
+    private static long renderAll(final AssessmentRenderer renderer, final List<ItemRenderingRequest> renderingRequests) {
+        final long startTime = System.currentTimeMillis();
+        for (int i=0; i<RENDER_COUNT; i++) {
+            for (final ItemRenderingRequest renderingRequest : renderingRequests) {
+                renderer.renderItem(renderingRequest, null /* (=Ignore notifications) */, new StreamResult(new StringWriter()));
+            }
+        }
+        return System.currentTimeMillis() - startTime;
+    }
+}
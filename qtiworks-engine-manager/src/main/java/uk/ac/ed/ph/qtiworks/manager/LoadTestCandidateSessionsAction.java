@@ -0,0 +1,377 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTITools and MathAssessEngine.
+ * QTITools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.manager;
+
+import uk.ac.ed.ph.qtiworks.manager.services.CandidateLoadTestService;
+import uk.ac.ed.ph.qtiworks.manager.services.CandidateLoadTestService.PlannedTestStep;
+import uk.ac.ed.ph.qtiworks.manager.services.CandidateLoadTestService.TestStep;
+import uk.ac.ed.ph.qtiworks.web.candidate.CandidateSessionTicket;
+
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.types.StringResponseData;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationContext;
+
+/**
+ * Load tests the candidate services by running the given number of simulated candidates
+ * through the imported QTI samples (see {@link ImportSamplesAction}) concurrently, using
+ * {@link CandidateLoadTestService}. Each candidate is a new anonymous user, who launches a
+ * new session in the same way as a visitor to the samples page, enters it, then submits
+ * responses, navigates, renders and finishes as appropriate.
+ * <p>
+ * The throughput and latency percentiles of each type of operation are logged, and also
+ * written out to a CSV file. Only the calls into the candidate services are timed, so the
+ * work done in deciding what each candidate does next is not counted. The users and
+ * sessions created are deleted afterwards.
+ * <p>
+ * This uses the database and filesystem of the chosen deployment, so you must point this
+ * at a scratch deployment (using the <code>-config</code> option) that has had the samples
+ * imported into it. To make this explicit, the first parameter must be
+ * {@link #SCRATCH_CONFIRMATION}, otherwise the action refuses to run.
+ *
+ * @author David McKain
+ */
+public final class LoadTestCandidateSessionsAction extends ManagerAction {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoadTestCandidateSessionsAction.class);
+
+    /** Value of the first parameter confirming that a scratch deployment is being used */
+    public static final String SCRATCH_CONFIRMATION = "scratch";
+
+    /** Default number of concurrent candidates */
+    private static final int DEFAULT_THREAD_COUNT = 8;
+
+    /** Default name of the file to write results to */
+    private static final String DEFAULT_RESULTS_FILE_NAME = "qtiworks-loadtest-results.csv";
+
+    /** Maximum number of steps taken through each test, in case things go round in circles */
+    private static final int MAX_TEST_STEPS = 500;
+
+    private static final String LAUNCH = "launch";
+    private static final String ENTER = "enter";
+    private static final String RENDER = "render";
+    private static final String RESPOND = "respond";
+    private static final String NAVIGATE = "navigate";
+    private static final String FINISH = "finish";
+    private static final String EXIT = "exit";
+
+    private static final List<String> OPERATIONS = Arrays.asList(LAUNCH, ENTER, RENDER, RESPOND, NAVIGATE, FINISH, EXIT);
+
+    @Override
+    public String[] getActionSummary() {
+        return new String[] {
+                "Runs the given number of simulated candidates through the imported QTI samples, reporting the",
+                "throughput and latency of each candidate operation and writing them to a CSV file",
+                "(default " + DEFAULT_RESULTS_FILE_NAME + "). Optionally specify the number of threads to use",
+                "(default " + DEFAULT_THREAD_COUNT + ").",
+                "NB: This creates and deletes users and sessions in the chosen deployment, so use a scratch",
+                "deployment for this, with the QTI samples imported into it. The first parameter must be",
+                "'" + SCRATCH_CONFIRMATION + "' to confirm this."
+        };
+    }
+
+    @Override
+    public String getActionParameterSummary() {
+        return SCRATCH_CONFIRMATION + " <candidates> [<threads>] [<resultsFile>]";
+    }
+
+    @Override
+    public String validateParameters(final List<String> parameters) {
+        if (parameters.size()<2 || parameters.size()>4) {
+            return "Required parameters: " + getActionParameterSummary();
+        }
+        if (!SCRATCH_CONFIRMATION.equals(parameters.get(0))) {
+            return "This action creates and deletes data, so must only be run against a scratch deployment."
+                    + " Pass '" + SCRATCH_CONFIRMATION + "' as the first parameter to confirm this";
+        }
+        for (final String parameter : parameters.subList(1, Math.min(3, parameters.size()))) {
+            try {
+                if (Integer.parseInt(parameter) <= 0) {
+                    return "Number of candidates and threads must be positive integers";
+                }
+            }
+            catch (final NumberFormatException e) {
+                return "Number of candidates and threads must be positive integers";
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void run(final ApplicationContext applicationContext, final List<String> parameters) throws Exception {
+        final CandidateLoadTestService candidateLoadTestService = applicationContext.getBean(CandidateLoadTestService.class);
+        final int candidateCount = Integer.parseInt(parameters.get(1));
+        final int threadCount = parameters.size()>=3 ? Integer.parseInt(parameters.get(2)) : DEFAULT_THREAD_COUNT;
+        final File resultsFile = new File(parameters.size()==4 ? parameters.get(3) : DEFAULT_RESULTS_FILE_NAME);
+
+        final List<Long> aids = candidateLoadTestService.getSampleAssessmentIds();
+        if (aids.isEmpty()) {
+            logger.warn("No QTI samples found. Please run importSamples first");
+            return;
+        }
+
+        final Map<String, OperationStats> statsMap = new LinkedHashMap<String, OperationStats>();
+        for (final String operation : OPERATIONS) {
+            statsMap.put(operation, new OperationStats());
+        }
+        final List<Long> uids = Collections.synchronizedList(new ArrayList<Long>());
+
+        logger.info("Running {} candidate(s) through {} QTI sample(s) using {} thread(s)",
+                new Object[] { candidateCount, aids.size(), threadCount });
+        final ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        final long beforeTimestamp = System.currentTimeMillis();
+        try {
+            for (int i=0; i<candidateCount; i++) {
+                final long aid = aids.get(i % aids.size()).longValue();
+                executorService.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            runCandidate(candidateLoadTestService, aid, statsMap, uids);
+                        }
+                        catch (final Exception e) {
+                            logger.warn("Simulated candidate on Assessment " + aid + " failed", e);
+                        }
+                    }
+                });
+            }
+            executorService.shutdown();
+            executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+        final long duration = Math.max(1L, System.currentTimeMillis() - beforeTimestamp);
+
+        /* Report results */
+        logger.info("Ran {} candidate(s) in {}ms", candidateCount, duration);
+        final PrintWriter resultsWriter = new PrintWriter(new OutputStreamWriter(new FileOutputStream(resultsFile), "UTF-8"));
+        try {
+            resultsWriter.println("operation,count,failures,throughput_per_sec,p50_ms,p95_ms,p99_ms");
+            for (final Entry<String, OperationStats> entry : statsMap.entrySet()) {
+                final String operation = entry.getKey();
+                final OperationStats stats = entry.getValue();
+                final long[] latencies = stats.getSortedLatencies();
+                final double throughput = 1000.0 * latencies.length / duration;
+                final double p50 = percentile(latencies, 50);
+                final double p95 = percentile(latencies, 95);
+                final double p99 = percentile(latencies, 99);
+                logger.info("{}: count={}, failures={}, throughput={}/s, p50={}ms, p95={}ms, p99={}ms",
+                        new Object[] { operation, latencies.length, stats.getFailureCount(),
+                            format(throughput), format(p50), format(p95), format(p99) });
+                resultsWriter.println(operation + "," + latencies.length + "," + stats.getFailureCount()
+                        + "," + format(throughput) + "," + format(p50) + "," + format(p95) + "," + format(p99));
+            }
+        }
+        finally {
+            resultsWriter.close();
+        }
+        logger.info("Wrote results to {}", resultsFile.getAbsolutePath());
+
+        /* Tidy up */
+        final int deletedCount = candidateLoadTestService.deleteCandidates(uids);
+        logger.info("Deleted {} candidate(s) created during load test, along with their sessions", deletedCount);
+    }
+
+    private static void runCandidate(final CandidateLoadTestService candidateLoadTestService,
+            final long aid, final Map<String, OperationStats> statsMap, final List<Long> uids)
+            throws Exception {
+        long startTime = System.nanoTime();
+        final CandidateSessionTicket candidateSessionTicket;
+        try {
+            candidateSessionTicket = candidateLoadTestService.launchCandidateSession(aid);
+            statsMap.get(LAUNCH).recordSuccess(startTime);
+        }
+        catch (final Exception e) {
+            statsMap.get(LAUNCH).recordFailure();
+            throw e;
+        }
+        uids.add(Long.valueOf(candidateSessionTicket.getUserId()));
+        final long xid = candidateSessionTicket.getCandidateSessionId();
+
+        startTime = System.nanoTime();
+        try {
+            candidateLoadTestService.enterCandidateSession(xid);
+            statsMap.get(ENTER).recordSuccess(startTime);
+        }
+        catch (final Exception e) {
+            statsMap.get(ENTER).recordFailure();
+            throw e;
+        }
+        render(candidateLoadTestService, xid, statsMap);
+
+        if (candidateLoadTestService.isTestSession(xid)) {
+            final Set<TestPlanNodeKey> visitedItemKeys = new HashSet<TestPlanNodeKey>();
+            for (int step=0; step<MAX_TEST_STEPS; step++) {
+                final PlannedTestStep plannedTestStep = candidateLoadTestService.planNextTestStep(xid, visitedItemKeys);
+                if (plannedTestStep==null) {
+                    break;
+                }
+                final TestStep testStep = plannedTestStep.getTestStep();
+                final OperationStats testStepStats = statsMap.get(testStep.name().toLowerCase(Locale.ENGLISH));
+                startTime = System.nanoTime();
+                try {
+                    candidateLoadTestService.performTestStep(xid, plannedTestStep);
+                    testStepStats.recordSuccess(startTime);
+                }
+                catch (final Exception e) {
+                    testStepStats.recordFailure();
+                    throw e;
+                }
+                if (testStep!=TestStep.EXIT) {
+                    render(candidateLoadTestService, xid, statsMap);
+                }
+            }
+        }
+        else {
+            final Map<Identifier, StringResponseData> responses = candidateLoadTestService.createItemResponses(xid);
+            if (responses!=null) {
+                startTime = System.nanoTime();
+                try {
+                    candidateLoadTestService.submitItemResponses(xid, responses);
+                    statsMap.get(RESPOND).recordSuccess(startTime);
+                }
+                catch (final Exception e) {
+                    statsMap.get(RESPOND).recordFailure();
+                    throw e;
+                }
+                render(candidateLoadTestService, xid, statsMap);
+            }
+
+            if (!candidateLoadTestService.isItemSessionEnded(xid)) {
+                startTime = System.nanoTime();
+                try {
+                    candidateLoadTestService.endItemSession(xid);
+                    statsMap.get(FINISH).recordSuccess(startTime);
+                }
+                catch (final Exception e) {
+                    statsMap.get(FINISH).recordFailure();
+                    throw e;
+                }
+                render(candidateLoadTestService, xid, statsMap);
+            }
+
+            startTime = System.nanoTime();
+            try {
+                candidateLoadTestService.exitItemSession(xid);
+                statsMap.get(EXIT).recordSuccess(startTime);
+            }
+            catch (final Exception e) {
+                statsMap.get(EXIT).recordFailure();
+                throw e;
+            }
+        }
+    }
+
+    private static void render(final CandidateLoadTestService candidateLoadTestService, final long xid,
+            final Map<String, OperationStats> statsMap) throws Exception {
+        final long startTime = System.nanoTime();
+        try {
+            candidateLoadTestService.renderCandidateSession(xid);
+            statsMap.get(RENDER).recordSuccess(startTime);
+        }
+        catch (final Exception e) {
+            statsMap.get(RENDER).recordFailure();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the given percentile (in ms) of the given sorted latencies (in ns), using the
+     * nearest-rank method.
+     */
+    private static double percentile(final long[] sortedLatencies, final int percentile) {
+        if (sortedLatencies.length==0) {
+            return 0.0;
+        }
+        final int rank = (int) Math.ceil(percentile / 100.0 * sortedLatencies.length);
+        return sortedLatencies[Math.max(0, rank - 1)] / 1000000.0;
+    }
+
+    private static String format(final double value) {
+        return String.format(Locale.ENGLISH, "%.2f", Double.valueOf(value));
+    }
+
+    /**
+     * Collects the latencies of successful operations of a particular type, plus a count of
+     * failures.
+     */
+    private static final class OperationStats {
+
+        private final List<Long> latencies = new ArrayList<Long>();
+        private int failureCount;
+
+        public synchronized void recordSuccess(final long startNanoTime) {
+            latencies.add(Long.valueOf(System.nanoTime() - startNanoTime));
+        }
+
+        public synchronized void recordFailure() {
+            failureCount++;
+        }
+
+        public synchronized int getFailureCount() {
+            return failureCount;
+        }
+
+        public synchronized long[] getSortedLatencies() {
+            final long[] result = new long[latencies.size()];
+            for (int i=0; i<result.length; i++) {
+                result[i] = latencies.get(i).longValue();
+            }
+            Arrays.sort(result);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTITools and MathAssessEngine.
+ * QTITools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.manager;
+
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
+import uk.ac.ed.ph.qtiworks.domain.entities.Delivery;
+import uk.ac.ed.ph.qtiworks.services.LtiOauthUtilities;
+import uk.ac.ed.ph.qtiworks.services.dao.DeliveryDao;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.oauth.OAuthAccessor;
+import net.oauth.OAuthConsumer;
+import net.oauth.OAuthMessage;
+import net.oauth.OAuthServiceProvider;
+import net.oauth.ParameterStyle;
+import net.oauth.client.OAuthClient;
+import net.oauth.client.OAuthResponseMessage;
+import net.oauth.client.httpclient4.HttpClient4;
+import net.oauth.client.httpclient4.HttpClientPool;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationContext;
+
+/**
+ * Load tests the link-level LTI launch path of a running QTIWorks engine, by making the given
+ * number of signed launches into the {@link Delivery} having the given did. Launches are shared
+ * out between the given number of (fake) candidates, so that both first launches (which create
+ * new LTI users) and repeat launches (which look up existing ones) are exercised, as happens
+ * when candidates relaunch during an exam. Launches are made concurrently using the given number
+ * of threads, and the resulting number of launches per second is reported, along with the
+ * median and 95th percentile times taken by each launch.
+ * <p>
+ * The engine is found using the base URL in {@link QtiWorksDeploymentSettings}, so this should be
+ * run against a test deployment. Each launch creates a new candidate session there.
+ *
+ * @author David McKain
+ */
+public final class LoadTestLtiLaunchesAction extends ManagerAction {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoadTestLtiLaunchesAction.class);
+
+    /** Default number of threads used to make launches */
+    private static final int DEFAULT_THREAD_COUNT = 8;
+
+    /** Default number of launches made by each fake candidate, used when the number of candidates isn't given */
+    private static final int DEFAULT_LAUNCHES_PER_USER = 4;
+
+    /** Prefix for the user_id of each fake candidate */
+    private static final String USER_ID_PREFIX = "loadtest-";
+
+    @Override
+    public String[] getActionSummary() {
+        return new String[] {
+                "Makes the given number of link-level LTI launches into the Delivery having the given did,",
+                "reporting launches per second and launch times. Optionally specify the number of candidates to share the launches",
+                "between (default 1 per " + DEFAULT_LAUNCHES_PER_USER + " launches) and the number of threads to use (default "
+                    + DEFAULT_THREAD_COUNT + ").",
+                "NB: This creates new LTI users and candidate sessions in the engine at the configured base URL."
+        };
+    }
+
+    @Override
+    public String getActionParameterSummary() {
+        return "<did> <launches> [<users> [<threads>]]";
+    }
+
+    @Override
+    public String validateParameters(final List<String> parameters) {
+        if (parameters.size()<2 || parameters.size()>4) {
+            return "Required parameters: <did> <launches> [<users> [<threads>]]";
+        }
+        for (final String parameter : parameters) {
+            try {
+                if (Long.parseLong(parameter) <= 0) {
+                    return "Parameters must be positive integers";
+                }
+            }
+            catch (final NumberFormatException e) {
+                return "Parameters must be positive integers";
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void run(final ApplicationContext applicationContext, final List<String> parameters) throws Exception {
+        final DeliveryDao deliveryDao = applicationContext.getBean(DeliveryDao.class);
+        final QtiWorksDeploymentSettings qtiWorksDeploymentSettings = applicationContext.getBean(QtiWorksDeploymentSettings.class);
+        final Long did = Long.valueOf(parameters.get(0));
+        final int launchCount = Integer.parseInt(parameters.get(1));
+        final int userCount = parameters.size()>=3
+                ? Integer.parseInt(parameters.get(2))
+                : Math.max(1, launchCount / DEFAULT_LAUNCHES_PER_USER);
+        final int threadCount = parameters.size()==4 ? Integer.parseInt(parameters.get(3)) : DEFAULT_THREAD_COUNT;
+
+        final Delivery delivery = deliveryDao.findById(did);
+        if (delivery==null) {
+            logger.warn("Could not find Delivery with did {}", did);
+            return;
+        }
+        if (!delivery.isLtiEnabled() || !delivery.isOpen()) {
+            logger.warn("Delivery {} must be open and LTI enabled in order to be launched", did);
+            return;
+        }
+        final String launchUrl = qtiWorksDeploymentSettings.getBaseUrl() + "/lti/linklaunch";
+        final String consumerKey = delivery.getId() + "X" + delivery.getLtiConsumerKeyToken();
+        final OAuthServiceProvider serviceProvider = new OAuthServiceProvider(null, null, null);
+        final OAuthConsumer consumer = new OAuthConsumer(null, consumerKey, delivery.getLtiConsumerSecret(), serviceProvider);
+        final String resourceLinkId = USER_ID_PREFIX + System.currentTimeMillis();
+
+        /* (Successful launches redirect to the session, which we don't follow) */
+        final CloseableHttpClient httpClient = LtiOauthUtilities.createLisHttpClient(threadCount, threadCount);
+        final OAuthClient client = new OAuthClient(new HttpClient4(new HttpClientPool() {
+            @Override
+            public HttpClient getHttpClient(final URL server) {
+                return httpClient;
+            }
+        }));
+        final AtomicInteger successCount = new AtomicInteger();
+        final AtomicInteger failureCount = new AtomicInteger();
+        final long[] launchDurations = new long[launchCount];
+        final ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        logger.info("Making {} LTI launch(es) for {} user(s) to {} using {} thread(s)",
+                new Object[] { launchCount, userCount, launchUrl, threadCount });
+        final long beforeTimestamp = System.currentTimeMillis();
+        try {
+            for (int i=0; i<launchCount; i++) {
+                /* (Users make their launches in turn, so that repeat launches are spread over the run) */
+                final String userId = resourceLinkId + "-" + (i % userCount);
+                final int launchIndex = i;
+                executorService.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        final long launchTimestamp = System.currentTimeMillis();
+                        final boolean successful = launch(client, new OAuthAccessor(consumer), launchUrl, resourceLinkId, userId);
+                        launchDurations[launchIndex] = System.currentTimeMillis() - launchTimestamp;
+                        if (successful) {
+                            successCount.incrementAndGet();
+                        }
+                        else {
+                            failureCount.incrementAndGet();
+                        }
+                    }
+                });
+            }
+            executorService.shutdown();
+            executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        finally {
+            executorService.shutdownNow();
+            httpClient.close();
+        }
+        final long duration = Math.max(1L, System.currentTimeMillis() - beforeTimestamp);
+        logger.info("Made {} successful launch(es) and {} failed launch(es) in {}ms, i.e. {} launches per second",
+                new Object[] { successCount.get(), failureCount.get(), duration,
+                    String.format("%.1f", Double.valueOf(1000.0 * successCount.get() / duration)) });
+
+        /* (Launch times include any failed launches) */
+        Arrays.sort(launchDurations);
+        logger.info("Launches took {}ms at the median and {}ms at the 95th percentile, with the slowest taking {}ms",
+                new Object[] { launchDurations[launchCount / 2], launchDurations[(launchCount * 95) / 100],
+                    launchDurations[launchCount - 1] });
+    }
+
+    private static boolean launch(final OAuthClient client, final OAuthAccessor accessor, final String launchUrl,
+            final String resourceLinkId, final String userId) {
+        final Map<String, String> launchParameters = new HashMap<String, String>();
+        launchParameters.put("lti_message_type", "basic-lti-launch-request");
+        launchParameters.put("lti_version", "LTI-1p0");
+        launchParameters.put("resource_link_id", resourceLinkId);
+        launchParameters.put("user_id", userId);
+        launchParameters.put("roles", "Learner");
+        launchParameters.put("lis_person_name_full", "Load Test " + userId);
+        try {
+            final OAuthMessage launchMessage = accessor.newRequestMessage("POST", launchUrl, launchParameters.entrySet());
+            final OAuthResponseMessage response = client.access(launchMessage, ParameterStyle.BODY);
+            final int statusCode = response.getHttpResponse().getStatusCode();
+            final InputStream responseBody = response.getHttpResponse().getBody();
+            if (responseBody!=null) {
+                responseBody.close();
+            }
+            if (statusCode/100 != 3) {
+                logger.warn("Launch for user {} got unexpected HTTP status code {}", userId, statusCode);
+                return false;
+            }
+            return true;
+        }
+        catch (final IOException e) {
+            logger.warn("Launch for user {} failed", userId, e);
+            return false;
+        }
+        catch (final Exception e) {
+            logger.warn("Could not create launch message for user {}", userId, e);
+            return false;
+        }
+    }
+}
@@ -87,9 +87,13 @@ public final class QtiWorksEngineManager {
         actionMap.put("exportLtiDomains", new ExportLtiDomainsAction());
         actionMap.put("runMaintenanceJobs", new RunMaintenanceJobs());
         actionMap.put("sendQueuedLtiOutcomes", new SendQueuedLtiOutcomesAction());
+        actionMap.put("warmCaches", new WarmCachesAction());
+        actionMap.put("loadTestLtiLaunches", new LoadTestLtiLaunchesAction());
+        actionMap.put("loadTestCandidateSessions", new LoadTestCandidateSessionsAction());
         actionMap.put("deleteUsers", new DeleteUsersAction());
         actionMap.put("deleteCandidateSession", new DeleteCandidateSessionAction());
         actionMap.put("deleteCandidateSessions", new DeleteCandidateSessionsAction());
+        actionMap.put("rebuildDeliveryStatistics", new RebuildDeliveryStatisticsAction());
         actionMap.put("deleteAssessment", new DeleteAssessmentAction());
         actionMap.put("deleteLtiResource", new DeleteLtiResourceAction());
         actionMap.put("deleteLtiContext", new DeleteLtiContextAction());
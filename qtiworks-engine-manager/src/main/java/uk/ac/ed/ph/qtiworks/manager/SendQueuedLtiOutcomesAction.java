@@ -33,10 +33,9 @@
  */
 package uk.ac.ed.ph.qtiworks.manager;
 
+import uk.ac.ed.ph.qtiworks.domain.DomainConstants;
 import uk.ac.ed.ph.qtiworks.services.LtiOutcomeService;
 
-import uk.ac.ed.ph.jqtiplus.internal.util.Pair;
-
 import java.util.List;
 
 import org.slf4j.Logger;
@@ -52,6 +51,9 @@ public final class SendQueuedLtiOutcomesAction extends ManagerAction {
 
     private static final Logger logger = LoggerFactory.getLogger(SendQueuedLtiOutcomesAction.class);
 
+    /** Maximum time (in ms) to wait for each run of outcomes to be sent */
+    private static final long SEND_TIMEOUT = 60 * DomainConstants.ONE_MINUTE;
+
     @Override
     public String[] getActionSummary() {
         return new String[] { "Sends all currently queued LTI outcomes back to the relevant Tool Consumers." };
@@ -60,11 +62,22 @@ public final class SendQueuedLtiOutcomesAction extends ManagerAction {
     @Override
     public void run(final ApplicationContext applicationContext, final List<String> parameters) {
         final LtiOutcomeService ltiOutcomeService = applicationContext.getBean(LtiOutcomeService.class);
-        final Pair<Integer, Integer> result = ltiOutcomeService.sendQueuedLtiOutcomes(true);
 
-        final int failureCount = result.getFirst().intValue();
-        final int sendCount = result.getSecond().intValue();
-        logger.info("Sent {} pending LTI outcome(s) back, with {} failure(s)",
-                sendCount, failureCount);
+        /* Each run only claims a limited number of outcomes for each host, so keep going until
+         * nothing more is claimed. (Outcomes that fail get new retry times, so we only ignore these
+         * on the first run to avoid sending failing outcomes over and over.)
+         */
+        int sendCount = 0;
+        int claimCount = ltiOutcomeService.sendQueuedLtiOutcomes(true);
+        while (claimCount > 0) {
+            sendCount += claimCount;
+            if (!ltiOutcomeService.awaitPendingSends(SEND_TIMEOUT)) {
+                logger.warn("Timed out waiting for LTI outcomes to be sent");
+                break;
+            }
+            claimCount = ltiOutcomeService.sendQueuedLtiOutcomes(false);
+        }
+        logger.info("Tried to send {} pending LTI outcome(s) back. Any failures have been logged above",
+                sendCount);
     }
 }
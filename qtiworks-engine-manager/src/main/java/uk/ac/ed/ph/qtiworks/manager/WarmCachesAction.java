@@ -0,0 +1,106 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTITools and MathAssessEngine.
+ * QTITools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.manager;
+
+import uk.ac.ed.ph.qtiworks.services.CacheWarmingService;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Pair;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationContext;
+
+/**
+ * Invokes {@link CacheWarmingService#warmCaches(int)}.
+ * <p>
+ * The resulting caches are discarded when the manager exits, so this is mainly useful for
+ * checking that all open deliveries can be resolved, and for timing how long the warm-up
+ * phase would take within the running engine.
+ *
+ * @author David McKain
+ */
+public final class WarmCachesAction extends ManagerAction {
+
+    private static final Logger logger = LoggerFactory.getLogger(WarmCachesAction.class);
+
+    @Override
+    public String[] getActionSummary() {
+        return new String[] {
+                "Resolves the assessments used by all open Deliveries and precompiles the rendering stylesheets,",
+                "reporting progress and timings. Optionally specify the number of threads to use."
+        };
+    }
+
+    @Override
+    public String getActionParameterSummary() {
+        return "[<threads>]";
+    }
+
+    @Override
+    public String validateParameters(final List<String> parameters) {
+        if (parameters.size() > 1) {
+            return "Optional parameter: <threads>";
+        }
+        if (parameters.size()==1) {
+            try {
+                Integer.parseInt(parameters.get(0));
+            }
+            catch (final NumberFormatException e) {
+                return "Number of threads must be an integer";
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void run(final ApplicationContext applicationContext, final List<String> parameters) {
+        final CacheWarmingService cacheWarmingService = applicationContext.getBean(CacheWarmingService.class);
+        final long beforeTimestamp = System.currentTimeMillis();
+        final Pair<Integer, Integer> result;
+        if (parameters.isEmpty()) {
+            result = cacheWarmingService.warmCaches();
+        }
+        else {
+            result = cacheWarmingService.warmCaches(Integer.parseInt(parameters.get(0)));
+        }
+        final long duration = System.currentTimeMillis() - beforeTimestamp;
+
+        final int failureCount = result.getFirst().intValue();
+        final int packageCount = result.getSecond().intValue();
+        logger.info("Warmed caches for {} package(s) in {}ms, with {} failure(s)",
+                new Object[] { packageCount, duration, failureCount });
+    }
+}
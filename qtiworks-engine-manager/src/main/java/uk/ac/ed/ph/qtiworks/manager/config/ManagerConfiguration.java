@@ -34,6 +34,7 @@
 package uk.ac.ed.ph.qtiworks.manager.config;
 
 import uk.ac.ed.ph.qtiworks.rendering.AssessmentRenderer;
+import uk.ac.ed.ph.qtiworks.web.candidate.CandidateSessionLaunchService;
 
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
@@ -58,4 +59,12 @@ public class ManagerConfiguration {
         return "/";
     }
 
+    /**
+     * (This normally lives in the webapp context, but is used here for load testing.)
+     */
+    @Bean
+    public CandidateSessionLaunchService candidateSessionLaunchService() {
+        return new CandidateSessionLaunchService();
+    }
+
 }
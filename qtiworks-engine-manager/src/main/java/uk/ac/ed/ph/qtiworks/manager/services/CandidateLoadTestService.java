@@ -0,0 +1,572 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.manager.services;
+
+import uk.ac.ed.ph.qtiworks.QtiWorksLogicException;
+import uk.ac.ed.ph.qtiworks.QtiWorksRuntimeException;
+import uk.ac.ed.ph.qtiworks.domain.DomainEntityNotFoundException;
+import uk.ac.ed.ph.qtiworks.domain.entities.AnonymousUser;
+import uk.ac.ed.ph.qtiworks.domain.entities.Assessment;
+import uk.ac.ed.ph.qtiworks.domain.entities.AssessmentPackage;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEvent;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
+import uk.ac.ed.ph.qtiworks.domain.entities.Delivery;
+import uk.ac.ed.ph.qtiworks.domain.entities.DeliveryType;
+import uk.ac.ed.ph.qtiworks.rendering.AbstractRenderingOptions;
+import uk.ac.ed.ph.qtiworks.rendering.ItemRenderingOptions;
+import uk.ac.ed.ph.qtiworks.rendering.SerializationMethod;
+import uk.ac.ed.ph.qtiworks.rendering.TestRenderingOptions;
+import uk.ac.ed.ph.qtiworks.services.CandidateDataService;
+import uk.ac.ed.ph.qtiworks.services.DataDeletionService;
+import uk.ac.ed.ph.qtiworks.services.IdentityService;
+import uk.ac.ed.ph.qtiworks.services.RequestTimestampContext;
+import uk.ac.ed.ph.qtiworks.services.candidate.CandidateException;
+import uk.ac.ed.ph.qtiworks.services.candidate.CandidateExceptionReason;
+import uk.ac.ed.ph.qtiworks.services.candidate.CandidateItemDeliveryService;
+import uk.ac.ed.ph.qtiworks.services.candidate.CandidateRenderingService;
+import uk.ac.ed.ph.qtiworks.services.candidate.CandidateTestDeliveryService;
+import uk.ac.ed.ph.qtiworks.services.dao.AnonymousUserDao;
+import uk.ac.ed.ph.qtiworks.services.dao.CandidateSessionDao;
+import uk.ac.ed.ph.qtiworks.services.dao.DeliveryDao;
+import uk.ac.ed.ph.qtiworks.services.domain.OutputStreamer;
+import uk.ac.ed.ph.qtiworks.web.candidate.CandidateSessionLaunchService;
+import uk.ac.ed.ph.qtiworks.web.candidate.CandidateSessionTicket;
+
+import uk.ac.ed.ph.jqtiplus.node.AssessmentObjectType;
+import uk.ac.ed.ph.jqtiplus.node.item.response.declaration.ResponseDeclaration;
+import uk.ac.ed.ph.jqtiplus.node.test.NavigationMode;
+import uk.ac.ed.ph.jqtiplus.running.ItemProcessingContext;
+import uk.ac.ed.ph.jqtiplus.running.ItemSessionController;
+import uk.ac.ed.ph.jqtiplus.running.TestSessionController;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNode;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNode.TestNodeType;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.types.StringResponseData;
+import uk.ac.ed.ph.jqtiplus.value.BaseType;
+import uk.ac.ed.ph.jqtiplus.value.Cardinality;
+import uk.ac.ed.ph.jqtiplus.value.ListValue;
+import uk.ac.ed.ph.jqtiplus.value.SingleValue;
+import uk.ac.ed.ph.jqtiplus.value.Value;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Resource;
+import javax.servlet.http.HttpSession;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.multipart.MultipartFile;
+
+/**
+ * Drives {@link CandidateSession}s through the candidate services on behalf of the
+ * load testing action, performing each step in its own transaction in the same way as a
+ * separate candidate request would be handled by the webapp.
+ * <p>
+ * Sessions are launched via {@link CandidateSessionLaunchService} in the same way as when
+ * a visitor launches one of the QTI samples, with each simulated candidate getting its own
+ * {@link AnonymousUser}.
+ *
+ * @see CandidateSessionLaunchService
+ * @see CandidateItemDeliveryService
+ * @see CandidateTestDeliveryService
+ * @see CandidateRenderingService
+ *
+ * @author David McKain
+ */
+@Service
+@Transactional(readOnly=false, propagation=Propagation.REQUIRED)
+public class CandidateLoadTestService {
+
+    /** Return URL passed when launching sessions, which is never followed */
+    private static final String SESSION_EXIT_RETURN_URL = "/samples";
+
+    /** Response submitted to string responses that don't declare a correct response */
+    private static final String DEFAULT_STRING_RESPONSE = "loadtest";
+
+    /** Response submitted to numeric responses that don't declare a correct response */
+    private static final String DEFAULT_NUMERIC_RESPONSE = "1";
+
+    /** Kind of step performed by {@link CandidateLoadTestService#performTestStep(long, PlannedTestStep)} */
+    public static enum TestStep {
+        RESPOND,
+        NAVIGATE,
+        FINISH,
+        EXIT,
+        ;
+    }
+
+    /** Action taken by the candidate for a {@link PlannedTestStep} */
+    private static enum TestAction {
+        EXIT_TEST(TestStep.EXIT),
+        ADVANCE_TEST_PART(TestStep.NAVIGATE),
+        RESPOND(TestStep.RESPOND),
+        FINISH_LINEAR_ITEM(TestStep.NAVIGATE),
+        SELECT_NONLINEAR_ITEM(TestStep.NAVIGATE),
+        END_TEST_PART(TestStep.FINISH),
+        ;
+
+        private final TestStep testStep;
+
+        private TestAction(final TestStep testStep) {
+            this.testStep = testStep;
+        }
+    }
+
+    /**
+     * Next step to be taken through a test session, as decided by
+     * {@link CandidateLoadTestService#planNextTestStep(long, Set)}.
+     */
+    public static final class PlannedTestStep {
+
+        private final TestAction testAction;
+        private final TestPlanNodeKey itemKey;
+        private final Map<Identifier, StringResponseData> responses;
+
+        private PlannedTestStep(final TestAction testAction) {
+            this(testAction, null, null);
+        }
+
+        private PlannedTestStep(final TestAction testAction, final TestPlanNodeKey itemKey,
+                final Map<Identifier, StringResponseData> responses) {
+            this.testAction = testAction;
+            this.itemKey = itemKey;
+            this.responses = responses;
+        }
+
+        public TestStep getTestStep() {
+            return testAction.testStep;
+        }
+    }
+
+    @Resource
+    private IdentityService identityService;
+
+    @Resource
+    private RequestTimestampContext requestTimestampContext;
+
+    @Resource
+    private CandidateDataService candidateDataService;
+
+    @Resource
+    private DataDeletionService dataDeletionService;
+
+    @Resource
+    private CandidateSessionLaunchService candidateSessionLaunchService;
+
+    @Resource
+    private CandidateItemDeliveryService candidateItemDeliveryService;
+
+    @Resource
+    private CandidateTestDeliveryService candidateTestDeliveryService;
+
+    @Resource
+    private CandidateRenderingService candidateRenderingService;
+
+    @Resource
+    private AnonymousUserDao anonymousUserDao;
+
+    @Resource
+    private CandidateSessionDao candidateSessionDao;
+
+    @Resource
+    private DeliveryDao deliveryDao;
+
+    //-------------------------------------------------
+
+    /**
+     * Returns the aids of the imported QTI samples that have open system demo
+     * {@link Delivery Deliveries} and valid {@link AssessmentPackage}s.
+     */
+    public List<Long> getSampleAssessmentIds() {
+        final List<Long> result = new ArrayList<Long>();
+        for (final Delivery delivery : deliveryDao.getOpenWithAssessment()) {
+            final Assessment assessment = delivery.getAssessment();
+            if (delivery.getDeliveryType()==DeliveryType.SYSTEM_DEMO && assessment.getSampleCategory()!=null) {
+                final AssessmentPackage assessmentPackage = assessment.getSelectedAssessmentPackage();
+                if (assessmentPackage!=null && assessmentPackage.isValid()) {
+                    result.add(assessment.getId());
+                }
+            }
+        }
+        return result;
+    }
+
+    //-------------------------------------------------
+
+    /**
+     * Launches a new {@link CandidateSession} on the QTI sample {@link Assessment} having the
+     * given aid, in the same way as a visitor to the samples page does. A new {@link AnonymousUser}
+     * is created to act as the candidate, and is set up as the current user for the calling
+     * Thread, which should then be used to make the remaining calls for this session.
+     *
+     * @return ticket for the new session, containing its xid and the uid of its candidate
+     */
+    public CandidateSessionTicket launchCandidateSession(final long aid)
+            throws DomainEntityNotFoundException, CandidateException {
+        startRequest();
+        final HttpSession httpSession = new LoadTestHttpSession();
+        final AnonymousUser candidate = new AnonymousUser();
+        candidate.setFirstName("Load Test User");
+        candidate.setLastName(httpSession.getId());
+        candidate.setSessionId(httpSession.getId());
+        anonymousUserDao.persist(candidate);
+        identityService.setCurrentThreadUser(candidate);
+        return candidateSessionLaunchService.launchSystemSampleSession(httpSession, aid, SESSION_EXIT_RETURN_URL);
+    }
+
+    public boolean isTestSession(final long xid) {
+        return lookupCandidateSession(xid).getDelivery().getAssessment().getAssessmentType()==AssessmentObjectType.ASSESSMENT_TEST;
+    }
+
+    public void enterCandidateSession(final long xid) throws CandidateException {
+        final CandidateSession candidateSession = startRequest(xid);
+        if (isTestSession(candidateSession)) {
+            candidateTestDeliveryService.enterOrReenterCandidateSession(candidateSession);
+        }
+        else {
+            candidateItemDeliveryService.enterOrReenterCandidateSession(candidateSession);
+        }
+        assertNotExploded(candidateSession);
+    }
+
+    public void renderCandidateSession(final long xid) throws CandidateException, IOException {
+        final CandidateSession candidateSession = startRequest(xid);
+        final String sessionBaseUrl = "/candidate/session/" + xid;
+        final OutputStreamer outputStreamer = new OutputStreamer() {
+            @Override
+            public void stream(final String contentType, final long contentLength, final Date lastModifiedTime,
+                    final InputStream resultStream) throws IOException {
+                final byte[] buffer = new byte[8192];
+                while (resultStream.read(buffer)!=-1) {
+                    /* Discard rendering */
+                }
+            }
+        };
+        if (isTestSession(candidateSession)) {
+            final TestRenderingOptions renderingOptions = new TestRenderingOptions();
+            configureBaseRenderingOptions(sessionBaseUrl, renderingOptions);
+            renderingOptions.setTestPartNavigationUrl(sessionBaseUrl + "/test-part-navigation");
+            renderingOptions.setSelectTestItemUrl(sessionBaseUrl + "/select-item");
+            renderingOptions.setAdvanceTestItemUrl(sessionBaseUrl + "/finish-item");
+            renderingOptions.setReviewTestPartUrl(sessionBaseUrl + "/review-test-part");
+            renderingOptions.setReviewTestItemUrl(sessionBaseUrl + "/review-item");
+            renderingOptions.setShowTestItemSolutionUrl(sessionBaseUrl + "/item-solution");
+            renderingOptions.setEndTestPartUrl(sessionBaseUrl + "/end-test-part");
+            renderingOptions.setAdvanceTestPartUrl(sessionBaseUrl + "/advance-test-part");
+            renderingOptions.setExitTestUrl(sessionBaseUrl + "/exit-test");
+            candidateRenderingService.renderCurrentCandidateTestSessionState(candidateSession, renderingOptions, outputStreamer);
+        }
+        else {
+            final ItemRenderingOptions renderingOptions = new ItemRenderingOptions();
+            configureBaseRenderingOptions(sessionBaseUrl, renderingOptions);
+            renderingOptions.setEndUrl(sessionBaseUrl + "/close");
+            renderingOptions.setSolutionUrl(sessionBaseUrl + "/solution");
+            renderingOptions.setSoftResetUrl(sessionBaseUrl + "/reset-soft");
+            renderingOptions.setHardResetUrl(sessionBaseUrl + "/reset-hard");
+            renderingOptions.setExitUrl(sessionBaseUrl + "/exit");
+            candidateRenderingService.renderCurrentCandidateItemSessionState(candidateSession, renderingOptions, outputStreamer);
+        }
+    }
+
+    private void configureBaseRenderingOptions(final String sessionBaseUrl, final AbstractRenderingOptions renderingOptions) {
+        renderingOptions.setSessionExitReturnUrl(sessionBaseUrl + "/return");
+        renderingOptions.setSerializationMethod(SerializationMethod.HTML5_MATHJAX);
+        renderingOptions.setSourceUrl(sessionBaseUrl + "/source");
+        renderingOptions.setStateUrl(sessionBaseUrl + "/state");
+        renderingOptions.setResultUrl(sessionBaseUrl + "/result");
+        renderingOptions.setValidationUrl(sessionBaseUrl + "/validation");
+        renderingOptions.setServeFileUrl(sessionBaseUrl + "/file");
+        renderingOptions.setAuthorViewUrl(sessionBaseUrl + "/author-view");
+        renderingOptions.setResponseUrl(sessionBaseUrl + "/response");
+    }
+
+    //-------------------------------------------------
+    // Items
+
+    /**
+     * Creates the responses that a candidate would submit to the given item session, using
+     * {@link #createResponses(ItemProcessingContext)}. This is done separately from
+     * {@link #submitItemResponses(long, Map)} so that the load test doesn't time our own
+     * reading of the session state.
+     *
+     * @return responses to submit, or null if the item has already ended
+     */
+    public Map<Identifier, StringResponseData> createItemResponses(final long xid) {
+        final CandidateSession candidateSession = lookupCandidateSession(xid);
+        final ItemSessionController itemSessionController = createItemSessionController(candidateSession);
+        if (itemSessionController.getItemSessionState().isEnded()) {
+            return null;
+        }
+        return createResponses(itemSessionController);
+    }
+
+    /**
+     * Submits the given responses to the given item session. This runs response processing
+     * as normal.
+     *
+     * @see #createItemResponses(long)
+     */
+    public void submitItemResponses(final long xid, final Map<Identifier, StringResponseData> responses)
+            throws CandidateException {
+        final CandidateSession candidateSession = startRequest(xid);
+        candidateItemDeliveryService.handleResponses(candidateSession, responses,
+                Collections.<Identifier, MultipartFile>emptyMap(), null);
+        assertNotExploded(candidateSession);
+    }
+
+    /** Returns whether the given item session has ended */
+    public boolean isItemSessionEnded(final long xid) {
+        final CandidateSession candidateSession = lookupCandidateSession(xid);
+        return createItemSessionController(candidateSession).getItemSessionState().isEnded();
+    }
+
+    /**
+     * Ends the given item session.
+     *
+     * @see #isItemSessionEnded(long)
+     */
+    public void endItemSession(final long xid) throws CandidateException {
+        final CandidateSession candidateSession = startRequest(xid);
+        candidateItemDeliveryService.endCandidateSession(candidateSession);
+        assertNotExploded(candidateSession);
+    }
+
+    public void exitItemSession(final long xid) throws CandidateException {
+        final CandidateSession candidateSession = startRequest(xid);
+        candidateItemDeliveryService.exitCandidateSession(candidateSession);
+        assertNotExploded(candidateSession);
+    }
+
+    private ItemSessionController createItemSessionController(final CandidateSession candidateSession) {
+        final CandidateEvent mostRecentEvent = candidateDataService.getMostRecentEvent(candidateSession);
+        return candidateDataService.createItemSessionController(mostRecentEvent, null);
+    }
+
+    //-------------------------------------------------
+    // Tests
+
+    /**
+     * Decides the next step a candidate would take through the given test session, in the
+     * same way that a (rather predictable) candidate might. Each item is selected in turn,
+     * and responses are submitted to it using {@link #createResponses(ItemProcessingContext)}. Once there's nothing else to do,
+     * the current test part is ended and the next one entered. Finally, the test is exited.
+     * <p>
+     * The step is then performed by {@link #performTestStep(long, PlannedTestStep)}. This is
+     * kept separate so that the load test doesn't time our own reading of the session state.
+     *
+     * @param xid xid of the test session
+     * @param visitedItemKeys keys of the items that have been visited already, which will be
+     *   updated by this method
+     *
+     * @return step to be performed, or null if the test session has already been exited
+     */
+    public PlannedTestStep planNextTestStep(final long xid, final Set<TestPlanNodeKey> visitedItemKeys) {
+        final CandidateSession candidateSession = lookupCandidateSession(xid);
+        if (candidateSession.isTerminated()) {
+            return null;
+        }
+        final CandidateEvent mostRecentEvent = candidateDataService.getMostRecentEvent(candidateSession);
+        final TestSessionController testSessionController = candidateDataService.createTestSessionController(mostRecentEvent, null);
+        final TestSessionState testSessionState = testSessionController.getTestSessionState();
+        if (testSessionState.isEnded()) {
+            return new PlannedTestStep(TestAction.EXIT_TEST);
+        }
+        final TestPlanNodeKey currentTestPartKey = testSessionState.getCurrentTestPartKey();
+        final TestPlanNodeKey currentItemKey = testSessionState.getCurrentItemKey();
+        if (currentTestPartKey==null || testSessionState.getTestPartSessionStates().get(currentTestPartKey).isEnded()) {
+            return new PlannedTestStep(TestAction.ADVANCE_TEST_PART);
+        }
+        if (currentItemKey!=null && visitedItemKeys.add(currentItemKey)
+                && testSessionController.maySubmitResponsesToCurrentItem()) {
+            final TestPlanNode currentItemRefNode = testSessionState.getTestPlan().getNode(currentItemKey);
+            return new PlannedTestStep(TestAction.RESPOND, currentItemKey,
+                    createResponses(testSessionController.getItemProcessingContext(currentItemRefNode)));
+        }
+        if (testSessionController.getCurrentTestPart().getNavigationMode()==NavigationMode.LINEAR) {
+            return new PlannedTestStep(testSessionController.mayAdvanceItemLinear()
+                    ? TestAction.FINISH_LINEAR_ITEM : TestAction.END_TEST_PART);
+        }
+        final TestPlanNode currentTestPartNode = testSessionState.getTestPlan().getNode(currentTestPartKey);
+        for (final TestPlanNode itemRefNode : currentTestPartNode.searchDescendants(TestNodeType.ASSESSMENT_ITEM_REF)) {
+            final TestPlanNodeKey itemKey = itemRefNode.getKey();
+            if (!visitedItemKeys.contains(itemKey) && testSessionController.maySelectItemNonlinear(itemKey)) {
+                return new PlannedTestStep(TestAction.SELECT_NONLINEAR_ITEM, itemKey, null);
+            }
+        }
+        return new PlannedTestStep(TestAction.END_TEST_PART);
+    }
+
+    /**
+     * Performs the given step, as decided by {@link #planNextTestStep(long, Set)}, on the
+     * given test session.
+     *
+     * @return kind of step that was performed
+     */
+    public TestStep performTestStep(final long xid, final PlannedTestStep plannedTestStep)
+            throws CandidateException {
+        final CandidateSession candidateSession = startRequest(xid);
+        switch (plannedTestStep.testAction) {
+            case EXIT_TEST:
+                candidateTestDeliveryService.exitTest(candidateSession);
+                break;
+
+            case ADVANCE_TEST_PART:
+                candidateTestDeliveryService.advanceTestPart(candidateSession);
+                break;
+
+            case RESPOND:
+                candidateTestDeliveryService.handleResponses(candidateSession, plannedTestStep.responses,
+                        Collections.<Identifier, MultipartFile>emptyMap(), null);
+                break;
+
+            case FINISH_LINEAR_ITEM:
+                candidateTestDeliveryService.finishLinearItem(candidateSession);
+                break;
+
+            case SELECT_NONLINEAR_ITEM:
+                candidateTestDeliveryService.selectNonlinearItem(candidateSession, plannedTestStep.itemKey);
+                break;
+
+            case END_TEST_PART:
+                candidateTestDeliveryService.endCurrentTestPart(candidateSession);
+                break;
+
+            default:
+                throw new QtiWorksLogicException("Unexpected switch case " + plannedTestStep.testAction);
+        }
+        assertNotExploded(candidateSession);
+        return plannedTestStep.getTestStep();
+    }
+
+    //-------------------------------------------------
+
+    /**
+     * Creates responses for the item having the given {@link ItemProcessingContext}. The
+     * correct response is used for each response variable that declares one. Otherwise a fixed
+     * string or number is used for single string or numeric responses, and other responses are
+     * left out.
+     */
+    private static Map<Identifier, StringResponseData> createResponses(final ItemProcessingContext itemProcessingContext) {
+        final Map<Identifier, StringResponseData> result = new HashMap<Identifier, StringResponseData>();
+        for (final ResponseDeclaration responseDeclaration : itemProcessingContext.getSubjectItem().getResponseDeclarations()) {
+            final Identifier responseIdentifier = responseDeclaration.getIdentifier();
+            final Value correctResponse = itemProcessingContext.computeCorrectResponse(responseIdentifier);
+            final List<String> responseStrings = new ArrayList<String>();
+            if (correctResponse instanceof SingleValue) {
+                responseStrings.add(correctResponse.toQtiString());
+            }
+            else if (correctResponse instanceof ListValue) {
+                for (final SingleValue value : (ListValue) correctResponse) {
+                    responseStrings.add(value.toQtiString());
+                }
+            }
+            else if (responseDeclaration.getCardinality()==Cardinality.SINGLE) {
+                final BaseType baseType = responseDeclaration.getBaseType();
+                if (baseType==BaseType.STRING) {
+                    responseStrings.add(DEFAULT_STRING_RESPONSE);
+                }
+                else if (baseType==BaseType.INTEGER || baseType==BaseType.FLOAT) {
+                    responseStrings.add(DEFAULT_NUMERIC_RESPONSE);
+                }
+            }
+            if (!responseStrings.isEmpty()) {
+                result.put(responseIdentifier, new StringResponseData(responseStrings));
+            }
+        }
+        return result;
+    }
+
+    //-------------------------------------------------
+
+    /**
+     * Deletes the {@link AnonymousUser}s having the given uids, along with their
+     * {@link CandidateSession}s. Returns the number of users deleted.
+     */
+    public int deleteCandidates(final List<Long> uids) {
+        int deletedCount = 0;
+        for (final Long uid : uids) {
+            final AnonymousUser candidate = anonymousUserDao.findById(uid);
+            if (candidate!=null) {
+                dataDeletionService.deleteUser(candidate);
+                ++deletedCount;
+            }
+        }
+        return deletedCount;
+    }
+
+    //-------------------------------------------------
+
+    /** Sets up a new request timestamp, as the webapp does for each incoming request */
+    private void startRequest() {
+        requestTimestampContext.setCurrentRequestTimestamp(new Date());
+    }
+
+    private CandidateSession startRequest(final long xid) {
+        startRequest();
+        return lookupCandidateSession(xid);
+    }
+
+    private CandidateSession lookupCandidateSession(final long xid) {
+        final CandidateSession candidateSession = candidateSessionDao.findById(xid);
+        if (candidateSession==null) {
+            throw new QtiWorksRuntimeException("Could not find CandidateSession with xid " + xid);
+        }
+        return candidateSession;
+    }
+
+    private boolean isTestSession(final CandidateSession candidateSession) {
+        return candidateSession.getDelivery().getAssessment().getAssessmentType()==AssessmentObjectType.ASSESSMENT_TEST;
+    }
+
+    /**
+     * Fails the current step if it caused the session to explode. (This is a checked Exception
+     * so that the explosion still gets recorded.)
+     */
+    private void assertNotExploded(final CandidateSession candidateSession) throws CandidateException {
+        if (candidateSession.isExploded()) {
+            throw new CandidateException(candidateSession, CandidateExceptionReason.SESSION_IS_TERMINATED);
+        }
+    }
+}
@@ -46,6 +46,7 @@ import uk.ac.ed.ph.qtiworks.domain.entities.User;
 import uk.ac.ed.ph.qtiworks.domain.entities.UserRole;
 import uk.ac.ed.ph.qtiworks.services.AssessmentDataService;
 import uk.ac.ed.ph.qtiworks.services.DataDeletionService;
+import uk.ac.ed.ph.qtiworks.services.DeliveryStatisticsService;
 import uk.ac.ed.ph.qtiworks.services.ServiceUtilities;
 import uk.ac.ed.ph.qtiworks.services.dao.AssessmentDao;
 import uk.ac.ed.ph.qtiworks.services.dao.CandidateSessionDao;
@@ -88,6 +89,9 @@ public class ManagerServices {
     @Resource
     private DataDeletionService dataDeletionService;
 
+    @Resource
+    private DeliveryStatisticsService deliveryStatisticsService;
+
     @Resource
     private AssessmentDataService assessmentDataService;
 
@@ -317,6 +321,16 @@ public class ManagerServices {
         return dataDeletionService.deleteCandidateSessions(delivery);
     }
 
+    public boolean rebuildDeliveryStatistics(final Long did) {
+        final Delivery delivery = deliveryDao.findById(did);
+        if (delivery==null) {
+            logger.warn("Could not find Delivery with ID {}", did);
+            return false;
+        }
+        deliveryStatisticsService.rebuildStatistics(delivery);
+        return true;
+    }
+
     public boolean deleteAssessment(final Long aid) {
         final Assessment assessment = assessmentDao.findById(aid);
         if (assessment==null) {
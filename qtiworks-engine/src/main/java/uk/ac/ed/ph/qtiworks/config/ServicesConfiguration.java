@@ -43,7 +43,7 @@ import uk.ac.ed.ph.jqtiplus.reading.QtiXmlReader;
 import uk.ac.ed.ph.jqtiplus.serialization.QtiSerializer;
 import uk.ac.ed.ph.jqtiplus.xmlutils.SchemaCache;
 import uk.ac.ed.ph.jqtiplus.xmlutils.SimpleSchemaCache;
-import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.SimpleXsltStylesheetCache;
+import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.ConcurrentXsltStylesheetCache;
 import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.XsltStylesheetCache;
 
 import java.util.ArrayList;
@@ -112,6 +112,9 @@ public class ServicesConfiguration {
         final Properties jpaProperties = new Properties();
         jpaProperties.put("hibernate.dialect", qtiWorksDeploymentSettings.getHibernateDialect());
         jpaProperties.put("hibernate.id.new_generator_mappings", Boolean.TRUE);
+        jpaProperties.put("hibernate.jdbc.batch_size", "20");
+        jpaProperties.put("hibernate.order_inserts", Boolean.TRUE);
+        jpaProperties.put("hibernate.order_updates", Boolean.TRUE);
         jpaProperties.putAll(extraJpaProperties);
         return jpaProperties;
     }
@@ -153,7 +156,7 @@ public class ServicesConfiguration {
 
     @Bean
     public XsltStylesheetCache xsltStylesheetCache() {
-        return new SimpleXsltStylesheetCache();
+        return new ConcurrentXsltStylesheetCache();
     }
 
     @Bean(initMethod="init", destroyMethod="destroy")
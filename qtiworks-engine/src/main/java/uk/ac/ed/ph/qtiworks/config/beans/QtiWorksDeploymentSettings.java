@@ -59,16 +59,29 @@ public final class QtiWorksDeploymentSettings implements Serializable {
     private @Value("${qtiworks.jdbc.username}") String jdbcUsername;
     private @Value("${qtiworks.jdbc.password}") String jdbcPassword;
     private @Value("${qtiworks.filesystem.base}") String filesystemBase;
+    private @Value("${qtiworks.filesystem.binarystate:false}") boolean binaryStateStorage; /* (Optional - default false) */
+    private @Value("${qtiworks.filesystem.binarystate.checkpoint.interval:0}") int stateCheckpointInterval; /* (Optional - default 0, i.e. no deltas) */
+    private @Value("${qtiworks.filesystem.results.write.delay:0}") long resultWriteDelay; /* (Optional - default 0, i.e. write immediately) */
     private @Value("${qtiworks.extensions.mathassess:false}") boolean enableMathAssessExtension;
     private @Value("${qtiworks.hibernate.dialect}") String hibernateDialect;
     private @Value("${qtiworks.admin.name}") String adminName;
     private @Value("${qtiworks.admin.email}") String adminEmailAddress;
     private @Value("${qtiworks.base.url}") String baseUrl;
     private @Value("${qtiworks.privacy.policy.url}") String privacyPolicyUrl;
+    private @Value("${qtiworks.reports.zip.stored:false}") boolean storeReportZipEntries; /* (Optional - default false) */
     private @Value("${qtiworks.web.authn.fake.login:}") String fakeLoginName; /* (Optional - default null) */
     private @Value("${qtiworks.features.publicdemos:false}") boolean publicDemosEnabled; /* (Optional - default false) */
     private @Value("${qtiworks.features.rest:false}") boolean restEnabled; /* (Optional - default false) */
     private @Value("${qtiworks.retention.max.candidatesession.age:180}") int maxCandidateSessionAge; /* (Optional - default 180 days) */
+    private @Value("${qtiworks.cache.processingmaps.max.entries:64}") int processingMapCacheMaxEntries; /* (Optional - default 64) */
+    private @Value("${qtiworks.cache.processingmaps.max.weight:0}") long processingMapCacheMaxWeight; /* (Optional - default 0, i.e. use entries. Estimated heap size in KB) */
+    private @Value("${qtiworks.cache.statedeltas.max.entries:1000}") int stateDeltaCacheMaxEntries; /* (Optional - default 1000) */
+    private @Value("${qtiworks.cache.candidatestates.max.entries:1000}") int candidateStateCacheMaxEntries; /* (Optional - default 1000) */
+    private @Value("${qtiworks.cache.renderedpages.max.weight:0}") long renderedPageCacheMaxWeight; /* (Optional - default 0, i.e. disabled) */
+    private @Value("${qtiworks.cache.ltinonces.persist:true}") boolean persistLtiNonces; /* (Optional - default true) */
+    private @Value("${qtiworks.startup.warmcaches:false}") boolean warmCachesOnStartup; /* (Optional - default false) */
+    private @Value("${qtiworks.startup.warmcaches.threads:0}") int cacheWarmingThreadCount; /* (Optional - default 0, i.e. number of CPUs) */
+    private @Value("${qtiworks.resolution.threads:1}") int resolutionThreadCount; /* (Optional - default 1, i.e. resolve items one at a time) */
 
 
     public String getJdbcDriverClassName() {
@@ -103,6 +116,18 @@ public final class QtiWorksDeploymentSettings implements Serializable {
         return filesystemBase;
     }
 
+    public boolean isBinaryStateStorage() {
+        return binaryStateStorage;
+    }
+
+    public int getStateCheckpointInterval() {
+        return stateCheckpointInterval;
+    }
+
+    public long getResultWriteDelay() {
+        return resultWriteDelay;
+    }
+
     public String getBaseUrl() {
         return baseUrl;
     }
@@ -115,6 +140,10 @@ public final class QtiWorksDeploymentSettings implements Serializable {
         return enableMathAssessExtension;
     }
 
+    public boolean isStoreReportZipEntries() {
+        return storeReportZipEntries;
+    }
+
     public String getFakeLoginName() {
         return fakeLoginName;
     }
@@ -131,6 +160,42 @@ public final class QtiWorksDeploymentSettings implements Serializable {
         return maxCandidateSessionAge;
     }
 
+    public int getProcessingMapCacheMaxEntries() {
+        return processingMapCacheMaxEntries;
+    }
+
+    public long getProcessingMapCacheMaxWeight() {
+        return processingMapCacheMaxWeight;
+    }
+
+    public int getStateDeltaCacheMaxEntries() {
+        return stateDeltaCacheMaxEntries;
+    }
+
+    public int getCandidateStateCacheMaxEntries() {
+        return candidateStateCacheMaxEntries;
+    }
+
+    public long getRenderedPageCacheMaxWeight() {
+        return renderedPageCacheMaxWeight;
+    }
+
+    public boolean isPersistLtiNonces() {
+        return persistLtiNonces;
+    }
+
+    public boolean isWarmCachesOnStartup() {
+        return warmCachesOnStartup;
+    }
+
+    public int getCacheWarmingThreadCount() {
+        return cacheWarmingThreadCount;
+    }
+
+    public int getResolutionThreadCount() {
+        return resolutionThreadCount;
+    }
+
     @Override
     public String toString() {
         return ObjectUtilities.beanToString(this);
@@ -121,6 +121,27 @@ import org.hibernate.annotations.Type;
                 + "  FROM CandidateSession x"
                 + "  WHERE x.delivery = :delivery"
                 + "  ORDER BY x.id"),
+    @NamedQuery(name="CandidateSession.getIdsForDelivery",
+            query="SELECT x.id"
+                + "  FROM CandidateSession x"
+                + "  WHERE x.delivery = :delivery"),
+    @NamedQuery(name="CandidateSession.getReportableForDeliveryAfter",
+            query="SELECT x"
+                + "  FROM CandidateSession x"
+                + "  WHERE x.delivery = :delivery"
+                + "  AND x.id > :afterXid"
+                + "  AND x.exploded = false"
+                + "  AND (x.finishTime IS NOT NULL OR x.terminationTime IS NOT NULL)"
+                + "  ORDER BY x.id"),
+    @NamedQuery(name="CandidateSession.getSummaryDataForDeliveryAfter",
+            query="SELECT x.id, x.creationTime, c.firstName, c.lastName, c.emailAddress,"
+                + "    x.finishTime, x.terminationTime, x.exploded, x.lisOutcomeReportingStatus, x.lisScore"
+                + "  FROM CandidateSession x"
+                + "  JOIN x.candidate c"
+                + "  WHERE x.delivery = :delivery"
+                + "  AND x.id > :afterXid"
+                + "  AND EXISTS (SELECT xo FROM CandidateSessionOutcome xo WHERE xo.candidateSession = x)"
+                + "  ORDER BY x.id"),
     @NamedQuery(name="CandidateSession.getNonTerminatedForDeliveryAndCandidate",
             query="SELECT x"
                 + "  FROM CandidateSession x"
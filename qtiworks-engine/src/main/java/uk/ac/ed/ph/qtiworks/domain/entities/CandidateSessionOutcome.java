@@ -77,6 +77,27 @@ import org.hibernate.annotations.Type;
                 + "  FROM CandidateSessionOutcome xo"
                 + "  WHERE xo.candidateSession.delivery = :delivery"
                 + "  ORDER BY xo.candidateSession.xid, xo.id"),
+    @NamedQuery(name="CandidateSessionOutcome.getIdentifiersForDelivery",
+            query="SELECT xo.outcomeIdentifier, xo.baseType, xo.cardinality"
+                + "  FROM CandidateSessionOutcome xo"
+                + "  WHERE xo.candidateSession.delivery = :delivery"
+                + "  GROUP BY xo.outcomeIdentifier, xo.baseType, xo.cardinality"
+                + "  ORDER BY MIN(xo.id)"),
+    @NamedQuery(name="CandidateSessionOutcome.getValuesForDeliveryBetween",
+            query="SELECT xo.candidateSession.xid, xo.outcomeIdentifier, xo.baseType, xo.cardinality, xo.stringValue"
+                + "  FROM CandidateSessionOutcome xo"
+                + "  WHERE xo.candidateSession.delivery = :delivery"
+                + "  AND xo.candidateSession.xid BETWEEN :firstXid AND :lastXid"
+                + "  ORDER BY xo.candidateSession.xid, xo.id"),
+    @NamedQuery(name="CandidateSessionOutcome.getNumericValuesForFinishedSessions",
+            query="SELECT x, xo.outcomeIdentifier, xo.stringValue"
+                + "  FROM CandidateSessionOutcome xo"
+                + "  JOIN xo.candidateSession x"
+                + "  WHERE x.delivery = :delivery"
+                + "  AND x.finishTime IS NOT NULL"
+                + "  AND xo.cardinality = :cardinality"
+                + "  AND xo.baseType IN (:baseTypes)"
+                + "  ORDER BY x.xid, xo.id"),
     @NamedQuery(name="CandidateSessionOutcome.deleteForSession",
             query="DELETE FROM CandidateSessionOutcome xo"
                 + "  WHERE xo.candidateSession = :candidateSession"),
@@ -110,13 +131,13 @@ public class CandidateSessionOutcome implements BaseEntity {
 
     /** QTI {@link BaseType} of this variable */
     @Basic(optional=true)
-    @Column(name="base_type", updatable=false, length=14)
+    @Column(name="base_type", length=14)
     @Enumerated(EnumType.STRING)
     private BaseType baseType;
 
     /** QTI {@link Cardinality} of this variable */
     @Basic(optional=false)
-    @Column(name="cardinality", updatable=false, length=8)
+    @Column(name="cardinality", length=8)
     @Enumerated(EnumType.STRING)
     private Cardinality cardinality;
 
@@ -124,7 +145,7 @@ public class CandidateSessionOutcome implements BaseEntity {
     @Lob
     @Type(type="org.hibernate.type.TextType")
     @Basic(optional=false)
-    @Column(name="string_value", updatable=false)
+    @Column(name="string_value")
     private String stringValue;
 
     //------------------------------------------------------------
@@ -105,6 +105,12 @@ import org.hibernate.annotations.Type;
             query="SELECT COUNT(*)"
                 + "  FROM Delivery d"
                 + "  WHERE d.deliverySettings = :deliverySettings"),
+    @NamedQuery(name="Delivery.getOpenWithAssessment",
+            query="SELECT d"
+                + "  FROM Delivery d"
+                + "  WHERE d.open = :open"
+                + "    AND d.assessment IS NOT NULL"
+                + "  ORDER BY d.id"),
     @NamedQuery(name="Delivery.getForTypeCreatedBefore",
             query="SELECT d"
                 + "  FROM Delivery d"
@@ -0,0 +1,179 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.domain.entities;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.BeanToStringOptions;
+import uk.ac.ed.ph.jqtiplus.internal.util.PropertyOptions;
+
+import javax.persistence.Basic;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+
+/**
+ * Records the value of a numeric outcome variable for a finished {@link CandidateSession}.
+ * The {@link DeliveryOutcomeStatistics} for each outcome of a {@link Delivery} are computed from
+ * these. Each session only ever inserts and deletes its own contributions, so recording these
+ * doesn't contend with other sessions finishing on the same {@link Delivery}.
+ * <p>
+ * Developer note: The ID of a {@link DeliveryOutcomeContribution} is generally referred to as a
+ * <code>docid</code> in the code. This is also used as the name of the primary key column
+ * in the database mappings.
+ *
+ * @author David McKain
+ */
+@Entity
+@Table(name="delivery_outcome_contributions",
+    indexes={
+        @Index(name="delivery_outcome_contribution_outcomes", columnList="did,outcome_identifier"),
+        @Index(name="delivery_outcome_contribution_sessions", columnList="xid")
+    }
+)
+@SequenceGenerator(name="deliveryOutcomeContributionSequence", sequenceName="delivery_outcome_contribution_sequence", initialValue=1, allocationSize=10)
+@NamedQueries({
+    @NamedQuery(name="DeliveryOutcomeContribution.getForCandidateSession",
+            query="SELECT doc"
+                + "  FROM DeliveryOutcomeContribution doc"
+                + "  WHERE doc.candidateSession = :candidateSession"
+                + "  ORDER BY doc.id"),
+    @NamedQuery(name="DeliveryOutcomeContribution.getSummaryForOutcome",
+            query="SELECT COUNT(doc), SUM(doc.value), SUM(doc.value * doc.value), MIN(doc.value), MAX(doc.value)"
+                + "  FROM DeliveryOutcomeContribution doc"
+                + "  WHERE doc.delivery = :delivery"
+                + "    AND doc.outcomeIdentifier = :outcomeIdentifier"),
+    @NamedQuery(name="DeliveryOutcomeContribution.deleteForCandidateSession",
+            query="DELETE FROM DeliveryOutcomeContribution doc"
+                + "  WHERE doc.candidateSession = :candidateSession"),
+    @NamedQuery(name="DeliveryOutcomeContribution.deleteForDelivery",
+            query="DELETE FROM DeliveryOutcomeContribution doc"
+                + "  WHERE doc.delivery = :delivery"),
+})
+public class DeliveryOutcomeContribution implements BaseEntity {
+
+    private static final long serialVersionUID = 2297006517384629436L;
+
+    @Id
+    @GeneratedValue(generator="deliveryOutcomeContributionSequence")
+    @Column(name="docid")
+    private Long docid;
+
+    /** {@link Delivery} of the {@link CandidateSession} that contributed this value */
+    @ManyToOne(optional=false)
+    @JoinColumn(name="did", updatable=false)
+    private Delivery delivery;
+
+    /** Identifier of the outcome variable this is a value of */
+    @Basic(optional=false)
+    @Column(name="outcome_identifier", updatable=false, length=256)
+    private String outcomeIdentifier;
+
+    /** {@link CandidateSession} that contributed this value */
+    @ManyToOne(optional=false)
+    @JoinColumn(name="xid", updatable=false)
+    private CandidateSession candidateSession;
+
+    /** Value contributed */
+    @Basic(optional=false)
+    @Column(name="contributed_value", updatable=false)
+    private double value;
+
+    //------------------------------------------------------------
+
+    @Override
+    public Long getId() {
+        return docid;
+    }
+
+    @Override
+    public void setId(final Long id) {
+        this.docid = id;
+    }
+
+
+    @BeanToStringOptions(PropertyOptions.IGNORE_PROPERTY)
+    public Delivery getDelivery() {
+        return delivery;
+    }
+
+    public void setDelivery(final Delivery delivery) {
+        this.delivery = delivery;
+    }
+
+
+    public String getOutcomeIdentifier() {
+        return outcomeIdentifier;
+    }
+
+    public void setOutcomeIdentifier(final String outcomeIdentifier) {
+        this.outcomeIdentifier = outcomeIdentifier;
+    }
+
+
+    @BeanToStringOptions(PropertyOptions.IGNORE_PROPERTY)
+    public CandidateSession getCandidateSession() {
+        return candidateSession;
+    }
+
+    public void setCandidateSession(final CandidateSession candidateSession) {
+        this.candidateSession = candidateSession;
+    }
+
+
+    public double getValue() {
+        return value;
+    }
+
+    public void setValue(final double value) {
+        this.value = value;
+    }
+
+    //------------------------------------------------------------
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
+                + "(docid=" + docid
+                + ",outcomeIdentifier=" + outcomeIdentifier
+                + ",value=" + value
+                + ")";
+    }
+}
@@ -0,0 +1,232 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.domain.entities;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.BeanToStringOptions;
+import uk.ac.ed.ph.jqtiplus.internal.util.PropertyOptions;
+
+import javax.persistence.Basic;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+
+/**
+ * Summary statistics for a particular numeric (single cardinality) outcome variable,
+ * accumulated over all of the {@link CandidateSession}s finished on a {@link Delivery}.
+ * <p>
+ * These are computed from the {@link DeliveryOutcomeContribution}s recorded for the outcome,
+ * and are refreshed in the background shortly after a {@link CandidateSession} is finished or
+ * deleted. This means that summary information can be shown without going through all of the
+ * {@link CandidateSessionOutcome}s recorded for the {@link Delivery}.
+ * <p>
+ * Developer note: The ID of a {@link DeliveryOutcomeStatistics} is generally referred to as a
+ * <code>dosid</code> in the code. This is also used as the name of the primary key column
+ * in the database mappings.
+ *
+ * @author David McKain
+ */
+@Entity
+@Table(name="delivery_outcome_statistics",
+    uniqueConstraints=@UniqueConstraint(name="delivery_outcome_statistics_uniqueness", columnNames={"did", "outcome_identifier"})
+)
+@SequenceGenerator(name="deliveryOutcomeStatisticsSequence", sequenceName="delivery_outcome_statistics_sequence", initialValue=1, allocationSize=1)
+@NamedQueries({
+    @NamedQuery(name="DeliveryOutcomeStatistics.getForDelivery",
+            query="SELECT dos"
+                + "  FROM DeliveryOutcomeStatistics dos"
+                + "  WHERE dos.delivery = :delivery"
+                + "  ORDER BY dos.id"),
+    @NamedQuery(name="DeliveryOutcomeStatistics.getForDeliveryAndOutcomeIdentifier",
+            query="SELECT dos"
+                + "  FROM DeliveryOutcomeStatistics dos"
+                + "  WHERE dos.delivery = :delivery"
+                + "    AND dos.outcomeIdentifier = :outcomeIdentifier"),
+    @NamedQuery(name="DeliveryOutcomeStatistics.deleteForDelivery",
+            query="DELETE FROM DeliveryOutcomeStatistics dos"
+                + "  WHERE dos.delivery = :delivery"),
+})
+public class DeliveryOutcomeStatistics implements BaseEntity {
+
+    private static final long serialVersionUID = -4417925358024630932L;
+
+    @Id
+    @GeneratedValue(generator="deliveryOutcomeStatisticsSequence")
+    @Column(name="dosid")
+    private Long dosid;
+
+    /** {@link Delivery} these statistics are for */
+    @ManyToOne(optional=false)
+    @JoinColumn(name="did", updatable=false)
+    private Delivery delivery;
+
+    /** Identifier of the underlying outcome variable */
+    @Basic(optional=false)
+    @Column(name="outcome_identifier", updatable=false, length=256)
+    private String outcomeIdentifier;
+
+    /** Number of values recorded */
+    @Basic(optional=false)
+    @Column(name="value_count")
+    private long valueCount;
+
+    /** Sum of all values recorded */
+    @Basic(optional=false)
+    @Column(name="value_sum")
+    private double valueSum;
+
+    /** Sum of the squares of all values recorded, used to compute the standard deviation */
+    @Basic(optional=false)
+    @Column(name="value_sum_of_squares")
+    private double valueSumOfSquares;
+
+    /** Smallest value recorded */
+    @Basic(optional=false)
+    @Column(name="minimum_value")
+    private double minimumValue;
+
+    /** Largest value recorded */
+    @Basic(optional=false)
+    @Column(name="maximum_value")
+    private double maximumValue;
+
+    //------------------------------------------------------------
+
+    @Override
+    public Long getId() {
+        return dosid;
+    }
+
+    @Override
+    public void setId(final Long id) {
+        this.dosid = id;
+    }
+
+
+    @BeanToStringOptions(PropertyOptions.IGNORE_PROPERTY)
+    public Delivery getDelivery() {
+        return delivery;
+    }
+
+    public void setDelivery(final Delivery delivery) {
+        this.delivery = delivery;
+    }
+
+
+    public String getOutcomeIdentifier() {
+        return outcomeIdentifier;
+    }
+
+    public void setOutcomeIdentifier(final String outcomeIdentifier) {
+        this.outcomeIdentifier = outcomeIdentifier;
+    }
+
+
+    public long getValueCount() {
+        return valueCount;
+    }
+
+    public void setValueCount(final long valueCount) {
+        this.valueCount = valueCount;
+    }
+
+
+    public double getValueSum() {
+        return valueSum;
+    }
+
+    public void setValueSum(final double valueSum) {
+        this.valueSum = valueSum;
+    }
+
+
+    public double getValueSumOfSquares() {
+        return valueSumOfSquares;
+    }
+
+    public void setValueSumOfSquares(final double valueSumOfSquares) {
+        this.valueSumOfSquares = valueSumOfSquares;
+    }
+
+
+    public double getMinimumValue() {
+        return minimumValue;
+    }
+
+    public void setMinimumValue(final double minimumValue) {
+        this.minimumValue = minimumValue;
+    }
+
+
+    public double getMaximumValue() {
+        return maximumValue;
+    }
+
+    public void setMaximumValue(final double maximumValue) {
+        this.maximumValue = maximumValue;
+    }
+
+    //------------------------------------------------------------
+
+    public double getMeanValue() {
+        return valueCount > 0 ? valueSum / valueCount : 0.0;
+    }
+
+    public double getStandardDeviation() {
+        if (valueCount==0) {
+            return 0.0;
+        }
+        final double mean = getMeanValue();
+        return Math.sqrt(Math.max(0.0, valueSumOfSquares / valueCount - mean * mean));
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
+                + "(dosid=" + dosid
+                + ",outcomeIdentifier=" + outcomeIdentifier
+                + ",valueCount=" + valueCount
+                + ",valueSum=" + valueSum
+                + ",minimumValue=" + minimumValue
+                + ",maximumValue=" + maximumValue
+                + ")";
+    }
+}
@@ -73,6 +73,10 @@ import javax.persistence.UniqueConstraint;
                 + "  FROM LtiNonce ln"
                 + "  WHERE ln.nonce = :nonce"
                 + "    AND ln.consumerKey = :consumerKey"),
+    @NamedQuery(name="LtiNonce.getNoncesSince",
+            query="SELECT ln"
+                + "  FROM LtiNonce ln"
+                + "  WHERE ln.messageTimestamp >= :threshold"),
     @NamedQuery(name="LtiNonce.deleteOldNonces",
             query="DELETE"
                 + "  FROM LtiNonce ln"
@@ -45,6 +45,7 @@ import javax.persistence.Entity;
 import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.NamedQueries;
@@ -53,6 +54,7 @@ import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
+import javax.persistence.UniqueConstraint;
 
 /**
  * Corresponds to an assessment outcome queued up for sending back to the LTI Tool Consumer
@@ -62,6 +64,12 @@ import javax.persistence.TemporalType;
  * We are making these entities to get simple durability in the event of transient issues such as
  * system downtime, network problems, or issues sending outcomes back to the LTI TC.
  * <p>
+ * There is at most one {@link QueuedLtiOutcome} for each {@link CandidateSession}, with later
+ * outcomes replacing earlier ones. Outcomes are claimed by a sender for a limited time before
+ * being sent, which allows more than one engine to share the queue. Replacing a claimed outcome
+ * leaves the claim in place and marks the outcome as needing to be sent again, so that the new
+ * score is sent once the sender has finished sending the old one.
+ * <p>
  * Developer note: The ID of a {@link QueuedLtiOutcome} is generally referred to as an
  * <code>qoid</code> in the code. This is also used as the name of the primary key column
  * in the database mappings.
@@ -69,13 +77,42 @@ import javax.persistence.TemporalType;
  * @author David McKain
  */
 @Entity
-@Table(name="queued_lti_outcomes")
+@Table(name="queued_lti_outcomes",
+    indexes={@Index(name="queued_lti_outcome_retry_times", columnList="retry_time")},
+    uniqueConstraints=@UniqueConstraint(name="queued_lti_outcome_uniqueness", columnNames={"xid"})
+)
 @SequenceGenerator(name="queuedLtiOutcomeSequence", sequenceName="queued_lti_outcome_sequence", initialValue=1, allocationSize=1)
 @NamedQueries({
-    /* Retrieves all queued outcomes, in insertion order */
-    @NamedQuery(name="QueuedLtiOutcome.getAllQueuedOutcomes",
+    @NamedQuery(name="QueuedLtiOutcome.getForSession",
+            query="SELECT q"
+                + "  FROM QueuedLtiOutcome q"
+                + "  WHERE q.candidateSession = :candidateSession"),
+    /* Retrieves the IDs and outcome service URLs of outcomes that are due to be sent and not currently claimed, in insertion order */
+    @NamedQuery(name="QueuedLtiOutcome.getClaimableAfter",
+            query="SELECT q.id, q.candidateSession.lisOutcomeServiceUrl"
+                + "  FROM QueuedLtiOutcome q"
+                + "  WHERE q.retryTime <= :dueTime"
+                + "    AND (q.claimedBy IS NULL OR q.claimTime < :leaseExpiryTime)"
+                + "    AND q.id > :afterQoid"
+                + "  ORDER BY q.id"),
+    /* As above, but ignoring retry times */
+    @NamedQuery(name="QueuedLtiOutcome.getClaimableIgnoringRetryTimesAfter",
+            query="SELECT q.id, q.candidateSession.lisOutcomeServiceUrl"
+                + "  FROM QueuedLtiOutcome q"
+                + "  WHERE (q.claimedBy IS NULL OR q.claimTime < :leaseExpiryTime)"
+                + "    AND q.id > :afterQoid"
+                + "  ORDER BY q.id"),
+    /* Claims the given outcomes, provided nobody else has claimed them in the meantime */
+    @NamedQuery(name="QueuedLtiOutcome.claim",
+            query="UPDATE QueuedLtiOutcome q"
+                + "  SET q.claimedBy = :claimant, q.claimTime = :claimTime, q.resendRequired = false"
+                + "  WHERE q.id IN (:qoids)"
+                + "    AND (q.claimedBy IS NULL OR q.claimTime < :leaseExpiryTime)"),
+    @NamedQuery(name="QueuedLtiOutcome.getClaimed",
             query="SELECT q"
                 + "  FROM QueuedLtiOutcome q"
+                + "  WHERE q.id IN (:qoids)"
+                + "    AND q.claimedBy = :claimant"
                 + "  ORDER BY q.id"),
     @NamedQuery(name="QueuedLtiOutcome.deleteForSession",
             query="DELETE FROM QueuedLtiOutcome q"
@@ -109,7 +146,7 @@ public class QueuedLtiOutcome implements BaseEntity, TimestampedOnCreation {
 
     /** LIS score being recorded, which must be between 0.0 and 1.0 */
     @Basic(optional=false)
-    @Column(name="score", updatable=false)
+    @Column(name="score")
     private double score;
 
     /** Records the number of failed attempts to send this outcome back to the TC */
@@ -118,14 +155,33 @@ public class QueuedLtiOutcome implements BaseEntity, TimestampedOnCreation {
     private int failureCount;
 
     /**
-     * In the event of earlier failure to send this outcome back to the TC,
-     * this field will indicate the time to next try to resend this data.
+     * Time to next try to send this data, which is the time the outcome was queued up
+     * until we fail to send it back to the TC.
      */
     @Basic(optional=true)
     @Column(name="retry_time")
     @Temporal(TemporalType.TIMESTAMP)
     private Date retryTime;
 
+    /** Identifies the sender currently claiming this outcome, null if unclaimed */
+    @Basic(optional=true)
+    @Column(name="claimed_by", length=64)
+    private String claimedBy;
+
+    /** Time this outcome was claimed, used to expire claims of senders that have gone away */
+    @Basic(optional=true)
+    @Column(name="claim_time")
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date claimTime;
+
+    /**
+     * Set when the score is replaced while this outcome is claimed, indicating that the new
+     * score must be sent once the claimant has finished sending the old one.
+     */
+    @Basic(optional=false)
+    @Column(name="resend_required")
+    private boolean resendRequired;
+
     //------------------------------------------------------------
 
     @Override
@@ -186,6 +242,33 @@ public class QueuedLtiOutcome implements BaseEntity, TimestampedOnCreation {
         this.retryTime = ObjectUtilities.safeClone(retryTime);
     }
 
+
+    public String getClaimedBy() {
+        return claimedBy;
+    }
+
+    public void setClaimedBy(final String claimedBy) {
+        this.claimedBy = claimedBy;
+    }
+
+
+    public Date getClaimTime() {
+        return ObjectUtilities.safeClone(claimTime);
+    }
+
+    public void setClaimTime(final Date claimTime) {
+        this.claimTime = ObjectUtilities.safeClone(claimTime);
+    }
+
+
+    public boolean isResendRequired() {
+        return resendRequired;
+    }
+
+    public void setResendRequired(final boolean resendRequired) {
+        this.resendRequired = resendRequired;
+    }
+
     //------------------------------------------------------------
 
     @Override
@@ -195,6 +278,9 @@ public class QueuedLtiOutcome implements BaseEntity, TimestampedOnCreation {
                 + ",score= + score"
                 + ",failureCount=" + failureCount
                 + ",retryTime=" + retryTime
+                + ",claimedBy=" + claimedBy
+                + ",claimTime=" + claimTime
+                + ",resendRequired=" + resendRequired
                 + ")";
     }
 }
@@ -37,6 +37,7 @@ import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
 import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ResourceLocator;
 
 import java.net.URI;
+import java.util.Map;
 
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
@@ -61,6 +62,13 @@ public abstract class AbstractRenderingRequest<P extends AbstractRenderingOption
     @NotNull
     private URI assessmentResourceUri;
 
+    /**
+     * Optional cache of the parsed XML resources within the assessment, keyed on their URIs.
+     * If set, the renderer will use this instead of re-parsing the XML each time. It is only
+     * read by the renderer, so may be shared between requests.
+     */
+    private Map<URI, SaxEventBuffer> assessmentSourceCache;
+
     private boolean authorMode;
 
     /* Validation information copied from AssessmentPackage */
@@ -99,6 +107,15 @@ public abstract class AbstractRenderingRequest<P extends AbstractRenderingOption
     }
 
 
+    public Map<URI, SaxEventBuffer> getAssessmentSourceCache() {
+        return assessmentSourceCache;
+    }
+
+    public void setAssessmentSourceCache(final Map<URI, SaxEventBuffer> assessmentSourceCache) {
+        this.assessmentSourceCache = assessmentSourceCache;
+    }
+
+
     public boolean isValidated() {
         return validated;
     }
@@ -69,6 +69,7 @@ import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Result;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.sax.SAXResult;
 import javax.xml.transform.sax.TransformerHandler;
@@ -79,7 +80,6 @@ import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.validation.BeanPropertyBindingResult;
 import org.springframework.validation.Validator;
-import org.w3c.dom.Document;
 import org.xml.sax.InputSource;
 import org.xml.sax.XMLReader;
 
@@ -106,6 +106,7 @@ public class AssessmentRenderer {
     private static final Logger logger = LoggerFactory.getLogger(AssessmentRenderer.class);
 
     private static final URI serializeXsltUri = URI.create("classpath:/rendering-xslt/serialize.xsl");
+    private static final URI serializeCommonXsltUri = URI.create("classpath:/rendering-xslt/serialize-common.xsl");
     private static final URI ctopXsltUri = URI.create("classpath:/rendering-xslt/ctop.xsl");
     private static final URI itemStandaloneXsltUri = URI.create("classpath:/rendering-xslt/item-standalone.xsl");
     private static final URI testItemXsltUri = URI.create("classpath:/rendering-xslt/test-item.xsl");
@@ -118,6 +119,26 @@ public class AssessmentRenderer {
     private static final URI terminatedXsltUri = URI.create("classpath:/rendering-xslt/terminated.xsl");
     private static final URI explodedXsltUri = URI.create("classpath:/rendering-xslt/exploded.xsl");
 
+    /** Pipeline stylesheets used by this renderer, used when precompiling */
+    private static final URI[] pipelineXsltUris = new URI[] {
+        serializeXsltUri,
+        ctopXsltUri,
+    };
+
+    /** Rendering stylesheets used by this renderer, used when precompiling */
+    private static final URI[] rendererXsltUris = new URI[] {
+        itemStandaloneXsltUri,
+        testItemXsltUri,
+        testEntryXsltUri,
+        testPartNavigationXsltUri,
+        testPartFeedbackXsltUri,
+        testFeedbackXsltUri,
+        itemAuthorViewXsltUri,
+        testAuthorViewXsltUri,
+        terminatedXsltUri,
+        explodedXsltUri,
+    };
+
     @Resource
     private QtiWorksProperties qtiWorksProperties;
 
@@ -130,6 +151,13 @@ public class AssessmentRenderer {
     @Resource
     private String webappContextPath;
 
+    /**
+     * Whether to run the rendering and serialization stylesheets as a single transform when
+     * the input doesn't need MathML C-to-P conversion. (This is faster, so it's on by default.
+     * Turning it off is mainly useful for comparing the two approaches.)
+     */
+    private boolean fusedRendering = true;
+
     /** Manager for the XSLT stylesheets, created during init. */
     private XsltStylesheetManager stylesheetManager;
 
@@ -153,6 +181,15 @@ public class AssessmentRenderer {
     }
 
 
+    public boolean isFusedRendering() {
+        return fusedRendering;
+    }
+
+    public void setFusedRendering(final boolean fusedRendering) {
+        this.fusedRendering = fusedRendering;
+    }
+
+
     public Validator getJsr303Validator() {
         return jsr303Validator;
     }
@@ -177,6 +214,29 @@ public class AssessmentRenderer {
         this.stylesheetManager = new XsltStylesheetManager(new ClassPathResourceLocator(), xsltStylesheetCache);
     }
 
+    /**
+     * Compiles all of the XSLT stylesheets used by this renderer, storing them in the
+     * {@link XsltStylesheetCache} so that the first rendering requests don't have to.
+     *
+     * @return number of stylesheets precompiled
+     */
+    public int precompileStylesheets() {
+        int count = 0;
+        for (final URI xsltUri : pipelineXsltUris) {
+            stylesheetManager.getCompiledStylesheet(xsltUri);
+            count++;
+        }
+        for (final URI xsltUri : rendererXsltUris) {
+            stylesheetManager.getCompiledStylesheet(xsltUri);
+            count++;
+            if (fusedRendering) {
+                getCompiledFusedStylesheet(xsltUri);
+                count++;
+            }
+        }
+        return count;
+    }
+
     //----------------------------------------------------
 
     /**
@@ -207,9 +267,9 @@ public class AssessmentRenderer {
         final Map<String, Object> xsltParameters = new HashMap<String, Object>();
         setBaseRenderingParameters(xsltParameters, request, notifications);
 
-        /* Pass ItemSessionState (as DOM Document) */
+        /* Pass ItemSessionState (as SAX Source, which the XSLT processor builds its own tree from) */
         final ItemSessionState itemSessionState = request.getItemSessionState();
-        xsltParameters.put("itemSessionState", ItemSessionStateXmlMarshaller.marshal(itemSessionState).getDocumentElement());
+        xsltParameters.put("itemSessionStateDocument", ItemSessionStateXmlMarshaller.createSource(itemSessionState));
 
         /* Set control parameters */
         xsltParameters.put("prompt", request.getPrompt());
@@ -261,7 +321,7 @@ public class AssessmentRenderer {
 
         final TestSessionController testSessionController = request.getTestSessionController();
         final TestSessionState testSessionState = testSessionController.getTestSessionState();
-        xsltParameters.put("testSessionState", TestSessionStateXmlMarshaller.marshal(testSessionState).getDocumentElement());
+        xsltParameters.put("testSessionStateDocument", TestSessionStateXmlMarshaller.createSource(testSessionState));
         xsltParameters.put("testSystemId", request.getAssessmentResourceUri().toString());
 
         /* Pass rendering options */
@@ -427,10 +487,9 @@ public class AssessmentRenderer {
         final Map<String, Object> xsltParameters = new HashMap<String, Object>();
         setBaseRenderingParameters(xsltParameters, request, notifications);
 
-        /* Pass ItemSessionState (as DOM Document and XML text) */
+        /* Pass ItemSessionState (as SAX Source) */
         final ItemSessionState itemSessionState = request.getItemSessionState();
-        final Document itemSessionStateDocument = ItemSessionStateXmlMarshaller.marshal(itemSessionState);
-        xsltParameters.put("itemSessionState", itemSessionStateDocument.getDocumentElement());
+        xsltParameters.put("itemSessionStateDocument", ItemSessionStateXmlMarshaller.createSource(itemSessionState));
 
         /* Perform transform */
         doTransform(request, null, itemAuthorViewXsltUri, xsltParameters, result);
@@ -464,7 +523,7 @@ public class AssessmentRenderer {
 
         final TestSessionController testSessionController = request.getTestSessionController();
         final TestSessionState testSessionState = testSessionController.getTestSessionState();
-        xsltParameters.put("testSessionState", TestSessionStateXmlMarshaller.marshal(testSessionState).getDocumentElement());
+        xsltParameters.put("testSessionStateDocument", TestSessionStateXmlMarshaller.createSource(testSessionState));
         xsltParameters.put("testSystemId", request.getAssessmentResourceUri().toString());
 
         doTransform(request, null, testAuthorViewXsltUri, xsltParameters, result);
@@ -522,7 +581,7 @@ public class AssessmentRenderer {
         }
 
         /* Add item-specific parameters */
-        xsltParameters.put("itemSessionState", ItemSessionStateXmlMarshaller.marshal(itemSessionState).getDocumentElement());
+        xsltParameters.put("itemSessionStateDocument", ItemSessionStateXmlMarshaller.createSource(itemSessionState));
         xsltParameters.put("itemKey", itemKey.toString());
 
         /* Pass ItemSessionControl parameters */
@@ -617,14 +676,63 @@ public class AssessmentRenderer {
          *
          * Input --> Rendering XSLT --> MathML C-to-P --> Serialization XSLT --> Result
          *
+         * If we know that the input contains no Content MathML, we skip the MathML C-to-P
+         * stage and (if fusedRendering is set) run the Rendering and Serialization XSLTs
+         * as a single transform:
+         *
+         * Input --> Rendering XSLT + Serialization XSLT --> Result
+         *
          * NB: I'm not bothering to set up LexicalHandlers, so comments and things like that won't
          * be passed through the pipeline. If that becomes important, change the code below to
          * support that.
          */
-         /* First obtain the required compiled stylesheets. */
-        final TransformerHandler rendererTransformerHandler = stylesheetManager.getCompiledStylesheetHandler(rendererStylesheetUri, renderingRequest.getAssessmentResourceLocator());
-        final TransformerHandler mathmlTransformerHandler = stylesheetManager.getCompiledStylesheetHandler(ctopXsltUri, null);
-        final TransformerHandler serializerTransformerHandler = stylesheetManager.getCompiledStylesheetHandler(serializeXsltUri, null);
+
+        /* Set up the XML source, using the cached parse of the input XML if possible */
+        final SaxEventBuffer assessmentSource = inputUri!=null ? obtainAssessmentSource(renderingRequest, inputUri) : null;
+        final InputSource assessmentSaxSource;
+        if (assessmentSource!=null) {
+            assessmentSaxSource = null;
+        }
+        else if (inputUri!=null) {
+            final ResourceLocator assessmentResourceLocator = renderingRequest.getAssessmentResourceLocator();
+            final InputStream assessmentStream = assessmentResourceLocator.findResource(inputUri);
+            assessmentSaxSource = new InputSource(assessmentStream);
+            assessmentSaxSource.setSystemId(inputUri.toString());
+        }
+        else {
+            /* (null inputUri, so we'll pass an empty well-formed XML document) */
+            assessmentSaxSource = new InputSource(new StringReader("<null/>"));
+        }
+        final XMLReader xmlReader = XmlUtilities.createNsAwareSaxReader(false);
+
+        /* Decide whether we need to do C-to-P conversion */
+        final boolean mathmlConversionRequired = isMathmlConversionRequired(renderingRequest, inputUri, assessmentSource);
+
+        /* Obtain the required compiled stylesheets and join the pipeline together
+         * (it's clearest to work backwards here) */
+        final TransformerHandler rendererTransformerHandler;
+        final Transformer serializerTransformer;
+        if (!mathmlConversionRequired && fusedRendering) {
+            rendererTransformerHandler = stylesheetManager.getCompiledStylesheetHandler(getCompiledFusedStylesheet(rendererStylesheetUri),
+                    renderingRequest.getAssessmentResourceLocator());
+            rendererTransformerHandler.setResult(result);
+            serializerTransformer = rendererTransformerHandler.getTransformer();
+        }
+        else {
+            rendererTransformerHandler = stylesheetManager.getCompiledStylesheetHandler(rendererStylesheetUri, renderingRequest.getAssessmentResourceLocator());
+            final TransformerHandler serializerTransformerHandler = stylesheetManager.getCompiledStylesheetHandler(serializeXsltUri, null);
+            serializerTransformerHandler.setResult(result);
+            final SAXResult serializerInput = new SAXResult(serializerTransformerHandler);
+            if (mathmlConversionRequired) {
+                final TransformerHandler mathmlTransformerHandler = stylesheetManager.getCompiledStylesheetHandler(ctopXsltUri, null);
+                mathmlTransformerHandler.setResult(serializerInput);
+                rendererTransformerHandler.setResult(new SAXResult(mathmlTransformerHandler));
+            }
+            else {
+                rendererTransformerHandler.setResult(serializerInput);
+            }
+            serializerTransformer = serializerTransformerHandler.getTransformer();
+        }
 
         /* Pass necessary parameters to renderer */
         final Transformer rendererTransformer = rendererTransformerHandler.getTransformer();
@@ -638,7 +746,6 @@ public class AssessmentRenderer {
         }
 
         /* Configure the serializer */
-        final Transformer serializerTransformer = serializerTransformerHandler.getTransformer();
         final AbstractRenderingOptions renderingOptions = renderingRequest.getRenderingOptions();
         final SerializationMethod serializationMethod = renderingRequest.getRenderingOptions().getSerializationMethod();
 
@@ -676,41 +783,96 @@ public class AssessmentRenderer {
             }
         }
 
-        /* Set up the XML source */
-        final InputSource assessmentSaxSource;
-        if (inputUri!=null) {
-            final ResourceLocator assessmentResourceLocator = renderingRequest.getAssessmentResourceLocator();
-            final InputStream assessmentStream = assessmentResourceLocator.findResource(inputUri);
-            assessmentSaxSource = new InputSource(assessmentStream);
-            assessmentSaxSource.setSystemId(inputUri.toString());
-        }
-        else {
-            /* (null inputUri, so we'll pass an empty well-formed XML document) */
-            assessmentSaxSource = new InputSource(new StringReader("<null/>"));
-        }
-
-
-        /* Now join the pipeline together (it's clearest to work backwards here)
-         *
-         * NB: I'm not bothering to set up LexicalHandlers, so comments and things like that won't
-         * be passed through the pipeline. If that becomes important, change the code below to
-         * support that.
-         */
-        serializerTransformerHandler.setResult(result);
-        final SAXResult mathmlResult = new SAXResult(serializerTransformerHandler);
-        mathmlTransformerHandler.setResult(mathmlResult);
-        final SAXResult rendererResult = new SAXResult(mathmlTransformerHandler);
-        rendererTransformerHandler.setResult(rendererResult);
-        final XMLReader xmlReader = XmlUtilities.createNsAwareSaxReader(false);
-        xmlReader.setContentHandler(rendererTransformerHandler);
-
         /* Finally we run the pipeline */
         try {
-            xmlReader.parse(assessmentSaxSource);
+            if (assessmentSource!=null) {
+                rendererTransformerHandler.setSystemId(inputUri.toString());
+                assessmentSource.replay(rendererTransformerHandler);
+            }
+            else {
+                xmlReader.setContentHandler(rendererTransformerHandler);
+                xmlReader.parse(assessmentSaxSource);
+            }
         }
         catch (final Exception e) {
             logger.error("Rendering XSLT pipeline failed for request {}", renderingRequest, e);
             throw new QtiWorksRenderingException("Unexpected Exception running rendering XML pipeline", e);
         }
     }
+
+    /**
+     * Returns the parsed form of the XML resource at the given URI, taken from the
+     * assessment source cache of the given renderingRequest if it is there, otherwise parsing
+     * it afresh. (The cache is built up front and not added to here, so that its size is known
+     * when it is cached.) Returns null if the renderingRequest has no such cache.
+     */
+    static SaxEventBuffer obtainAssessmentSource(final AbstractRenderingRequest<?> renderingRequest, final URI uri) {
+        final Map<URI, SaxEventBuffer> assessmentSourceCache = renderingRequest.getAssessmentSourceCache();
+        if (assessmentSourceCache==null) {
+            return null;
+        }
+        final SaxEventBuffer cachedSource = assessmentSourceCache.get(uri);
+        if (cachedSource!=null) {
+            return cachedSource;
+        }
+        final SaxEventBuffer parsedSource;
+        try {
+            parsedSource = SaxEventBuffer.parse(renderingRequest.getAssessmentResourceLocator(), uri);
+        }
+        catch (final Exception e) {
+            logger.error("Parsing of input XML failed for request {}", renderingRequest, e);
+            throw new QtiWorksRenderingException("Unexpected Exception parsing input XML", e);
+        }
+        if (parsedSource==null) {
+            throw new QtiWorksRenderingException("Could not locate input XML at " + uri);
+        }
+        return parsedSource;
+    }
+
+    /**
+     * Decides whether rendering the XML at the given inputUri needs to go through the
+     * MathML C-to-P stage. We have to assume so for any XML we can't check.
+     * <p>
+     * Test pages also read the test XML via <code>document($testSystemId)</code> to render
+     * things like rubricBlocks and testFeedback, so Content MathML in the test counts too
+     * when rendering items within tests.
+     *
+     * @param renderingRequest request being rendered, must not be null
+     * @param inputUri URI of the XML being passed to the XSLT pipeline, which may be null
+     * @param inputSource parsed form of this XML, or null if it has not been parsed
+     */
+    static boolean isMathmlConversionRequired(final AbstractRenderingRequest<?> renderingRequest,
+            final URI inputUri, final SaxEventBuffer inputSource) {
+        if (inputUri==null) {
+            /* Empty input document, and no test XML read in either */
+            return false;
+        }
+        if (inputSource==null || inputSource.containsContentMathml()) {
+            return true;
+        }
+        if (renderingRequest instanceof TestRenderingRequest) {
+            final URI testUri = renderingRequest.getAssessmentResourceUri();
+            if (!testUri.equals(inputUri)) {
+                final SaxEventBuffer testSource = obtainAssessmentSource(renderingRequest, testUri);
+                return testSource==null || testSource.containsContentMathml();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the compiled stylesheet that runs the given Rendering XSLT and then applies
+     * the Serialization XSLT templates to its result, all in one transform.
+     */
+    private Templates getCompiledFusedStylesheet(final URI rendererStylesheetUri) {
+        final String xslt = "<xsl:stylesheet version='2.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform'>\n"
+            + "<xsl:import href='" + rendererStylesheetUri + "'/>\n"
+            + "<xsl:include href='" + serializeCommonXsltUri + "'/>\n"
+            + "<xsl:template match='/'>\n"
+            + "<xsl:variable name='rendered' as='document-node()'><xsl:document><xsl:apply-imports/></xsl:document></xsl:variable>\n"
+            + "<xsl:apply-templates select='$rendered/node()' mode='serialize'/>\n"
+            + "</xsl:template>\n"
+            + "</xsl:stylesheet>";
+        return stylesheetManager.getCompiledStylesheet("fused-renderer(" + rendererStylesheetUri + ")", xslt);
+    }
 }
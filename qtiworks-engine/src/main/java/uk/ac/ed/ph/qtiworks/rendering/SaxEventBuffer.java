@@ -0,0 +1,321 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.rendering;
+
+import uk.ac.ed.ph.qtiworks.utils.XmlUtilities;
+
+import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ResourceLocator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Records the SAX events generated by parsing an XML document so that they can be
+ * replayed later (any number of times) without having to read and parse the document again.
+ * <p>
+ * This is used by the {@link AssessmentRenderer} to avoid re-parsing the same QTI XML
+ * each time a page is rendered. (We deliberately don't use a processor-specific tree
+ * here, so that the rendering code continues to work with any JAXP XSLT 2.0 processor.)
+ * <p>
+ * Instances of this class are immutable, and hence safe to replay concurrently.
+ *
+ * @author David McKain
+ */
+public final class SaxEventBuffer {
+
+    private static final byte START_PREFIX_MAPPING = 0;
+    private static final byte END_PREFIX_MAPPING = 1;
+    private static final byte START_ELEMENT = 2;
+    private static final byte END_ELEMENT = 3;
+    private static final byte CHARACTERS = 4;
+    private static final byte IGNORABLE_WHITESPACE = 5;
+    private static final byte PROCESSING_INSTRUCTION = 6;
+    private static final byte SKIPPED_ENTITY = 7;
+
+    /** Approximate heap size of an object or array header, used when estimating sizes */
+    private static final int OBJECT_HEADER_SIZE = 16;
+
+    /** Approximate heap size of an object reference, used when estimating sizes */
+    private static final int REFERENCE_SIZE = 4;
+
+    private static final String MATHML_NAMESPACE_URI = "http://www.w3.org/1998/Math/MathML";
+
+    /** Local names of the MathML elements that don't need content-to-presentation conversion */
+    private static final Set<String> presentationMathmlElementNames = new HashSet<String>(Arrays.asList(
+        "math", "mi", "mn", "mo", "mtext", "mspace", "ms", "mglyph",
+        "mrow", "mfrac", "msqrt", "mroot", "mstyle", "merror", "mpadded", "mphantom", "mfenced", "menclose",
+        "msub", "msup", "msubsup", "munder", "mover", "munderover", "mmultiscripts", "mprescripts", "none",
+        "mtable", "mlabeledtr", "mtr", "mtd", "maligngroup", "malignmark",
+        "mstack", "mlongdiv", "msgroup", "msrow", "mscarries", "mscarry", "msline", "maction"
+    ));
+
+    private final String systemId;
+    private final byte[] eventTypes;
+    private final Object[] eventArguments;
+    private final boolean containsContentMathml;
+    private final long estimatedSize;
+
+    private SaxEventBuffer(final String systemId, final byte[] eventTypes, final Object[] eventArguments,
+            final boolean containsContentMathml, final long estimatedSize) {
+        this.systemId = systemId;
+        this.eventTypes = eventTypes;
+        this.eventArguments = eventArguments;
+        this.containsContentMathml = containsContentMathml;
+        this.estimatedSize = estimatedSize;
+    }
+
+    /**
+     * Locates the XML resource at the given URI using the given {@link ResourceLocator} and
+     * parses it, recording the resulting events. Returns null if the resource could not be located.
+     */
+    public static SaxEventBuffer parse(final ResourceLocator resourceLocator, final URI uri)
+            throws IOException, SAXException {
+        final InputStream resourceStream = resourceLocator.findResource(uri);
+        if (resourceStream==null) {
+            return null;
+        }
+        try {
+            final InputSource inputSource = new InputSource(resourceStream);
+            inputSource.setSystemId(uri.toString());
+            return parse(XmlUtilities.createNsAwareSaxReader(false), inputSource);
+        }
+        finally {
+            resourceStream.close();
+        }
+    }
+
+    /**
+     * Parses the given {@link InputSource} using the given {@link XMLReader}, recording the
+     * resulting events.
+     */
+    public static SaxEventBuffer parse(final XMLReader xmlReader, final InputSource inputSource)
+            throws IOException, SAXException {
+        final Recorder recorder = new Recorder();
+        xmlReader.setContentHandler(recorder);
+        xmlReader.parse(inputSource);
+        final byte[] eventTypes = new byte[recorder.eventTypes.size()];
+        for (int i=0; i<eventTypes.length; i++) {
+            eventTypes[i] = recorder.eventTypes.get(i).byteValue();
+        }
+        final long estimatedSize = OBJECT_HEADER_SIZE * 2 + eventTypes.length
+                + REFERENCE_SIZE * recorder.eventArguments.size() + recorder.estimatedArgumentSize;
+        return new SaxEventBuffer(inputSource.getSystemId(), eventTypes, recorder.eventArguments.toArray(),
+                recorder.containsContentMathml, estimatedSize);
+    }
+
+    /** Returns the system ID of the document that was parsed, which may be null */
+    public String getSystemId() {
+        return systemId;
+    }
+
+    /** Returns the number of events recorded */
+    public int getEventCount() {
+        return eventTypes.length;
+    }
+
+    /**
+     * Returns the approximate number of bytes of heap used by this buffer. Names recorded with
+     * the events are not counted, as the parser normally shares these between documents.
+     */
+    public long getEstimatedSize() {
+        return estimatedSize;
+    }
+
+    /**
+     * Returns whether the document contains any MathML elements other than presentation
+     * MathML, i.e. whether it might need to go through content-to-presentation conversion
+     * when rendered.
+     */
+    public boolean containsContentMathml() {
+        return containsContentMathml;
+    }
+
+    /**
+     * Replays the recorded events to the given {@link ContentHandler}, wrapped up within
+     * calls to {@link ContentHandler#startDocument()} and {@link ContentHandler#endDocument()}.
+     */
+    public void replay(final ContentHandler contentHandler) throws SAXException {
+        contentHandler.startDocument();
+        int argIndex = 0;
+        for (final byte eventType : eventTypes) {
+            switch (eventType) {
+                case START_PREFIX_MAPPING:
+                    contentHandler.startPrefixMapping((String) eventArguments[argIndex], (String) eventArguments[argIndex+1]);
+                    argIndex += 2;
+                    break;
+
+                case END_PREFIX_MAPPING:
+                    contentHandler.endPrefixMapping((String) eventArguments[argIndex++]);
+                    break;
+
+                case START_ELEMENT:
+                    contentHandler.startElement((String) eventArguments[argIndex], (String) eventArguments[argIndex+1],
+                            (String) eventArguments[argIndex+2], (Attributes) eventArguments[argIndex+3]);
+                    argIndex += 4;
+                    break;
+
+                case END_ELEMENT:
+                    contentHandler.endElement((String) eventArguments[argIndex], (String) eventArguments[argIndex+1],
+                            (String) eventArguments[argIndex+2]);
+                    argIndex += 3;
+                    break;
+
+                case CHARACTERS: {
+                    final char[] chars = (char[]) eventArguments[argIndex++];
+                    contentHandler.characters(chars, 0, chars.length);
+                    break;
+                }
+
+                case IGNORABLE_WHITESPACE: {
+                    final char[] chars = (char[]) eventArguments[argIndex++];
+                    contentHandler.ignorableWhitespace(chars, 0, chars.length);
+                    break;
+                }
+
+                case PROCESSING_INSTRUCTION:
+                    contentHandler.processingInstruction((String) eventArguments[argIndex], (String) eventArguments[argIndex+1]);
+                    argIndex += 2;
+                    break;
+
+                case SKIPPED_ENTITY:
+                    contentHandler.skippedEntity((String) eventArguments[argIndex++]);
+                    break;
+
+                default:
+                    throw new QtiWorksRenderingException("Unexpected recorded SAX event type " + eventType);
+            }
+        }
+        contentHandler.endDocument();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
+                + "(systemId=" + systemId
+                + ",eventCount=" + eventTypes.length
+                + ",containsContentMathml=" + containsContentMathml
+                + ")";
+    }
+
+    //----------------------------------------------------
+
+    /**
+     * Handler that records the events it receives, copying anything that the parser
+     * might later reuse.
+     */
+    private static final class Recorder extends DefaultHandler {
+
+        private final List<Byte> eventTypes = new ArrayList<Byte>();
+        private final List<Object> eventArguments = new ArrayList<Object>();
+        private boolean containsContentMathml;
+        private long estimatedArgumentSize;
+
+        @Override
+        public void startPrefixMapping(final String prefix, final String uri) {
+            record(START_PREFIX_MAPPING, prefix, uri);
+        }
+
+        @Override
+        public void endPrefixMapping(final String prefix) {
+            record(END_PREFIX_MAPPING, prefix);
+        }
+
+        @Override
+        public void startElement(final String uri, final String localName, final String qName, final Attributes attributes) {
+            if (MATHML_NAMESPACE_URI.equals(uri) && !presentationMathmlElementNames.contains(localName)) {
+                containsContentMathml = true;
+            }
+            record(START_ELEMENT, uri, localName, qName, new AttributesImpl(attributes));
+
+            /* (AttributesImpl holds 5 Strings per attribute. We only count the values, as the names are shared) */
+            estimatedArgumentSize += OBJECT_HEADER_SIZE * 2 + 5 * REFERENCE_SIZE * attributes.getLength();
+            for (int i=0; i<attributes.getLength(); i++) {
+                estimatedArgumentSize += OBJECT_HEADER_SIZE * 2 + 2 * attributes.getValue(i).length();
+            }
+        }
+
+        @Override
+        public void endElement(final String uri, final String localName, final String qName) {
+            record(END_ELEMENT, uri, localName, qName);
+        }
+
+        @Override
+        public void characters(final char[] ch, final int start, final int length) {
+            record(CHARACTERS, copyChars(ch, start, length));
+        }
+
+        @Override
+        public void ignorableWhitespace(final char[] ch, final int start, final int length) {
+            record(IGNORABLE_WHITESPACE, copyChars(ch, start, length));
+        }
+
+        @Override
+        public void processingInstruction(final String target, final String data) {
+            record(PROCESSING_INSTRUCTION, target, data);
+        }
+
+        @Override
+        public void skippedEntity(final String name) {
+            record(SKIPPED_ENTITY, name);
+        }
+
+        private void record(final byte eventType, final Object... arguments) {
+            eventTypes.add(Byte.valueOf(eventType));
+            for (final Object argument : arguments) {
+                eventArguments.add(argument);
+            }
+        }
+
+        private char[] copyChars(final char[] ch, final int start, final int length) {
+            estimatedArgumentSize += OBJECT_HEADER_SIZE + 2 * length;
+            final char[] result = new char[length];
+            System.arraycopy(ch, start, result, 0, length);
+            return result;
+        }
+    }
+}
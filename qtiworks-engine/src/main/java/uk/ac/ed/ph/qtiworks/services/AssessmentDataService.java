@@ -37,6 +37,7 @@ import uk.ac.ed.ph.qtiworks.QtiWorksLogicException;
 import uk.ac.ed.ph.qtiworks.domain.entities.Assessment;
 import uk.ac.ed.ph.qtiworks.domain.entities.AssessmentPackage;
 import uk.ac.ed.ph.qtiworks.domain.entities.Delivery;
+import uk.ac.ed.ph.qtiworks.domain.entities.DeliveryOutcomeStatistics;
 import uk.ac.ed.ph.qtiworks.domain.entities.DeliverySettings;
 import uk.ac.ed.ph.qtiworks.domain.entities.DeliveryType;
 import uk.ac.ed.ph.qtiworks.domain.entities.ItemDeliverySettings;
@@ -48,6 +49,7 @@ import uk.ac.ed.ph.qtiworks.services.dao.AssessmentDao;
 import uk.ac.ed.ph.qtiworks.services.dao.AssessmentPackageDao;
 import uk.ac.ed.ph.qtiworks.services.dao.CandidateSessionDao;
 import uk.ac.ed.ph.qtiworks.services.dao.DeliveryDao;
+import uk.ac.ed.ph.qtiworks.services.dao.DeliveryOutcomeStatisticsDao;
 import uk.ac.ed.ph.qtiworks.services.dao.DeliverySettingsDao;
 import uk.ac.ed.ph.qtiworks.services.domain.AssessmentAndPackage;
 import uk.ac.ed.ph.qtiworks.services.domain.AssessmentStatusReport;
@@ -111,6 +113,9 @@ public class AssessmentDataService {
     @Resource
     private CandidateSessionDao candidateSessionDao;
 
+    @Resource
+    private DeliveryOutcomeStatisticsDao deliveryOutcomeStatisticsDao;
+
     //-------------------------------------------------
 
     public List<AssessmentAndPackage> getCallerUserAssessments() {
@@ -137,7 +142,8 @@ public class AssessmentDataService {
     public DeliveryStatusReport getDeliveryStatusReport(final Delivery delivery) {
         final long sessionCount = candidateSessionDao.countForDelivery(delivery);
         final long nonTerminatedSessionCount = candidateSessionDao.countNonTerminatedForDelivery(delivery);
-        return new DeliveryStatusReport(delivery, sessionCount, nonTerminatedSessionCount);
+        final List<DeliveryOutcomeStatistics> outcomeStatistics = deliveryOutcomeStatisticsDao.getForDelivery(delivery);
+        return new DeliveryStatusReport(delivery, sessionCount, nonTerminatedSessionCount, outcomeStatistics);
     }
 
     //-------------------------------------------------
@@ -118,6 +118,9 @@ public class AssessmentManagementService {
     @Resource
     private DataDeletionService dataDeletionService;
 
+    @Resource
+    private DeliveryStatisticsService deliveryStatisticsService;
+
     @Resource
     private AssessmentPackageFileService assessmentPackageFileService;
 
@@ -914,6 +917,7 @@ public class AssessmentManagementService {
             candidateSession.setTerminationTime(currentTimestamp);
             candidateSessionDao.update(candidateSession);
             if (deleteOutcomes) {
+                deliveryStatisticsService.removeSession(candidateSession);
                 candidateSessionOutcomeDao.deleteForCandidateSession(candidateSession);
             }
         }
@@ -33,34 +33,66 @@
  */
 package uk.ac.ed.ph.qtiworks.services;
 
+import uk.ac.ed.ph.qtiworks.QtiWorksRuntimeException;
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
 import uk.ac.ed.ph.qtiworks.domain.entities.AssessmentPackage;
-import uk.ac.ed.ph.qtiworks.utils.LruHashMap;
+import uk.ac.ed.ph.qtiworks.rendering.SaxEventBuffer;
 
 import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
 import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
 import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentItem;
+import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentObject;
 import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentTest;
 import uk.ac.ed.ph.jqtiplus.running.ItemProcessingInitializer;
 import uk.ac.ed.ph.jqtiplus.running.TestProcessingInitializer;
 import uk.ac.ed.ph.jqtiplus.state.ItemProcessingMap;
 import uk.ac.ed.ph.jqtiplus.state.TestProcessingMap;
+import uk.ac.ed.ph.jqtiplus.utils.TreeCompactionSummary;
+import uk.ac.ed.ph.jqtiplus.utils.TreeCompactor;
+import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ResourceLocator;
 
+import java.net.URI;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
+import com.google.common.base.Function;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
 /**
  * Middle layer service responsible for instantiating and caching {@link ItemProcessingMap}
  * and {@link TestProcessingMap} Objects.
  * <p>
  * This is NO authorisation at this level.
- *
- * FIXME: For the time being, we'll use an {@link LruHashMap}, though this is probably not the best choice.
+ * <p>
+ * The underlying cache is concurrent and loads each {@link AssessmentPackage} at most once:
+ * callers requesting a package that is currently being loaded wait for that load to complete,
+ * while callers requesting other packages proceed independently. The cache may be bounded
+ * either by number of entries or by an approximate memory weight, as configured via
+ * {@link QtiWorksDeploymentSettings}. The weight of each package is the heap size of its
+ * QTI object trees, as estimated when they are compacted by {@link TreeCompactor}, plus the
+ * estimated size of the parsed XML used when rendering it, which is built when the package is
+ * loaded.
  *
  * @author David McKain
  */
@@ -69,18 +101,43 @@ public class AssessmentObjectManagementService {
 
     private static final Logger logger = LoggerFactory.getLogger(AssessmentObjectManagementService.class);
 
-    private int cacheMissCount;
-    private int cacheHitCount;
+    @Resource
+    private QtiWorksDeploymentSettings qtiWorksDeploymentSettings;
 
     @Resource
     private AssessmentPackageFileService assessmentPackageFileService;
 
-    private final LruHashMap<Long, Object> cache;
+    private Cache<Long, CachedProcessingMap> cache;
 
-    public AssessmentObjectManagementService() {
-        this.cache = new LruHashMap<Long, Object>();
-        this.cacheMissCount = 0;
-        this.cacheHitCount = 0;
+    @PostConstruct
+    public void init() {
+        final int maxEntries = qtiWorksDeploymentSettings.getProcessingMapCacheMaxEntries();
+        final long maxWeight = qtiWorksDeploymentSettings.getProcessingMapCacheMaxWeight();
+        final CacheBuilder<Object, Object> cacheBuilder = CacheBuilder.newBuilder()
+                .recordStats();
+        if (maxWeight > 0) {
+            /* (Guava won't let us use both bounds, so the weight bound takes precedence) */
+            logger.info("Bounding processing map cache to approximately {}KB of estimated heap", maxWeight);
+            cacheBuilder.maximumWeight(maxWeight).weigher(new Weigher<Long, CachedProcessingMap>() {
+                @Override
+                public int weigh(final Long key, final CachedProcessingMap value) {
+                    return value.getWeight();
+                }
+            });
+        }
+        else if (maxEntries > 0) {
+            logger.info("Bounding processing map cache to {} entries", maxEntries);
+            cacheBuilder.maximumSize(maxEntries);
+        }
+        else {
+            logger.info("Processing map cache is unbounded");
+        }
+        this.cache = cacheBuilder.removalListener(new RemovalListener<Long, CachedProcessingMap>() {
+            @Override
+            public void onRemoval(final RemovalNotification<Long, CachedProcessingMap> notification) {
+                logger.debug("Removed package #{} from cache ({})", notification.getKey(), notification.getCause());
+            }
+        }).build();
     }
 
     /**
@@ -89,28 +146,17 @@ public class AssessmentObjectManagementService {
      */
     public ItemProcessingMap getItemProcessingMap(final AssessmentPackage assessmentPackage) {
         Assert.notNull(assessmentPackage, "assessmentPackage");
-        final Long apid = assessmentPackage.getId();
-        ItemProcessingMap result = null;
-        synchronized (cache) {
-            if (cache.containsKey(apid)) {
-                logger.debug("Cache HIT for package #{}", apid);
-                result = (ItemProcessingMap) cache.get(apid);
-                cacheHitCount++;
-            }
-            else {
-                logger.debug("Cache MISS for package #{}. Reading and resolving XML", apid);
-                cacheMissCount++;
-                try {
-                    final ResolvedAssessmentItem resolvedAssessmentItem = assessmentPackageFileService.loadAndResolveAssessmentObject(assessmentPackage);
-                    result = new ItemProcessingInitializer(resolvedAssessmentItem, assessmentPackage.isValid()).initialize();
-                }
-                catch (final RuntimeException e) {
-                    logger.info("Failed to create ItemProcessingMap for package #{}", apid);
-                }
-                cache.put(apid, result);
+        return (ItemProcessingMap) getCachedProcessingMap(assessmentPackage, new Callable<CachedProcessingMap>() {
+            @Override
+            public CachedProcessingMap call() {
+                final ResolvedAssessmentItem resolvedAssessmentItem = assessmentPackageFileService.loadAndResolveAssessmentObject(assessmentPackage);
+                final long weight = compactResolvedAssessmentObject(assessmentPackage, resolvedAssessmentItem);
+                final Map<URI, SaxEventBuffer> renderingSourceCache = parseRenderingSources(assessmentPackage,
+                        Collections.singleton(resolvedAssessmentItem.getItemLookup().getSystemId()));
+                return new CachedProcessingMap(new ItemProcessingInitializer(resolvedAssessmentItem, assessmentPackage.isValid()).initialize(),
+                        weight, renderingSourceCache);
             }
-        }
-        return result;
+        });
     }
 
     /**
@@ -119,70 +165,212 @@ public class AssessmentObjectManagementService {
      */
     public TestProcessingMap getTestProcessingMap(final AssessmentPackage assessmentPackage) {
         Assert.notNull(assessmentPackage, "assessmentPackage");
-        final Long apid = assessmentPackage.getId();
-        TestProcessingMap result = null;
-        synchronized (cache) {
-            if (cache.containsKey(apid)) {
-                logger.debug("Cache HIT for package #{}", apid);
-                result = (TestProcessingMap) cache.get(apid);
-                cacheHitCount++;
+        return (TestProcessingMap) getCachedProcessingMap(assessmentPackage, new Callable<CachedProcessingMap>() {
+            @Override
+            public CachedProcessingMap call() {
+                final ResolvedAssessmentTest resolvedAssessmentTest = assessmentPackageFileService.loadAndResolveAssessmentObject(assessmentPackage);
+                final long weight = compactResolvedAssessmentObject(assessmentPackage, resolvedAssessmentTest);
+                final Set<URI> systemIds = new LinkedHashSet<URI>();
+                systemIds.add(resolvedAssessmentTest.getTestLookup().getSystemId());
+                systemIds.addAll(resolvedAssessmentTest.getResolvedAssessmentItemBySystemIdMap().keySet());
+                final Map<URI, SaxEventBuffer> renderingSourceCache = parseRenderingSources(assessmentPackage, systemIds);
+                return new CachedProcessingMap(new TestProcessingInitializer(resolvedAssessmentTest, assessmentPackage.isValid()).initialize(),
+                        weight, renderingSourceCache);
             }
-            else {
-                logger.debug("Cache MISS for package #{}. Reading and resolving XML", apid);
-                cacheMissCount++;
-                try {
-                    final ResolvedAssessmentTest resolvedAssessmentTest = assessmentPackageFileService.loadAndResolveAssessmentObject(assessmentPackage);
-                    result = new TestProcessingInitializer(resolvedAssessmentTest, assessmentPackage.isValid()).initialize();
+        });
+    }
+
+    private Object getCachedProcessingMap(final AssessmentPackage assessmentPackage, final Callable<CachedProcessingMap> initializer) {
+        final Long apid = assessmentPackage.getId();
+        final CachedProcessingMap cachedProcessingMap;
+        try {
+            cachedProcessingMap = cache.get(apid, new Callable<CachedProcessingMap>() {
+                @Override
+                public CachedProcessingMap call() throws Exception {
+                    logger.debug("Cache MISS for package #{}. Reading and resolving XML", apid);
+                    try {
+                        return initializer.call();
+                    }
+                    catch (final RuntimeException e) {
+                        logger.info("Failed to create processing map for package #{}", apid);
+                        return new CachedProcessingMap(null, 1L, Collections.<URI, SaxEventBuffer>emptyMap());
+                    }
                 }
-                catch (final RuntimeException e) {
-                    logger.info("Failed to create TestProcessingMap for package #{}", apid);
+            });
+        }
+        catch (final ExecutionException e) {
+            throw new QtiWorksRuntimeException("Unexpected Exception loading package #" + apid, e.getCause());
+        }
+        catch (final UncheckedExecutionException e) {
+            throw new QtiWorksRuntimeException("Unexpected Exception loading package #" + apid, e.getCause());
+        }
+        catch (final ExecutionError e) {
+            throw new QtiWorksRuntimeException("Unexpected Error loading package #" + apid, e.getCause());
+        }
+        return cachedProcessingMap.getProcessingMap();
+    }
+
+    /**
+     * Compacts the QTI object trees of the given {@link ResolvedAssessmentObject} before it is
+     * cached, as these trees will be kept in memory for as long as the package stays in the cache.
+     *
+     * @return estimated heap size of the compacted trees in KB, used as the package's weight
+     *   within the cache, along with its rendering sources
+     */
+    private long compactResolvedAssessmentObject(final AssessmentPackage assessmentPackage,
+            final ResolvedAssessmentObject<?> resolvedAssessmentObject) {
+        final TreeCompactionSummary compactionSummary = TreeCompactor.compact(resolvedAssessmentObject);
+        final long weight = Math.max(1L, (compactionSummary.getEstimatedSize() + 1023L) / 1024L);
+        logger.debug("Compacted package #{} containing {} QTI nodes, now estimated to use {}KB",
+                new Object[] { assessmentPackage.getId(), compactionSummary.getNodeCount(), weight });
+        return weight;
+    }
+
+    /**
+     * Parses the QTI files having the given system IDs within the given {@link AssessmentPackage},
+     * ready for rendering. Files that can't be parsed are left out, and will be parsed each time
+     * they are rendered instead.
+     *
+     * @return parsed files, keyed on their system IDs. The weight of these is added to the given
+     *   {@link CachedProcessingMap} weight by its constructor.
+     */
+    private Map<URI, SaxEventBuffer> parseRenderingSources(final AssessmentPackage assessmentPackage,
+            final Set<URI> systemIds) {
+        final ResourceLocator resourceLocator = assessmentPackageFileService.createResolvingResourceLocator(assessmentPackage);
+        final Map<URI, SaxEventBuffer> result = new HashMap<URI, SaxEventBuffer>();
+        for (final URI systemId : systemIds) {
+            try {
+                final SaxEventBuffer renderingSource = SaxEventBuffer.parse(resourceLocator, systemId);
+                if (renderingSource!=null) {
+                    result.put(systemId, renderingSource);
                 }
-                cache.put(apid, result);
+            }
+            catch (final Exception e) {
+                logger.info("Could not parse {} in package #{} for rendering", systemId, assessmentPackage.getId());
             }
         }
         return result;
     }
 
+    /**
+     * Returns the cache of parsed XML used when rendering the given {@link AssessmentPackage},
+     * keyed on the system IDs of its QTI files. This is built when the package is loaded and held
+     * alongside its processing map, so counts towards its weight and is purged with it. Returns
+     * null if the package is not currently in the cache.
+     */
+    public Map<URI, SaxEventBuffer> getRenderingSourceCache(final AssessmentPackage assessmentPackage) {
+        Assert.notNull(assessmentPackage, "assessmentPackage");
+        final CachedProcessingMap cachedProcessingMap = cache.getIfPresent(assessmentPackage.getId());
+        return cachedProcessingMap!=null ? cachedProcessingMap.getRenderingSourceCache() : null;
+    }
+
     public void purge(final AssessmentPackage assessmentPackage) {
         Assert.notNull(assessmentPackage, "assessmentPackage");
         final Long apid = assessmentPackage.getId();
-        synchronized (cache) {
-            if (cache.containsKey(apid)) {
-                cache.remove(apid);
-                logger.debug("Actively purged package #{}", assessmentPackage);
-            }
+        if (cache.asMap().remove(apid)!=null) {
+            logger.debug("Actively purged package #{}", assessmentPackage);
         }
     }
 
     //--------------------------------------------------------------------------
     // Reporting
 
-    public int getCacheUsage() {
+    public long getCacheUsage() {
         return cache.size();
     }
 
     public int getCacheMaxSize() {
-        return cache.getMaxSize();
+        return qtiWorksDeploymentSettings.getProcessingMapCacheMaxEntries();
+    }
+
+    public long getCacheMaxWeight() {
+        return qtiWorksDeploymentSettings.getProcessingMapCacheMaxWeight();
+    }
+
+    public long getCacheMissCount() {
+        return cache.stats().missCount();
+    }
+
+    public long getCacheHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    /** Returns the total time spent loading processing maps into the cache, in ms */
+    public long getCacheTotalLoadTime() {
+        return TimeUnit.NANOSECONDS.toMillis(cache.stats().totalLoadTime());
     }
 
-    public int getCacheMissCount() {
-        return cacheMissCount;
+    /** Returns the average time spent loading a processing map into the cache, in ms */
+    public double getCacheAverageLoadTime() {
+        return cache.stats().averageLoadPenalty() / 1.0E6;
     }
 
-    public int getCacheHitCount() {
-        return cacheHitCount;
+    public long getCachePurgeCount() {
+        return cache.stats().evictionCount();
     }
 
-    public int getCachePurgeCount() {
-        return cache.getPurgeCount();
+    public CacheStats getCacheStats() {
+        return cache.stats();
     }
 
     public Map<Long, Object> getCacheView() {
-        return Collections.unmodifiableMap(cache);
+        return Collections.unmodifiableMap(Maps.transformValues(cache.asMap(), new Function<CachedProcessingMap, Object>() {
+            @Override
+            public Object apply(final CachedProcessingMap input) {
+                return input.getProcessingMap();
+            }
+        }));
     }
 
     @Override
     public String toString() {
         return ObjectUtilities.beanToString(this);
     }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * Wraps up a (possibly null) {@link ItemProcessingMap} or {@link TestProcessingMap} for storing
+     * in the cache, along with the parsed XML used for rendering and their combined estimated weight.
+     */
+    private static final class CachedProcessingMap {
+
+        private final Object processingMap;
+        private final int weight;
+        private final Map<URI, SaxEventBuffer> renderingSourceCache;
+
+        /**
+         * @param processingMap processing map to cache, which may be null
+         * @param processingMapWeight estimated weight of the processing map, in KB
+         * @param renderingSourceCache parsed XML used for rendering, which is weighed here
+         */
+        public CachedProcessingMap(final Object processingMap, final long processingMapWeight,
+                final Map<URI, SaxEventBuffer> renderingSourceCache) {
+            long renderingSourceSize = 0L;
+            for (final SaxEventBuffer renderingSource : renderingSourceCache.values()) {
+                renderingSourceSize += renderingSource.getEstimatedSize();
+            }
+            final long weight = processingMapWeight + (renderingSourceSize + 1023L) / 1024L;
+            this.processingMap = processingMap;
+            this.weight = (int) Math.min(weight, Integer.MAX_VALUE);
+            this.renderingSourceCache = Collections.unmodifiableMap(renderingSourceCache);
+        }
+
+        public Object getProcessingMap() {
+            return processingMap;
+        }
+
+        public Map<URI, SaxEventBuffer> getRenderingSourceCache() {
+            return renderingSourceCache;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        @Override
+        public String toString() {
+            return ObjectUtilities.beanToString(this);
+        }
+    }
 }
@@ -35,6 +35,7 @@ package uk.ac.ed.ph.qtiworks.services;
 
 import uk.ac.ed.ph.qtiworks.QtiWorksLogicException;
 import uk.ac.ed.ph.qtiworks.QtiWorksRuntimeException;
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
 import uk.ac.ed.ph.qtiworks.domain.DomainConstants;
 import uk.ac.ed.ph.qtiworks.domain.entities.AssessmentPackage;
 import uk.ac.ed.ph.qtiworks.domain.entities.AssessmentPackageImportType;
@@ -68,8 +69,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.util.Date;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.activation.FileTypeMap;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 
 import org.slf4j.Logger;
@@ -100,6 +104,9 @@ public class AssessmentPackageFileService {
     /** Default title for assessment if it can't be extracted from the XML */
     private static final String DEFAULT_IMPORT_TITLE = "Assessment";
 
+    @Resource
+    private QtiWorksDeploymentSettings qtiWorksDeploymentSettings;
+
     @Resource
     private AssessmentPackageFileImporter assessmentPackageFileImporter;
 
@@ -124,6 +131,14 @@ public class AssessmentPackageFileService {
      */
     private final ResourceLocator sampleResolvingResourceLocator;
 
+    /**
+     * Pool for resolving the items within tests in parallel. This will be null if items are
+     * resolved one at a time.
+     *
+     * @see QtiWorksDeploymentSettings#getResolutionThreadCount()
+     */
+    private ForkJoinPool resolutionPool;
+
     public AssessmentPackageFileService() {
         this.classPathResourceLocator = new ClassPathResourceLocator();
         this.sampleResolvingResourceLocator = new ChainedResourceLocator(
@@ -133,6 +148,23 @@ public class AssessmentPackageFileService {
         );
     }
 
+    @PostConstruct
+    public void init() {
+        final int threadCount = qtiWorksDeploymentSettings.getResolutionThreadCount();
+        if (threadCount!=1) {
+            final int poolSize = threadCount > 0 ? threadCount : Runtime.getRuntime().availableProcessors();
+            logger.info("Resolving items within tests in parallel using {} threads", poolSize);
+            resolutionPool = new ForkJoinPool(poolSize);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (resolutionPool!=null) {
+            resolutionPool.shutdownNow();
+        }
+    }
+
     //-------------------------------------------------
 
     /**
@@ -329,7 +361,7 @@ public class AssessmentPackageFileService {
     E loadAndResolveAssessmentObject(final AssessmentPackage assessmentPackage) {
         final ResourceLocator inputResourceLocator = createResolvingResourceLocator(assessmentPackage);
         final URI assessmentObjectSystemId = createAssessmentObjectUri(assessmentPackage);
-        final AssessmentObjectXmlLoader assessmentObjectXmlLoader = new AssessmentObjectXmlLoader(qtiXmlReader, inputResourceLocator);
+        final AssessmentObjectXmlLoader assessmentObjectXmlLoader = new AssessmentObjectXmlLoader(qtiXmlReader, inputResourceLocator, resolutionPool);
         final AssessmentObjectType assessmentObjectType = assessmentPackage.getAssessmentType();
         E result;
         if (assessmentObjectType==AssessmentObjectType.ASSESSMENT_ITEM) {
@@ -355,7 +387,7 @@ public class AssessmentPackageFileService {
         Assert.notNull(assessmentPackage, "assessmentPackage");
         final ResourceLocator inputResourceLocator = createResolvingResourceLocator(assessmentPackage);
         final URI assessmentObjectSystemId = createAssessmentObjectUri(assessmentPackage);
-        final AssessmentObjectXmlLoader assessmentObjectXmlLoader = new AssessmentObjectXmlLoader(qtiXmlReader, inputResourceLocator);
+        final AssessmentObjectXmlLoader assessmentObjectXmlLoader = new AssessmentObjectXmlLoader(qtiXmlReader, inputResourceLocator, resolutionPool);
         final AssessmentObjectType assessmentObjectType = assessmentPackage.getAssessmentType();
         E result;
         if (assessmentObjectType==AssessmentObjectType.ASSESSMENT_ITEM) {
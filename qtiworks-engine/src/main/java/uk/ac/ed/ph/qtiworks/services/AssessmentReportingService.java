@@ -33,11 +33,14 @@
  */
 package uk.ac.ed.ph.qtiworks.services;
 
+import uk.ac.ed.ph.qtiworks.QtiWorksRuntimeException;
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
 import uk.ac.ed.ph.qtiworks.domain.DomainEntityNotFoundException;
 import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEvent;
 import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
 import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSessionOutcome;
 import uk.ac.ed.ph.qtiworks.domain.entities.Delivery;
+import uk.ac.ed.ph.qtiworks.domain.entities.LisOutcomeReportingStatus;
 import uk.ac.ed.ph.qtiworks.domain.entities.User;
 import uk.ac.ed.ph.qtiworks.services.dao.CandidateEventDao;
 import uk.ac.ed.ph.qtiworks.services.dao.CandidateSessionDao;
@@ -56,19 +59,35 @@ import uk.ac.ed.ph.jqtiplus.value.Cardinality;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 
 import org.springframework.stereotype.Service;
@@ -77,7 +96,6 @@ import org.springframework.transaction.annotation.Transactional;
 
 import com.csvreader.CsvWriter;
 import com.google.common.base.Charsets;
-import com.google.common.io.Files;
 
 /**
  * Middle tier service for reporting on assessment deliveries and candidate sessions.
@@ -90,9 +108,33 @@ import com.google.common.io.Files;
 @Transactional(readOnly=false, propagation=Propagation.REQUIRED)
 public class AssessmentReportingService {
 
+    /** Number of {@link CandidateSession}s looked up at a time when streaming CSV reports */
+    private static final int CSV_REPORT_PAGE_SIZE = 500;
+
+    /** Number of {@link CandidateSession}s looked up at a time when building result ZIPs */
+    private static final int ZIP_REPORT_PAGE_SIZE = 100;
+
+    /** Number of threads used to read in result files when building result ZIPs, shared by all downloads */
+    private static final int ZIP_WORKER_THREAD_COUNT = 4;
+
+    /**
+     * Maximum number of result file reads queued up for the ZIP worker threads. Once this is
+     * reached, downloads read in their own result files until the queue drains.
+     */
+    private static final int ZIP_WORKER_QUEUE_SIZE = 128;
+
+    /** Time after which idle ZIP worker threads are stopped */
+    private static final long ZIP_WORKER_KEEP_ALIVE_SECONDS = 60;
+
+    /** Maximum number of result files read ahead of the one currently being added to a ZIP */
+    private static final int ZIP_MAX_PENDING_ENTRIES = 32;
+
     @Resource
     private AuditLogger auditLogger;
 
+    @Resource
+    private QtiWorksDeploymentSettings qtiWorksDeploymentSettings;
+
     @Resource
     private AssessmentManagementService assessmentManagementService;
 
@@ -108,6 +150,34 @@ public class AssessmentReportingService {
     @Resource
     private CandidateSessionOutcomeDao candidateSessionOutcomeDao;
 
+    /** Executor for reading in result files when building result ZIPs */
+    private ThreadPoolExecutor zipWorkerExecutor;
+
+    @PostConstruct
+    public void init() {
+        zipWorkerExecutor = new ThreadPoolExecutor(ZIP_WORKER_THREAD_COUNT, ZIP_WORKER_THREAD_COUNT,
+                ZIP_WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(ZIP_WORKER_QUEUE_SIZE),
+                new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(final Runnable runnable, final ThreadPoolExecutor executor) {
+                        /* Queue is full (or we're shutting down), so do the read in the calling thread */
+                        runnable.run();
+                    }
+                });
+        zipWorkerExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        /* Cancel any queued reads so that downloads waiting on them fail rather than hang */
+        for (final Runnable runnable : zipWorkerExecutor.shutdownNow()) {
+            if (runnable instanceof Future) {
+                ((Future<?>) runnable).cancel(false);
+            }
+        }
+    }
+
     //-------------------------------------------------
 
     public CandidateSession lookupCandidateSession(final long xid)
@@ -149,7 +219,7 @@ public class AssessmentReportingService {
             final String outcomeIdentifier = candidateSessionOutcome.getOutcomeIdentifier();
             final String outcomeValue = candidateSessionOutcome.getStringValue();
             final BaseType baseType = candidateSessionOutcome.getBaseType();
-            if (baseType!=null && baseType.isNumeric() && candidateSessionOutcome.getCardinality()==Cardinality.SINGLE) {
+            if (isNumericOutcome(baseType, candidateSessionOutcome.getCardinality())) {
                 numericOutcomeIdentifiers.add(outcomeIdentifier);
                 numericOutcomeValues.add(outcomeValue);
             }
@@ -282,7 +352,7 @@ public class AssessmentReportingService {
             final String outcomeIdentifier = candidateSessionOutcome.getOutcomeIdentifier();
             final String outcomeValue = candidateSessionOutcome.getStringValue();
             final BaseType baseType = candidateSessionOutcome.getBaseType();
-            if (baseType!=null && baseType.isNumeric() && candidateSessionOutcome.getCardinality()==Cardinality.SINGLE) {
+            if (isNumericOutcome(baseType, candidateSessionOutcome.getCardinality())) {
                 numericOutcomeIdentifiers.add(outcomeIdentifier);
                 numericOutcomesForSession.put(outcomeIdentifier, outcomeValue);
             }
@@ -337,6 +407,13 @@ public class AssessmentReportingService {
         return new DeliveryCandidateSummaryReport(summaryMetadata, rows);
     }
 
+    /**
+     * Decides whether an outcome should be reported as a numeric outcome.
+     */
+    private static boolean isNumericOutcome(final BaseType baseType, final Cardinality cardinality) {
+        return baseType!=null && baseType.isNumeric() && cardinality==Cardinality.SINGLE;
+    }
+
     /**
      * Safely extracts an outcome value from the given Map, handling the case where the Map is null
      * or the value does not exist sensible. (These scenarios may happen if the assessment package changes
@@ -352,6 +429,9 @@ public class AssessmentReportingService {
      * Generates a UTF-8 CSV summary of all {@link CandidateSession}s for the given {@link Delivery},
      * streaming the result to the given {@link OutputStream}
      * <p>
+     * This pages through the sessions (and their outcomes) in order, writing each page out before
+     * looking up the next, so that memory use doesn't grow with the size of the {@link Delivery}.
+     * <p>
      * The stream will be flushed at the end of this; the caller is responsible for closing it.
      *
      * @param did ID (did) of the required {@link Delivery}
@@ -360,12 +440,27 @@ public class AssessmentReportingService {
     public void streamDeliveryCandidateSummaryReportCsv(final long did, final OutputStream outputStream)
             throws PrivilegeException, DomainEntityNotFoundException, IOException {
         Assert.notNull(outputStream, "outputStream");
-        final DeliveryCandidateSummaryReport report = buildDeliveryCandidateSummaryReport(did);
+        final Delivery delivery = assessmentManagementService.lookupDelivery(did);
+
+        /* Work out outcome identifiers up front */
+        final LinkedHashSet<String> numericOutcomeIdentifiers = new LinkedHashSet<String>(); /* (Ordered avoiding duplicates) */
+        final LinkedHashSet<String> otherOutcomeIdentifiers = new LinkedHashSet<String>(); /* (Ordered avoiding duplicates) */
+        for (final Object[] outcomeIdentifierData : candidateSessionOutcomeDao.getIdentifiersForDelivery(delivery)) {
+            final String outcomeIdentifier = (String) outcomeIdentifierData[0];
+            if (isNumericOutcome((BaseType) outcomeIdentifierData[1], (Cardinality) outcomeIdentifierData[2])) {
+                numericOutcomeIdentifiers.add(outcomeIdentifier);
+            }
+            else {
+                otherOutcomeIdentifiers.add(outcomeIdentifier);
+            }
+        }
+        final String ltiResultOutcomeIdentifier = delivery.getAssessment().getLtiResultOutcomeIdentifier();
+        final CandidateSessionSummaryMetadata metadata = new CandidateSessionSummaryMetadata(ltiResultOutcomeIdentifier, numericOutcomeIdentifiers, otherOutcomeIdentifiers);
+
         final CsvWriter csvWriter = new CsvWriter(outputStream, ',', Charsets.UTF_8);
         try {
             /* Write header */
             final StringBuilder headerBuilder = new StringBuilder("Session ID,Email Address,First Name,Last Name,Launch Time,Session Status");
-            final CandidateSessionSummaryMetadata metadata = report.getCandidateSessionSummaryMetadata();
             final String lisResultOutcomeIdentifier = metadata.getLisResultOutcomeIdentifier();
             if (lisResultOutcomeIdentifier!=null) {
                 /* LTI results set up, so add in details about that */
@@ -383,27 +478,92 @@ public class AssessmentReportingService {
             }
             csvWriter.writeComment(headerBuilder.toString());
 
-            /* Write each row */
-            for (final CandidateSessionSummaryData row : report.getRows()) {
-                csvWriter.write(Long.toString(row.getSessionId()));
-                csvWriter.write(StringUtilities.emptyIfNull(row.getEmailAddress()));
-                csvWriter.write(row.getFirstName());
-                csvWriter.write(row.getLastName());
-                csvWriter.write(row.getLaunchTime().toString());
-                csvWriter.write(row.getSessionStatusMessage());
-                if (lisResultOutcomeIdentifier!=null) {
-                    csvWriter.write(StringUtilities.emptyIfNull(row.getLisResultOutcomeValue()));
-                    csvWriter.write(StringUtilities.safeToStringEmptyIfNull(row.getLisScore()));
-                    csvWriter.write(StringUtilities.safeToStringEmptyIfNull(row.getLisOutcomeReportingStatus()));
+            /* Write rows, one page of sessions at a time */
+            long afterXid = 0L;
+            List<Object[]> sessionDataPage;
+            do {
+                sessionDataPage = candidateSessionDao.getSummaryDataForDeliveryAfter(delivery, afterXid, CSV_REPORT_PAGE_SIZE);
+                if (sessionDataPage.isEmpty()) {
+                    break;
                 }
-                writeOutcomes(csvWriter, metadata.getNumericOutcomeIdentifiers(), row.getNumericOutcomeValues());
-                writeOutcomes(csvWriter, metadata.getOtherOutcomeIdentifiers(), row.getOtherOutcomeValues());
-                csvWriter.endRecord();
-            }
+                final long firstXid = ((Long) sessionDataPage.get(0)[0]).longValue();
+                final long lastXid = ((Long) sessionDataPage.get(sessionDataPage.size()-1)[0]).longValue();
+
+                /* Group outcomes for this page by session */
+                final Map<Long, Map<String, String>> numericOutcomesBySessionIdMap = new HashMap<Long, Map<String,String>>();
+                final Map<Long, Map<String, String>> otherOutcomesBySessionIdMap = new HashMap<Long, Map<String,String>>();
+                for (final Object[] outcomeData : candidateSessionOutcomeDao.getValuesForDeliveryBetween(delivery, firstXid, lastXid)) {
+                    final Long xid = (Long) outcomeData[0];
+                    final String outcomeIdentifier = (String) outcomeData[1];
+                    final String outcomeValue = (String) outcomeData[4];
+                    final Map<Long, Map<String, String>> outcomesBySessionIdMap = isNumericOutcome((BaseType) outcomeData[2], (Cardinality) outcomeData[3])
+                            ? numericOutcomesBySessionIdMap : otherOutcomesBySessionIdMap;
+                    Map<String, String> outcomesForSession = outcomesBySessionIdMap.get(xid);
+                    if (outcomesForSession==null) {
+                        outcomesForSession = new HashMap<String, String>();
+                        outcomesBySessionIdMap.put(xid, outcomesForSession);
+                    }
+                    outcomesForSession.put(outcomeIdentifier, outcomeValue);
+                }
+
+                /* Then write out each session */
+                for (final Object[] sessionData : sessionDataPage) {
+                    final Long xid = (Long) sessionData[0];
+                    final Map<String, String> numericOutcomesForSession = numericOutcomesBySessionIdMap.get(xid);
+                    final Map<String, String> otherOutcomesForSession = otherOutcomesBySessionIdMap.get(xid);
+                    final List<String> numericOutcomeValues = new ArrayList<String>();
+                    for (final String outcomeIdentifier : numericOutcomeIdentifiers) {
+                        numericOutcomeValues.add(safelyExtractOutcomeValue(numericOutcomesForSession, outcomeIdentifier));
+                    }
+                    final List<String> otherOutcomeValues = new ArrayList<String>();
+                    for (final String outcomeIdentifier : otherOutcomeIdentifiers) {
+                        otherOutcomeValues.add(safelyExtractOutcomeValue(otherOutcomesForSession, outcomeIdentifier));
+                    }
+                    String ltiResultOutcomeValue = null;
+                    if (ltiResultOutcomeIdentifier!=null && numericOutcomesForSession!=null) {
+                        ltiResultOutcomeValue = safelyExtractOutcomeValue(numericOutcomesForSession, ltiResultOutcomeIdentifier);
+                    }
+                    final CandidateSessionSummaryData row = new CandidateSessionSummaryData(xid.longValue(),
+                            (Date) sessionData[1],
+                            (String) sessionData[2],
+                            (String) sessionData[3],
+                            (String) sessionData[4],
+                            sessionData[5]!=null,
+                            sessionData[6]!=null,
+                            ((Boolean) sessionData[7]).booleanValue(),
+                            (LisOutcomeReportingStatus) sessionData[8],
+                            ltiResultOutcomeValue,
+                            (Double) sessionData[9],
+                            numericOutcomeValues,
+                            otherOutcomeValues);
+                    writeCsvRow(csvWriter, metadata, row);
+                }
+                afterXid = lastXid;
+            } while (sessionDataPage.size()==CSV_REPORT_PAGE_SIZE);
         }
         finally {
             csvWriter.flush();
         }
+        auditLogger.recordEvent("Streamed candidate summary report CSV for Delivery #" + delivery.getId());
+    }
+
+    private void writeCsvRow(final CsvWriter csvWriter, final CandidateSessionSummaryMetadata metadata,
+            final CandidateSessionSummaryData row)
+            throws IOException {
+        csvWriter.write(Long.toString(row.getSessionId()));
+        csvWriter.write(StringUtilities.emptyIfNull(row.getEmailAddress()));
+        csvWriter.write(row.getFirstName());
+        csvWriter.write(row.getLastName());
+        csvWriter.write(row.getLaunchTime().toString());
+        csvWriter.write(row.getSessionStatusMessage());
+        if (metadata.getLisResultOutcomeIdentifier()!=null) {
+            csvWriter.write(StringUtilities.emptyIfNull(row.getLisResultOutcomeValue()));
+            csvWriter.write(StringUtilities.safeToStringEmptyIfNull(row.getLisScore()));
+            csvWriter.write(StringUtilities.safeToStringEmptyIfNull(row.getLisOutcomeReportingStatus()));
+        }
+        writeOutcomes(csvWriter, metadata.getNumericOutcomeIdentifiers(), row.getNumericOutcomeValues());
+        writeOutcomes(csvWriter, metadata.getOtherOutcomeIdentifiers(), row.getOtherOutcomeValues());
+        csvWriter.endRecord();
     }
 
     private void writeOutcomes(final CsvWriter csvWriter, final List<String> outcomeNames, final List<String> outcomeValues)
@@ -437,37 +597,104 @@ public class AssessmentReportingService {
     public void streamAssessmentReports(final long did, final OutputStream outputStream)
             throws DomainEntityNotFoundException, PrivilegeException, IOException {
         Assert.notNull(outputStream, "outputStream");
-
-        /* Look up sessions */
         final Delivery delivery = assessmentManagementService.lookupDelivery(did);
-        final List<CandidateSession> candidateSessions = candidateSessionDao.getForDelivery(delivery);
+        final boolean storeEntries = qtiWorksDeploymentSettings.isStoreReportZipEntries();
 
         /* Create ZIP builder */
         final ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
         boolean hasIncludedSomething = false;
-        for (final CandidateSession candidateSession : candidateSessions) {
-            if (!candidateSession.isExploded() && (candidateSession.isFinished() || candidateSession.isTerminated())) {
-                addAssessmentReport(zipOutputStream, candidateSession);
-                hasIncludedSomething = true;
+
+        /* Page through sessions, reading in result files in the background while earlier ones
+         * are being added to the ZIP in order */
+        final Deque<Future<ZipEntryData>> pendingEntries = new ArrayDeque<Future<ZipEntryData>>();
+        try {
+            long afterXid = 0L;
+            List<CandidateSession> candidateSessionPage;
+            do {
+                candidateSessionPage = candidateSessionDao.getReportableForDeliveryAfter(delivery, afterXid, ZIP_REPORT_PAGE_SIZE);
+                for (final CandidateSession candidateSession : candidateSessionPage) {
+                    final File assessmentResultFile = candidateDataService.ensureAssessmentResultFile(candidateSession);
+                    final String zipEntryName = makeReportFileName(candidateSession);
+                    pendingEntries.add(zipWorkerExecutor.submit(new Callable<ZipEntryData>() {
+                        @Override
+                        public ZipEntryData call() throws IOException {
+                            return new ZipEntryData(zipEntryName, Files.readAllBytes(assessmentResultFile.toPath()));
+                        }
+                    }));
+                    while (pendingEntries.size() > ZIP_MAX_PENDING_ENTRIES) {
+                        addAssessmentReport(zipOutputStream, pendingEntries.removeFirst(), storeEntries);
+                    }
+                    hasIncludedSomething = true;
+                    afterXid = candidateSession.getId().longValue();
+                }
+
+                /* Detach this page of sessions (and their candidates and deliveries) so that
+                 * they don't accumulate in the persistence context */
+                candidateSessionDao.flushAndClear();
+            } while (candidateSessionPage.size()==ZIP_REPORT_PAGE_SIZE);
+            while (!pendingEntries.isEmpty()) {
+                addAssessmentReport(zipOutputStream, pendingEntries.removeFirst(), storeEntries);
+            }
+        }
+        finally {
+            /* Cancel any reads left over if we failed part way through */
+            for (final Future<ZipEntryData> pendingEntry : pendingEntries) {
+                pendingEntry.cancel(true);
             }
         }
         safelyFinishZipStream(zipOutputStream, hasIncludedSomething);
         auditLogger.recordEvent("Generated assessmentResult ZIP file for delviery #" + did);
     }
 
-    private void addAssessmentReport(final ZipOutputStream zipOutputStream, final CandidateSession candidateSession)
+    private void addAssessmentReport(final ZipOutputStream zipOutputStream, final Future<ZipEntryData> zipEntryDataFuture,
+            final boolean storeEntry)
             throws IOException {
-        final File assessmentResultFile = candidateDataService.ensureAssessmentResultFile(candidateSession);
-
-        /* Work out what to call the ZIP entry */
-        final String zipEntryName = makeReportFileName(candidateSession);
+        /* Wait for result file to be read in */
+        final ZipEntryData zipEntryData;
+        try {
+            zipEntryData = zipEntryDataFuture.get();
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading assessmentResult file");
+        }
+        catch (final CancellationException e) {
+            throw new InterruptedIOException("Reading of assessmentResult file was cancelled");
+        }
+        catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw QtiWorksRuntimeException.unexpectedException(cause);
+        }
 
         /* Add result to ZIP */
-        zipOutputStream.putNextEntry(new ZipEntry(zipEntryName));
-        Files.copy(assessmentResultFile, zipOutputStream);
+        final ZipEntry zipEntry = new ZipEntry(zipEntryData.name);
+        if (storeEntry) {
+            final CRC32 crc32 = new CRC32();
+            crc32.update(zipEntryData.content);
+            zipEntry.setMethod(ZipEntry.STORED);
+            zipEntry.setSize(zipEntryData.content.length);
+            zipEntry.setCrc(crc32.getValue());
+        }
+        zipOutputStream.putNextEntry(zipEntry);
+        zipOutputStream.write(zipEntryData.content);
         zipOutputStream.closeEntry();
     }
 
+    /** Name and content of an assessmentResult file to be added to a ZIP */
+    private static final class ZipEntryData {
+
+        private final String name;
+        private final byte[] content;
+
+        public ZipEntryData(final String name, final byte[] content) {
+            this.name = name;
+            this.content = content;
+        }
+    }
+
     /**
      * Generates a suitably readable and unique name for the assessmentResult XML file for the
      * given {@link CandidateSession}
@@ -0,0 +1,304 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.QtiWorksRuntimeException;
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
+import uk.ac.ed.ph.qtiworks.domain.entities.Delivery;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.node.QtiNode;
+import uk.ac.ed.ph.jqtiplus.serialization.QtiSerializer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import com.google.common.util.concurrent.Striped;
+
+/**
+ * Helper service that writes out the assessmentResult XML files for {@link CandidateSession}s.
+ * <p>
+ * By default, each result is written immediately. If a result write delay has been configured,
+ * results are instead written in the background after this delay, with only the most recent
+ * result being written if several are recorded for the same {@link CandidateSession} within
+ * this time. Any outstanding results are written when the application is shut down.
+ * <p>
+ * This is NO authorisation at this level.
+ *
+ * @see QtiWorksDeploymentSettings#getResultWriteDelay()
+ *
+ * @author David McKain
+ */
+@Service
+public class AssessmentResultFileWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(AssessmentResultFileWriter.class);
+
+    /** Maximum time to wait for an in-progress background write to complete on shutdown */
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    @Resource
+    private QtiWorksDeploymentSettings qtiWorksDeploymentSettings;
+
+    @Resource
+    private QtiSerializer qtiSerializer;
+
+    /** Results waiting to be written in the background, keyed on {@link CandidateSession} ID */
+    private final ConcurrentMap<Long, PendingResult> pendingResultMap = new ConcurrentHashMap<Long, PendingResult>();
+
+    /** Ensures only one write happens at a time for each {@link CandidateSession} */
+    private final Striped<Lock> sessionLocks = Striped.lock(64);
+
+    /** Executor for background writes. This will be null if results are written immediately */
+    private ScheduledExecutorService executorService;
+
+    private long resultWriteDelay;
+
+    @PostConstruct
+    public void init() {
+        resultWriteDelay = qtiWorksDeploymentSettings.getResultWriteDelay();
+        if (resultWriteDelay > 0) {
+            executorService = Executors.newSingleThreadScheduledExecutor();
+        }
+    }
+
+    /**
+     * Stops background writing and writes out all results that are still pending.
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (executorService==null) {
+            return;
+        }
+        executorService.shutdownNow();
+        try {
+            if (!executorService.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                logger.warn("Timed out waiting for background assessmentResult write to complete");
+            }
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        final List<Long> candidateSessionIds = new ArrayList<Long>(pendingResultMap.keySet());
+        logger.info("Writing {} pending assessmentResult file(s) on shutdown", candidateSessionIds.size());
+        for (final Long candidateSessionId : candidateSessionIds) {
+            try {
+                writePendingResult(candidateSessionId);
+            }
+            catch (final RuntimeException e) {
+                logger.error("Failed to write pending assessmentResult for CandidateSession #" + candidateSessionId, e);
+            }
+        }
+    }
+
+    //-------------------------------------------------
+
+    /**
+     * Records the given result node for the given {@link CandidateSession}, which will be written to
+     * the given file either immediately or in the background.
+     *
+     * @param immediately true to write the result immediately, regardless of any configured delay.
+     *   This is used when the result is final.
+     */
+    public void writeResultFile(final CandidateSession candidateSession, final File resultFile,
+            final QtiNode resultNode, final boolean immediately) {
+        Assert.notNull(candidateSession, "candidateSession");
+        Assert.notNull(resultFile, "resultFile");
+        Assert.notNull(resultNode, "resultNode");
+        final Long candidateSessionId = candidateSession.getId();
+        final PendingResult pendingResult = new PendingResult(candidateSession.getDelivery().getId(), resultFile, resultNode);
+        if (executorService==null || immediately) {
+            final Lock lock = sessionLocks.get(candidateSessionId);
+            lock.lock();
+            try {
+                pendingResultMap.remove(candidateSessionId);
+                pendingResult.write();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+        else if (pendingResultMap.put(candidateSessionId, pendingResult)==null) {
+            /* Nothing already queued, so schedule write. (Otherwise we simply replace what's
+             * queued, which is then picked up by the write that's already scheduled.) */
+            executorService.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        writePendingResult(candidateSessionId);
+                    }
+                    catch (final RuntimeException e) {
+                        logger.error("Failed to write assessmentResult for CandidateSession #" + candidateSessionId, e);
+                    }
+                }
+            }, resultWriteDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes out any pending result for the given {@link CandidateSession}, blocking until done.
+     * This should be called before the assessmentResult file is read.
+     */
+    public void flush(final CandidateSession candidateSession) {
+        Assert.notNull(candidateSession, "candidateSession");
+        writePendingResult(candidateSession.getId());
+    }
+
+    /**
+     * Discards any pending result for the given {@link CandidateSession}. This should be called
+     * when deleting its data.
+     */
+    public void discard(final CandidateSession candidateSession) {
+        Assert.notNull(candidateSession, "candidateSession");
+        final Long candidateSessionId = candidateSession.getId();
+        final Lock lock = sessionLocks.get(candidateSessionId);
+        lock.lock();
+        try {
+            pendingResultMap.remove(candidateSessionId);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Discards any pending results for {@link CandidateSession}s within the given {@link Delivery}.
+     * This should be called when deleting its data.
+     */
+    public void discard(final Delivery delivery) {
+        Assert.notNull(delivery, "delivery");
+        for (final Entry<Long, PendingResult> entry : pendingResultMap.entrySet()) {
+            if (entry.getValue().deliveryId.equals(delivery.getId())) {
+                final Lock lock = sessionLocks.get(entry.getKey());
+                lock.lock();
+                try {
+                    pendingResultMap.remove(entry.getKey(), entry.getValue());
+                }
+                finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    private void writePendingResult(final Long candidateSessionId) {
+        final Lock lock = sessionLocks.get(candidateSessionId);
+        lock.lock();
+        try {
+            final PendingResult pendingResult = pendingResultMap.remove(candidateSessionId);
+            if (pendingResult!=null) {
+                pendingResult.write();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private static void moveIntoPlace(final Path tempPath, final Path resultPath) throws IOException {
+        try {
+            Files.move(tempPath, resultPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (final AtomicMoveNotSupportedException e) {
+            /* (The file is in the same directory, so this shouldn't really happen) */
+            Files.move(tempPath, resultPath, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    //-------------------------------------------------
+
+    private final class PendingResult {
+
+        private final Long deliveryId;
+        private final File resultFile;
+        private final QtiNode resultNode;
+
+        public PendingResult(final Long deliveryId, final File resultFile, final QtiNode resultNode) {
+            this.deliveryId = deliveryId;
+            this.resultFile = resultFile;
+            this.resultNode = resultNode;
+        }
+
+        /**
+         * Writes the result to a temporary file in the same directory as the result file, then
+         * moves it into place. This ensures that readers of the result file never see a partially
+         * written result, even if the write fails or the application dies part way through.
+         */
+        public void write() {
+            File tempFile = null;
+            FileOutputStream resultStream = null;
+            try {
+                tempFile = File.createTempFile(resultFile.getName(), ".tmp", resultFile.getParentFile());
+                resultStream = new FileOutputStream(tempFile);
+                qtiSerializer.serializeJqtiObject(resultNode, resultStream);
+                resultStream.close();
+                resultStream = null;
+                moveIntoPlace(tempFile.toPath(), resultFile.toPath());
+                tempFile = null;
+            }
+            catch (final Exception e) {
+                throw QtiWorksRuntimeException.unexpectedException(e);
+            }
+            finally {
+                ServiceUtilities.ensureClose(resultStream);
+                if (tempFile!=null && !tempFile.delete()) {
+                    logger.warn("Failed to delete temporary assessmentResult file {}", tempFile);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
+import uk.ac.ed.ph.qtiworks.domain.entities.AssessmentPackage;
+import uk.ac.ed.ph.qtiworks.domain.entities.Delivery;
+import uk.ac.ed.ph.qtiworks.rendering.AssessmentRenderer;
+import uk.ac.ed.ph.qtiworks.services.dao.DeliveryDao;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Pair;
+import uk.ac.ed.ph.jqtiplus.node.AssessmentObjectType;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Resource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Pre-fills the caches used when delivering assessments to candidates, namely the
+ * processing map cache managed by {@link AssessmentObjectManagementService} and the
+ * compiled XSLT stylesheets used by the {@link AssessmentRenderer}.
+ * <p>
+ * This is invoked at startup by {@link ScheduledService} when enabled via
+ * {@link QtiWorksDeploymentSettings#isWarmCachesOnStartup()}, and can also be invoked
+ * via the QTIWorks Engine Manager (which is mainly useful for timing purposes).
+ * <p>
+ * This is NO authorisation at this level.
+ *
+ * @author David McKain
+ */
+@Service
+@Transactional(readOnly=true, propagation=Propagation.SUPPORTS)
+public class CacheWarmingService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheWarmingService.class);
+
+    @Resource
+    private QtiWorksDeploymentSettings qtiWorksDeploymentSettings;
+
+    @Resource
+    private AssessmentObjectManagementService assessmentObjectManagementService;
+
+    @Resource
+    private AssessmentRenderer assessmentRenderer;
+
+    @Resource
+    private DeliveryDao deliveryDao;
+
+    //-------------------------------------------------
+
+    /**
+     * Warms the caches using the number of threads specified by
+     * {@link QtiWorksDeploymentSettings#getCacheWarmingThreadCount()}.
+     *
+     * @see #warmCaches(int)
+     */
+    public Pair<Integer, Integer> warmCaches() {
+        return warmCaches(qtiWorksDeploymentSettings.getCacheWarmingThreadCount());
+    }
+
+    /**
+     * Resolves and caches the {@link AssessmentPackage}s selected for all open {@link Delivery Deliveries},
+     * and precompiles the rendering stylesheets. This work is performed in parallel on a pool
+     * of the given number of threads, with this method blocking until everything is complete.
+     *
+     * @param threadCount number of threads to use. A value of 0 or less will use one thread
+     *   per available CPU.
+     *
+     * @return {@link Pair} containing the number of packages that failed to load and the
+     *   total number of packages
+     */
+    public Pair<Integer, Integer> warmCaches(final int threadCount) {
+        final long beforeTimestamp = System.currentTimeMillis();
+
+        /* Gather up distinct packages used by open deliveries. (We do this in the calling thread
+         * so that the work done by the pool doesn't need any access to the entity manager.) */
+        final Map<Long, AssessmentPackage> assessmentPackageMap = new LinkedHashMap<Long, AssessmentPackage>();
+        for (final Delivery delivery : deliveryDao.getOpenWithAssessment()) {
+            final AssessmentPackage assessmentPackage = delivery.getAssessment().getSelectedAssessmentPackage();
+            if (assessmentPackage!=null) {
+                assessmentPackageMap.put(assessmentPackage.getId(), assessmentPackage);
+            }
+        }
+        final int packageCount = assessmentPackageMap.size();
+        final int poolSize = threadCount > 0 ? threadCount : Runtime.getRuntime().availableProcessors();
+        logger.info("Warming caches for {} assessment package(s) using {} thread(s)", packageCount, poolSize);
+
+        /* Submit tasks */
+        final AtomicInteger completedCount = new AtomicInteger();
+        final ExecutorService executorService = Executors.newFixedThreadPool(poolSize);
+        final List<Future<Boolean>> packageFutures = new ArrayList<Future<Boolean>>(packageCount);
+        final Future<Integer> stylesheetFuture;
+        try {
+            stylesheetFuture = executorService.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return Integer.valueOf(precompileStylesheets());
+                }
+            });
+            for (final AssessmentPackage assessmentPackage : assessmentPackageMap.values()) {
+                packageFutures.add(executorService.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        final long startTimestamp = System.currentTimeMillis();
+                        final boolean success = warmAssessmentPackage(assessmentPackage);
+                        logger.info("Warmed package #{} ({}/{}) in {}ms{}", new Object[] {
+                                assessmentPackage.getId(), completedCount.incrementAndGet(), packageCount,
+                                System.currentTimeMillis() - startTimestamp, success ? "" : " (FAILED)"
+                        });
+                        return Boolean.valueOf(success);
+                    }
+                }));
+            }
+        }
+        finally {
+            executorService.shutdown();
+        }
+
+        /* Wait for results */
+        int failureCount = 0;
+        try {
+            stylesheetFuture.get();
+        }
+        catch (final ExecutionException e) {
+            logger.warn("Failed to precompile rendering stylesheets", e.getCause());
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while waiting for stylesheets to compile");
+        }
+        for (final Future<Boolean> packageFuture : packageFutures) {
+            try {
+                if (!packageFuture.get().booleanValue()) {
+                    failureCount++;
+                }
+            }
+            catch (final ExecutionException e) {
+                logger.warn("Unexpected Exception warming cache", e.getCause());
+                failureCount++;
+            }
+            catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warn("Interrupted while waiting for caches to be warmed");
+                executorService.shutdownNow();
+                break;
+            }
+        }
+
+        final long duration = System.currentTimeMillis() - beforeTimestamp;
+        logger.info("Warmed caches for {} assessment package(s) in {}ms with {} failure(s)",
+                new Object[] { packageCount, duration, failureCount });
+        return new Pair<Integer, Integer>(Integer.valueOf(failureCount), Integer.valueOf(packageCount));
+    }
+
+    /**
+     * Precompiles the stylesheets used by the {@link AssessmentRenderer}. This is fairly cheap,
+     * so is always done at startup.
+     *
+     * @return number of stylesheets precompiled
+     */
+    public int precompileStylesheets() {
+        final long startTimestamp = System.currentTimeMillis();
+        final int stylesheetCount = assessmentRenderer.precompileStylesheets();
+        logger.info("Precompiled {} rendering stylesheet(s) in {}ms. Cache is now {}", new Object[] {
+                stylesheetCount, System.currentTimeMillis() - startTimestamp, assessmentRenderer.getXsltStylesheetCache()
+        });
+        return stylesheetCount;
+    }
+
+    private boolean warmAssessmentPackage(final AssessmentPackage assessmentPackage) {
+        final AssessmentObjectType assessmentType = assessmentPackage.getAssessmentType();
+        if (assessmentType==AssessmentObjectType.ASSESSMENT_ITEM) {
+            return assessmentObjectManagementService.getItemProcessingMap(assessmentPackage)!=null;
+        }
+        else if (assessmentType==AssessmentObjectType.ASSESSMENT_TEST) {
+            return assessmentObjectManagementService.getTestProcessingMap(assessmentPackage)!=null;
+        }
+        return false;
+    }
+}
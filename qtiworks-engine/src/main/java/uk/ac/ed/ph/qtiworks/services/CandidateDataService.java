@@ -50,16 +50,18 @@ import uk.ac.ed.ph.qtiworks.domain.entities.TestDeliverySettings;
 import uk.ac.ed.ph.qtiworks.domain.entities.User;
 import uk.ac.ed.ph.qtiworks.mathassess.GlueValueBinder;
 import uk.ac.ed.ph.qtiworks.mathassess.MathAssessConstants;
+import uk.ac.ed.ph.qtiworks.services.TestSessionStateDeltaChain.StateFileLocator;
+import uk.ac.ed.ph.qtiworks.services.TestSessionStateDeltaChain.StoredTestSessionState;
 import uk.ac.ed.ph.qtiworks.services.dao.CandidateEventDao;
 import uk.ac.ed.ph.qtiworks.services.dao.CandidateEventNotificationDao;
 import uk.ac.ed.ph.qtiworks.services.dao.CandidateSessionOutcomeDao;
-import uk.ac.ed.ph.qtiworks.utils.XmlUtilities;
 
 import uk.ac.ed.ph.jqtiplus.JqtiExtensionManager;
 import uk.ac.ed.ph.jqtiplus.JqtiPlus;
 import uk.ac.ed.ph.jqtiplus.QtiConstants;
 import uk.ac.ed.ph.jqtiplus.attribute.Attribute;
 import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
 import uk.ac.ed.ph.jqtiplus.node.AssessmentObjectType;
 import uk.ac.ed.ph.jqtiplus.node.QtiNode;
 import uk.ac.ed.ph.jqtiplus.node.result.AbstractResult;
@@ -80,8 +82,13 @@ import uk.ac.ed.ph.jqtiplus.state.TestPlan;
 import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
 import uk.ac.ed.ph.jqtiplus.state.TestProcessingMap;
 import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.BinaryUnmarshallingException;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.ItemSessionStateBinaryMarshaller;
 import uk.ac.ed.ph.jqtiplus.state.marshalling.ItemSessionStateXmlMarshaller;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateBinaryMarshaller;
 import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateXmlMarshaller;
+import uk.ac.ed.ph.jqtiplus.value.BaseType;
+import uk.ac.ed.ph.jqtiplus.value.Cardinality;
 import uk.ac.ed.ph.jqtiplus.value.RecordValue;
 import uk.ac.ed.ph.jqtiplus.value.SingleValue;
 import uk.ac.ed.ph.jqtiplus.value.Value;
@@ -89,15 +96,19 @@ import uk.ac.ed.ph.jqtiplus.xmlutils.XmlSourceLocationInformation;
 import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.XsltSerializationOptions;
 import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.XsltStylesheetManager;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
-import javax.xml.parsers.DocumentBuilder;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.dom.DOMSource;
@@ -109,6 +120,8 @@ import org.springframework.transaction.annotation.Transactional;
 import org.w3c.dom.Document;
 
 import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.io.Files;
 
 /**
@@ -121,6 +134,20 @@ import com.google.common.io.Files;
 @Transactional(propagation=Propagation.SUPPORTS)
 public class CandidateDataService {
 
+    /** Order to look for state files when using XML storage */
+    private static final String[] xmlFirstStateFileExtensions = new String[] {
+        TestSessionStateDeltaChain.XML_STATE_FILE_EXTENSION,
+        TestSessionStateDeltaChain.BINARY_STATE_FILE_EXTENSION,
+        TestSessionStateDeltaChain.DELTA_STATE_FILE_EXTENSION
+    };
+
+    /** Order to look for state files when using binary storage */
+    private static final String[] binaryFirstStateFileExtensions = new String[] {
+        TestSessionStateDeltaChain.BINARY_STATE_FILE_EXTENSION,
+        TestSessionStateDeltaChain.DELTA_STATE_FILE_EXTENSION,
+        TestSessionStateDeltaChain.XML_STATE_FILE_EXTENSION
+    };
+
     @Resource
     private QtiWorksDeploymentSettings qtiWorksDeploymentSettings;
 
@@ -148,9 +175,41 @@ public class CandidateDataService {
     @Resource
     private QtiSerializer qtiSerializer;
 
+    @Resource
+    private AssessmentResultFileWriter assessmentResultFileWriter;
+
     @Resource
     private JqtiExtensionManager jqtiExtensionManager;
 
+    /**
+     * Remembers the most recently stored {@link TestSessionState} for each recently active
+     * {@link CandidateSession}, keyed on its ID. This is used to work out what has changed
+     * when storing deltas.
+     */
+    private Cache<Long, StoredTestSessionState> storedTestSessionStateCache;
+
+    /**
+     * Remembers the most recent {@link CandidateEvent} and corresponding state for each recently
+     * active {@link CandidateSession}, keyed on its ID. This saves the database and filesystem
+     * lookups normally needed at the start of each candidate action and rendering.
+     * <p>
+     * This is updated whenever a new event is recorded, so assumes that this is the only
+     * instance of QTIWorks writing to the database.
+     */
+    private Cache<Long, LatestSessionState> latestSessionStateCache;
+
+    @PostConstruct
+    public void init() {
+        storedTestSessionStateCache = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(qtiWorksDeploymentSettings.getStateDeltaCacheMaxEntries(), 0))
+                .expireAfterAccess(1, TimeUnit.HOURS)
+                .build();
+        latestSessionStateCache = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(qtiWorksDeploymentSettings.getCandidateStateCacheMaxEntries(), 0))
+                .expireAfterAccess(1, TimeUnit.HOURS)
+                .build();
+    }
+
     //----------------------------------------------------
     // Notification recording
 
@@ -226,13 +285,33 @@ public class CandidateDataService {
     // Item methods
 
     public void storeItemSessionState(final CandidateEvent candidateEvent, final ItemSessionState itemSessionState) {
-        final Document stateDocument = ItemSessionStateXmlMarshaller.marshal(itemSessionState);
-        storeStateDocument(candidateEvent, stateDocument);
+        if (qtiWorksDeploymentSettings.isBinaryStateStorage()) {
+            final byte[] stateData = ItemSessionStateBinaryMarshaller.marshal(itemSessionState);
+            storeStateBinary(candidateEvent, TestSessionStateDeltaChain.BINARY_STATE_FILE_EXTENSION, stateData);
+            rememberLatestSessionState(candidateEvent, stateData);
+        }
+        else {
+            final Document stateDocument = ItemSessionStateXmlMarshaller.marshal(itemSessionState);
+            storeStateDocument(candidateEvent, stateDocument);
+        }
     }
 
     public ItemSessionState loadItemSessionState(final CandidateEvent candidateEvent) {
-        final Document document = loadStateDocument(candidateEvent);
-        return ItemSessionStateXmlMarshaller.unmarshal(document.getDocumentElement());
+        byte[] stateData = getLatestSessionStateData(candidateEvent);
+        if (stateData==null) {
+            final File sessionStateFile = ensureSessionStateFile(candidateEvent);
+            if (!TestSessionStateDeltaChain.isBinaryStateFile(sessionStateFile)) {
+                final Document document = TestSessionStateDeltaChain.loadStateDocument(sessionStateFile);
+                return ItemSessionStateXmlMarshaller.unmarshal(document.getDocumentElement());
+            }
+            stateData = TestSessionStateDeltaChain.readStateFile(sessionStateFile);
+        }
+        try {
+            return ItemSessionStateBinaryMarshaller.unmarshal(stateData);
+        }
+        catch (final BinaryUnmarshallingException e) {
+            throw new QtiWorksLogicException("Could not parse serialized binary state. This is an internal error as we currently don't expose this data to clients", e);
+        }
     }
 
     public CandidateEvent recordCandidateItemEvent(final CandidateSession candidateSession,
@@ -392,13 +471,65 @@ public class CandidateDataService {
     // Test methods
 
     public void storeTestSessionState(final CandidateEvent candidateEvent, final TestSessionState testSessionState) {
-        final Document stateDocument = TestSessionStateXmlMarshaller.marshal(testSessionState);
-        storeStateDocument(candidateEvent, stateDocument);
+        if (qtiWorksDeploymentSettings.isBinaryStateStorage()) {
+            final byte[] stateData = TestSessionStateBinaryMarshaller.marshal(testSessionState);
+            if (qtiWorksDeploymentSettings.getStateCheckpointInterval()>1) {
+                storeTestSessionStateCheckpointOrDelta(candidateEvent, testSessionState, stateData);
+            }
+            else {
+                storeStateBinary(candidateEvent, TestSessionStateDeltaChain.BINARY_STATE_FILE_EXTENSION, stateData);
+            }
+            rememberLatestSessionState(candidateEvent, stateData);
+        }
+        else {
+            final Document stateDocument = TestSessionStateXmlMarshaller.marshal(testSessionState);
+            storeStateDocument(candidateEvent, stateDocument);
+        }
+    }
+
+    /**
+     * Stores the given {@link TestSessionState} as a full checkpoint or a delta against the
+     * state stored for the previous event in the same {@link CandidateSession}.
+     *
+     * @see TestSessionStateDeltaChain
+     */
+    private void storeTestSessionStateCheckpointOrDelta(final CandidateEvent candidateEvent, final TestSessionState testSessionState,
+            final byte[] stateData) {
+        final CandidateSession candidateSession = candidateEvent.getCandidateSession();
+        final Long xid = candidateSession.getId();
+        final StoredTestSessionState previousState = storedTestSessionStateCache.getIfPresent(xid);
+        final StoredTestSessionState storedState = getTestSessionStateDeltaChain(candidateSession)
+                .store(candidateEvent.getId().longValue(), testSessionState, stateData, previousState);
+        storedTestSessionStateCache.put(xid, storedState);
     }
 
     public TestSessionState loadTestSessionState(final CandidateEvent candidateEvent) {
-        final Document document = loadStateDocument(candidateEvent);
-        return TestSessionStateXmlMarshaller.unmarshal(document.getDocumentElement());
+        final byte[] latestStateData = getLatestSessionStateData(candidateEvent);
+        if (latestStateData!=null) {
+            try {
+                return TestSessionStateBinaryMarshaller.unmarshal(latestStateData);
+            }
+            catch (final BinaryUnmarshallingException e) {
+                throw new QtiWorksLogicException("Could not parse serialized binary state. This is an internal error as we currently don't expose this data to clients", e);
+            }
+        }
+        return getTestSessionStateDeltaChain(candidateEvent.getCandidateSession())
+                .load(candidateEvent.getId().longValue());
+    }
+
+    private TestSessionStateDeltaChain getTestSessionStateDeltaChain(final CandidateSession candidateSession) {
+        return new TestSessionStateDeltaChain(new StateFileLocator() {
+
+            @Override
+            public File getStateFile(final long eventId, final String fileExtension) {
+                return getSessionStateFile(candidateSession, eventId, fileExtension);
+            }
+
+            @Override
+            public File ensureStateFile(final long eventId) {
+                return ensureSessionStateFile(candidateSession, eventId);
+            }
+        }, qtiWorksDeploymentSettings.getStateCheckpointInterval());
     }
 
     /**
@@ -572,18 +703,11 @@ public class CandidateDataService {
     // State file management
 
     private void storeStateDocument(final CandidateEvent candidateEvent, final Document stateXml) {
-        final File sessionFile = getSessionStateFile(candidateEvent);
-        final XsltSerializationOptions xsltSerializationOptions = new XsltSerializationOptions();
-        xsltSerializationOptions.setIndenting(true);
-        xsltSerializationOptions.setIncludingXMLDeclaration(false);
-        final Transformer serializer = XsltStylesheetManager.createSerializer(xsltSerializationOptions);
+        final File sessionFile = getSessionStateFile(candidateEvent, TestSessionStateDeltaChain.XML_STATE_FILE_EXTENSION);
         FileOutputStream resultStream = null;
         try {
             resultStream = new FileOutputStream(sessionFile);
-            serializer.transform(new DOMSource(stateXml), new StreamResult(resultStream));
-        }
-        catch (final TransformerException e) {
-            throw new QtiWorksRuntimeException("Unexpected Exception serializing state DOM", e);
+            serializeStateDocument(stateXml, resultStream);
         }
         catch (final FileNotFoundException e) {
             throw QtiWorksRuntimeException.unexpectedException(e);
@@ -593,31 +717,73 @@ public class CandidateDataService {
         }
     }
 
-    private Document loadStateDocument(final CandidateEvent candidateEvent) {
-        final File sessionFile = ensureSessionStateFile(candidateEvent);
-        final DocumentBuilder documentBuilder = XmlUtilities.createNsAwareDocumentBuilder();
+    private void serializeStateDocument(final Document stateXml, final OutputStream outputStream) {
+        final XsltSerializationOptions xsltSerializationOptions = new XsltSerializationOptions();
+        xsltSerializationOptions.setIndenting(true);
+        xsltSerializationOptions.setIncludingXMLDeclaration(false);
+        final Transformer serializer = XsltStylesheetManager.createSerializer(xsltSerializationOptions);
         try {
-            return documentBuilder.parse(sessionFile);
+            serializer.transform(new DOMSource(stateXml), new StreamResult(outputStream));
         }
-        catch (final Exception e) {
-            throw new QtiWorksLogicException("Could not parse serailized state XML. This is an internal error as we currently don't expose this data to clients", e);
+        catch (final TransformerException e) {
+            throw new QtiWorksRuntimeException("Unexpected Exception serializing state DOM", e);
         }
     }
 
+    private void storeStateBinary(final CandidateEvent candidateEvent, final String fileExtension, final byte[] stateData) {
+        TestSessionStateDeltaChain.writeStateFile(getSessionStateFile(candidateEvent, fileExtension), stateData);
+    }
+
+    /**
+     * Returns the state recorded for the given {@link CandidateEvent} as XML, converting it from
+     * the binary format if that is how it was stored. This is used when showing the state
+     * to authors.
+     */
+    public byte[] readSessionStateXml(final CandidateEvent candidateEvent) {
+        final File sessionStateFile = ensureSessionStateFile(candidateEvent);
+        if (TestSessionStateDeltaChain.isXmlStateFile(sessionStateFile)) {
+            return TestSessionStateDeltaChain.readStateFile(sessionStateFile);
+        }
+        final AssessmentObjectType assessmentType = candidateEvent.getCandidateSession().getDelivery().getAssessment().getAssessmentType();
+        final Document stateDocument = assessmentType==AssessmentObjectType.ASSESSMENT_ITEM
+                ? ItemSessionStateXmlMarshaller.marshal(loadItemSessionState(candidateEvent))
+                : TestSessionStateXmlMarshaller.marshal(loadTestSessionState(candidateEvent));
+        final ByteArrayOutputStream resultStream = new ByteArrayOutputStream();
+        serializeStateDocument(stateDocument, resultStream);
+        return resultStream.toByteArray();
+    }
+
+    /**
+     * Returns the file holding the state for the given {@link CandidateEvent}. This will be in
+     * the XML, binary or binary delta format, depending on how the deployment was configured when
+     * the event was recorded.
+     */
     public File ensureSessionStateFile(final CandidateEvent candidateEvent) {
-        final File sessionStateFile = getSessionStateFile(candidateEvent);
-        if (!sessionStateFile.exists()) {
-            throw new QtiWorksLogicException("Expectation failed: State file " + sessionStateFile + " does not exist");
+        return ensureSessionStateFile(candidateEvent.getCandidateSession(), candidateEvent.getId().longValue());
+    }
+
+    private File ensureSessionStateFile(final CandidateSession candidateSession, final long eventId) {
+        /* Look for the currently-configured format first, as this is the most likely */
+        final String[] fileExtensions = qtiWorksDeploymentSettings.isBinaryStateStorage() ? binaryFirstStateFileExtensions : xmlFirstStateFileExtensions;
+        for (final String fileExtension : fileExtensions) {
+            final File sessionStateFile = getSessionStateFile(candidateSession, eventId, fileExtension);
+            if (sessionStateFile.exists()) {
+                return sessionStateFile;
+            }
         }
-        return sessionStateFile;
+        throw new QtiWorksLogicException("Expectation failed: State file "
+                + getSessionStateFile(candidateSession, eventId, fileExtensions[0]) + " does not exist");
     }
 
-    private File getSessionStateFile(final CandidateEvent candidateEvent) {
-        final CandidateSession candidateSession = candidateEvent.getCandidateSession();
+    private File getSessionStateFile(final CandidateEvent candidateEvent, final String fileExtension) {
+        return getSessionStateFile(candidateEvent.getCandidateSession(), candidateEvent.getId().longValue(), fileExtension);
+    }
+
+    private File getSessionStateFile(final CandidateSession candidateSession, final long eventId, final String fileExtension) {
         final AssessmentObjectType assessmentType = candidateSession.getDelivery().getAssessment().getAssessmentType();
         final String stateFileBaseName = assessmentType==AssessmentObjectType.ASSESSMENT_ITEM ? "itemSessionState" : "testSessionState";
         final File sessionFolder = filespaceManager.obtainCandidateSessionStateStore(candidateSession);
-        final String stateFileName = stateFileBaseName + candidateEvent.getId() + ".xml";
+        final String stateFileName = stateFileBaseName + eventId + fileExtension;
         return new File(sessionFolder, stateFileName);
     }
 
@@ -625,21 +791,23 @@ public class CandidateDataService {
     // Result file management
 
     private void storeAssessmentResultFile(final CandidateSession candidateSession, final QtiNode resultNode) {
-        final File resultFile = getAssessmentResultFile(candidateSession);
-        FileOutputStream resultStream = null;
-        try {
-            resultStream = new FileOutputStream(resultFile);
-            qtiSerializer.serializeJqtiObject(resultNode, resultStream);
-        }
-        catch (final Exception e) {
-            throw QtiWorksRuntimeException.unexpectedException(e);
-        }
-        finally {
-            ServiceUtilities.ensureClose(resultStream);
-        }
+        /* Write final results immediately. (Sessions are finished after the result is recorded,
+         * so CandidateSessionFinisher flushes those instead.) */
+        final boolean immediately = candidateSession.isTerminated();
+        assessmentResultFileWriter.writeResultFile(candidateSession, getAssessmentResultFile(candidateSession),
+                resultNode, immediately);
+    }
+
+    /**
+     * Ensures that the assessmentResult file for the given {@link CandidateSession} is up to
+     * date, writing out any result that is still pending.
+     */
+    public void flushAssessmentResultFile(final CandidateSession candidateSession) {
+        assessmentResultFileWriter.flush(candidateSession);
     }
 
     public File ensureAssessmentResultFile(final CandidateSession candidateSession) {
+        assessmentResultFileWriter.flush(candidateSession);
         final File resultFile = getAssessmentResultFile(candidateSession);
         if (!resultFile.exists()) {
             throw new QtiWorksLogicException("Expectation failed: assessmentResult file " + resultFile + " does not exist");
@@ -653,6 +821,7 @@ public class CandidateDataService {
     }
 
     public String readAssessmentResultFile(final CandidateSession candidateSession) {
+        assessmentResultFileWriter.flush(candidateSession);
         final File resultFile = getAssessmentResultFile(candidateSession);
         if (!resultFile.exists()) {
             return null;
@@ -674,23 +843,123 @@ public class CandidateDataService {
      * yet entered.
      */
     public CandidateEvent getMostRecentEvent(final CandidateSession candidateSession)  {
+        final LatestSessionState latestSessionState = getLatestSessionState(candidateSession);
+        if (latestSessionState!=null) {
+            /* Look up event directly, checking it's still there in case the transaction that
+             * recorded it was rolled back */
+            final CandidateEvent candidateEvent = candidateEventDao.findById(latestSessionState.eventId);
+            if (candidateEvent!=null && candidateEvent.getCandidateSession().getId().equals(candidateSession.getId())) {
+                return candidateEvent;
+            }
+            forgetSessionState(candidateSession);
+        }
         return candidateEventDao.getNewestEventInSession(candidateSession);
     }
 
+    /**
+     * Discards any state remembered in memory for the given {@link CandidateSession}.
+     * This should be called when the {@link CandidateSession} is deleted.
+     */
+    public void forgetSessionState(final CandidateSession candidateSession) {
+        Assert.notNull(candidateSession, "candidateSession");
+        latestSessionStateCache.invalidate(candidateSession.getId());
+        storedTestSessionStateCache.invalidate(candidateSession.getId());
+    }
+
+    /**
+     * Discards any state remembered in memory for the {@link CandidateSession}s having the
+     * given IDs. This should be called when these sessions are deleted in bulk.
+     */
+    public void forgetSessionStates(final Iterable<Long> xids) {
+        Assert.notNull(xids, "xids");
+        latestSessionStateCache.invalidateAll(xids);
+        storedTestSessionStateCache.invalidateAll(xids);
+    }
+
+    /**
+     * Remembers the (binary) state recorded for the given {@link CandidateEvent} as the latest
+     * state for its {@link CandidateSession}. We don't bother for terminated sessions, as
+     * they won't be used much more. This is only used when binary state storage is selected;
+     * XML state is always reloaded from its file.
+     */
+    private void rememberLatestSessionState(final CandidateEvent candidateEvent, final byte[] stateData) {
+        final CandidateSession candidateSession = candidateEvent.getCandidateSession();
+        if (candidateSession.isTerminated()) {
+            latestSessionStateCache.invalidate(candidateSession.getId());
+        }
+        else {
+            latestSessionStateCache.put(candidateSession.getId(), new LatestSessionState(candidateEvent.getId().longValue(), stateData));
+        }
+    }
+
+    private LatestSessionState getLatestSessionState(final CandidateSession candidateSession) {
+        final Long xid = candidateSession.getId();
+        if (candidateSession.isTerminated()) {
+            latestSessionStateCache.invalidate(xid);
+            return null;
+        }
+        return latestSessionStateCache.getIfPresent(xid);
+    }
+
+    /**
+     * Returns the remembered binary state for the given {@link CandidateEvent}, or null if
+     * this event is no longer the latest one remembered for its {@link CandidateSession}.
+     * (We always unmarshal a fresh copy of the state from this, as controllers modify
+     * the state objects they're given.)
+     */
+    private byte[] getLatestSessionStateData(final CandidateEvent candidateEvent) {
+        final LatestSessionState latestSessionState = getLatestSessionState(candidateEvent.getCandidateSession());
+        if (latestSessionState!=null && latestSessionState.eventId==candidateEvent.getId().longValue()) {
+            return latestSessionState.stateData;
+        }
+        return null;
+    }
+
+    /**
+     * Records the outcome variables (and duration) in the given result for the given
+     * {@link CandidateSession}, updating only those that have actually changed since they
+     * were last recorded.
+     */
     private void recordOutcomeVariables(final CandidateSession candidateSession, final AbstractResult resultNode) {
-        candidateSessionOutcomeDao.deleteForCandidateSession(candidateSession);
+        /* Look up existing outcomes */
+        final Map<String, CandidateSessionOutcome> existingOutcomeMap = new HashMap<String, CandidateSessionOutcome>();
+        for (final CandidateSessionOutcome existingOutcome : candidateSessionOutcomeDao.getForSession(candidateSession)) {
+            existingOutcomeMap.put(existingOutcome.getOutcomeIdentifier(), existingOutcome);
+        }
+
+        /* Add or update outcomes as required */
         for (final ItemVariable itemVariable : resultNode.getItemVariables()) {
             if (itemVariable instanceof OutcomeVariable
                     || QtiConstants.VARIABLE_DURATION_IDENTIFIER.equals(itemVariable.getIdentifier())) {
-                final CandidateSessionOutcome outcome = new CandidateSessionOutcome();
-                outcome.setCandidateSession(candidateSession);
-                outcome.setOutcomeIdentifier(itemVariable.getIdentifier().toString());
-                outcome.setBaseType(itemVariable.getBaseType());
-                outcome.setCardinality(itemVariable.getCardinality());
-                outcome.setStringValue(stringifyQtiValue(itemVariable.getComputedValue()));
-                candidateSessionOutcomeDao.persist(outcome);
+                final String outcomeIdentifier = itemVariable.getIdentifier().toString();
+                final BaseType baseType = itemVariable.getBaseType();
+                final Cardinality cardinality = itemVariable.getCardinality();
+                final String stringValue = stringifyQtiValue(itemVariable.getComputedValue());
+                final CandidateSessionOutcome existingOutcome = existingOutcomeMap.remove(outcomeIdentifier);
+                if (existingOutcome==null) {
+                    final CandidateSessionOutcome outcome = new CandidateSessionOutcome();
+                    outcome.setCandidateSession(candidateSession);
+                    outcome.setOutcomeIdentifier(outcomeIdentifier);
+                    outcome.setBaseType(baseType);
+                    outcome.setCardinality(cardinality);
+                    outcome.setStringValue(stringValue);
+                    candidateSessionOutcomeDao.persist(outcome);
+                }
+                else if (existingOutcome.getBaseType()!=baseType
+                        || existingOutcome.getCardinality()!=cardinality
+                        || !ObjectUtilities.nullSafeEquals(existingOutcome.getStringValue(), stringValue)) {
+                    existingOutcome.setBaseType(baseType);
+                    existingOutcome.setCardinality(cardinality);
+                    existingOutcome.setStringValue(stringValue);
+                    candidateSessionOutcomeDao.update(existingOutcome);
+                }
             }
         }
+
+        /* Remove any outcomes that are no longer present */
+        for (final CandidateSessionOutcome staleOutcome : existingOutcomeMap.values()) {
+            candidateSessionOutcomeDao.remove(staleOutcome);
+        }
     }
 
     private String stringifyQtiValue(final Value value) {
@@ -712,4 +981,20 @@ public class CandidateDataService {
         return value.toQtiString();
     }
 
+    //----------------------------------------------------
+
+    /**
+     * The most recent {@link CandidateEvent} recorded for a {@link CandidateSession}, and the
+     * binary form of the {@link ItemSessionState} or {@link TestSessionState} stored for it.
+     */
+    private static final class LatestSessionState {
+
+        private final long eventId;
+        private final byte[] stateData;
+
+        public LatestSessionState(final long eventId, final byte[] stateData) {
+            this.eventId = eventId;
+            this.stateData = stateData;
+        }
+    }
 }
@@ -84,6 +84,12 @@ public class CandidateSessionFinisher {
     @Resource
     private CandidateSessionDao candidateSessionDao;
 
+    @Resource
+    private CandidateDataService candidateDataService;
+
+    @Resource
+    private DeliveryStatisticsService deliveryStatisticsService;
+
     @Resource
     private RequestTimestampContext requestTimestampContext;
 
@@ -98,6 +104,12 @@ public class CandidateSessionFinisher {
         candidateSession.setLisScore(null);
         candidateSessionDao.update(candidateSession);
 
+        /* Make sure final assessmentResult has been written out */
+        candidateDataService.flushAssessmentResultFile(candidateSession);
+
+        /* Update summary statistics for the Delivery */
+        deliveryStatisticsService.recordFinishedSession(candidateSession, assessmentResult);
+
         /* Finally schedule LTI result return (if appropriate and sane) */
         maybeScheduleLtiOutcomes(candidateSession, assessmentResult);
     }
@@ -105,9 +105,18 @@ public class DataDeletionService {
     @Resource
     private FilespaceManager filespaceManager;
 
+    @Resource
+    private AssessmentResultFileWriter assessmentResultFileWriter;
+
+    @Resource
+    private DeliveryStatisticsService deliveryStatisticsService;
+
     @Resource
     private AssessmentObjectManagementService assessmentObjectManagementService;
 
+    @Resource
+    private CandidateDataService candidateDataService;
+
     @Resource
     private AssessmentDao assessmentDao;
 
@@ -170,16 +179,19 @@ public class DataDeletionService {
         logger.info("Deleting candidate session {}", candidateSession.getId());
 
         /* Delete candidate file uploads & stored state information */
+        assessmentResultFileWriter.discard(candidateSession);
         if (!filespaceManager.deleteCandidateUploads(candidateSession)) {
             logger.error("Failed to delete upload folder for CandidateSession {}", candidateSession.getId());
         }
         if (!filespaceManager.deleteCandidateSessionStore(candidateSession)) {
             logger.error("Failed to delete stored session data for CandidateSession {}", candidateSession.getId());
         }
+        candidateDataService.forgetSessionState(candidateSession);
 
         /* Delete entities, taking care to do things in the right order.
          * This does not use cascading as it's rather slow.
          */
+        deliveryStatisticsService.removeSession(candidateSession);
         queuedLtiOutcomeDao.deleteForCandidateSession(candidateSession);
         candidateSessionOutcomeDao.deleteForCandidateSession(candidateSession);
         candidateResponseDao.deleteForCandidateSession(candidateSession);
@@ -208,6 +220,7 @@ public class DataDeletionService {
         logger.info("Deleting candidate sessions for Delivery {}", delivery.getId());
 
         /* Delete candidate uploads & stored state information */
+        assessmentResultFileWriter.discard(delivery);
         if (delivery.getAssessment() != null) {
             if (!filespaceManager.deleteCandidateUploads(delivery)) {
                 logger.error("Failed to delete upload folder for Delivery {}", delivery.getId());
@@ -217,11 +230,16 @@ public class DataDeletionService {
             }
         }
 
+        /* Forget any state remembered for these sessions, as the bulk deletions below bypass
+         * deleteCandidateSession() */
+        candidateDataService.forgetSessionStates(candidateSessionDao.getIdsForDelivery(delivery));
+
         /* Delete entities, taking care to do things in the right order.
          * This does not use cascading as it was *very* slow here.
          * Instead, we perform a number of bulk deletions.
          */
         queuedLtiOutcomeDao.deleteForDelivery(delivery);
+        deliveryStatisticsService.deleteStatistics(delivery);
         candidateSessionOutcomeDao.deleteForDelivery(delivery);
         candidateResponseDao.deleteForDelivery(delivery);
         candidateFileSubmissionDao.deleteForDelivery(delivery);
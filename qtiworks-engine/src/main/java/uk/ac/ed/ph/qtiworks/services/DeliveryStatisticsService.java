@@ -0,0 +1,412 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.domain.DomainConstants;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSessionOutcome;
+import uk.ac.ed.ph.qtiworks.domain.entities.Delivery;
+import uk.ac.ed.ph.qtiworks.domain.entities.DeliveryOutcomeContribution;
+import uk.ac.ed.ph.qtiworks.domain.entities.DeliveryOutcomeStatistics;
+import uk.ac.ed.ph.qtiworks.services.dao.CandidateSessionOutcomeDao;
+import uk.ac.ed.ph.qtiworks.services.dao.DeliveryDao;
+import uk.ac.ed.ph.qtiworks.services.dao.DeliveryOutcomeContributionDao;
+import uk.ac.ed.ph.qtiworks.services.dao.DeliveryOutcomeStatisticsDao;
+
+import uk.ac.ed.ph.jqtiplus.QtiConstants;
+import uk.ac.ed.ph.jqtiplus.exception.QtiParseException;
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.node.result.AbstractResult;
+import uk.ac.ed.ph.jqtiplus.node.result.AssessmentResult;
+import uk.ac.ed.ph.jqtiplus.node.result.ItemVariable;
+import uk.ac.ed.ph.jqtiplus.node.result.OutcomeVariable;
+import uk.ac.ed.ph.jqtiplus.types.DataTypeBinder;
+import uk.ac.ed.ph.jqtiplus.value.BaseType;
+import uk.ac.ed.ph.jqtiplus.value.Cardinality;
+import uk.ac.ed.ph.jqtiplus.value.NumberValue;
+import uk.ac.ed.ph.jqtiplus.value.Value;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Maintains the {@link DeliveryOutcomeStatistics} for each {@link Delivery}.
+ * <p>
+ * The value of each outcome for a finished {@link CandidateSession} is recorded as a
+ * {@link DeliveryOutcomeContribution} within the caller's transaction, so is only kept if the
+ * caller's work is committed. A session only ever inserts and deletes its own contributions,
+ * so no locks are taken here that other sessions finishing on the same {@link Delivery} would
+ * have to wait for.
+ * <p>
+ * Once the caller's transaction has been committed, the statistics for the affected outcomes
+ * are marked for refreshing. They are then recomputed from their contributions by a background
+ * Thread, each in its own short transaction. Outcomes changed several times between refreshes
+ * are only recomputed once.
+ * <p>
+ * This is NO authorisation at this level.
+ *
+ * @author David McKain
+ */
+@Service
+@Transactional(propagation=Propagation.REQUIRED)
+public class DeliveryStatisticsService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeliveryStatisticsService.class);
+
+    /** Interval (in ms) between refreshing the statistics for outcomes that have changed */
+    private static final long REFRESH_INTERVAL = DomainConstants.ONE_SECOND;
+
+    /** Maximum time to wait for an in-progress refresh to complete on shutdown */
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    @Resource
+    private PlatformTransactionManager jpaTransactionManager;
+
+    @Resource
+    private DeliveryDao deliveryDao;
+
+    @Resource
+    private DeliveryOutcomeStatisticsDao deliveryOutcomeStatisticsDao;
+
+    @Resource
+    private DeliveryOutcomeContributionDao deliveryOutcomeContributionDao;
+
+    @Resource
+    private CandidateSessionOutcomeDao candidateSessionOutcomeDao;
+
+    /** Outcomes whose statistics need to be refreshed */
+    private final Set<OutcomeKey> pendingRefreshes = Collections.newSetFromMap(new ConcurrentHashMap<OutcomeKey, Boolean>());
+
+    private TransactionTemplate transactionTemplate;
+
+    private ScheduledExecutorService executorService;
+
+    @PostConstruct
+    public void init() {
+        transactionTemplate = new TransactionTemplate(jpaTransactionManager);
+        executorService = Executors.newSingleThreadScheduledExecutor();
+        executorService.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                refreshPendingStatistics();
+            }
+        }, REFRESH_INTERVAL, REFRESH_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops background refreshing and refreshes all statistics that are still pending.
+     */
+    @PreDestroy
+    public void shutdown() {
+        executorService.shutdownNow();
+        try {
+            if (!executorService.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                logger.warn("Timed out waiting for background statistics refresh to complete");
+            }
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        refreshPendingStatistics();
+    }
+
+    //-------------------------------------------------
+
+    /**
+     * Records the numeric (single cardinality) outcomes in the given {@link AssessmentResult} for
+     * the given (just finished) {@link CandidateSession}, replacing anything it recorded if it was
+     * finished before. The statistics for its {@link Delivery} are refreshed once the current
+     * transaction has been committed.
+     */
+    public void recordFinishedSession(final CandidateSession candidateSession, final AssessmentResult assessmentResult) {
+        Assert.notNull(candidateSession, "candidateSession");
+        Assert.notNull(assessmentResult, "assessmentResult");
+        final Delivery delivery = candidateSession.getDelivery();
+
+        /* Take out anything contributed when the session was previously finished */
+        final Set<OutcomeKey> changedOutcomes = removeContributions(candidateSession);
+
+        /* Then add in its new values */
+        final AbstractResult resultNode = assessmentResult.getTestResult()!=null
+                ? assessmentResult.getTestResult()
+                : assessmentResult.getItemResults().get(0);
+        for (final ItemVariable itemVariable : resultNode.getItemVariables()) {
+            if (itemVariable instanceof OutcomeVariable) {
+                final BaseType baseType = itemVariable.getBaseType();
+                final Value value = itemVariable.getComputedValue();
+                if (baseType!=null && baseType.isNumeric()
+                        && itemVariable.getCardinality()==Cardinality.SINGLE
+                        && value instanceof NumberValue) {
+                    final double doubleValue = ((NumberValue) value).doubleValue();
+                    if (isRecordable(doubleValue)) {
+                        final String outcomeIdentifier = itemVariable.getIdentifier().toString();
+                        recordContribution(candidateSession, outcomeIdentifier, doubleValue);
+                        changedOutcomes.add(new OutcomeKey(delivery.getId(), outcomeIdentifier));
+                    }
+                }
+            }
+        }
+        refreshAfterCommit(changedOutcomes);
+    }
+
+    /**
+     * Removes anything the given {@link CandidateSession} has contributed to the statistics for its
+     * {@link Delivery}. This should be called before deleting it or its outcomes. The statistics
+     * are refreshed once the current transaction has been committed.
+     */
+    public void removeSession(final CandidateSession candidateSession) {
+        Assert.notNull(candidateSession, "candidateSession");
+        refreshAfterCommit(removeContributions(candidateSession));
+    }
+
+    /**
+     * Removes all statistics for the given {@link Delivery}. This should be called before
+     * deleting its {@link CandidateSession}s in bulk.
+     */
+    public void deleteStatistics(final Delivery delivery) {
+        Assert.notNull(delivery, "delivery");
+        deliveryOutcomeContributionDao.deleteForDelivery(delivery);
+        deliveryOutcomeStatisticsDao.deleteForDelivery(delivery);
+    }
+
+    /**
+     * Rebuilds the statistics for the given {@link Delivery} from the {@link CandidateSessionOutcome}s
+     * recorded for its finished {@link CandidateSession}s. This can be used to recover from any
+     * inconsistencies, or to create statistics for sessions finished before these were recorded.
+     *
+     * @return number of outcome values added to the rebuilt statistics
+     */
+    public int rebuildStatistics(final Delivery delivery) {
+        Assert.notNull(delivery, "delivery");
+        deleteStatistics(delivery);
+
+        /* Record contributions for each outcome value */
+        final Set<String> outcomeIdentifiers = new LinkedHashSet<String>();
+        int valueCount = 0;
+        for (final Object[] outcomeData : candidateSessionOutcomeDao.getNumericValuesForFinishedSessions(delivery)) {
+            final CandidateSession candidateSession = (CandidateSession) outcomeData[0];
+            final String outcomeIdentifier = (String) outcomeData[1];
+            final String stringValue = (String) outcomeData[2];
+            if (QtiConstants.VARIABLE_DURATION_NAME.equals(outcomeIdentifier)) {
+                /* (Duration is recorded alongside the outcome variables, but isn't one) */
+                continue;
+            }
+            final double value;
+            try {
+                value = DataTypeBinder.parseFloat(stringValue);
+            }
+            catch (final QtiParseException e) {
+                /* This will be a NULL value */
+                continue;
+            }
+            if (!isRecordable(value)) {
+                continue;
+            }
+            recordContribution(candidateSession, outcomeIdentifier, value);
+            outcomeIdentifiers.add(outcomeIdentifier);
+            valueCount++;
+        }
+
+        /* Then compute the statistics for each outcome */
+        for (final String outcomeIdentifier : outcomeIdentifiers) {
+            refreshStatistics(delivery, outcomeIdentifier);
+        }
+        logger.info("Rebuilt statistics for {} outcome(s) from {} value(s) recorded for Delivery #{}",
+                new Object[] { outcomeIdentifiers.size(), valueCount, delivery.getId() });
+        return valueCount;
+    }
+
+    //-------------------------------------------------
+
+    private static boolean isRecordable(final double value) {
+        return !Double.isNaN(value) && !Double.isInfinite(value);
+    }
+
+    private void recordContribution(final CandidateSession candidateSession, final String outcomeIdentifier,
+            final double value) {
+        final DeliveryOutcomeContribution contribution = new DeliveryOutcomeContribution();
+        contribution.setDelivery(candidateSession.getDelivery());
+        contribution.setOutcomeIdentifier(outcomeIdentifier);
+        contribution.setCandidateSession(candidateSession);
+        contribution.setValue(value);
+        deliveryOutcomeContributionDao.persist(contribution);
+    }
+
+    /**
+     * Deletes the values contributed by the given {@link CandidateSession}, returning the outcomes
+     * whose statistics will need to be refreshed as a result.
+     */
+    private Set<OutcomeKey> removeContributions(final CandidateSession candidateSession) {
+        final Set<OutcomeKey> result = new LinkedHashSet<OutcomeKey>();
+        final List<DeliveryOutcomeContribution> contributions = deliveryOutcomeContributionDao.getForCandidateSession(candidateSession);
+        if (!contributions.isEmpty()) {
+            deliveryOutcomeContributionDao.deleteForCandidateSession(candidateSession);
+            for (final DeliveryOutcomeContribution contribution : contributions) {
+                result.add(new OutcomeKey(candidateSession.getDelivery().getId(), contribution.getOutcomeIdentifier()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Marks the statistics for the given outcomes for refreshing once the current transaction
+     * has been committed. (Nothing is refreshed if it is rolled back.)
+     */
+    private void refreshAfterCommit(final Set<OutcomeKey> outcomeKeys) {
+        if (outcomeKeys.isEmpty()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                pendingRefreshes.addAll(outcomeKeys);
+            }
+        });
+    }
+
+    /**
+     * Refreshes the statistics for all outcomes marked for refreshing, each in its own transaction.
+     * Any that fail are left for the next refresh. (This can happen if two application nodes try to
+     * create the statistics for the same outcome at the same time, for example.)
+     */
+    private void refreshPendingStatistics() {
+        final List<OutcomeKey> outcomeKeys = new ArrayList<OutcomeKey>(pendingRefreshes);
+        for (final OutcomeKey outcomeKey : outcomeKeys) {
+            pendingRefreshes.remove(outcomeKey);
+            try {
+                transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+                    @Override
+                    protected void doInTransactionWithoutResult(final TransactionStatus status) {
+                        final Delivery delivery = deliveryDao.findById(outcomeKey.deliveryId);
+                        if (delivery!=null) {
+                            refreshStatistics(delivery, outcomeKey.outcomeIdentifier);
+                        }
+                    }
+                });
+            }
+            catch (final RuntimeException e) {
+                logger.warn("Failed to refresh statistics for outcome " + outcomeKey.outcomeIdentifier
+                        + " of Delivery #" + outcomeKey.deliveryId + ". Will retry", e);
+                pendingRefreshes.add(outcomeKey);
+            }
+        }
+    }
+
+    /**
+     * Recomputes the statistics for the given outcome of the given {@link Delivery} from the
+     * contributions recorded for it. The statistics are locked while this happens, so refreshes
+     * happening at the same time on other application nodes can't overwrite each other.
+     */
+    private void refreshStatistics(final Delivery delivery, final String outcomeIdentifier) {
+        DeliveryOutcomeStatistics statistics = deliveryOutcomeStatisticsDao.getForDeliveryAndOutcomeIdentifierForUpdate(delivery, outcomeIdentifier);
+        final Object[] summary = deliveryOutcomeContributionDao.getSummaryForOutcome(delivery, outcomeIdentifier);
+        final long valueCount = ((Number) summary[0]).longValue();
+        if (valueCount==0) {
+            if (statistics!=null) {
+                deliveryOutcomeStatisticsDao.remove(statistics);
+            }
+            return;
+        }
+        final boolean isNew = statistics==null;
+        if (isNew) {
+            statistics = new DeliveryOutcomeStatistics();
+            statistics.setDelivery(delivery);
+            statistics.setOutcomeIdentifier(outcomeIdentifier);
+        }
+        statistics.setValueCount(valueCount);
+        statistics.setValueSum(((Number) summary[1]).doubleValue());
+        statistics.setValueSumOfSquares(((Number) summary[2]).doubleValue());
+        statistics.setMinimumValue(((Number) summary[3]).doubleValue());
+        statistics.setMaximumValue(((Number) summary[4]).doubleValue());
+        if (isNew) {
+            deliveryOutcomeStatisticsDao.persist(statistics);
+        }
+        else {
+            deliveryOutcomeStatisticsDao.update(statistics);
+        }
+    }
+
+    //-------------------------------------------------
+
+    /**
+     * Identifies an outcome of a particular {@link Delivery}.
+     */
+    private static final class OutcomeKey {
+
+        private final Long deliveryId;
+        private final String outcomeIdentifier;
+
+        public OutcomeKey(final Long deliveryId, final String outcomeIdentifier) {
+            this.deliveryId = deliveryId;
+            this.outcomeIdentifier = outcomeIdentifier;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof OutcomeKey)) {
+                return false;
+            }
+            final OutcomeKey other = (OutcomeKey) obj;
+            return deliveryId.equals(other.deliveryId) && outcomeIdentifier.equals(other.outcomeIdentifier);
+        }
+
+        @Override
+        public int hashCode() {
+            return deliveryId.hashCode() * 31 + outcomeIdentifier.hashCode();
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
+import uk.ac.ed.ph.qtiworks.domain.DomainConstants;
+import uk.ac.ed.ph.qtiworks.domain.entities.LtiNonce;
+import uk.ac.ed.ph.qtiworks.services.dao.LtiNonceDao;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Remembers the OAuth nonces used in recent LTI launches, so that replayed launches can be
+ * rejected without querying the database.
+ * <p>
+ * Nonces are grouped into buckets by their message timestamp. Buckets are discarded once all
+ * of their timestamps are older than {@link DomainConstants#OAUTH_TIMESTAMP_MAX_AGE}, as any
+ * launches replaying them will be refused on their timestamp alone.
+ * <p>
+ * If enabled, nonces are also written to the database in batches in the background, and
+ * recent nonces are read back in when the application starts up so that replays are still
+ * detected after a restart. Nonces not seen here are also looked up in the database before
+ * being accepted, so that launches replayed to other engines sharing the database are rejected.
+ * <p>
+ * This is NO authorisation at this level.
+ *
+ * @see LtiOauthValidationService
+ * @see QtiWorksDeploymentSettings#isPersistLtiNonces()
+ *
+ * @author David McKain
+ */
+@Service
+public class LtiNonceCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(LtiNonceCache.class);
+
+    /** Span (in ms) of the message timestamps in each bucket of nonces */
+    private static final long BUCKET_DURATION = 5 * DomainConstants.ONE_MINUTE;
+
+    /** Interval (in ms) between writing out batches of new nonces to the database */
+    private static final long WRITE_INTERVAL = DomainConstants.ONE_SECOND;
+
+    /** Maximum time to wait for an in-progress background write to complete on shutdown */
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    @Resource
+    private QtiWorksDeploymentSettings qtiWorksDeploymentSettings;
+
+    @Resource
+    private PlatformTransactionManager jpaTransactionManager;
+
+    @Resource
+    private RequestTimestampContext requestTimestampContext;
+
+    @Resource
+    private LtiNonceDao ltiNonceDao;
+
+    /** Buckets of recently-used nonces, keyed on message timestamp divided by {@link #BUCKET_DURATION} */
+    private final ConcurrentMap<Long, Set<String>> nonceBucketMap = new ConcurrentHashMap<Long, Set<String>>();
+
+    /** New nonces waiting to be written to the database */
+    private final Queue<LtiNonce> pendingNonces = new ConcurrentLinkedQueue<LtiNonce>();
+
+    /** Executor for writing nonces to the database. This will be null if nonces aren't persisted */
+    private ScheduledExecutorService executorService;
+
+    private TransactionTemplate transactionTemplate;
+
+    @PostConstruct
+    public void init() {
+        if (qtiWorksDeploymentSettings.isPersistLtiNonces()) {
+            final Date threshold = new Date(System.currentTimeMillis() - DomainConstants.OAUTH_TIMESTAMP_MAX_AGE);
+            final List<LtiNonce> recentNonces = ltiNonceDao.getNoncesSince(threshold);
+            for (final LtiNonce ltiNonce : recentNonces) {
+                getBucket(ltiNonce.getMessageTimestamp().getTime()).add(makeKey(ltiNonce.getConsumerKey(), ltiNonce.getNonce()));
+            }
+            logger.debug("Read in {} recent LTI nonce(s)", recentNonces.size());
+
+            transactionTemplate = new TransactionTemplate(jpaTransactionManager);
+            executorService = Executors.newSingleThreadScheduledExecutor();
+            executorService.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    writePendingNonces();
+                }
+            }, WRITE_INTERVAL, WRITE_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops background writing and writes out all nonces that are still pending.
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (executorService==null) {
+            return;
+        }
+        executorService.shutdownNow();
+        try {
+            if (!executorService.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                logger.warn("Timed out waiting for background LTI nonce write to complete");
+            }
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writePendingNonces();
+    }
+
+    //-------------------------------------------------
+
+    /**
+     * Records the given nonce for the given consumer key, returning false if it has already been
+     * used (with the same message timestamp), true otherwise. If nonces are persisted, then a
+     * nonce not seen here is looked up in the database to check that it hasn't been used in a
+     * launch made to another engine.
+     * <p>
+     * (Only nonces with the same timestamp are checked here. That's fine, as the message signature
+     * covers the timestamp, so a replayed message will always have the same timestamp as the original.)
+     *
+     * @param consumerKey consumer key of the LTI launch
+     * @param nonce nonce of the LTI launch
+     * @param messageTimestampSecs timestamp (in seconds) of the LTI launch, which must already
+     *   have been checked to be within {@link DomainConstants#OAUTH_TIMESTAMP_MAX_AGE}
+     */
+    public boolean recordNonce(final String consumerKey, final String nonce, final long messageTimestampSecs) {
+        Assert.notNull(consumerKey, "consumerKey");
+        Assert.notNull(nonce, "nonce");
+        purgeOldBuckets();
+        final long messageTimestampMillis = 1000L * messageTimestampSecs;
+        if (!getBucket(messageTimestampMillis).add(makeKey(consumerKey, nonce))) {
+            return false;
+        }
+        if (executorService!=null) {
+            if (ltiNonceDao.findByNonceAndConsumerKey(nonce, consumerKey)!=null) {
+                logger.warn("LTI nonce {} for consumer key {} has already been used in a launch made to another engine",
+                        nonce, consumerKey);
+                return false;
+            }
+            final LtiNonce ltiNonce = new LtiNonce();
+            ltiNonce.setNonce(nonce);
+            ltiNonce.setConsumerKey(consumerKey);
+            ltiNonce.setMessageTimestamp(new Date(messageTimestampMillis));
+            pendingNonces.add(ltiNonce);
+        }
+        return true;
+    }
+
+    private Set<String> getBucket(final long messageTimestampMillis) {
+        final Long bucketKey = Long.valueOf(messageTimestampMillis / BUCKET_DURATION);
+        Set<String> bucket = nonceBucketMap.get(bucketKey);
+        if (bucket==null) {
+            final Set<String> newBucket = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            bucket = nonceBucketMap.putIfAbsent(bucketKey, newBucket);
+            if (bucket==null) {
+                bucket = newBucket;
+            }
+        }
+        return bucket;
+    }
+
+    private void purgeOldBuckets() {
+        final long oldestBucketKey = (System.currentTimeMillis() - DomainConstants.OAUTH_TIMESTAMP_MAX_AGE) / BUCKET_DURATION;
+        final Iterator<Long> bucketKeyIterator = nonceBucketMap.keySet().iterator();
+        while (bucketKeyIterator.hasNext()) {
+            if (bucketKeyIterator.next().longValue() < oldestBucketKey) {
+                bucketKeyIterator.remove();
+            }
+        }
+    }
+
+    private static String makeKey(final String consumerKey, final String nonce) {
+        return consumerKey.length() + ":" + consumerKey + nonce;
+    }
+
+    /**
+     * Writes out all pending nonces in a single transaction. If this fails then each nonce is
+     * written separately, so that one bad nonce doesn't stop the others from being recorded.
+     */
+    private void writePendingNonces() {
+        final List<LtiNonce> ltiNonces = new ArrayList<LtiNonce>();
+        LtiNonce ltiNonce;
+        while ((ltiNonce = pendingNonces.poll())!=null) {
+            ltiNonces.add(ltiNonce);
+        }
+        if (ltiNonces.isEmpty()) {
+            return;
+        }
+        requestTimestampContext.setCurrentRequestTimestamp(new Date());
+        try {
+            try {
+                persistNonces(ltiNonces);
+            }
+            catch (final RuntimeException e) {
+                logger.info("Failed to record batch of {} LTI nonce(s), so recording each separately", ltiNonces.size());
+                for (final LtiNonce failedNonce : ltiNonces) {
+                    /* (Clear out the ID allocated during the failed attempt) */
+                    failedNonce.setId(null);
+                    try {
+                        persistNonces(Collections.singletonList(failedNonce));
+                    }
+                    catch (final RuntimeException e2) {
+                        /* This will happen if another engine sharing the database has already seen this nonce */
+                        logger.warn("Failed to record LTI nonce " + failedNonce.getNonce()
+                                + " for consumer key " + failedNonce.getConsumerKey()
+                                + ". This may be a replayed launch made to another engine", e2);
+                    }
+                }
+            }
+        }
+        finally {
+            requestTimestampContext.setCurrentRequestTimestamp(null);
+        }
+    }
+
+    private void persistNonces(final List<LtiNonce> ltiNonces) {
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(final TransactionStatus status) {
+                for (final LtiNonce ltiNonce : ltiNonces) {
+                    ltiNonceDao.persist(ltiNonce);
+                }
+            }
+        });
+    }
+}
@@ -41,6 +41,7 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
+import java.net.URL;
 import java.security.MessageDigest;
 import java.util.HashMap;
 import java.util.List;
@@ -60,7 +61,13 @@ import net.oauth.ParameterStyle;
 import net.oauth.client.OAuthClient;
 import net.oauth.client.OAuthResponseMessage;
 import net.oauth.client.httpclient4.HttpClient4;
+import net.oauth.client.httpclient4.HttpClientPool;
 
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xml.sax.InputSource;
@@ -85,6 +92,12 @@ public final class LtiOauthUtilities {
     /** Encoding to use when sending LIS results */
     private static final String LIS_RESULT_ENCODING = "UTF-8";
 
+    /** Timeout (in ms) when connecting to an outcome service */
+    private static final int LIS_CONNECT_TIMEOUT = 10 * 1000;
+
+    /** Timeout (in ms) when waiting for data from an outcome service */
+    private static final int LIS_SOCKET_TIMEOUT = 30 * 1000;
+
     /**
      * Creates an OAuth message for sending the given LIS result data to an outcome service.
      *
@@ -164,14 +177,40 @@ public final class LtiOauthUtilities {
      * @throws QtiWorksLogicException
      */
     public static boolean sendLisResultMessage(final OAuthMessage lisResultMessage) {
+        return sendLisResultMessage(lisResultMessage, new OAuthClient(new HttpClient4()));
+    }
+
+    /**
+     * Attempts to send the given LIS result message
+     * (constructed by {@link #createLisResultMessage(String, String, String, String, double)}
+     * to the corresponding LIS outcome service, using the given {@link HttpClient}.
+     * <p>
+     * This is safe to call concurrently if the {@link HttpClient} is, such as one created by
+     * {@link #createLisHttpClient(int, int)}.
+     *
+     * @param lisResultMessage LIS result message to be send to the outcome service
+     * @param httpClient {@link HttpClient} to send the message with
+     *
+     * @throws QtiWorksLogicException
+     */
+    public static boolean sendLisResultMessage(final OAuthMessage lisResultMessage, final HttpClient httpClient) {
+        Assert.notNull(httpClient, "httpClient");
+        final OAuthClient client = new OAuthClient(new HttpClient4(new HttpClientPool() {
+            @Override
+            public HttpClient getHttpClient(final URL server) {
+                return httpClient;
+            }
+        }));
+        return sendLisResultMessage(lisResultMessage, client);
+    }
+
+    private static boolean sendLisResultMessage(final OAuthMessage lisResultMessage, final OAuthClient client) {
         Assert.notNull(lisResultMessage, "lisResultMessage");
 
         /* Send message to TC result service endpoint */
         final OAuthResponseMessage oauthResponseMessage;
         try {
             logger.debug("Attempting to send OAuth message {}", lisResultMessage);
-            final HttpClient4 httpClient4 = new HttpClient4();
-            final OAuthClient client = new OAuthClient(httpClient4);
             oauthResponseMessage = client.access(lisResultMessage, ParameterStyle.AUTHORIZATION_HEADER);
         }
         catch (final IOException e) {
@@ -246,6 +285,32 @@ public final class LtiOauthUtilities {
         return sendLisResultMessage(lisResultMessage);
     }
 
+    /**
+     * Creates a thread-safe {@link HttpClient} suitable for sending LIS results to outcome services
+     * concurrently via {@link #sendLisResultMessage(OAuthMessage, HttpClient)}. Connections are
+     * kept alive and reused, and time out so that an unresponsive outcome service can't hold
+     * things up indefinitely.
+     * <p>
+     * The caller should close this once it is no longer required.
+     *
+     * @param maxConnectionsPerHost maximum number of concurrent connections to any one host
+     * @param maxConnectionsTotal maximum number of concurrent connections overall
+     */
+    public static CloseableHttpClient createLisHttpClient(final int maxConnectionsPerHost, final int maxConnectionsTotal) {
+        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerHost);
+        connectionManager.setMaxTotal(maxConnectionsTotal);
+        final RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(LIS_CONNECT_TIMEOUT)
+                .setConnectionRequestTimeout(LIS_CONNECT_TIMEOUT)
+                .setSocketTimeout(LIS_SOCKET_TIMEOUT)
+                .build();
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .build();
+    }
+
     /**
      * Builds the appropriate POX message for sending the result back to the TC.
      */
@@ -34,8 +34,6 @@
 package uk.ac.ed.ph.qtiworks.services;
 
 import uk.ac.ed.ph.qtiworks.domain.DomainConstants;
-import uk.ac.ed.ph.qtiworks.domain.entities.LtiNonce;
-import uk.ac.ed.ph.qtiworks.services.dao.LtiNonceDao;
 
 import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
 
@@ -44,7 +42,6 @@ import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -70,7 +67,7 @@ import org.springframework.transaction.annotation.Transactional;
 /**
  * Service for validating LTI OAuth requests.
  * <p>
- * This reuses part of {@link SimpleOAuthValidator}, but uses the domain model to store and
+ * This reuses part of {@link SimpleOAuthValidator}, but uses {@link LtiNonceCache} to store and
  * check nonces. (Some bits of code from {@link SimpleOAuthValidator} have been pasted into here
  * and modified, as it's not easy to partially delegate to that class.)
  * <p>
@@ -85,7 +82,7 @@ import org.springframework.transaction.annotation.Transactional;
 public class LtiOauthValidationService {
 
     @Resource
-    private LtiNonceDao ltiNonceDao;
+    private LtiNonceCache ltiNonceCache;
 
     /**
      * Names of parameters that may not appear twice in a valid message.
@@ -134,20 +131,12 @@ public class LtiOauthValidationService {
     }
 
     private void validateNonce(final OAuthMessage message, final long messageTimestampSecs) throws IOException, OAuthProblemException {
-        /* Make sure this (nonce, consumer_key) pair hasn't already been recorded */
+        /* Record this (nonce, consumer_key) pair, making sure it hasn't already been recorded */
         final String nonce = message.getParameter(OAuth.OAUTH_NONCE);
         final String consumerKey = message.getConsumerKey();
-        final LtiNonce existingNonce = ltiNonceDao.findByNonceAndConsumerKey(nonce, consumerKey);
-        if (existingNonce!=null) {
+        if (!ltiNonceCache.recordNonce(consumerKey, nonce, messageTimestampSecs)) {
             throw new OAuthProblemException(OAuth.Problems.NONCE_USED);
         }
-
-        /* Record new nonce */
-        final LtiNonce ltiNonce = new LtiNonce();
-        ltiNonce.setNonce(nonce);
-        ltiNonce.setConsumerKey(consumerKey);
-        ltiNonce.setMessageTimestamp(new Date(1000L * messageTimestampSecs));
-        ltiNonceDao.persist(ltiNonce);
     }
 
     /**
@@ -0,0 +1,241 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
+import uk.ac.ed.ph.qtiworks.domain.DomainConstants;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
+import uk.ac.ed.ph.qtiworks.domain.entities.LisOutcomeReportingStatus;
+import uk.ac.ed.ph.qtiworks.domain.entities.QueuedLtiOutcome;
+import uk.ac.ed.ph.qtiworks.domain.entities.User;
+import uk.ac.ed.ph.qtiworks.services.dao.CandidateSessionDao;
+import uk.ac.ed.ph.qtiworks.services.dao.QueuedLtiOutcomeDao;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import javax.annotation.Resource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Manages the queue of {@link QueuedLtiOutcome}s on behalf of {@link LtiOutcomeService}.
+ * <p>
+ * Senders claim outcomes that are due to be sent for a limited time, record what happened
+ * once they have tried to send them, and then release their claims. Each of these steps is
+ * performed in its own transaction, so that claims are visible to other senders (e.g. running
+ * on other engines sharing the same database) while outcomes are being sent.
+ * <p>
+ * This is NO authorisation at this level.
+ *
+ * @see LtiOutcomeService
+ *
+ * @author David McKain
+ */
+@Service
+@Transactional(propagation=Propagation.REQUIRES_NEW)
+public class LtiOutcomeQueueService {
+
+    private static final Logger logger = LoggerFactory.getLogger(LtiOutcomeQueueService.class);
+
+    /**
+     * Delays (in minutes) to wait until next retry. We try often to start with, then
+     * less frequently. Then we give up.
+     *
+     * TODO: Maybe this should be configurable via {@link QtiWorksDeploymentSettings}?
+     */
+    private static final int[] retryDelays = new int[] {
+            1, 5, 10, 60, 60, 60, 240, 240, 240
+    };
+
+    /**
+     * Time (in ms) that a claim on a {@link QueuedLtiOutcome} lasts. Claims older than this
+     * are assumed to belong to a sender that has gone away, so may be claimed by others.
+     */
+    private static final long CLAIM_LEASE_DURATION = 30 * DomainConstants.ONE_MINUTE;
+
+    @Resource
+    private AuditLogger auditLogger;
+
+    @Resource
+    private CandidateSessionDao candidateSessionDao;
+
+    @Resource
+    private QueuedLtiOutcomeDao queuedLtiOutcomeDao;
+
+    //-------------------------------------------------
+
+    /**
+     * Returns details of up to the given number of {@link QueuedLtiOutcome}s that are due to be
+     * sent and may be claimed, having IDs greater than the given one. Outcomes that have already
+     * been claimed by another sender are skipped, unless their claim has expired.
+     *
+     * @param afterQoid only outcomes with ID greater than this will be returned
+     * @param ignoreRetryTimes set to true to include outcomes that are not yet due to be retried
+     * @param maxResults maximum number of outcomes to return
+     * @return Array of (ID, LIS outcome service URL) for each claimable outcome, in ascending ID order
+     */
+    public List<Object[]> getClaimableOutcomes(final long afterQoid, final boolean ignoreRetryTimes, final int maxResults) {
+        final Date currentTime = new Date();
+        final Date leaseExpiryTime = new Date(currentTime.getTime() - CLAIM_LEASE_DURATION);
+        return ignoreRetryTimes
+                ? queuedLtiOutcomeDao.getClaimableIgnoringRetryTimesAfter(afterQoid, leaseExpiryTime, maxResults)
+                : queuedLtiOutcomeDao.getClaimableAfter(afterQoid, currentTime, leaseExpiryTime, maxResults);
+    }
+
+    /**
+     * Claims the {@link QueuedLtiOutcome}s having the given IDs, which will normally have been
+     * found using {@link #getClaimableOutcomes(long, boolean, int)}. Outcomes that another
+     * sender has claimed in the meantime are skipped.
+     *
+     * @param claimant token identifying the sender making the claim
+     * @param qoids IDs of the outcomes to claim
+     * @return claimed outcomes, in ID order
+     */
+    public List<QueuedLtiOutcome> claimOutcomes(final String claimant, final List<Long> qoids) {
+        Assert.notNull(claimant, "claimant");
+        Assert.notNull(qoids, "qoids");
+        if (qoids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final Date claimTime = new Date();
+        final Date leaseExpiryTime = new Date(claimTime.getTime() - CLAIM_LEASE_DURATION);
+        final int claimedCount = queuedLtiOutcomeDao.claim(qoids, claimant, claimTime, leaseExpiryTime);
+        if (claimedCount < qoids.size()) {
+            logger.debug("{} of {} LTI outcomes were claimed by another sender before {} could claim them",
+                    new Object[] { qoids.size() - claimedCount, qoids.size(), claimant });
+        }
+        return queuedLtiOutcomeDao.getClaimed(qoids, claimant);
+    }
+
+    /**
+     * Records the result of trying to send the given {@link QueuedLtiOutcome}, which must have
+     * previously been claimed using {@link #claimOutcomes(String, List)}.
+     * <p>
+     * Successfully sent outcomes are removed from the queue. Failed outcomes are released and
+     * scheduled for retrying later, or removed once we have given up on them. If a new score was
+     * queued while the outcome was being sent then it is released and made due immediately
+     * instead, so that the new score gets sent.
+     * <p>
+     * Nothing is done if the outcome is no longer claimed by the given sender, which will happen
+     * if it has been removed or if the claim expired and was taken over by another sender.
+     */
+    public void recordSendResult(final QueuedLtiOutcome claimedOutcome, final String claimant, final boolean successful) {
+        Assert.notNull(claimedOutcome, "claimedOutcome");
+        Assert.notNull(claimant, "claimant");
+        final QueuedLtiOutcome queuedLtiOutcome = queuedLtiOutcomeDao.findByIdForUpdate(claimedOutcome.getId());
+        if (queuedLtiOutcome==null || !claimant.equals(queuedLtiOutcome.getClaimedBy())) {
+            logger.info("LTI outcome #{} has been removed or claimed by another sender since it was claimed by {}, so won't record result of sending it",
+                    claimedOutcome.getId(), claimant);
+            return;
+        }
+        final CandidateSession candidateSession = queuedLtiOutcome.getCandidateSession();
+        final User candidate = candidateSession.getCandidate();
+        if (queuedLtiOutcome.isResendRequired()) {
+            /* Score was replaced while we were sending it, so release for sending again now.
+             * (Session status was already reset when the new score was queued.) */
+            queuedLtiOutcome.setResendRequired(false);
+            queuedLtiOutcome.setFailureCount(0);
+            queuedLtiOutcome.setRetryTime(new Date());
+            queuedLtiOutcome.setClaimedBy(null);
+            queuedLtiOutcome.setClaimTime(null);
+            queuedLtiOutcomeDao.update(queuedLtiOutcome);
+            logger.info("Score in LTI outcome #{} was replaced while being sent, so it will be sent again",
+                    queuedLtiOutcome.getId());
+        }
+        else if (successful) {
+            /* Outcome sent successfully, so remove from queue */
+            candidateSession.setLisOutcomeReportingStatus(LisOutcomeReportingStatus.TC_RETURN_SUCCESS);
+            queuedLtiOutcomeDao.remove(queuedLtiOutcome);
+            candidateSessionDao.update(candidateSession);
+            auditLogger.recordEvent(candidate, "Successfully sent LTI outcome #" + queuedLtiOutcome.getId()
+                    + " to LIS outcome service at " + candidateSession.getLisOutcomeServiceUrl());
+            logger.info("Successfully sent LTI outcome #{} to LIS outcome service at {}",
+                    queuedLtiOutcome.getId(), candidateSession.getLisOutcomeServiceUrl());
+        }
+        else {
+            /* Outcome failed. Retry up to limit of retries */
+            final int failureCount = queuedLtiOutcome.getFailureCount();
+            if (failureCount < retryDelays.length) {
+                queuedLtiOutcome.setFailureCount(failureCount + 1);
+                queuedLtiOutcome.setRetryTime(new Date(System.currentTimeMillis() + (1000L * 60 * retryDelays[failureCount])));
+                queuedLtiOutcome.setClaimedBy(null);
+                queuedLtiOutcome.setClaimTime(null);
+                candidateSession.setLisOutcomeReportingStatus(LisOutcomeReportingStatus.TC_RETURN_FAIL_TERMINAL);
+                queuedLtiOutcomeDao.update(queuedLtiOutcome);
+                candidateSessionDao.update(candidateSession);
+                auditLogger.recordEvent(candidate, "Failure #" + (failureCount+1)
+                        + " to send LTI outcome #" + queuedLtiOutcome.getId()
+                        + " to LIS outcome service at " + candidateSession.getLisOutcomeServiceUrl()
+                        + ". Will try again at " + queuedLtiOutcome.getRetryTime());
+                logger.warn("Failure #{} to send LTI outcome #{} to LIS outcome service at {}. Will try again at {}",
+                        new Object[] { failureCount+1, queuedLtiOutcome.getId(), candidateSession.getLisOutcomeServiceUrl(), queuedLtiOutcome.getRetryTime() });
+            }
+            else {
+                candidateSession.setLisOutcomeReportingStatus(LisOutcomeReportingStatus.TC_RETURN_FAIL_TERMINAL);
+                queuedLtiOutcomeDao.remove(queuedLtiOutcome);
+                candidateSessionDao.update(candidateSession);
+                auditLogger.recordEvent(candidate, "Final failure #" + (failureCount+1)
+                        + " to send LTI outcome #" + queuedLtiOutcome.getId()
+                        + " to LIS outcome service at " + candidateSession.getLisOutcomeServiceUrl()
+                        + ". Outcome has been removed from queue");
+                logger.error("Final failure #{} to send LTI outcome #{} to LIS outcome service at {}. Outcome has been removed from queue",
+                        new Object[] { failureCount+1, queuedLtiOutcome.getId(), candidateSession.getLisOutcomeServiceUrl() });
+            }
+        }
+    }
+
+    /**
+     * Releases the claim on the given {@link QueuedLtiOutcome} without recording any result,
+     * so that it will be sent again next time. This is used for outcomes that were claimed but
+     * not sent.
+     */
+    public void releaseClaim(final QueuedLtiOutcome claimedOutcome, final String claimant) {
+        Assert.notNull(claimedOutcome, "claimedOutcome");
+        Assert.notNull(claimant, "claimant");
+        final QueuedLtiOutcome queuedLtiOutcome = queuedLtiOutcomeDao.findByIdForUpdate(claimedOutcome.getId());
+        if (queuedLtiOutcome!=null && claimant.equals(queuedLtiOutcome.getClaimedBy())) {
+            queuedLtiOutcome.setClaimedBy(null);
+            queuedLtiOutcome.setClaimTime(null);
+            queuedLtiOutcomeDao.update(queuedLtiOutcome);
+        }
+    }
+}
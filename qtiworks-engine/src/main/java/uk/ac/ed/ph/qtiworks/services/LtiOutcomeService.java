@@ -34,7 +34,6 @@
 package uk.ac.ed.ph.qtiworks.services;
 
 import uk.ac.ed.ph.qtiworks.QtiWorksLogicException;
-import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
 import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
 import uk.ac.ed.ph.qtiworks.domain.entities.Delivery;
 import uk.ac.ed.ph.qtiworks.domain.entities.LisOutcomeReportingStatus;
@@ -47,14 +46,32 @@ import uk.ac.ed.ph.qtiworks.services.dao.CandidateSessionDao;
 import uk.ac.ed.ph.qtiworks.services.dao.QueuedLtiOutcomeDao;
 
 import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
-import uk.ac.ed.ph.jqtiplus.internal.util.Pair;
 
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 
+import net.oauth.OAuthMessage;
+
+import org.apache.http.impl.client.CloseableHttpClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.scheduling.annotation.Async;
@@ -90,15 +107,62 @@ public class LtiOutcomeService {
     @Resource
     private QueuedLtiOutcomeDao queuedLtiOutcomeDao;
 
+    @Resource
+    private LtiOutcomeQueueService ltiOutcomeQueueService;
+
+    /** Length of the random token identifying each run of the sender when claiming outcomes */
+    private static final int CLAIMANT_TOKEN_LENGTH = 32;
+
+    /** Number of threads used to send outcomes */
+    private static final int SEND_THREAD_COUNT = 8;
+
+    /** Time (in seconds) that idle send threads are kept alive for */
+    private static final int SEND_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    /** Maximum number of outcomes sent to the same host at the same time */
+    private static final int MAX_SENDS_PER_HOST = 2;
+
     /**
-     * Delays (in minutes) to wait until next retry. We try often to start with, then
-     * less frequently. Then we give up.
-     *
-     * TODO: Maybe this should be configurable via {@link QtiWorksDeploymentSettings}?
+     * Maximum number of claimed outcomes waiting to be sent to the same host. Further outcomes
+     * for that host are left unclaimed until some of these have been sent.
+     */
+    private static final int MAX_PENDING_SENDS_PER_HOST = 10 * MAX_SENDS_PER_HOST;
+
+    /** Number of claimable outcomes looked at a time */
+    private static final int SEND_PAGE_SIZE = 100;
+
+    /** Shared client for sending outcomes, which keeps connections alive for reuse */
+    private CloseableHttpClient lisHttpClient;
+
+    /** Executor running the workers that send outcomes */
+    private ThreadPoolExecutor sendExecutor;
+
+    /**
+     * Outcomes waiting to be sent, keyed on the host of their outcome service. (Entries are
+     * kept once created, as there are only ever a few hosts.)
      */
-    private static final int[] retryDelays = new int[] {
-            1, 5, 10, 60, 60, 60, 240, 240, 240
-    };
+    private final ConcurrentMap<String, HostSendQueue> hostSendQueueMap = new ConcurrentHashMap<String, HostSendQueue>();
+
+    @PostConstruct
+    public void init() {
+        lisHttpClient = LtiOauthUtilities.createLisHttpClient(MAX_SENDS_PER_HOST, SEND_THREAD_COUNT);
+        sendExecutor = new ThreadPoolExecutor(SEND_THREAD_COUNT, SEND_THREAD_COUNT,
+                SEND_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        sendExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        /* (Outcomes that don't get sent keep their claims until these expire, then get sent again) */
+        sendExecutor.shutdownNow();
+        try {
+            lisHttpClient.close();
+        }
+        catch (final IOException e) {
+            logger.warn("Failed to close HttpClient used for sending LTI outcomes", e);
+        }
+    }
 
     //-------------------------------------------------
 
@@ -114,20 +178,38 @@ public class LtiOutcomeService {
         candidateSession.setLisOutcomeReportingStatus(LisOutcomeReportingStatus.TC_RETURN_SCHEDULED);
         candidateSessionDao.update(candidateSession);
 
-        /* Persist new queued outcome */
-        final QueuedLtiOutcome outcome = new QueuedLtiOutcome();
-        outcome.setCandidateSession(candidateSession);
+        /* Queue up outcome. Any existing outcome still queued for this session is replaced by
+         * this one, which will be sent in its place. (This can happen when delivering items,
+         * which can sometimes be re-opened by candidates.) If the existing outcome is currently
+         * being sent then its claim is left alone, and the sender will send the new score once
+         * it has finished.
+         */
+        final Date timestamp = new Date();
+        QueuedLtiOutcome outcome = queuedLtiOutcomeDao.getForCandidateSessionForUpdate(candidateSession);
+        final boolean replacing = outcome!=null;
+        if (!replacing) {
+            outcome = new QueuedLtiOutcome();
+            outcome.setCandidateSession(candidateSession);
+        }
         outcome.setScore(lisScore);
         outcome.setFailureCount(0);
-        queuedLtiOutcomeDao.persist(outcome);
+        outcome.setRetryTime(timestamp);
+        outcome.setResendRequired(outcome.getClaimedBy()!=null);
+        if (replacing) {
+            queuedLtiOutcomeDao.update(outcome);
+        }
+        else {
+            queuedLtiOutcomeDao.persist(outcome);
+        }
 
         /* (Data will be sent to TC next time the service wakes up) */
         final User candidate = candidateSession.getCandidate();
-        auditLogger.recordEvent(candidate, "Queued new LTI outcome #" + outcome.getId()
+        final String description = replacing ? "Replaced score in queued LTI outcome #" : "Queued new LTI outcome #";
+        auditLogger.recordEvent(candidate, description + outcome.getId()
                 + " containing score " + lisScore
                 + " to be returned to for CandidateSession #" + candidateSession.getId());
-        logger.info("Queued new LTI outcome #{} containing score {} to be returned to for CandidateSession #{}",
-                new Object[] { outcome.getId(), lisScore, candidateSession.getId() });
+        logger.info("{}{} containing score {} to be returned to for CandidateSession #{}",
+                new Object[] { description, outcome.getId(), lisScore, candidateSession.getId() });
     }
 
     //-------------------------------------------------
@@ -140,109 +222,272 @@ public class LtiOutcomeService {
      * forcing ALL {@link QueuedLtiOutcome}s to be send by setting the ignoreRetryTimes argument
      * to true.
      * <p>
-     * The logic here will check for duplicate {@link QueuedLtiOutcome}s for a given
-     * {@link CandidateSession}, only sending the most recent outcomes back.
+     * Claimable outcomes are looked at a page at a time via {@link LtiOutcomeQueueService}. Each
+     * host is allowed up to {@link #MAX_PENDING_SENDS_PER_HOST} claimed outcomes waiting to be
+     * sent, shared between successive calls to this method. Outcomes for hosts that already have
+     * this many are left unclaimed, so that a slow outcome service can't stop outcomes being
+     * claimed for the others. Claimed outcomes are handed to a shared pool of workers that send
+     * them concurrently, and the result of each send is recorded as soon as it completes.
+     * Outcomes claimed by other senders are left alone, so this may safely be called by more than
+     * one engine sharing the same database.
      * <p>
-     * Usage note: This MUST be called serially.
+     * Usage note: Each engine should call this serially. This returns once the outcomes have been
+     * claimed, without waiting for them to be sent. Use {@link #awaitPendingSends(long)} to wait
+     * for this.
      * <p>
      * @param ignoreRetryTimes set to true to ignore any retry times set after previous failures.
-     * @return Pair of integers: (number of outcome send failures, total outcomes sent)
+     * @return number of outcomes claimed for sending
      *
      * @see ScheduledService#sendNextQueuedLtiOutcomes()
      */
-    public Pair<Integer, Integer> sendQueuedLtiOutcomes(final boolean ignoreRetryTimes) {
-        /* Look up all unsent outcomes */
-        final List<QueuedLtiOutcome> pendingOutcomes = queuedLtiOutcomeDao.getAllQueuedOutcomes();
+    @Transactional(propagation=Propagation.NOT_SUPPORTED)
+    public int sendQueuedLtiOutcomes(final boolean ignoreRetryTimes) {
+        final String claimant = ServiceUtilities.createRandomAlphanumericToken(CLAIMANT_TOKEN_LENGTH);
+        int totalClaimCount = 0;
+        long afterQoid = 0L;
+        while (!sendExecutor.isShutdown()) {
+            final List<Object[]> claimableOutcomes = ltiOutcomeQueueService.getClaimableOutcomes(afterQoid, ignoreRetryTimes, SEND_PAGE_SIZE);
+            if (claimableOutcomes.isEmpty()) {
+                break;
+            }
 
-        /* Eliminate any duplicate outcomes for the same CandidateSession, always taking the newest
-         * outcome over any earlier ones. (Duplicate outcomes can happen when delivering items,
-         * which can sometimes be re-opened by candidates.)
-         */
-        final LinkedHashMap<Long, QueuedLtiOutcome> outcomesBySessionMap = new LinkedHashMap<Long, QueuedLtiOutcome>();
-        for (final QueuedLtiOutcome queuedLtiOutcome : pendingOutcomes) {
-            final CandidateSession candidateSession = queuedLtiOutcome.getCandidateSession();
-            final User candidate = candidateSession.getCandidate();
-            final Long candidateSessionId = candidateSession.getId();
-            final QueuedLtiOutcome earlierQueuedOutcomeForSession = outcomesBySessionMap.get(candidateSessionId);
-            if (earlierQueuedOutcomeForSession!=null) {
-                /* Earlier outcome is queued up, so remove this in preference for this later outcome */
-                candidateSession.setLisOutcomeReportingStatus(LisOutcomeReportingStatus.TC_RETURN_SCHEDULED);
-                candidateSessionDao.update(candidateSession);
-                queuedLtiOutcomeDao.remove(earlierQueuedOutcomeForSession);
-                auditLogger.recordEvent(candidate, "De-queued LTI outcome #" + earlierQueuedOutcomeForSession.getId()
-                        + " as a later one for the same CandidateSession is already queued up");
-                logger.info("De-queued LTI outcome #{} as a later one for the same CandidateSession is already queued up",
-                        earlierQueuedOutcomeForSession.getId());
+            /* Move past all of these outcomes, including any that we leave or another sender claims first */
+            afterQoid = ((Long) claimableOutcomes.get(claimableOutcomes.size() - 1)[0]).longValue();
+
+            /* Reserve space for each outcome in the queue for its host, leaving those that won't fit */
+            final Map<Long, HostSendQueue> reservedQueueMap = new LinkedHashMap<Long, HostSendQueue>();
+            for (final Object[] claimableOutcome : claimableOutcomes) {
+                final Long qoid = (Long) claimableOutcome[0];
+                final String lisOutcomeServiceUrl = (String) claimableOutcome[1];
+                final HostSendQueue hostSendQueue = getHostSendQueue(extractHost(lisOutcomeServiceUrl));
+                if (hostSendQueue.reserve()) {
+                    reservedQueueMap.put(qoid, hostSendQueue);
+                }
+            }
+            if (reservedQueueMap.isEmpty()) {
+                continue;
+            }
+
+            /* Claim these outcomes, then queue up the ones we got */
+            final List<QueuedLtiOutcome> claimedOutcomes = ltiOutcomeQueueService.claimOutcomes(claimant,
+                    new ArrayList<Long>(reservedQueueMap.keySet()));
+            for (final QueuedLtiOutcome claimedOutcome : claimedOutcomes) {
+                final HostSendQueue hostSendQueue = reservedQueueMap.remove(claimedOutcome.getId());
+                queueSend(claimedOutcome, claimant, hostSendQueue);
+            }
+            totalClaimCount += claimedOutcomes.size();
+
+            /* Give back the space reserved for outcomes that another sender claimed first */
+            for (final HostSendQueue hostSendQueue : reservedQueueMap.values()) {
+                hostSendQueue.unreserve();
             }
-            outcomesBySessionMap.put(candidateSessionId, queuedLtiOutcome);
         }
+        return totalClaimCount;
+    }
 
-        /* Now attempt to send remaining outcomes to relevant result services */
-        final int totalSendCount = outcomesBySessionMap.size();
-        int failedSendCount = 0;
-        final Date timestamp = new Date();
-        for (final QueuedLtiOutcome queuedLtiOutcome : outcomesBySessionMap.values()) {
-            final Date retryTime = queuedLtiOutcome.getRetryTime();
-            if (ignoreRetryTimes || retryTime==null || retryTime.before(timestamp)) {
-                final boolean successful = handleQueuedLtiOutcome(queuedLtiOutcome);
-                if (!successful) {
-                    failedSendCount++;
+    /**
+     * Waits for up to the given time for all claimed outcomes to be sent.
+     *
+     * @return true if all claimed outcomes were sent, false if we timed out or were interrupted
+     */
+    public boolean awaitPendingSends(final long timeoutMillis) {
+        final long endTime = System.currentTimeMillis() + timeoutMillis;
+        try {
+            for (final HostSendQueue hostSendQueue : hostSendQueueMap.values()) {
+                if (!hostSendQueue.awaitEmpty(endTime)) {
+                    return false;
                 }
             }
+            return true;
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while waiting for LTI outcomes to be sent");
+            return false;
         }
-        return new Pair<Integer, Integer>(Integer.valueOf(failedSendCount), Integer.valueOf(totalSendCount));
     }
 
-    private boolean handleQueuedLtiOutcome(final QueuedLtiOutcome queuedLtiOutcome) {
-        final CandidateSession candidateSession = queuedLtiOutcome.getCandidateSession();
-        final User candidate = candidateSession.getCandidate();
-        final boolean successful = trySendQueuedLtiOutcome(queuedLtiOutcome);
-        if (successful) {
-            /* Outcome sent successfully, so remove from queue */
-            candidateSession.setLisOutcomeReportingStatus(LisOutcomeReportingStatus.TC_RETURN_SUCCESS);
-            queuedLtiOutcomeDao.remove(queuedLtiOutcome);
-            candidateSessionDao.update(candidateSession);
-            auditLogger.recordEvent(candidate, "Successfully sent LTI outcome #" + queuedLtiOutcome.getId()
-                    + " to LIS outcome service at " + candidateSession.getLisOutcomeServiceUrl());
-            logger.info("Successfully sent LTI outcome #{} to LIS outcome service at {}",
-                    queuedLtiOutcome.getId(), candidateSession.getLisOutcomeServiceUrl());
+    private HostSendQueue getHostSendQueue(final String host) {
+        HostSendQueue hostSendQueue = hostSendQueueMap.get(host);
+        if (hostSendQueue==null) {
+            final HostSendQueue newHostSendQueue = new HostSendQueue();
+            hostSendQueue = hostSendQueueMap.putIfAbsent(host, newHostSendQueue);
+            if (hostSendQueue==null) {
+                hostSendQueue = newHostSendQueue;
+            }
         }
-        else {
-            /* Outcome failed. Retry up to limit of retries */
-            final int failureCount = queuedLtiOutcome.getFailureCount();
-            if (failureCount < retryDelays.length) {
-                queuedLtiOutcome.setFailureCount(failureCount + 1);
-                queuedLtiOutcome.setRetryTime(new Date(System.currentTimeMillis() + (1000L * 60 * retryDelays[failureCount])));
-                candidateSession.setLisOutcomeReportingStatus(LisOutcomeReportingStatus.TC_RETURN_FAIL_TERMINAL);
-                queuedLtiOutcomeDao.update(queuedLtiOutcome);
-                candidateSessionDao.update(candidateSession);
-                auditLogger.recordEvent(candidate, "Failure #" + (failureCount+1)
-                        + " to send LTI outcome #" + queuedLtiOutcome.getId()
-                        + " to LIS outcome service at " + candidateSession.getLisOutcomeServiceUrl()
-                        + ". Will try again at " + queuedLtiOutcome.getRetryTime());
-                logger.warn("Failure #{} to send LTI outcome #{} to LIS outcome service at {}. Will try again at {}",
-                        new Object[] { failureCount+1, queuedLtiOutcome.getId(), candidateSession.getLisOutcomeServiceUrl(), queuedLtiOutcome.getRetryTime() });
+        return hostSendQueue;
+    }
+
+    /**
+     * Creates the message for the given claimed {@link QueuedLtiOutcome} and adds it to the given
+     * queue, in which space must have been reserved for it.
+     */
+    private void queueSend(final QueuedLtiOutcome claimedOutcome, final String claimant, final HostSendQueue hostSendQueue) {
+        /* (We create the message in the calling thread as it needs access to the entity model) */
+        final OAuthMessage lisResultMessage = createLisResultMessage(claimedOutcome);
+        if (lisResultMessage==null) {
+            recordSendResult(claimedOutcome, claimant, false);
+            hostSendQueue.unreserve();
+            return;
+        }
+        final PendingSend pendingSend = new PendingSend(claimedOutcome, claimant, lisResultMessage, hostSendQueue);
+        try {
+            hostSendQueue.add(pendingSend);
+        }
+        catch (final RejectedExecutionException e) {
+            /* We're shutting down, so leave this outcome to be sent next time */
+            if (hostSendQueue.remove(pendingSend)) {
+                ltiOutcomeQueueService.releaseClaim(claimedOutcome, claimant);
+                hostSendQueue.unreserve();
             }
-            else {
-                candidateSession.setLisOutcomeReportingStatus(LisOutcomeReportingStatus.TC_RETURN_FAIL_TERMINAL);
-                queuedLtiOutcomeDao.remove(queuedLtiOutcome);
-                candidateSessionDao.update(candidateSession);
-                auditLogger.recordEvent(candidate, "Final failure #" + (failureCount+1)
-                        + " to send LTI outcome #" + queuedLtiOutcome.getId()
-                        + " to LIS outcome service at " + candidateSession.getLisOutcomeServiceUrl()
-                        + ". Outcome has been removed from queue");
-                logger.error("Final failure #{} to send LTI outcome #{} to LIS outcome service at {}. Outcome has been removed from queue",
-                        new Object[] { failureCount+1, queuedLtiOutcome.getId(), candidateSession.getLisOutcomeServiceUrl() });
+        }
+    }
+
+    private void recordSendResult(final QueuedLtiOutcome claimedOutcome, final String claimant, final boolean successful) {
+        try {
+            ltiOutcomeQueueService.recordSendResult(claimedOutcome, claimant, successful);
+        }
+        catch (final RuntimeException e) {
+            logger.warn("Unexpected Exception recording result of sending LTI outcome #" + claimedOutcome.getId(), e);
+        }
+    }
+
+    /**
+     * Claimed outcome waiting to be sent.
+     */
+    private final class PendingSend {
+
+        private final QueuedLtiOutcome claimedOutcome;
+        private final String claimant;
+        private final OAuthMessage lisResultMessage;
+        private final HostSendQueue hostSendQueue;
+
+        PendingSend(final QueuedLtiOutcome claimedOutcome, final String claimant,
+                final OAuthMessage lisResultMessage, final HostSendQueue hostSendQueue) {
+            this.claimedOutcome = claimedOutcome;
+            this.claimant = claimant;
+            this.lisResultMessage = lisResultMessage;
+            this.hostSendQueue = hostSendQueue;
+        }
+
+        void send() {
+            boolean successful;
+            try {
+                successful = LtiOauthUtilities.sendLisResultMessage(lisResultMessage, lisHttpClient);
+            }
+            catch (final RuntimeException e) {
+                logger.warn("Unexpected Exception sending LTI outcome #" + claimedOutcome.getId(), e);
+                successful = false;
+            }
+            try {
+                recordSendResult(claimedOutcome, claimant, successful);
+            }
+            finally {
+                hostSendQueue.unreserve();
             }
         }
-        return successful;
     }
 
     /**
-     * Attempts to send the given {@link QueuedLtiOutcome} back to the corresponding LIS
-     * result service. Returns true if the result was successfully returned, false otherwise.
+     * Outcomes waiting to be sent to a particular host. These are sent by up to
+     * {@link #MAX_SENDS_PER_HOST} workers at a time, which stops a slow outcome service from
+     * holding up the others. Space must be reserved for each outcome before it is claimed, and
+     * is given back once its result has been recorded.
      */
-    private boolean trySendQueuedLtiOutcome(final QueuedLtiOutcome queuedLtiOutcome) {
+    private final class HostSendQueue implements Runnable {
+
+        private final Queue<PendingSend> pendingSends = new ConcurrentLinkedQueue<PendingSend>();
+
+        /** Number of workers currently sending this host's outcomes */
+        private final AtomicInteger workerCount = new AtomicInteger();
+
+        /** Number of outcomes that have been reserved space but not yet had their results recorded */
+        private int reservedCount;
+
+        synchronized boolean reserve() {
+            if (reservedCount >= MAX_PENDING_SENDS_PER_HOST) {
+                return false;
+            }
+            reservedCount++;
+            return true;
+        }
+
+        synchronized void unreserve() {
+            reservedCount--;
+            if (reservedCount==0) {
+                notifyAll();
+            }
+        }
+
+        synchronized boolean awaitEmpty(final long endTime) throws InterruptedException {
+            long remaining;
+            while (reservedCount > 0 && (remaining = endTime - System.currentTimeMillis()) > 0) {
+                wait(remaining);
+            }
+            return reservedCount==0;
+        }
+
+        void add(final PendingSend pendingSend) {
+            pendingSends.add(pendingSend);
+            startWorkerIfRequired();
+        }
+
+        boolean remove(final PendingSend pendingSend) {
+            return pendingSends.remove(pendingSend);
+        }
+
+        private void startWorkerIfRequired() {
+            int currentWorkerCount;
+            while (!pendingSends.isEmpty() && (currentWorkerCount = workerCount.get()) < MAX_SENDS_PER_HOST) {
+                if (workerCount.compareAndSet(currentWorkerCount, currentWorkerCount + 1)) {
+                    try {
+                        sendExecutor.execute(this);
+                    }
+                    catch (final RejectedExecutionException e) {
+                        workerCount.decrementAndGet();
+                        throw e;
+                    }
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            PendingSend pendingSend;
+            while ((pendingSend = pendingSends.poll())!=null) {
+                pendingSend.send();
+            }
+            workerCount.decrementAndGet();
+
+            /* Pick up anything added after we found the queue empty but before we stopped */
+            try {
+                startWorkerIfRequired();
+            }
+            catch (final RejectedExecutionException e) {
+                /* Shutting down, so remaining outcomes will be sent once their claims expire */
+            }
+        }
+    }
+
+    private static String extractHost(final String url) {
+        if (url==null) {
+            return "";
+        }
+        try {
+            return new URL(url).getAuthority();
+        }
+        catch (final MalformedURLException e) {
+            return url;
+        }
+    }
+
+    /**
+     * Creates the message for sending the given {@link QueuedLtiOutcome} back to the corresponding
+     * LIS result service. Returns null if this could not be done.
+     */
+    private OAuthMessage createLisResultMessage(final QueuedLtiOutcome queuedLtiOutcome) {
         /* Extract the information we need to send */
         final double normalizedScore = queuedLtiOutcome.getScore();
         final CandidateSession candidateSession = queuedLtiOutcome.getCandidateSession();
@@ -251,7 +496,7 @@ public class LtiOutcomeService {
         final User candidate = candidateSession.getCandidate();
         if (candidate.getUserType()!=UserType.LTI) {
             logger.warn("Candidate must be an LTI user - ignoring {}", queuedLtiOutcome);
-            return false;
+            return null;
         }
         final LtiUser ltiCandidate = (LtiUser) candidate;
         final String ltiConsumerKey, ltiConsumerSecret;
@@ -272,8 +517,14 @@ public class LtiOutcomeService {
                 throw new QtiWorksLogicException("Unexpected switch case " + ltiCandidate.getLtiLaunchType());
         }
 
-        /* Now send the result */
-        return LtiOauthUtilities.sendLisResult(lisOutcomeServiceUrl, lisResultSourcedid,
-                ltiConsumerKey, ltiConsumerSecret, normalizedScore);
+        /* Now create the message */
+        try {
+            return LtiOauthUtilities.createLisResultMessage(lisOutcomeServiceUrl, lisResultSourcedid,
+                    ltiConsumerKey, ltiConsumerSecret, normalizedScore);
+        }
+        catch (final IllegalArgumentException e) {
+            logger.warn("Could not create LIS result message for {}", queuedLtiOutcome, e);
+            return null;
+        }
     }
 }
@@ -34,15 +34,20 @@
 package uk.ac.ed.ph.qtiworks.services;
 
 import uk.ac.ed.ph.qtiworks.config.QtiWorksProfiles;
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
 import uk.ac.ed.ph.qtiworks.domain.DomainConstants;
 
 import uk.ac.ed.ph.jqtiplus.internal.util.Pair;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import javax.annotation.Resource;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
@@ -61,17 +66,46 @@ public class ScheduledService {
 
     private static final Logger logger = LoggerFactory.getLogger(ScheduledService.class);
 
+    @Resource
+    private QtiWorksDeploymentSettings qtiWorksDeploymentSettings;
+
     @Resource
     private MaintenanceJobService maintenanceJobService;
 
+    @Resource
+    private CacheWarmingService cacheWarmingService;
+
     @Resource
     private DataDeletionService dataDeletionService;
 
     @Resource
     private LtiOutcomeService ltiOutcomeService;
 
+    /** Guards against warming caches more than once, as each child MVC context also fires refresh events */
+    private final AtomicBoolean startupHandled = new AtomicBoolean();
+
     //-------------------------------------------------
 
+    /**
+     * Warms caches once the application has started. The rendering stylesheets are always
+     * precompiled, with the remaining caches warmed only if enabled.
+     */
+    @EventListener
+    public void warmCachesOnStartup(final ContextRefreshedEvent event) {
+        if (!startupHandled.compareAndSet(false, true)) {
+            return;
+        }
+        if (!qtiWorksDeploymentSettings.isWarmCachesOnStartup()) {
+            cacheWarmingService.precompileStylesheets();
+            return;
+        }
+        logger.info("warmCachesOnStartup() invoked");
+        final Pair<Integer, Integer> result = cacheWarmingService.warmCaches();
+        final int failureCount = result.getFirst().intValue();
+        final int packageCount = result.getSecond().intValue();
+        logger.info("warmCachesOnStartup() completed with {} failure(s) out of {} package(s)", failureCount, packageCount);
+    }
+
     /**
      * Invoke routine maintenance jobs
      */
@@ -88,13 +122,11 @@ public class ScheduledService {
         logger.trace("sendNextQueuedLtiOutcomes() invoked");
 
         final long beforeTimestamp = System.currentTimeMillis();
-        final Pair<Integer, Integer> result = ltiOutcomeService.sendQueuedLtiOutcomes(false);
+        final int claimCount = ltiOutcomeService.sendQueuedLtiOutcomes(false);
         final long afterTimestamp = System.currentTimeMillis();
         final long duration = afterTimestamp - beforeTimestamp;
 
-        final int failureCount = result.getFirst().intValue();
-        final int sendCount = result.getSecond().intValue();
-        logger.debug("sendNextQueuedLtiOutcomes() completed in {}ms with {} failure(s) out of {} send(s)", duration,
-                 failureCount, sendCount);
+        logger.debug("sendNextQueuedLtiOutcomes() completed in {}ms, claiming {} outcome(s) for sending", duration,
+                 claimCount);
     }
 }
@@ -0,0 +1,301 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.QtiWorksLogicException;
+import uk.ac.ed.ph.qtiworks.QtiWorksRuntimeException;
+import uk.ac.ed.ph.qtiworks.utils.XmlUtilities;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.BinaryUnmarshallingException;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.ItemSessionStateBinaryMarshaller;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateBinaryMarshaller;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateXmlMarshaller;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.xml.parsers.DocumentBuilder;
+
+import org.w3c.dom.Document;
+
+import com.google.common.io.Files;
+import com.google.common.primitives.Longs;
+
+/**
+ * Helper for {@link CandidateDataService} that stores {@link TestSessionState}s as a chain
+ * of full checkpoints and binary deltas, and reconstructs them again.
+ * <p>
+ * Each delta contains only the {@link ItemSessionState}s that have changed since the state
+ * stored for the previous event, and is prefixed with the ID of that event. A full checkpoint is
+ * stored whenever the previous state is not known, or once the configured number of deltas
+ * has been reached since the last checkpoint.
+ * <p>
+ * This is independent of how the state files are named and found, which is
+ * delegated to a {@link StateFileLocator}.
+ *
+ * @author David McKain
+ */
+final class TestSessionStateDeltaChain {
+
+    /** File extension used for session state stored as XML */
+    static final String XML_STATE_FILE_EXTENSION = ".xml";
+
+    /** File extension used for session state stored in the compact binary format */
+    static final String BINARY_STATE_FILE_EXTENSION = ".bin";
+
+    /**
+     * File extension used for test session state stored as a binary delta against the state
+     * for an earlier event. (The file starts with the ID of that event.)
+     */
+    static final String DELTA_STATE_FILE_EXTENSION = ".delta";
+
+    /** Length of the event ID prefix at the start of each delta */
+    private static final int DELTA_PREFIX_LENGTH = 8;
+
+    /**
+     * Finds the files used to hold the state for the events within a single
+     * candidate session.
+     */
+    interface StateFileLocator {
+
+        /**
+         * Returns the file that holds (or would hold) the state for the event having the
+         * given ID, stored using the format having the given file extension.
+         */
+        File getStateFile(long eventId, String fileExtension);
+
+        /**
+         * Returns the existing file holding the state for the event having the given ID,
+         * throwing a {@link QtiWorksLogicException} if there is no such file.
+         */
+        File ensureStateFile(long eventId);
+    }
+
+    private final StateFileLocator stateFileLocator;
+    private final int checkpointInterval;
+
+    TestSessionStateDeltaChain(final StateFileLocator stateFileLocator, final int checkpointInterval) {
+        Assert.notNull(stateFileLocator, "stateFileLocator");
+        this.stateFileLocator = stateFileLocator;
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    //----------------------------------------------------
+
+    /**
+     * Stores the given {@link TestSessionState}, recorded for the event having the given ID, as
+     * either a full checkpoint or a delta against the given previous state.
+     *
+     * @param eventId ID of the event the state is being recorded for
+     * @param testSessionState state to store
+     * @param stateData binary form of the state, used when storing a full checkpoint
+     * @param previousState details of the state stored for the previous event, which may be
+     *   null if this is not known
+     *
+     * @return details of the state that was stored, which should be passed as the previous
+     *   state when storing the state for the next event
+     */
+    StoredTestSessionState store(final long eventId, final TestSessionState testSessionState, final byte[] stateData,
+            final StoredTestSessionState previousState) {
+        final Map<TestPlanNodeKey, byte[]> itemStateDataMap = new HashMap<TestPlanNodeKey, byte[]>();
+        for (final Entry<TestPlanNodeKey, ItemSessionState> entry : testSessionState.getItemSessionStates().entrySet()) {
+            itemStateDataMap.put(entry.getKey(), ItemSessionStateBinaryMarshaller.marshal(entry.getValue()));
+        }
+
+        final int deltaCount;
+        if (previousState==null || previousState.deltaCount + 1 >= checkpointInterval) {
+            /* Store full checkpoint */
+            writeStateFile(stateFileLocator.getStateFile(eventId, BINARY_STATE_FILE_EXTENSION), stateData);
+            deltaCount = 0;
+        }
+        else {
+            /* Work out which items have changed */
+            final Set<TestPlanNodeKey> changedItemKeys = new HashSet<TestPlanNodeKey>();
+            for (final Entry<TestPlanNodeKey, byte[]> entry : itemStateDataMap.entrySet()) {
+                if (!Arrays.equals(entry.getValue(), previousState.itemStateDataMap.get(entry.getKey()))) {
+                    changedItemKeys.add(entry.getKey());
+                }
+            }
+
+            /* Then store delta, prefixed with the ID of the event it's relative to */
+            final ByteArrayOutputStream deltaStream = new ByteArrayOutputStream();
+            try {
+                new DataOutputStream(deltaStream).writeLong(previousState.eventId);
+                TestSessionStateBinaryMarshaller.marshalDelta(testSessionState, changedItemKeys, deltaStream);
+            }
+            catch (final IOException e) {
+                throw QtiWorksRuntimeException.unexpectedException(e);
+            }
+            writeStateFile(stateFileLocator.getStateFile(eventId, DELTA_STATE_FILE_EXTENSION), deltaStream.toByteArray());
+            deltaCount = previousState.deltaCount + 1;
+        }
+        return new StoredTestSessionState(eventId, deltaCount, itemStateDataMap);
+    }
+
+    /**
+     * Reconstructs the {@link TestSessionState} stored for the event having the given ID,
+     * following any chain of deltas back to the last full checkpoint.
+     *
+     * @throws QtiWorksLogicException if any part of the chain is missing or can't be parsed
+     */
+    TestSessionState load(final long eventId) {
+        /* Follow any chain of deltas back to the last full checkpoint */
+        final List<byte[]> deltas = new ArrayList<byte[]>();
+        long currentEventId = eventId;
+        File stateFile = stateFileLocator.ensureStateFile(currentEventId);
+        while (isDeltaStateFile(stateFile)) {
+            final byte[] delta = readStateFile(stateFile);
+            if (delta.length < DELTA_PREFIX_LENGTH) {
+                throw new QtiWorksLogicException("Delta state for event #" + currentEventId + " is truncated");
+            }
+            final long baseEventId = Longs.fromByteArray(delta);
+            if (baseEventId>=currentEventId) {
+                throw new QtiWorksLogicException("Delta state for event #" + currentEventId + " refers to later event #" + baseEventId);
+            }
+            deltas.add(delta);
+            currentEventId = baseEventId;
+            stateFile = stateFileLocator.ensureStateFile(currentEventId);
+        }
+
+        /* Load checkpoint, then apply deltas to it in order */
+        TestSessionState result;
+        try {
+            if (isXmlStateFile(stateFile)) {
+                final Document document = loadStateDocument(stateFile);
+                result = TestSessionStateXmlMarshaller.unmarshal(document.getDocumentElement());
+            }
+            else {
+                result = TestSessionStateBinaryMarshaller.unmarshal(readStateFile(stateFile));
+            }
+            for (int i=deltas.size()-1; i>=0; i--) {
+                final byte[] delta = deltas.get(i);
+                result = TestSessionStateBinaryMarshaller.unmarshalDelta(new ByteArrayInputStream(delta,
+                        DELTA_PREFIX_LENGTH, delta.length - DELTA_PREFIX_LENGTH), result);
+            }
+        }
+        catch (final BinaryUnmarshallingException e) {
+            throw new QtiWorksLogicException("Could not parse serialized binary state. This is an internal error as we currently don't expose this data to clients", e);
+        }
+        catch (final IOException e) {
+            throw QtiWorksRuntimeException.unexpectedException(e);
+        }
+        return result;
+    }
+
+    //----------------------------------------------------
+
+    static boolean isBinaryStateFile(final File stateFile) {
+        return stateFile.getName().endsWith(BINARY_STATE_FILE_EXTENSION);
+    }
+
+    static boolean isDeltaStateFile(final File stateFile) {
+        return stateFile.getName().endsWith(DELTA_STATE_FILE_EXTENSION);
+    }
+
+    static boolean isXmlStateFile(final File stateFile) {
+        return stateFile.getName().endsWith(XML_STATE_FILE_EXTENSION);
+    }
+
+    static Document loadStateDocument(final File stateFile) {
+        final DocumentBuilder documentBuilder = XmlUtilities.createNsAwareDocumentBuilder();
+        try {
+            return documentBuilder.parse(stateFile);
+        }
+        catch (final Exception e) {
+            throw new QtiWorksLogicException("Could not parse serailized state XML. This is an internal error as we currently don't expose this data to clients", e);
+        }
+    }
+
+    static byte[] readStateFile(final File stateFile) {
+        try {
+            return Files.toByteArray(stateFile);
+        }
+        catch (final IOException e) {
+            throw QtiWorksRuntimeException.unexpectedException(e);
+        }
+    }
+
+    static void writeStateFile(final File stateFile, final byte[] stateData) {
+        try {
+            Files.write(stateData, stateFile);
+        }
+        catch (final IOException e) {
+            throw QtiWorksRuntimeException.unexpectedException(e);
+        }
+    }
+
+    //----------------------------------------------------
+
+    /**
+     * Details of the last {@link TestSessionState} stored for a candidate session.
+     * (The binary form of each {@link ItemSessionState} is kept so that we can tell what
+     * has changed without keeping a copy of the state itself.)
+     */
+    static final class StoredTestSessionState {
+
+        private final long eventId;
+        private final int deltaCount;
+        private final Map<TestPlanNodeKey, byte[]> itemStateDataMap;
+
+        StoredTestSessionState(final long eventId, final int deltaCount, final Map<TestPlanNodeKey, byte[]> itemStateDataMap) {
+            this.eventId = eventId;
+            this.deltaCount = deltaCount;
+            this.itemStateDataMap = itemStateDataMap;
+        }
+
+        long getEventId() {
+            return eventId;
+        }
+
+        /** Returns the number of deltas stored since the last full checkpoint, which is 0 for a checkpoint */
+        int getDeltaCount() {
+            return deltaCount;
+        }
+    }
+}
@@ -35,6 +35,7 @@ package uk.ac.ed.ph.qtiworks.services.candidate;
 
 import uk.ac.ed.ph.qtiworks.QtiWorksLogicException;
 import uk.ac.ed.ph.qtiworks.QtiWorksRuntimeException;
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
 import uk.ac.ed.ph.qtiworks.domain.entities.AssessmentPackage;
 import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEvent;
 import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEventNotification;
@@ -57,6 +58,7 @@ import uk.ac.ed.ph.qtiworks.rendering.TestRenderingMode;
 import uk.ac.ed.ph.qtiworks.rendering.TestRenderingOptions;
 import uk.ac.ed.ph.qtiworks.rendering.TestRenderingRequest;
 import uk.ac.ed.ph.qtiworks.services.AssessmentDataService;
+import uk.ac.ed.ph.qtiworks.services.AssessmentObjectManagementService;
 import uk.ac.ed.ph.qtiworks.services.AssessmentPackageFileService;
 import uk.ac.ed.ph.qtiworks.services.FilespaceManager;
 import uk.ac.ed.ph.qtiworks.services.ServiceUtilities;
@@ -74,6 +76,7 @@ import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
 import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
 import uk.ac.ed.ph.jqtiplus.validation.AssessmentObjectValidationResult;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -83,9 +86,12 @@ import java.net.URI;
 import java.util.Date;
 import java.util.List;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import javax.xml.transform.stream.StreamResult;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
@@ -102,6 +108,8 @@ import org.springframework.transaction.annotation.Transactional;
 @Transactional(propagation=Propagation.REQUIRED)
 public class CandidateRenderingService extends CandidateServiceBase {
 
+    private static final Logger logger = LoggerFactory.getLogger(CandidateRenderingService.class);
+
     @Resource
     private AssessmentPackageFileService assessmentPackageFileService;
 
@@ -111,6 +119,9 @@ public class CandidateRenderingService extends CandidateServiceBase {
     @Resource
     private AssessmentDataService assessmentDataService;
 
+    @Resource
+    private AssessmentObjectManagementService assessmentObjectManagementService;
+
     @Resource
     private AssessmentRenderer assessmentRenderer;
 
@@ -123,6 +134,24 @@ public class CandidateRenderingService extends CandidateServiceBase {
     @Resource
     private CandidateSessionDao candidateSessionDao;
 
+    @Resource
+    private QtiWorksDeploymentSettings qtiWorksDeploymentSettings;
+
+    /**
+     * Cache of rendered pages for states that won't change when revisited.
+     * This will be null if the cache has been disabled.
+     */
+    private RenderedPageCache renderedPageCache;
+
+    @PostConstruct
+    public void init() {
+        final long maxWeight = qtiWorksDeploymentSettings.getRenderedPageCacheMaxWeight();
+        if (maxWeight > 0) {
+            logger.info("Caching up to approximately {}KB of rendered pages", maxWeight);
+            renderedPageCache = new RenderedPageCache(maxWeight);
+        }
+    }
+
     //----------------------------------------------------
     // Item rendering
 
@@ -211,7 +240,7 @@ public class CandidateRenderingService extends CandidateServiceBase {
 
         /* If session has terminated, render appropriate state and exit */
         if (itemSessionState.isExited()) {
-            assessmentRenderer.renderTeminated(createTerminatedRenderingRequest(candidateSession, renderingRequest.getRenderingOptions()), result);
+            renderTerminated(candidateSession, renderingRequest.getRenderingOptions(), result);
             return;
         }
 
@@ -247,8 +276,19 @@ public class CandidateRenderingService extends CandidateServiceBase {
         /* Finally pass to rendering layer */
         candidateAuditLogger.logItemRendering(candidateEvent);
         final List<CandidateEventNotification> notifications = candidateEvent.getNotifications();
+
+        /* Pages for ended items (including their solutions) won't change when revisited, so may be
+         * served from the rendered page cache */
+        String pageCacheKey = null;
+        if (isRenderedPageCacheEnabled() && RenderedPageCache.isCacheable(itemSessionState)) {
+            pageCacheKey = RenderedPageCache.computeItemPageKey(getAssessmentPackageId(candidateSession), renderingRequest, notifications);
+            if (renderedPageCache.writeCachedPage(pageCacheKey, result)) {
+                return;
+            }
+        }
+        final StreamResult renderingResult = pageCacheKey!=null ? renderedPageCache.createRenderingResult() : result;
         try {
-            assessmentRenderer.renderItem(renderingRequest, notifications, result);
+            assessmentRenderer.renderItem(renderingRequest, notifications, renderingResult);
         }
         catch (final RuntimeException e) {
             /* Rendering is complex and may trigger an unexpected Exception (due to a bug in the XSLT).
@@ -257,6 +297,10 @@ public class CandidateRenderingService extends CandidateServiceBase {
              */
             handleExplosion(e, candidateSession);
             assessmentRenderer.renderExploded(createTerminatedRenderingRequest(candidateSession, renderingOptions), result);
+            return;
+        }
+        if (pageCacheKey!=null) {
+            renderedPageCache.cacheAndWritePage(pageCacheKey, renderingResult, result);
         }
     }
 
@@ -403,7 +447,7 @@ public class CandidateRenderingService extends CandidateServiceBase {
         /* If session has terminated, render appropriate state and exit */
         final TestSessionState testSessionState = testSessionController.getTestSessionState();
         if (candidateSession.isTerminated() || testSessionState.isExited()) {
-            assessmentRenderer.renderTeminated(createTerminatedRenderingRequest(candidateSession, renderingRequest.getRenderingOptions()), result);
+            renderTerminated(candidateSession, renderingRequest.getRenderingOptions(), result);
             return;
         }
 
@@ -424,8 +468,22 @@ public class CandidateRenderingService extends CandidateServiceBase {
         /* Pass to rendering layer */
         candidateAuditLogger.logTestRendering(candidateEvent);
         final List<CandidateEventNotification> notifications = candidateEvent.getNotifications();
+
+        /* Pages for an ended test (feedback, plus item review & solution pages) won't change when
+         * revisited, so may be served from the rendered page cache. (We don't cache pages for
+         * tests that haven't ended, as their durations change each time they're rendered.)
+         */
+        String pageCacheKey = null;
+        if (isRenderedPageCacheEnabled() && RenderedPageCache.isCacheable(testSessionState)) {
+            pageCacheKey = RenderedPageCache.computeTestPageKey(getAssessmentPackageId(candidateSession), renderingRequest,
+                    testSessionState, notifications);
+            if (renderedPageCache.writeCachedPage(pageCacheKey, result)) {
+                return;
+            }
+        }
+        final StreamResult renderingResult = pageCacheKey!=null ? renderedPageCache.createRenderingResult() : result;
         try {
-            assessmentRenderer.renderTest(renderingRequest, notifications, result);
+            assessmentRenderer.renderTest(renderingRequest, notifications, renderingResult);
         }
         catch (final RuntimeException e) {
             /* Rendering is complex and may trigger an unexpected Exception (due to a bug in the XSLT).
@@ -434,6 +492,10 @@ public class CandidateRenderingService extends CandidateServiceBase {
              */
             handleExplosion(e, candidateSession);
             assessmentRenderer.renderExploded(createTerminatedRenderingRequest(candidateSession, renderingOptions), result);
+            return;
+        }
+        if (pageCacheKey!=null) {
+            renderedPageCache.cacheAndWritePage(pageCacheKey, renderingResult, result);
         }
     }
 
@@ -575,15 +637,15 @@ public class CandidateRenderingService extends CandidateServiceBase {
         /* Get most recent event */
         final CandidateEvent mostRecentEvent = assertSessionEntered(candidateSession);
 
-        /* Generate result Object from current state */
-        final File sessionStateFile = candidateDataService.ensureSessionStateFile(mostRecentEvent);
+        /* Get XML form of current state */
+        final byte[] sessionStateXml = candidateDataService.readSessionStateXml(mostRecentEvent);
 
         /* Record action */
         candidateAuditLogger.logAction(candidateSession, "ACCESS_STATE");
 
-        /* Stream result file */
+        /* Stream result */
         final Date lastModifiedTime = mostRecentEvent.getTimestamp();
-        ServiceUtilities.streamFile(sessionStateFile, "application/xml", lastModifiedTime, outputStreamer);
+        outputStreamer.stream("application/xml", sessionStateXml.length, lastModifiedTime, new ByteArrayInputStream(sessionStateXml));
     }
 
     //----------------------------------------------------
@@ -642,7 +704,30 @@ public class CandidateRenderingService extends CandidateServiceBase {
     }
 
     private void renderTerminated(final CandidateSession candidateSession, final AbstractRenderingOptions renderingOptions, final StreamResult result) {
-        assessmentRenderer.renderTeminated(createTerminatedRenderingRequest(candidateSession, renderingOptions), result);
+        final TerminatedRenderingRequest renderingRequest = createTerminatedRenderingRequest(candidateSession, renderingOptions);
+        if (!isRenderedPageCacheEnabled()) {
+            assessmentRenderer.renderTeminated(renderingRequest, result);
+            return;
+        }
+
+        /* Terminated pages don't depend on any state, so are always cacheable */
+        final String pageCacheKey = RenderedPageCache.computeTerminatedPageKey(getAssessmentPackageId(candidateSession), renderingRequest);
+        if (!renderedPageCache.writeCachedPage(pageCacheKey, result)) {
+            final StreamResult renderingResult = renderedPageCache.createRenderingResult();
+            assessmentRenderer.renderTeminated(renderingRequest, renderingResult);
+            renderedPageCache.cacheAndWritePage(pageCacheKey, renderingResult, result);
+        }
+    }
+
+    //----------------------------------------------------
+    // Rendered page cache
+
+    private boolean isRenderedPageCacheEnabled() {
+        return renderedPageCache!=null;
+    }
+
+    private long getAssessmentPackageId(final CandidateSession candidateSession) {
+        return assessmentDataService.ensureSelectedAssessmentPackage(candidateSession.getDelivery()).getId().longValue();
     }
 
     //----------------------------------------------------
@@ -661,6 +746,7 @@ public class CandidateRenderingService extends CandidateServiceBase {
         renderingRequest.setRenderingOptions(renderingOptions);
         renderingRequest.setAssessmentResourceLocator(assessmentPackageFileService.createResolvingResourceLocator(assessmentPackage));
         renderingRequest.setAssessmentResourceUri(assessmentPackageFileService.createAssessmentObjectUri(assessmentPackage));
+        renderingRequest.setAssessmentSourceCache(assessmentObjectManagementService.getRenderingSourceCache(assessmentPackage));
         renderingRequest.setAuthorMode(candidateSession.isAuthorMode());
         renderingRequest.setValidated(assessmentPackage.isValidated());
         renderingRequest.setLaunchable(assessmentPackage.isLaunchable());
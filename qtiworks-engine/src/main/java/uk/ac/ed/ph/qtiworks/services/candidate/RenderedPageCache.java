@@ -0,0 +1,245 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services.candidate;
+
+import uk.ac.ed.ph.qtiworks.QtiWorksRuntimeException;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEventNotification;
+import uk.ac.ed.ph.qtiworks.rendering.AbstractRenderingRequest;
+import uk.ac.ed.ph.qtiworks.rendering.ItemRenderingRequest;
+import uk.ac.ed.ph.qtiworks.rendering.TerminatedRenderingRequest;
+import uk.ac.ed.ph.qtiworks.rendering.TestRenderingRequest;
+
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.ItemSessionStateBinaryMarshaller;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateBinaryMarshaller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.List;
+
+import javax.xml.transform.stream.StreamResult;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Cache of rendered pages used by {@link CandidateRenderingService} for states that won't
+ * change when revisited. Pages are keyed on a hash of everything that their rendering
+ * depends on.
+ * <p>
+ * Only pages for ended item and test sessions are cached. The durations of sessions that
+ * haven't ended are touched each time they're rendered, so their keys would never be
+ * looked up again.
+ *
+ * @author David McKain
+ */
+final class RenderedPageCache {
+
+    private final Cache<String, byte[]> cache;
+
+    /**
+     * Creates a new cache holding approximately the given weight of pages, in KB.
+     */
+    RenderedPageCache(final long maxWeight) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxWeight)
+                .weigher(new Weigher<String, byte[]>() {
+                    @Override
+                    public int weigh(final String key, final byte[] value) {
+                        /* (Weigh in KB, rounding up) */
+                        return (value.length + 1023) / 1024;
+                    }
+                })
+                .build();
+    }
+
+    /** Returns the number of pages currently cached */
+    long size() {
+        return cache.size();
+    }
+
+    //----------------------------------------------------
+    // Cacheability
+
+    static boolean isCacheable(final ItemSessionState itemSessionState) {
+        return itemSessionState.isEnded();
+    }
+
+    static boolean isCacheable(final TestSessionState testSessionState) {
+        return testSessionState.isEnded();
+    }
+
+    //----------------------------------------------------
+    // Key computation
+
+    /**
+     * Computes the key for a rendered item page.
+     *
+     * @param assessmentPackageId ID of the package selected for the item's delivery
+     */
+    static String computeItemPageKey(final long assessmentPackageId, final ItemRenderingRequest renderingRequest,
+            final List<CandidateEventNotification> notifications) {
+        final Hasher hasher = createPageHasher("item", assessmentPackageId, renderingRequest, notifications);
+        hasher.putBytes(ItemSessionStateBinaryMarshaller.marshal(renderingRequest.getItemSessionState()));
+        putString(hasher, renderingRequest.getPrompt());
+        hasher.putBoolean(renderingRequest.isSolutionMode())
+            .putBoolean(renderingRequest.isEndAllowed())
+            .putBoolean(renderingRequest.isSoftResetAllowed())
+            .putBoolean(renderingRequest.isHardResetAllowed())
+            .putBoolean(renderingRequest.isSolutionAllowed())
+            .putBoolean(renderingRequest.isCandidateCommentAllowed());
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Computes the key for a rendered test page showing the given {@link TestSessionState}.
+     *
+     * @param assessmentPackageId ID of the package selected for the test's delivery
+     */
+    static String computeTestPageKey(final long assessmentPackageId, final TestRenderingRequest renderingRequest,
+            final TestSessionState testSessionState, final List<CandidateEventNotification> notifications) {
+        final Hasher hasher = createPageHasher("test", assessmentPackageId, renderingRequest, notifications);
+        hasher.putBytes(TestSessionStateBinaryMarshaller.marshal(testSessionState));
+        putString(hasher, renderingRequest.getTestRenderingMode()!=null ? renderingRequest.getTestRenderingMode().toString() : null);
+        putString(hasher, renderingRequest.getModalItemKey()!=null ? renderingRequest.getModalItemKey().toString() : null);
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Computes the key for a rendered terminated page. These don't depend on any state.
+     *
+     * @param assessmentPackageId ID of the package selected for the session's delivery
+     */
+    static String computeTerminatedPageKey(final long assessmentPackageId, final TerminatedRenderingRequest renderingRequest) {
+        return createPageHasher("terminated", assessmentPackageId, renderingRequest, null).hash().toString();
+    }
+
+    /**
+     * Starts computing the key for a page, feeding in everything that the rendering of any
+     * type of page depends on.
+     */
+    private static Hasher createPageHasher(final String pageType, final long assessmentPackageId,
+            final AbstractRenderingRequest<?> renderingRequest, final List<CandidateEventNotification> notifications) {
+        final Hasher hasher = Hashing.sha256().newHasher();
+        putString(hasher, pageType);
+        hasher.putLong(assessmentPackageId)
+            .putBoolean(renderingRequest.isAuthorMode())
+            .putBoolean(renderingRequest.isValidated())
+            .putBoolean(renderingRequest.isLaunchable())
+            .putBoolean(renderingRequest.isValid())
+            .putInt(renderingRequest.getErrorCount())
+            .putInt(renderingRequest.getWarningCount());
+
+        /* The rendering options contain the session-specific action URLs, so they're included in full */
+        final ByteArrayOutputStream optionsStream = new ByteArrayOutputStream();
+        try {
+            final ObjectOutputStream objectOutputStream = new ObjectOutputStream(optionsStream);
+            objectOutputStream.writeObject(renderingRequest.getRenderingOptions());
+            objectOutputStream.close();
+        }
+        catch (final IOException e) {
+            throw new QtiWorksRuntimeException("Unexpected IOException serializing rendering options", e);
+        }
+        hasher.putBytes(optionsStream.toByteArray());
+
+        /* Notifications are immutable, so we just need their IDs */
+        if (notifications!=null) {
+            hasher.putInt(notifications.size());
+            for (final CandidateEventNotification notification : notifications) {
+                hasher.putLong(notification.getId().longValue());
+            }
+        }
+        return hasher;
+    }
+
+    private static void putString(final Hasher hasher, final String string) {
+        if (string!=null) {
+            hasher.putInt(string.length()).putString(string, Charsets.UTF_8);
+        }
+        else {
+            hasher.putInt(-1);
+        }
+    }
+
+    //----------------------------------------------------
+    // Lookup and storage
+
+    /**
+     * Writes the page cached under the given key to the given {@link StreamResult}, if there
+     * is one.
+     *
+     * @return true if the page was found and written, false otherwise
+     */
+    boolean writeCachedPage(final String pageCacheKey, final StreamResult result) {
+        final byte[] page = cache.getIfPresent(pageCacheKey);
+        if (page==null) {
+            return false;
+        }
+        writePage(page, result);
+        return true;
+    }
+
+    /**
+     * Creates a {@link StreamResult} to render a page into before it is cached
+     * using {@link #cacheAndWritePage(String, StreamResult, StreamResult)}.
+     */
+    StreamResult createRenderingResult() {
+        return new StreamResult(new ByteArrayOutputStream());
+    }
+
+    /**
+     * Caches the page rendered into the given renderingResult under the given key, then
+     * writes it to the given {@link StreamResult}.
+     */
+    void cacheAndWritePage(final String pageCacheKey, final StreamResult renderingResult, final StreamResult result) {
+        final byte[] page = ((ByteArrayOutputStream) renderingResult.getOutputStream()).toByteArray();
+        cache.put(pageCacheKey, page);
+        writePage(page, result);
+    }
+
+    private static void writePage(final byte[] page, final StreamResult result) {
+        try {
+            result.getOutputStream().write(page);
+        }
+        catch (final IOException e) {
+            throw new QtiWorksRuntimeException("Unexpected IOException", e);
+        }
+    }
+}
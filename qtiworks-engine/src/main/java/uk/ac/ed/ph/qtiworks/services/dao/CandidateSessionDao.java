@@ -120,6 +120,45 @@ public class CandidateSessionDao extends GenericDao<CandidateSession> {
         return query.getResultList();
     }
 
+    /**
+     * Returns the IDs of all {@link CandidateSession}s launched on the given {@link Delivery}.
+     */
+    public List<Long> getIdsForDelivery(final Delivery delivery) {
+        final TypedQuery<Long> query = em.createNamedQuery("CandidateSession.getIdsForDelivery", Long.class);
+        query.setParameter("delivery", delivery);
+        return query.getResultList();
+    }
+
+    /**
+     * Returns up to the given number of finished or terminated (but not exploded)
+     * {@link CandidateSession}s launched on the given {@link Delivery} having IDs greater than
+     * the given ID. Results are ordered by ID, so can be used to page through large deliveries.
+     */
+    public List<CandidateSession> getReportableForDeliveryAfter(final Delivery delivery, final long afterXid, final int maxResults) {
+        final TypedQuery<CandidateSession> query = em.createNamedQuery("CandidateSession.getReportableForDeliveryAfter", CandidateSession.class);
+        query.setParameter("delivery", delivery);
+        query.setParameter("afterXid", Long.valueOf(afterXid));
+        query.setMaxResults(maxResults);
+        return query.getResultList();
+    }
+
+    /**
+     * Returns summary data for up to the given number of {@link CandidateSession}s launched on the
+     * given {@link Delivery} having IDs greater than the given ID, and which have recorded outcomes.
+     * Results are ordered by ID, so can be used to page through large deliveries.
+     * <p>
+     * Each result is an array containing the session's ID, creation time, candidate first name,
+     * last name and email address, finish time, termination time, exploded flag,
+     * LIS outcome reporting status and LIS score, in that order.
+     */
+    public List<Object[]> getSummaryDataForDeliveryAfter(final Delivery delivery, final long afterXid, final int maxResults) {
+        final TypedQuery<Object[]> query = em.createNamedQuery("CandidateSession.getSummaryDataForDeliveryAfter", Object[].class);
+        query.setParameter("delivery", delivery);
+        query.setParameter("afterXid", Long.valueOf(afterXid));
+        query.setMaxResults(maxResults);
+        return query.getResultList();
+    }
+
     public List<CandidateSession> getNonTerminatedForDeliveryAndCandidate(final Delivery delivery, final User candidate) {
         final TypedQuery<CandidateSession> query = em.createNamedQuery("CandidateSession.getNonTerminatedForDeliveryAndCandidate", CandidateSession.class);
         query.setParameter("delivery", delivery);
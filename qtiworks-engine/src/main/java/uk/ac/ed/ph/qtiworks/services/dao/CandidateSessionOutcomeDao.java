@@ -37,6 +37,10 @@ import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
 import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSessionOutcome;
 import uk.ac.ed.ph.qtiworks.domain.entities.Delivery;
 
+import uk.ac.ed.ph.jqtiplus.value.BaseType;
+import uk.ac.ed.ph.jqtiplus.value.Cardinality;
+
+import java.util.Arrays;
 import java.util.List;
 
 import javax.persistence.EntityManager;
@@ -76,6 +80,45 @@ public class CandidateSessionOutcomeDao extends GenericDao<CandidateSessionOutco
         return query.getResultList();
     }
 
+    /**
+     * Returns the distinct outcome identifiers recorded for the given {@link Delivery}, in the
+     * order they were first recorded. Each result is an array containing the identifier,
+     * {@link BaseType} and {@link Cardinality}. (The same identifier may be returned more than
+     * once if its declaration has changed over time.)
+     */
+    public List<Object[]> getIdentifiersForDelivery(final Delivery delivery) {
+        final TypedQuery<Object[]> query = em.createNamedQuery("CandidateSessionOutcome.getIdentifiersForDelivery", Object[].class);
+        query.setParameter("delivery", delivery);
+        return query.getResultList();
+    }
+
+    /**
+     * Returns the outcomes recorded for {@link CandidateSession}s within the given {@link Delivery}
+     * having IDs within the given (inclusive) range, ordered by session.
+     * Each result is an array containing the session ID, outcome identifier, {@link BaseType},
+     * {@link Cardinality} and string value.
+     */
+    public List<Object[]> getValuesForDeliveryBetween(final Delivery delivery, final long firstXid, final long lastXid) {
+        final TypedQuery<Object[]> query = em.createNamedQuery("CandidateSessionOutcome.getValuesForDeliveryBetween", Object[].class);
+        query.setParameter("delivery", delivery);
+        query.setParameter("firstXid", Long.valueOf(firstXid));
+        query.setParameter("lastXid", Long.valueOf(lastXid));
+        return query.getResultList();
+    }
+
+    /**
+     * Returns the single cardinality numeric outcomes recorded for finished {@link CandidateSession}s
+     * within the given {@link Delivery}, ordered by session. Each result is an array containing the
+     * {@link CandidateSession}, outcome identifier and string value.
+     */
+    public List<Object[]> getNumericValuesForFinishedSessions(final Delivery delivery) {
+        final TypedQuery<Object[]> query = em.createNamedQuery("CandidateSessionOutcome.getNumericValuesForFinishedSessions", Object[].class);
+        query.setParameter("delivery", delivery);
+        query.setParameter("cardinality", Cardinality.SINGLE);
+        query.setParameter("baseTypes", Arrays.asList(BaseType.INTEGER, BaseType.FLOAT));
+        return query.getResultList();
+    }
+
     public int deleteForCandidateSession(final CandidateSession candidateSession) {
         final Query query = em.createNamedQuery("CandidateSessionOutcome.deleteForSession");
         query.setParameter("candidateSession", candidateSession);
@@ -99,6 +99,12 @@ public class DeliveryDao extends GenericDao<Delivery> {
         return extractCountResult(query);
     }
 
+    public List<Delivery> getOpenWithAssessment() {
+        final TypedQuery<Delivery> query = em.createNamedQuery("Delivery.getOpenWithAssessment", Delivery.class);
+        query.setParameter("open", Boolean.TRUE);
+        return query.getResultList();
+    }
+
     public List<Delivery> getForTypeCreatedBefore(final DeliveryType deliveryType, final Date creationTime) {
         final TypedQuery<Delivery> query = em.createNamedQuery("Delivery.getForTypeCreatedBefore", Delivery.class);
         query.setParameter("deliveryType", deliveryType);
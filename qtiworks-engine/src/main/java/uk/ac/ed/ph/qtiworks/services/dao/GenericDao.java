@@ -160,6 +160,20 @@ public abstract class GenericDao<E extends BaseEntity> {
         }
     }
 
+    /**
+     * Flushes the persistence context, then clears it so that all managed entities become
+     * detached. This is useful when working through large numbers of entities that are no
+     * longer needed once processed.
+     * <p>
+     * NB: The persistence context is shared by all DAOs, so this detaches all entities,
+     * not just those managed by this DAO.
+     */
+    @Transactional(readOnly=false, propagation=Propagation.REQUIRED)
+    public void flushAndClear() {
+        em.flush();
+        em.clear();
+    }
+
     @Transactional(readOnly=false, propagation=Propagation.REQUIRED)
     public void flush() {
         try {
@@ -36,6 +36,7 @@ package uk.ac.ed.ph.qtiworks.services.dao;
 import uk.ac.ed.ph.qtiworks.domain.entities.LtiNonce;
 
 import java.util.Date;
+import java.util.List;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
@@ -69,6 +70,12 @@ public class LtiNonceDao extends GenericDao<LtiNonce> {
         return extractNullableFindResult(query);
     }
 
+    public List<LtiNonce> getNoncesSince(final Date threshold) {
+        final TypedQuery<LtiNonce> query = em.createNamedQuery("LtiNonce.getNoncesSince", LtiNonce.class);
+        query.setParameter("threshold", threshold);
+        return query.getResultList();
+    }
+
     public int deleteOldNonces(final Date threshold) {
         final Query query = em.createNamedQuery("LtiNonce.deleteOldNonces");
         query.setParameter("threshold", threshold);
@@ -37,9 +37,11 @@ import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
 import uk.ac.ed.ph.qtiworks.domain.entities.Delivery;
 import uk.ac.ed.ph.qtiworks.domain.entities.QueuedLtiOutcome;
 
+import java.util.Date;
 import java.util.List;
 
 import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
@@ -64,8 +66,56 @@ public class QueuedLtiOutcomeDao extends GenericDao<QueuedLtiOutcome> {
         super(QueuedLtiOutcome.class);
     }
 
-    public List<QueuedLtiOutcome> getAllQueuedOutcomes() {
-        final TypedQuery<QueuedLtiOutcome> query = em.createNamedQuery("QueuedLtiOutcome.getAllQueuedOutcomes", QueuedLtiOutcome.class);
+    /**
+     * Looks up the {@link QueuedLtiOutcome} for the given {@link CandidateSession}, locking it
+     * until the end of the current transaction. This stops its score being replaced while a
+     * sender is recording the result of sending it. Returns null if there is no such outcome.
+     */
+    public QueuedLtiOutcome getForCandidateSessionForUpdate(final CandidateSession candidateSession) {
+        final TypedQuery<QueuedLtiOutcome> query = em.createNamedQuery("QueuedLtiOutcome.getForSession", QueuedLtiOutcome.class);
+        query.setParameter("candidateSession", candidateSession);
+        query.setLockMode(LockModeType.PESSIMISTIC_WRITE);
+        return extractNullableFindResult(query);
+    }
+
+    /**
+     * Looks up the {@link QueuedLtiOutcome} having the given ID, locking it until the end of the
+     * current transaction. Returns null if there is no such outcome.
+     */
+    public QueuedLtiOutcome findByIdForUpdate(final Long qoid) {
+        return em.find(QueuedLtiOutcome.class, qoid, LockModeType.PESSIMISTIC_WRITE);
+    }
+
+    public List<Object[]> getClaimableAfter(final long afterQoid, final Date dueTime, final Date leaseExpiryTime, final int maxResults) {
+        final TypedQuery<Object[]> query = em.createNamedQuery("QueuedLtiOutcome.getClaimableAfter", Object[].class);
+        query.setParameter("afterQoid", Long.valueOf(afterQoid));
+        query.setParameter("dueTime", dueTime);
+        query.setParameter("leaseExpiryTime", leaseExpiryTime);
+        query.setMaxResults(maxResults);
+        return query.getResultList();
+    }
+
+    public List<Object[]> getClaimableIgnoringRetryTimesAfter(final long afterQoid, final Date leaseExpiryTime, final int maxResults) {
+        final TypedQuery<Object[]> query = em.createNamedQuery("QueuedLtiOutcome.getClaimableIgnoringRetryTimesAfter", Object[].class);
+        query.setParameter("afterQoid", Long.valueOf(afterQoid));
+        query.setParameter("leaseExpiryTime", leaseExpiryTime);
+        query.setMaxResults(maxResults);
+        return query.getResultList();
+    }
+
+    public int claim(final List<Long> qoids, final String claimant, final Date claimTime, final Date leaseExpiryTime) {
+        final Query query = em.createNamedQuery("QueuedLtiOutcome.claim");
+        query.setParameter("qoids", qoids);
+        query.setParameter("claimant", claimant);
+        query.setParameter("claimTime", claimTime);
+        query.setParameter("leaseExpiryTime", leaseExpiryTime);
+        return query.executeUpdate();
+    }
+
+    public List<QueuedLtiOutcome> getClaimed(final List<Long> qoids, final String claimant) {
+        final TypedQuery<QueuedLtiOutcome> query = em.createNamedQuery("QueuedLtiOutcome.getClaimed", QueuedLtiOutcome.class);
+        query.setParameter("qoids", qoids);
+        query.setParameter("claimant", claimant);
         return query.getResultList();
     }
 
@@ -34,9 +34,13 @@
 package uk.ac.ed.ph.qtiworks.services.domain;
 
 import uk.ac.ed.ph.qtiworks.domain.entities.Delivery;
+import uk.ac.ed.ph.qtiworks.domain.entities.DeliveryOutcomeStatistics;
 
 import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
 
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Composes various useful pieces of status information about a {@link Delivery}
  * together.
@@ -48,12 +52,15 @@ public final class DeliveryStatusReport {
     private final Delivery delivery;
     private final long sessionCount;
     private final long nonTerminatedSessionCount;
+    private final List<DeliveryOutcomeStatistics> outcomeStatistics;
 
     public DeliveryStatusReport(final Delivery delivery,
-            final long sessionCount, final long nonTerminatedSessionCount) {
+            final long sessionCount, final long nonTerminatedSessionCount,
+            final List<DeliveryOutcomeStatistics> outcomeStatistics) {
         this.delivery = delivery;
         this.sessionCount = sessionCount;
         this.nonTerminatedSessionCount = nonTerminatedSessionCount;
+        this.outcomeStatistics = Collections.unmodifiableList(outcomeStatistics);
     }
 
     public Delivery getDelivery() {
@@ -68,6 +75,14 @@ public final class DeliveryStatusReport {
         return nonTerminatedSessionCount;
     }
 
+    /**
+     * Returns summary statistics for the numeric outcomes of the sessions finished on this
+     * {@link Delivery}.
+     */
+    public List<DeliveryOutcomeStatistics> getOutcomeStatistics() {
+        return outcomeStatistics;
+    }
+
     @Override
     public String toString() {
         return ObjectUtilities.beanToString(this);
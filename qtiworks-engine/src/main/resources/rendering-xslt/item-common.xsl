@@ -21,7 +21,8 @@ rendering.
   <xsl:import href="qti-common.xsl"/>
 
   <!-- State of item being rendered -->
-  <xsl:param name="itemSessionState" as="element(qw:itemSessionState)"/>
+  <xsl:param name="itemSessionStateDocument" as="document-node(element(qw:itemSessionState))"/>
+  <xsl:variable name="itemSessionState" select="$itemSessionStateDocument/qw:itemSessionState" as="element(qw:itemSessionState)"/>
 
   <!-- Flag to enable modal rendering of model solution for this item -->
   <xsl:param name="solutionMode" as="xs:boolean" required="yes"/>
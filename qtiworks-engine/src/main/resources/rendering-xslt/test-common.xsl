@@ -23,7 +23,8 @@ Base templates used in test rendering
   <xsl:param name="testSystemId" as="xs:string" required="yes"/>
 
   <!-- State of test being rendered -->
-  <xsl:param name="testSessionState" as="element(qw:testSessionState)" required="yes"/>
+  <xsl:param name="testSessionStateDocument" as="document-node(element(qw:testSessionState))" required="yes"/>
+  <xsl:variable name="testSessionState" select="$testSessionStateDocument/qw:testSessionState" as="element(qw:testSessionState)"/>
 
   <!-- Outcome declarations in test -->
   <xsl:param name="testOutcomeDeclarations" select="()" as="element(qti:outcomeDeclaration)*"/>
@@ -111,6 +111,36 @@ Shows a Delivery
       </tr>
     </tbody>
   </table>
+  <c:if test="${!empty deliveryStatusReport.outcomeStatistics}">
+    <h3>Outcome summary</h3>
+    <p class="hints">
+      Summary of the numeric outcomes recorded for candidate sessions finished on this Delivery.
+    </p>
+    <table class="listTable">
+      <thead>
+        <tr>
+          <th>Outcome</th>
+          <th>Finished sessions</th>
+          <th>Mean</th>
+          <th>Standard deviation</th>
+          <th>Minimum</th>
+          <th>Maximum</th>
+        </tr>
+      </thead>
+      <tbody>
+        <c:forEach var="outcomeStatistics" items="${deliveryStatusReport.outcomeStatistics}">
+          <tr>
+            <td><c:out value="${outcomeStatistics.outcomeIdentifier}"/></td>
+            <td align="center">${outcomeStatistics.valueCount}</td>
+            <td align="center"><fmt:formatNumber value="${outcomeStatistics.meanValue}" maxFractionDigits="2"/></td>
+            <td align="center"><fmt:formatNumber value="${outcomeStatistics.standardDeviation}" maxFractionDigits="2"/></td>
+            <td align="center"><fmt:formatNumber value="${outcomeStatistics.minimumValue}" maxFractionDigits="2"/></td>
+            <td align="center"><fmt:formatNumber value="${outcomeStatistics.maximumValue}" maxFractionDigits="2"/></td>
+          </tr>
+        </c:forEach>
+      </tbody>
+    </table>
+  </c:if>
   <c:if test="${delivery.ltiEnabled}">
     <h3 class="clear:both">LTI launch details</h3>
     <p class="hints">
@@ -0,0 +1,169 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.rendering;
+
+import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ClassPathResourceLocator;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests how the {@link AssessmentRenderer} decides whether the MathML content-to-presentation
+ * stage of its pipeline can be skipped, for both standalone items and items within tests.
+ *
+ * @author David McKain
+ */
+public class AssessmentRendererMathmlTest {
+
+    private static final URI ITEM_PRESENTATION_URI = makeUri("item-presentation.xml");
+    private static final URI ITEM_CONTENT_URI = makeUri("item-content.xml");
+    private static final URI TEST_PRESENTATION_URI = makeUri("test-presentation.xml");
+    private static final URI TEST_CONTENT_URI = makeUri("test-content.xml");
+
+    private Map<URI, SaxEventBuffer> assessmentSourceCache;
+
+    @Before
+    public void setup() {
+        assessmentSourceCache = new HashMap<URI, SaxEventBuffer>();
+    }
+
+    //----------------------------------------------------------
+
+    @Test
+    public void itemWithoutContentMathml() {
+        final ItemRenderingRequest request = createItemRequest(ITEM_PRESENTATION_URI);
+        Assert.assertFalse(isMathmlConversionRequired(request, ITEM_PRESENTATION_URI));
+    }
+
+    @Test
+    public void itemWithContentMathml() {
+        final ItemRenderingRequest request = createItemRequest(ITEM_CONTENT_URI);
+        Assert.assertTrue(isMathmlConversionRequired(request, ITEM_CONTENT_URI));
+    }
+
+    @Test
+    public void uncachedItem() {
+        final ItemRenderingRequest request = createItemRequest(ITEM_PRESENTATION_URI);
+        request.setAssessmentSourceCache(null);
+        Assert.assertTrue(AssessmentRenderer.isMathmlConversionRequired(request, ITEM_PRESENTATION_URI, null));
+    }
+
+    @Test
+    public void emptyInput() {
+        final TestRenderingRequest request = createTestRequest(TEST_CONTENT_URI);
+        Assert.assertFalse(AssessmentRenderer.isMathmlConversionRequired(request, null, null));
+    }
+
+    @Test
+    public void testPageWithoutContentMathml() {
+        final TestRenderingRequest request = createTestRequest(TEST_PRESENTATION_URI);
+        Assert.assertFalse(isMathmlConversionRequired(request, TEST_PRESENTATION_URI));
+    }
+
+    @Test
+    public void testPageWithContentMathml() {
+        final TestRenderingRequest request = createTestRequest(TEST_CONTENT_URI);
+        Assert.assertTrue(isMathmlConversionRequired(request, TEST_CONTENT_URI));
+    }
+
+    @Test
+    public void testItemWithoutContentMathml() {
+        final TestRenderingRequest request = createTestRequest(TEST_PRESENTATION_URI);
+        Assert.assertFalse(isMathmlConversionRequired(request, ITEM_PRESENTATION_URI));
+    }
+
+    @Test
+    public void testItemWithContentMathmlInItem() {
+        final TestRenderingRequest request = createTestRequest(TEST_PRESENTATION_URI);
+        Assert.assertTrue(isMathmlConversionRequired(request, ITEM_CONTENT_URI));
+    }
+
+    @Test
+    public void testItemWithContentMathmlInTest() {
+        /* The item is fine, but its page also renders the test's rubricBlocks */
+        final TestRenderingRequest request = createTestRequest(TEST_CONTENT_URI);
+        Assert.assertTrue(isMathmlConversionRequired(request, ITEM_PRESENTATION_URI));
+        Assert.assertNull(assessmentSourceCache.get(TEST_CONTENT_URI));
+    }
+
+    @Test
+    public void sourcesCached() {
+        final TestRenderingRequest request = createTestRequest(TEST_PRESENTATION_URI);
+        final SaxEventBuffer itemSource = AssessmentRenderer.obtainAssessmentSource(request, ITEM_PRESENTATION_URI);
+        Assert.assertEquals(ITEM_PRESENTATION_URI.toString(), itemSource.getSystemId());
+        Assert.assertTrue(itemSource.getEstimatedSize() > 0L);
+
+        /* Sources are only read from the cache, not added to it */
+        Assert.assertTrue(assessmentSourceCache.isEmpty());
+        assessmentSourceCache.put(ITEM_PRESENTATION_URI, itemSource);
+        Assert.assertSame(itemSource, AssessmentRenderer.obtainAssessmentSource(request, ITEM_PRESENTATION_URI));
+
+        request.setAssessmentSourceCache(null);
+        Assert.assertNull(AssessmentRenderer.obtainAssessmentSource(request, ITEM_PRESENTATION_URI));
+    }
+
+    //----------------------------------------------------------
+
+    private boolean isMathmlConversionRequired(final AbstractRenderingRequest<?> request, final URI inputUri) {
+        final SaxEventBuffer inputSource = AssessmentRenderer.obtainAssessmentSource(request, inputUri);
+        return AssessmentRenderer.isMathmlConversionRequired(request, inputUri, inputSource);
+    }
+
+    private ItemRenderingRequest createItemRequest(final URI itemUri) {
+        final ItemRenderingRequest request = new ItemRenderingRequest();
+        setupRequest(request, itemUri);
+        return request;
+    }
+
+    private TestRenderingRequest createTestRequest(final URI testUri) {
+        final TestRenderingRequest request = new TestRenderingRequest();
+        setupRequest(request, testUri);
+        return request;
+    }
+
+    private void setupRequest(final AbstractRenderingRequest<?> request, final URI assessmentUri) {
+        request.setAssessmentResourceLocator(new ClassPathResourceLocator());
+        request.setAssessmentResourceUri(assessmentUri);
+        request.setAssessmentSourceCache(assessmentSourceCache);
+    }
+
+    private static URI makeUri(final String fileName) {
+        return URI.create("classpath:/uk/ac/ed/ph/qtiworks/rendering/" + fileName);
+    }
+}
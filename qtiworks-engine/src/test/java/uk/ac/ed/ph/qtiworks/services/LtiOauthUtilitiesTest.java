@@ -0,0 +1,171 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.oauth.OAuthMessage;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests sending LIS results via {@link LtiOauthUtilities} to a stub outcome service
+ * running locally.
+ *
+ * @author David McKain
+ */
+public class LtiOauthUtilitiesTest {
+
+    private static final String SUCCESS_RESPONSE = "<?xml version='1.0' encoding='UTF-8'?>\n"
+            + "<imsx_POXEnvelopeResponse xmlns='http://www.imsglobal.org/services/ltiv1p1/xsd/imsoms_v1p0'>\n"
+            + "  <imsx_POXHeader>\n"
+            + "    <imsx_POXResponseHeaderInfo>\n"
+            + "      <imsx_version>V1.0</imsx_version>\n"
+            + "      <imsx_messageIdentifier>1</imsx_messageIdentifier>\n"
+            + "      <imsx_statusInfo>\n"
+            + "        <imsx_codeMajor>success</imsx_codeMajor>\n"
+            + "        <imsx_severity>status</imsx_severity>\n"
+            + "      </imsx_statusInfo>\n"
+            + "    </imsx_POXResponseHeaderInfo>\n"
+            + "  </imsx_POXHeader>\n"
+            + "  <imsx_POXBody><replaceResultResponse/></imsx_POXBody>\n"
+            + "</imsx_POXEnvelopeResponse>\n";
+
+    private static final int SEND_COUNT = 50;
+    private static final int MAX_CONNECTIONS_PER_HOST = 2;
+
+    private HttpServer outcomeServer;
+    private String outcomeServiceUrl;
+    private AtomicInteger receivedCount;
+    private AtomicInteger activeCount;
+    private AtomicInteger maxActiveCount;
+
+    @Before
+    public void setup() throws IOException {
+        receivedCount = new AtomicInteger();
+        activeCount = new AtomicInteger();
+        maxActiveCount = new AtomicInteger();
+        outcomeServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        outcomeServer.createContext("/outcomes", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                final int active = activeCount.incrementAndGet();
+                try {
+                    int max;
+                    while (active > (max = maxActiveCount.get()) && !maxActiveCount.compareAndSet(max, active)) {
+                        /* Retry */
+                    }
+                    final InputStream requestStream = exchange.getRequestBody();
+                    while (requestStream.read()!=-1) {
+                        /* Consume request */
+                    }
+                    receivedCount.incrementAndGet();
+                    final byte[] responseBytes = SUCCESS_RESPONSE.getBytes("UTF-8");
+                    exchange.getResponseHeaders().add("Content-Type", "application/xml");
+                    exchange.sendResponseHeaders(200, responseBytes.length);
+                    final OutputStream responseStream = exchange.getResponseBody();
+                    responseStream.write(responseBytes);
+                    responseStream.close();
+                }
+                finally {
+                    activeCount.decrementAndGet();
+                }
+            }
+        });
+        outcomeServer.setExecutor(Executors.newFixedThreadPool(8));
+        outcomeServer.start();
+        outcomeServiceUrl = "http://127.0.0.1:" + outcomeServer.getAddress().getPort() + "/outcomes";
+    }
+
+    @After
+    public void tearDown() {
+        if (outcomeServer!=null) {
+            outcomeServer.stop(0);
+        }
+    }
+
+    //----------------------------------------------------------
+
+    @Test
+    public void testSendLisResultMessage() throws Exception {
+        final OAuthMessage message = LtiOauthUtilities.createLisResultMessage(outcomeServiceUrl, "sourcedid", "key", "secret", 0.5);
+        Assert.assertTrue(LtiOauthUtilities.sendLisResultMessage(message));
+        Assert.assertEquals(1, receivedCount.get());
+    }
+
+    @Test
+    public void testSendLisResultMessagesConcurrently() throws Exception {
+        final CloseableHttpClient httpClient = LtiOauthUtilities.createLisHttpClient(MAX_CONNECTIONS_PER_HOST, 8);
+        final ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i=0; i<SEND_COUNT; i++) {
+                final OAuthMessage message = LtiOauthUtilities.createLisResultMessage(outcomeServiceUrl, "sourcedid" + i, "key", "secret", 0.5);
+                results.add(executorService.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return Boolean.valueOf(LtiOauthUtilities.sendLisResultMessage(message, httpClient));
+                    }
+                }));
+            }
+            for (final Future<Boolean> result : results) {
+                Assert.assertTrue(result.get().booleanValue());
+            }
+        }
+        finally {
+            executorService.shutdown();
+            httpClient.close();
+        }
+        Assert.assertEquals(SEND_COUNT, receivedCount.get());
+        Assert.assertTrue(maxActiveCount.get() <= MAX_CONNECTIONS_PER_HOST);
+    }
+}
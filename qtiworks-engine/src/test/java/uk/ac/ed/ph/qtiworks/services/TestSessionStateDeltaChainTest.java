@@ -0,0 +1,271 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.QtiWorksLogicException;
+import uk.ac.ed.ph.qtiworks.services.TestSessionStateDeltaChain.StateFileLocator;
+import uk.ac.ed.ph.qtiworks.services.TestSessionStateDeltaChain.StoredTestSessionState;
+
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestPlan;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNode;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNode.TestNodeType;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateBinaryMarshaller;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.io.Files;
+
+/**
+ * Tests the {@link TestSessionStateDeltaChain} helper, which stores and reconstructs
+ * chains of checkpoints and deltas.
+ *
+ * @author David McKain
+ */
+public class TestSessionStateDeltaChainTest {
+
+    private static final int CHECKPOINT_INTERVAL = 3;
+    private static final int ITEM_COUNT = 3;
+
+    private File stateDirectory;
+    private TestSessionStateDeltaChain deltaChain;
+    private TestSessionState testSessionState;
+    private List<TestPlanNodeKey> itemKeys;
+
+    /** State recorded for each event stored so far, indexed by event ID */
+    private List<TestSessionState> expectedStates;
+
+    private StoredTestSessionState previousState;
+
+    @Before
+    public void setup() {
+        stateDirectory = Files.createTempDir();
+        deltaChain = new TestSessionStateDeltaChain(new StateFileLocator() {
+
+            @Override
+            public File getStateFile(final long eventId, final String fileExtension) {
+                return new File(stateDirectory, "testSessionState" + eventId + fileExtension);
+            }
+
+            @Override
+            public File ensureStateFile(final long eventId) {
+                final File checkpointFile = getStateFile(eventId, TestSessionStateDeltaChain.BINARY_STATE_FILE_EXTENSION);
+                if (checkpointFile.exists()) {
+                    return checkpointFile;
+                }
+                final File deltaFile = getStateFile(eventId, TestSessionStateDeltaChain.DELTA_STATE_FILE_EXTENSION);
+                if (deltaFile.exists()) {
+                    return deltaFile;
+                }
+                throw new QtiWorksLogicException("No state file for event #" + eventId);
+            }
+        }, CHECKPOINT_INTERVAL);
+
+        /* Create a simple test plan containing a single part with a few items */
+        final TestPlanNode rootNode = TestPlanNode.createRoot();
+        final TestPlanNode testPartNode = new TestPlanNode(TestNodeType.TEST_PART,
+                new TestPlanNodeKey(Identifier.assumedLegal("p"), 0, 1), null);
+        rootNode.addChild(testPartNode);
+        itemKeys = new ArrayList<TestPlanNodeKey>();
+        for (int i=0; i<ITEM_COUNT; i++) {
+            final TestPlanNodeKey itemKey = new TestPlanNodeKey(Identifier.assumedLegal("i" + i), i+1, 1);
+            testPartNode.addChild(new TestPlanNode(TestNodeType.ASSESSMENT_ITEM_REF, itemKey, null));
+            itemKeys.add(itemKey);
+        }
+        testSessionState = new TestSessionState(new TestPlan(rootNode));
+        for (final TestPlanNodeKey itemKey : itemKeys) {
+            testSessionState.getItemSessionStates().put(itemKey, new ItemSessionState());
+        }
+        expectedStates = new ArrayList<TestSessionState>();
+        previousState = null;
+    }
+
+    @After
+    public void tearDown() {
+        if (stateDirectory!=null) {
+            ServiceUtilities.recursivelyDelete(stateDirectory);
+        }
+    }
+
+    //----------------------------------------------------------
+
+    @Test
+    public void checkpointInterval() {
+        for (int i=0; i<7; i++) {
+            changeItemAndStore(i % ITEM_COUNT);
+        }
+        for (int eventId=0; eventId<7; eventId++) {
+            final boolean expectCheckpoint = eventId % CHECKPOINT_INTERVAL == 0;
+            Assert.assertEquals(expectCheckpoint, getStateFile(eventId, TestSessionStateDeltaChain.BINARY_STATE_FILE_EXTENSION).exists());
+            Assert.assertEquals(!expectCheckpoint, getStateFile(eventId, TestSessionStateDeltaChain.DELTA_STATE_FILE_EXTENSION).exists());
+        }
+        Assert.assertEquals(0, previousState.getDeltaCount());
+        Assert.assertEquals(6L, previousState.getEventId());
+    }
+
+    @Test
+    public void checkpointWhenPreviousStateUnknown() {
+        changeItemAndStore(0);
+        changeItemAndStore(1);
+
+        /* Forget previous state, as happens when it drops out of the cache */
+        previousState = null;
+        changeItemAndStore(2);
+        Assert.assertTrue(getStateFile(2, TestSessionStateDeltaChain.BINARY_STATE_FILE_EXTENSION).exists());
+        Assert.assertEquals(0, previousState.getDeltaCount());
+    }
+
+    @Test
+    public void deltaOnlyContainsChangedItems() {
+        changeItemAndStore(0);
+        final long checkpointSize = getStateFile(0, TestSessionStateDeltaChain.BINARY_STATE_FILE_EXTENSION).length();
+
+        /* Storing unchanged state should still record a delta, but a smaller one */
+        storeCurrentState();
+        final File deltaFile = getStateFile(1, TestSessionStateDeltaChain.DELTA_STATE_FILE_EXTENSION);
+        Assert.assertTrue(deltaFile.exists());
+        Assert.assertTrue(deltaFile.length() < checkpointSize);
+        Assert.assertEquals(testSessionState, deltaChain.load(1));
+    }
+
+    @Test
+    public void rebuildEveryEvent() {
+        for (int i=0; i<10; i++) {
+            changeItemAndStore(i % ITEM_COUNT);
+        }
+        for (int eventId=0; eventId<expectedStates.size(); eventId++) {
+            Assert.assertEquals(expectedStates.get(eventId), deltaChain.load(eventId));
+        }
+    }
+
+    @Test
+    public void rebuildChosenEvent() {
+        for (int i=0; i<5; i++) {
+            changeItemAndStore(i % ITEM_COUNT);
+        }
+
+        /* Event 2 is a delta on top of the delta at 1 and the checkpoint at 0 */
+        Assert.assertEquals(expectedStates.get(2), deltaChain.load(2));
+        Assert.assertFalse(expectedStates.get(1).equals(deltaChain.load(2)));
+
+        /* Event 4 is a delta on top of the checkpoint at 3 */
+        Assert.assertEquals(expectedStates.get(4), deltaChain.load(4));
+        Assert.assertFalse(expectedStates.get(3).equals(deltaChain.load(4)));
+    }
+
+    @Test(expected=QtiWorksLogicException.class)
+    public void missingDelta() {
+        for (int i=0; i<3; i++) {
+            changeItemAndStore(i);
+        }
+        getStateFile(1, TestSessionStateDeltaChain.DELTA_STATE_FILE_EXTENSION).delete();
+        deltaChain.load(2);
+    }
+
+    @Test(expected=QtiWorksLogicException.class)
+    public void missingCheckpoint() {
+        for (int i=0; i<3; i++) {
+            changeItemAndStore(i);
+        }
+        getStateFile(0, TestSessionStateDeltaChain.BINARY_STATE_FILE_EXTENSION).delete();
+        deltaChain.load(2);
+    }
+
+    @Test(expected=QtiWorksLogicException.class)
+    public void truncatedDelta() throws Exception {
+        changeItemAndStore(0);
+        changeItemAndStore(1);
+        Files.write(new byte[] { 0, 0, 0 }, getStateFile(1, TestSessionStateDeltaChain.DELTA_STATE_FILE_EXTENSION));
+        deltaChain.load(1);
+    }
+
+    @Test(expected=QtiWorksLogicException.class)
+    public void corruptDelta() throws Exception {
+        changeItemAndStore(0);
+        changeItemAndStore(1);
+        final File deltaFile = getStateFile(1, TestSessionStateDeltaChain.DELTA_STATE_FILE_EXTENSION);
+        final byte[] delta = Files.toByteArray(deltaFile);
+        final byte[] corrupted = new byte[delta.length - 4];
+        System.arraycopy(delta, 0, corrupted, 0, corrupted.length);
+        Files.write(corrupted, deltaFile);
+        deltaChain.load(1);
+    }
+
+    @Test(expected=QtiWorksLogicException.class)
+    public void deltaReferringForwards() throws Exception {
+        changeItemAndStore(0);
+        changeItemAndStore(1);
+        final File deltaFile = getStateFile(1, TestSessionStateDeltaChain.DELTA_STATE_FILE_EXTENSION);
+        final byte[] delta = Files.toByteArray(deltaFile);
+        delta[7] = 5; /* Base event ID is stored as a big-endian long at the start */
+        Files.write(delta, deltaFile);
+        deltaChain.load(1);
+    }
+
+    //----------------------------------------------------------
+
+    /**
+     * Changes the state of the item having the given index, then stores the resulting
+     * state as the next event.
+     */
+    private void changeItemAndStore(final int itemIndex) {
+        final ItemSessionState itemSessionState = testSessionState.getItemSessionStates().get(itemKeys.get(itemIndex));
+        itemSessionState.setNumAttempts(itemSessionState.getNumAttempts() + 1);
+        storeCurrentState();
+    }
+
+    private void storeCurrentState() {
+        final long eventId = expectedStates.size();
+        final byte[] stateData = TestSessionStateBinaryMarshaller.marshal(testSessionState);
+        previousState = deltaChain.store(eventId, testSessionState, stateData, previousState);
+        Assert.assertEquals(eventId, previousState.getEventId());
+
+        /* Keep an independent copy of the state for comparison later */
+        expectedStates.add(TestSessionStateBinaryMarshaller.unmarshal(stateData));
+    }
+
+    private File getStateFile(final long eventId, final String fileExtension) {
+        return new File(stateDirectory, "testSessionState" + eventId + fileExtension);
+    }
+}
@@ -0,0 +1,254 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services.candidate;
+
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEventNotification;
+import uk.ac.ed.ph.qtiworks.rendering.ItemRenderingOptions;
+import uk.ac.ed.ph.qtiworks.rendering.ItemRenderingRequest;
+import uk.ac.ed.ph.qtiworks.rendering.TestRenderingMode;
+import uk.ac.ed.ph.qtiworks.rendering.TestRenderingOptions;
+import uk.ac.ed.ph.qtiworks.rendering.TestRenderingRequest;
+
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestPlan;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNode;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNode.TestNodeType;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import javax.xml.transform.stream.StreamResult;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link RenderedPageCache} used by the {@link CandidateRenderingService}
+ *
+ * @author David McKain
+ */
+public class RenderedPageCacheTest {
+
+    private static final long PACKAGE_ID = 1L;
+    private static final TestPlanNodeKey ITEM_KEY = new TestPlanNodeKey(Identifier.assumedLegal("i"), 1, 1);
+
+    private RenderedPageCache renderedPageCache;
+    private ItemSessionState itemSessionState;
+    private TestSessionState testSessionState;
+
+    @Before
+    public void setup() {
+        renderedPageCache = new RenderedPageCache(1024L);
+
+        itemSessionState = new ItemSessionState();
+        itemSessionState.setEntryTime(new Date(1000L));
+
+        final TestPlanNode rootNode = TestPlanNode.createRoot();
+        final TestPlanNode testPartNode = new TestPlanNode(TestNodeType.TEST_PART,
+                new TestPlanNodeKey(Identifier.assumedLegal("p"), 0, 1), null);
+        rootNode.addChild(testPartNode);
+        testPartNode.addChild(new TestPlanNode(TestNodeType.ASSESSMENT_ITEM_REF, ITEM_KEY, null));
+        testSessionState = new TestSessionState(new TestPlan(rootNode));
+        testSessionState.getItemSessionStates().put(ITEM_KEY, new ItemSessionState());
+        testSessionState.setEntryTime(new Date(1000L));
+    }
+
+    //----------------------------------------------------------
+    // Cacheability
+
+    @Test
+    public void itemCacheableOnlyWhenEnded() {
+        Assert.assertFalse(RenderedPageCache.isCacheable(itemSessionState));
+        itemSessionState.setEndTime(new Date(2000L));
+        Assert.assertTrue(RenderedPageCache.isCacheable(itemSessionState));
+    }
+
+    @Test
+    public void testCacheableOnlyWhenEnded() {
+        /* Review pages shown while the test is still open are not cacheable */
+        Assert.assertFalse(RenderedPageCache.isCacheable(testSessionState));
+        testSessionState.setEndTime(new Date(2000L));
+        Assert.assertTrue(RenderedPageCache.isCacheable(testSessionState));
+    }
+
+    //----------------------------------------------------------
+    // Keys
+
+    @Test
+    public void itemKeyRepeatable() {
+        final String key = RenderedPageCache.computeItemPageKey(PACKAGE_ID, createItemRequest(), null);
+        Assert.assertEquals(key, RenderedPageCache.computeItemPageKey(PACKAGE_ID, createItemRequest(), null));
+    }
+
+    @Test
+    public void itemKeyDependsOnPackage() {
+        final String key = RenderedPageCache.computeItemPageKey(PACKAGE_ID, createItemRequest(), null);
+        Assert.assertFalse(key.equals(RenderedPageCache.computeItemPageKey(PACKAGE_ID + 1, createItemRequest(), null)));
+    }
+
+    @Test
+    public void itemKeyDependsOnState() {
+        final String key = RenderedPageCache.computeItemPageKey(PACKAGE_ID, createItemRequest(), null);
+        itemSessionState.setNumAttempts(1);
+        Assert.assertFalse(key.equals(RenderedPageCache.computeItemPageKey(PACKAGE_ID, createItemRequest(), null)));
+    }
+
+    @Test
+    public void itemKeyDependsOnOptions() {
+        final String key = RenderedPageCache.computeItemPageKey(PACKAGE_ID, createItemRequest(), null);
+        final ItemRenderingRequest request = createItemRequest();
+        request.getRenderingOptions().setResponseUrl("/other/response");
+        Assert.assertFalse(key.equals(RenderedPageCache.computeItemPageKey(PACKAGE_ID, request, null)));
+    }
+
+    @Test
+    public void itemKeyDependsOnFlags() {
+        final String key = RenderedPageCache.computeItemPageKey(PACKAGE_ID, createItemRequest(), null);
+        final ItemRenderingRequest request = createItemRequest();
+        request.setSolutionMode(true);
+        Assert.assertFalse(key.equals(RenderedPageCache.computeItemPageKey(PACKAGE_ID, request, null)));
+    }
+
+    @Test
+    public void itemKeyDependsOnNotifications() {
+        final String key = RenderedPageCache.computeItemPageKey(PACKAGE_ID, createItemRequest(), Collections.<CandidateEventNotification>emptyList());
+        final String key1 = RenderedPageCache.computeItemPageKey(PACKAGE_ID, createItemRequest(), createNotifications(1L));
+        final String key2 = RenderedPageCache.computeItemPageKey(PACKAGE_ID, createItemRequest(), createNotifications(2L));
+        Assert.assertFalse(key.equals(key1));
+        Assert.assertFalse(key1.equals(key2));
+        Assert.assertEquals(key1, RenderedPageCache.computeItemPageKey(PACKAGE_ID, createItemRequest(), createNotifications(1L)));
+    }
+
+    @Test
+    public void testKeyDependsOnModalItem() {
+        final TestRenderingRequest request = createTestRequest();
+        final String key = RenderedPageCache.computeTestPageKey(PACKAGE_ID, request, testSessionState, null);
+        Assert.assertEquals(key, RenderedPageCache.computeTestPageKey(PACKAGE_ID, createTestRequest(), testSessionState, null));
+
+        request.setTestRenderingMode(TestRenderingMode.ITEM_REVIEW);
+        request.setModalItemKey(ITEM_KEY);
+        final String reviewKey = RenderedPageCache.computeTestPageKey(PACKAGE_ID, request, testSessionState, null);
+        Assert.assertFalse(key.equals(reviewKey));
+
+        request.setTestRenderingMode(TestRenderingMode.ITEM_SOLUTION);
+        Assert.assertFalse(reviewKey.equals(RenderedPageCache.computeTestPageKey(PACKAGE_ID, request, testSessionState, null)));
+    }
+
+    @Test
+    public void testKeyDependsOnState() {
+        final String key = RenderedPageCache.computeTestPageKey(PACKAGE_ID, createTestRequest(), testSessionState, null);
+        testSessionState.getItemSessionStates().get(ITEM_KEY).setNumAttempts(1);
+        Assert.assertFalse(key.equals(RenderedPageCache.computeTestPageKey(PACKAGE_ID, createTestRequest(), testSessionState, null)));
+    }
+
+    @Test
+    public void pageTypesDistinguished() {
+        final ItemRenderingRequest itemRequest = createItemRequest();
+        final TestRenderingRequest testRequest = createTestRequest();
+        Assert.assertFalse(RenderedPageCache.computeItemPageKey(PACKAGE_ID, itemRequest, null)
+                .equals(RenderedPageCache.computeTestPageKey(PACKAGE_ID, testRequest, testSessionState, null)));
+    }
+
+    //----------------------------------------------------------
+    // Hits and misses
+
+    @Test
+    public void missThenHit() throws Exception {
+        final String key = RenderedPageCache.computeItemPageKey(PACKAGE_ID, createItemRequest(), null);
+        final ByteArrayOutputStream missOutput = new ByteArrayOutputStream();
+        Assert.assertFalse(renderedPageCache.writeCachedPage(key, new StreamResult(missOutput)));
+        Assert.assertEquals(0, missOutput.size());
+
+        /* Render into cache, which should also write to the real result */
+        final StreamResult renderingResult = renderedPageCache.createRenderingResult();
+        renderingResult.getOutputStream().write("page".getBytes("UTF-8"));
+        final ByteArrayOutputStream renderOutput = new ByteArrayOutputStream();
+        renderedPageCache.cacheAndWritePage(key, renderingResult, new StreamResult(renderOutput));
+        Assert.assertEquals("page", renderOutput.toString("UTF-8"));
+        Assert.assertEquals(1L, renderedPageCache.size());
+
+        /* Then we should get a hit */
+        final ByteArrayOutputStream hitOutput = new ByteArrayOutputStream();
+        Assert.assertTrue(renderedPageCache.writeCachedPage(key, new StreamResult(hitOutput)));
+        Assert.assertEquals("page", hitOutput.toString("UTF-8"));
+    }
+
+    @Test
+    public void missAfterStateChange() throws Exception {
+        final String key = RenderedPageCache.computeItemPageKey(PACKAGE_ID, createItemRequest(), null);
+        final StreamResult renderingResult = renderedPageCache.createRenderingResult();
+        renderingResult.getOutputStream().write("page".getBytes("UTF-8"));
+        renderedPageCache.cacheAndWritePage(key, renderingResult, new StreamResult(new ByteArrayOutputStream()));
+
+        itemSessionState.setCandidateComment("Changed");
+        final String newKey = RenderedPageCache.computeItemPageKey(PACKAGE_ID, createItemRequest(), null);
+        Assert.assertFalse(renderedPageCache.writeCachedPage(newKey, new StreamResult(new ByteArrayOutputStream())));
+    }
+
+    //----------------------------------------------------------
+
+    private ItemRenderingRequest createItemRequest() {
+        final ItemRenderingOptions renderingOptions = new ItemRenderingOptions();
+        renderingOptions.setResponseUrl("/candidate/1/response");
+        renderingOptions.setSolutionUrl("/candidate/1/solution");
+
+        final ItemRenderingRequest request = new ItemRenderingRequest();
+        request.setRenderingOptions(renderingOptions);
+        request.setItemSessionState(itemSessionState);
+        request.setPrompt("Prompt");
+        return request;
+    }
+
+    private TestRenderingRequest createTestRequest() {
+        final TestRenderingOptions renderingOptions = new TestRenderingOptions();
+        renderingOptions.setResponseUrl("/candidate/1/response");
+
+        final TestRenderingRequest request = new TestRenderingRequest();
+        request.setRenderingOptions(renderingOptions);
+        return request;
+    }
+
+    private List<CandidateEventNotification> createNotifications(final long id) {
+        final CandidateEventNotification notification = new CandidateEventNotification();
+        notification.setId(Long.valueOf(id));
+        return Arrays.asList(notification);
+    }
+}
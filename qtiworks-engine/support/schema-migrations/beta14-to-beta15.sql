@@ -0,0 +1,37 @@
+-- Schema update preparation script for migrating from
+-- QTIWorks Engine 1.0-beta14 to 1.0-beta15.
+--
+-- This script is written for PostgreSQL only.
+--
+-- How to apply this update:
+--
+-- (1) Run the PostgreSQL client utility (psql) on your QTIWorks
+--     database.
+--
+-- (2) Invoke:
+--     \i /path/to/beta14-to-beta15.sql
+--
+-- (3) Then run the *updateSchema* action in the QTIWorks engine
+--     manager to complete the schema update.
+--
+-- ************************************************************
+BEGIN WORK;
+
+-- There is now at most one queued LTI outcome per candidate session,
+-- so remove any earlier outcomes that have since been superseded.
+DELETE FROM queued_lti_outcomes q
+  WHERE EXISTS (
+    SELECT 1 FROM queued_lti_outcomes q2
+    WHERE q2.xid = q.xid AND q2.qoid > q.qoid
+  );
+
+-- Outcomes that have never failed are now queued with a retry time,
+-- so that the sender can find outcomes due to be sent using an index.
+UPDATE queued_lti_outcomes SET retry_time = creation_time WHERE retry_time IS NULL;
+
+-- Replacing the score of a claimed outcome now marks it to be sent again
+ALTER TABLE queued_lti_outcomes ADD resend_required boolean;
+UPDATE queued_lti_outcomes SET resend_required = FALSE;
+ALTER TABLE queued_lti_outcomes ALTER resend_required SET NOT NULL;
+
+COMMIT WORK;
@@ -76,7 +76,6 @@ import uk.ac.ed.ph.jqtiplus.validation.ValidationContext;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.List;
 
 import javax.xml.XMLConstants;
 
@@ -96,7 +95,7 @@ public final class AttributeList implements Serializable, Iterable<Attribute<?>>
     private final QtiNode owner;
 
     /** Children (attributes) of this container. */
-    private final List<Attribute<?>> attributes;
+    private final ArrayList<Attribute<?>> attributes;
 
     public AttributeList(final QtiNode owner) {
         Assert.notNull(owner);
@@ -122,6 +121,14 @@ public final class AttributeList implements Serializable, Iterable<Attribute<?>>
         return attributes.size();
     }
 
+    /**
+     * Trims the capacity of this container to its current number of attributes.
+     * This is used to save memory once a {@link QtiNode} tree has been fully built.
+     */
+    public void trimToSize() {
+        attributes.trimToSize();
+    }
+
     /**
      * Adds given attribute into this container.
      * Checks duplicities in attribute's names.
@@ -66,7 +66,7 @@ public abstract class AbstractNodeGroup<P extends QtiNode, C extends QtiNode> im
 
     protected final P parent;
     protected final String name;
-    protected final List<C> children;
+    protected final ArrayList<C> children;
     protected final int minimum;
     protected final Integer maximum;
 
@@ -115,6 +115,11 @@ public abstract class AbstractNodeGroup<P extends QtiNode, C extends QtiNode> im
         return children;
     }
 
+    @Override
+    public void trimToSize() {
+        children.trimToSize();
+    }
+
     @Override
     public int getMinimum() {
         return minimum;
@@ -113,6 +113,12 @@ public interface NodeGroup<P extends QtiNode, C extends QtiNode> extends Seriali
      */
     List<C> getChildren();
 
+    /**
+     * Trims the capacity of the list of children to its current size.
+     * This is used to save memory once a {@link QtiNode} tree has been fully built.
+     */
+    void trimToSize();
+
     /**
      * Returns the required minimum number of children. (0 = no restriction)
      *
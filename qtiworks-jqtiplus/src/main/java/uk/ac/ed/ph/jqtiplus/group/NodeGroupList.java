@@ -209,7 +209,6 @@ import uk.ac.ed.ph.jqtiplus.node.test.outcome.processing.OutcomeRule;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.List;
 
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -228,7 +227,7 @@ public final class NodeGroupList implements Serializable, Iterable<NodeGroup<?,?
     private final QtiNode parent;
 
     /** Children (groups) of this container. */
-    private final List<NodeGroup<?,?>> groups;
+    private final ArrayList<NodeGroup<?,?>> groups;
 
     public NodeGroupList(final QtiNode parent) {
         this.parent = parent;
@@ -253,6 +252,14 @@ public final class NodeGroupList implements Serializable, Iterable<NodeGroup<?,?
         return groups.size();
     }
 
+    /**
+     * Trims the capacity of this container to its current number of groups.
+     * This is used to save memory once a {@link QtiNode} tree has been fully built.
+     */
+    public void trimToSize() {
+        groups.trimToSize();
+    }
+
     @Override
     public Iterator<NodeGroup<?,?>> iterator() {
         return groups.iterator();
@@ -0,0 +1,117 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.internal.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Helpers for matching Strings against regular expressions, such as those used by
+ * <code>patternMatch</code> and the <code>patternMask</code> of text interactions.
+ * <p>
+ * Compiled {@link Pattern}s are kept in a shared bounded cache, keyed on the regular
+ * expression, so each distinct expression only needs to be compiled once. Expressions
+ * without any special characters are simply compared with the input String.
+ * <p>
+ * (As with the rest of JQTI+, regular expressions are currently interpreted using the Java
+ * regular expression syntax rather than the XML Schema one.)
+ * <p>
+ * Usage: this class is safe to use by multiple Threads.
+ *
+ * @author David McKain
+ */
+public final class RegexUtilities {
+
+    /** Maximum number of compiled {@link Pattern}s to keep. The cache is cleared once this is reached */
+    public static final int MAX_CACHED_PATTERNS = 1000;
+
+    /** Characters that have special meaning in a regular expression */
+    private static final String SPECIAL_CHARACTERS = "\\^$.|?*+()[]{}";
+
+    private static final ConcurrentMap<String, Pattern> patternCache = new ConcurrentHashMap<String, Pattern>();
+
+    /**
+     * Returns whether the given input String matches the given regular expression in its
+     * entirety. This is equivalent to {@link String#matches(String)}.
+     *
+     * @param input String to test, which must not be null
+     * @param regex regular expression, which must not be null
+     *
+     * @throws PatternSyntaxException if the regular expression is not valid
+     */
+    public static boolean matches(final String input, final String regex) {
+        Assert.notNull(input, "input");
+        if (isLiteral(regex)) {
+            return input.equals(regex);
+        }
+        return compile(regex).matcher(input).matches();
+    }
+
+    /**
+     * Returns a compiled {@link Pattern} for the given regular expression, using a previously
+     * compiled one if possible.
+     *
+     * @param regex regular expression, which must not be null
+     *
+     * @throws PatternSyntaxException if the regular expression is not valid
+     */
+    public static Pattern compile(final String regex) {
+        Assert.notNull(regex, "regex");
+        Pattern pattern = patternCache.get(regex);
+        if (pattern==null) {
+            pattern = Pattern.compile(regex);
+            if (patternCache.size() >= MAX_CACHED_PATTERNS) {
+                patternCache.clear();
+            }
+            patternCache.putIfAbsent(regex, pattern);
+        }
+        return pattern;
+    }
+
+    /**
+     * Returns whether the given regular expression contains no special characters, and
+     * hence only matches itself.
+     */
+    public static boolean isLiteral(final String regex) {
+        Assert.notNull(regex, "regex");
+        for (int i=0; i<regex.length(); i++) {
+            if (SPECIAL_CHARACTERS.indexOf(regex.charAt(i))!=-1) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
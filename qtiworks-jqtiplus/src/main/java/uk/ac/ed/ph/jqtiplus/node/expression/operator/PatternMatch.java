@@ -34,6 +34,7 @@
 package uk.ac.ed.ph.jqtiplus.node.expression.operator;
 
 import uk.ac.ed.ph.jqtiplus.attribute.value.StringOrVariableRefAttribute;
+import uk.ac.ed.ph.jqtiplus.internal.util.RegexUtilities;
 import uk.ac.ed.ph.jqtiplus.node.expression.AbstractFunctionalExpression;
 import uk.ac.ed.ph.jqtiplus.node.expression.ExpressionParent;
 import uk.ac.ed.ph.jqtiplus.running.ProcessingContext;
@@ -52,6 +53,7 @@ import uk.ac.ed.ph.jqtiplus.value.Value;
  * The syntax for the regular expression language is defined in Appendix F of <A href="http://www.w3.org/TR/2001/REC-xmlschema-2-20010502/#regexs">XML</A>.
  * <p>
  * Current implementation supports only java regular expression language definition!
+ * Compiled patterns are cached via {@link RegexUtilities}.
  *
  * @see uk.ac.ed.ph.jqtiplus.value.Cardinality
  * @see uk.ac.ed.ph.jqtiplus.value.BaseType
@@ -97,7 +99,7 @@ public final class PatternMatch extends AbstractFunctionalExpression {
         final String pattern = ((StringValue) computedPattern).stringValue();
         final String childString =  ((StringValue) childValues[0]).toQtiString();
 
-        final boolean result = childString.matches(pattern);
+        final boolean result = RegexUtilities.matches(childString, pattern);
         return BooleanValue.valueOf(result);
     }
 }
@@ -40,6 +40,7 @@ import uk.ac.ed.ph.jqtiplus.attribute.value.StringAttribute;
 import uk.ac.ed.ph.jqtiplus.exception.QtiLogicException;
 import uk.ac.ed.ph.jqtiplus.exception.QtiParseException;
 import uk.ac.ed.ph.jqtiplus.exception.ResponseBindingException;
+import uk.ac.ed.ph.jqtiplus.internal.util.RegexUtilities;
 import uk.ac.ed.ph.jqtiplus.node.QtiNode;
 import uk.ac.ed.ph.jqtiplus.node.item.AssessmentItem;
 import uk.ac.ed.ph.jqtiplus.node.item.response.declaration.ResponseDeclaration;
@@ -421,7 +422,7 @@ public final class ExtendedTextInteraction extends BlockInteraction implements S
             return false;
         }
         if (patternMask != null) {
-            final Pattern pattern = Pattern.compile(patternMask);
+            final Pattern pattern = RegexUtilities.compile(patternMask);
             for (final SingleValue responseEntry : nonNullResponseStrings) {
                 if (!pattern.matcher(responseEntry.toQtiString()).matches()) {
                     return false;
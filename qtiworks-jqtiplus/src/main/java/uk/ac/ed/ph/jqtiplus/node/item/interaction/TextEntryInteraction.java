@@ -38,6 +38,7 @@ import uk.ac.ed.ph.jqtiplus.attribute.value.IntegerAttribute;
 import uk.ac.ed.ph.jqtiplus.attribute.value.StringAttribute;
 import uk.ac.ed.ph.jqtiplus.exception.QtiParseException;
 import uk.ac.ed.ph.jqtiplus.exception.ResponseBindingException;
+import uk.ac.ed.ph.jqtiplus.internal.util.RegexUtilities;
 import uk.ac.ed.ph.jqtiplus.node.QtiNode;
 import uk.ac.ed.ph.jqtiplus.node.item.AssessmentItem;
 import uk.ac.ed.ph.jqtiplus.node.item.response.declaration.ResponseDeclaration;
@@ -240,7 +241,7 @@ public final class TextEntryInteraction extends InlineInteraction implements Str
     public boolean validateResponse(final InteractionBindingContext interactionBindingContext, final Value responseValue) {
         final String patternMask = getPatternMask();
         if (patternMask != null) {
-            if (!responseValue.toQtiString().matches(patternMask)) {
+            if (!RegexUtilities.matches(responseValue.toQtiString(), patternMask)) {
                 return false;
             }
         }
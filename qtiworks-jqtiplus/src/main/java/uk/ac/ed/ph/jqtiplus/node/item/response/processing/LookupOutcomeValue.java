@@ -106,7 +106,7 @@ public final class LookupOutcomeValue extends ProcessResponseValue {
     @Override
     public void evaluate(final ItemProcessingContext context) {
         final Value value = getExpression().evaluate(context);
-        if (isThisRuleValid(context)) {
+        if (context.isSubjectValid() || isThisRuleValid(context)) {
             final OutcomeDeclaration outcomeDeclaration = (OutcomeDeclaration) context.ensureVariableDeclaration(getIdentifier(), VariableType.OUTCOME);
             final LookupTable<?, ?> lookupTable = outcomeDeclaration.getLookupTable();
             final Value targetValue;
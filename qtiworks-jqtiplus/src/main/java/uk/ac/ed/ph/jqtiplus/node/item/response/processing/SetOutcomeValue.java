@@ -111,7 +111,7 @@ public final class SetOutcomeValue extends ProcessResponseValue {
     @Override
     public void evaluate(final ItemProcessingContext context) {
         final Value value = getExpression().evaluate(context);
-        if (isThisRuleValid(context)) {
+        if (context.isSubjectValid() || isThisRuleValid(context)) {
             final OutcomeDeclaration outcomeDeclaration = (OutcomeDeclaration) context.ensureVariableDeclaration(getIdentifier(), VariableType.OUTCOME);
             context.setVariableValue(outcomeDeclaration, value);
         }
@@ -69,7 +69,7 @@ public final class SetCorrectResponse extends ProcessTemplateValue {
     @Override
     public void evaluate(final ItemProcessingContext context) {
         final Value value = getExpression().evaluate(context);
-        if (isThisRuleValid(context)) {
+        if (context.isSubjectValid() || isThisRuleValid(context)) {
             final ResponseDeclaration responseDeclaration = (ResponseDeclaration) context.ensureVariableDeclaration(getIdentifier(), VariableType.RESPONSE);
             context.getItemSessionState().setOverriddenCorrectResponseValue(responseDeclaration, value);
         }
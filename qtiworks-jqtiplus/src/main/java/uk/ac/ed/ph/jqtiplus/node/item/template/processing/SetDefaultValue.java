@@ -70,7 +70,7 @@ public final class SetDefaultValue extends ProcessTemplateValue {
     @Override
     public void evaluate(final ItemProcessingContext context) {
         final Value value = getExpression().evaluate(context);
-        if (isThisRuleValid(context)) {
+        if (context.isSubjectValid() || isThisRuleValid(context)) {
             final Identifier identifier = getIdentifier();
             final VariableDeclaration variableDeclaration = context.ensureVariableDeclaration(identifier, VariableType.RESPONSE, VariableType.TEMPLATE);
             final ItemSessionState itemSessionState = context.getItemSessionState();
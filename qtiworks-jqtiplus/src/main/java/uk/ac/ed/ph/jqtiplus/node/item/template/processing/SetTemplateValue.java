@@ -75,7 +75,7 @@ public final class SetTemplateValue extends ProcessTemplateValue {
     @Override
     public void evaluate(final ItemProcessingContext context) {
         final Value value = getExpression().evaluate(context);
-        if (isThisRuleValid(context)) {
+        if (context.isSubjectValid() || isThisRuleValid(context)) {
             final TemplateDeclaration templateDeclaration = (TemplateDeclaration) context.ensureVariableDeclaration(getIdentifier(), VariableType.TEMPLATE);
             context.setVariableValue(templateDeclaration, value);
         }
@@ -103,7 +103,7 @@ public final class LookupOutcomeValue extends ProcessOutcomeValue {
     @Override
     public void evaluate(final TestProcessingContext context) {
         Value value = getExpression().evaluate(context);
-        if (isThisRuleValid(context)) {
+        if (context.isSubjectValid() || isThisRuleValid(context)) {
             NumberValue numberValue = null;
             if (!value.isNull()) {
                 if (value.getBaseType().isDuration()) {
@@ -109,7 +109,7 @@ public final class SetOutcomeValue extends ProcessOutcomeValue {
     @Override
     public void evaluate(final TestProcessingContext context) {
         final Value value = getExpression().evaluate(context);
-        if (isThisRuleValid(context)) {
+        if (context.isSubjectValid() || isThisRuleValid(context)) {
             final OutcomeDeclaration outcomeDeclaration = (OutcomeDeclaration) context.ensureVariableDeclaration(getIdentifier(), VariableType.OUTCOME);
             context.getTestSessionState().setOutcomeValue(outcomeDeclaration, value);
         }
@@ -44,6 +44,7 @@ import uk.ac.ed.ph.jqtiplus.validation.TestValidationResult;
 import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ResourceLocator;
 
 import java.net.URI;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Convenient facade for loading, resolving and validating {@link AssessmentItem}s
@@ -60,10 +61,24 @@ public final class AssessmentObjectXmlLoader {
 
     private final QtiXmlReader qtiXmlReader;
     private final ResourceLocator inputResourceLocator;
+    private final ForkJoinPool forkJoinPool;
 
     public AssessmentObjectXmlLoader(final QtiXmlReader qtiXmlReader, final ResourceLocator inputResourceLocator) {
+        this(qtiXmlReader, inputResourceLocator, null);
+    }
+
+    /**
+     * Creates a loader that resolves the items within {@link AssessmentTest}s in parallel
+     * using the given {@link ForkJoinPool}, if not null. The {@link ResourceLocator} must then
+     * be safe to use from multiple threads.
+     *
+     * @see AssessmentObjectResolver#AssessmentObjectResolver(uk.ac.ed.ph.jqtiplus.provision.RootNodeProvider, ForkJoinPool)
+     */
+    public AssessmentObjectXmlLoader(final QtiXmlReader qtiXmlReader, final ResourceLocator inputResourceLocator,
+            final ForkJoinPool forkJoinPool) {
         this.qtiXmlReader = qtiXmlReader;
         this.inputResourceLocator = inputResourceLocator;
+        this.forkJoinPool = forkJoinPool;
     }
 
     public QtiXmlReader getQtiXmlReader() {
@@ -74,18 +89,22 @@ public final class AssessmentObjectXmlLoader {
         return inputResourceLocator;
     }
 
+    public ForkJoinPool getForkJoinPool() {
+        return forkJoinPool;
+    }
+
     //-------------------------------------------------------------------
     // AssessmentItem resolution & validation
 
     public ResolvedAssessmentItem loadAndResolveAssessmentItem(final URI systemId) {
         final QtiObjectReader qtiObjectReader = qtiXmlReader.createQtiObjectReader(inputResourceLocator, false);
-        final AssessmentObjectResolver assessmentObjectResolver = new AssessmentObjectResolver(qtiObjectReader);
+        final AssessmentObjectResolver assessmentObjectResolver = new AssessmentObjectResolver(qtiObjectReader, forkJoinPool);
         return assessmentObjectResolver.resolveAssessmentItem(systemId);
     }
 
     public ItemValidationResult loadResolveAndValidateItem(final URI systemId) {
         final QtiObjectReader qtiObjectReader = qtiXmlReader.createQtiObjectReader(inputResourceLocator, true);
-        final ResolvedAssessmentItem resolvedAssessmentItem = new AssessmentObjectResolver(qtiObjectReader).resolveAssessmentItem(systemId);
+        final ResolvedAssessmentItem resolvedAssessmentItem = new AssessmentObjectResolver(qtiObjectReader, forkJoinPool).resolveAssessmentItem(systemId);
         final AssessmentObjectValidator assessmentObjectValidator = new AssessmentObjectValidator(qtiObjectReader.getJqtiExtensionManager());
         return assessmentObjectValidator.validateItem(resolvedAssessmentItem);
     }
@@ -95,13 +114,13 @@ public final class AssessmentObjectXmlLoader {
 
     public ResolvedAssessmentTest loadAndResolveAssessmentTest(final URI systemId) {
         final QtiObjectReader qtiObjectReader = qtiXmlReader.createQtiObjectReader(inputResourceLocator, false);
-        final AssessmentObjectResolver assessmentObjectResolver = new AssessmentObjectResolver(qtiObjectReader);
+        final AssessmentObjectResolver assessmentObjectResolver = new AssessmentObjectResolver(qtiObjectReader, forkJoinPool);
         return assessmentObjectResolver.resolveAssessmentTest(systemId);
     }
 
     public TestValidationResult loadResolveAndValidateTest(final URI systemId) {
         final QtiObjectReader qtiObjectReader = qtiXmlReader.createQtiObjectReader(inputResourceLocator, true);
-        final ResolvedAssessmentTest resolvedAssessmentTest = new AssessmentObjectResolver(qtiObjectReader).resolveAssessmentTest(systemId);
+        final ResolvedAssessmentTest resolvedAssessmentTest = new AssessmentObjectResolver(qtiObjectReader, forkJoinPool).resolveAssessmentTest(systemId);
         final AssessmentObjectValidator assessmentObjectValidator = new AssessmentObjectValidator(qtiObjectReader.getJqtiExtensionManager());
         return assessmentObjectValidator.validateTest(resolvedAssessmentTest);
     }
@@ -113,6 +132,7 @@ public final class AssessmentObjectXmlLoader {
         return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
                 + "(qtiXmlReader=" + qtiXmlReader
                 + ",inputResourceLocator=" + inputResourceLocator
+                + ",forkJoinPool=" + forkJoinPool
                 + ")";
     }
 }
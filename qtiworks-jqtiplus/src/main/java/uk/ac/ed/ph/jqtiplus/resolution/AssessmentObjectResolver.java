@@ -39,6 +39,7 @@ import uk.ac.ed.ph.jqtiplus.node.item.response.processing.ResponseProcessing;
 import uk.ac.ed.ph.jqtiplus.node.test.AssessmentItemRef;
 import uk.ac.ed.ph.jqtiplus.node.test.AssessmentTest;
 import uk.ac.ed.ph.jqtiplus.provision.RootNodeProvider;
+import uk.ac.ed.ph.jqtiplus.reading.QtiObjectReader;
 import uk.ac.ed.ph.jqtiplus.utils.QueryUtils;
 
 import java.net.URI;
@@ -46,6 +47,9 @@ import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -57,6 +61,11 @@ import org.slf4j.LoggerFactory;
  * <p>
  * This provides a rich {@link ResolvedAssessmentItem} or {@link ResolvedAssessmentTest}
  * which is useful for the running/delivery of assessments.
+ * <p>
+ * The items within an {@link AssessmentTest} are normally resolved one at a time. They may
+ * optionally be resolved in parallel by providing a {@link ForkJoinPool}, which can make
+ * resolving tests containing lots of items significantly quicker. The results are the same
+ * either way.
  *
  * @author David McKain
  */
@@ -65,9 +74,26 @@ public final class AssessmentObjectResolver {
     private static final Logger logger = LoggerFactory.getLogger(AssessmentObjectResolver.class);
 
     private final RootNodeProvider rootNodeProvider;
+    private final ForkJoinPool forkJoinPool;
 
     public AssessmentObjectResolver(final RootNodeProvider rootNodeProvider) {
+        this(rootNodeProvider, null);
+    }
+
+    /**
+     * Creates a resolver that resolves the items within {@link AssessmentTest}s in parallel
+     * using the given {@link ForkJoinPool}, if not null.
+     * <p>
+     * The {@link RootNodeProvider} must be safe to use from multiple threads when a pool is
+     * given. (This is the case for {@link QtiObjectReader}.)
+     *
+     * @param rootNodeProvider provider of the item/test and referenced resources
+     * @param forkJoinPool pool used to resolve items in parallel, or null to resolve them one
+     *   at a time.
+     */
+    public AssessmentObjectResolver(final RootNodeProvider rootNodeProvider, final ForkJoinPool forkJoinPool) {
         this.rootNodeProvider = rootNodeProvider;
+        this.forkJoinPool = forkJoinPool;
     }
 
     //-------------------------------------------------------------------
@@ -175,14 +201,40 @@ public final class AssessmentObjectResolver {
             }
 
             /* Resolve each unique item */
-            for (final URI itemSystemId : itemRefsBySystemIdMap.keySet()) {
-                resolvedAssessmentItemMap.put(itemSystemId, resolveAssessmentItem(itemSystemId, cachedResourceProvider));
+            if (forkJoinPool!=null && itemRefsBySystemIdMap.size() > 1) {
+                resolveAssessmentItemsInParallel(itemRefsBySystemIdMap.keySet(), cachedResourceProvider, resolvedAssessmentItemMap);
+            }
+            else {
+                for (final URI itemSystemId : itemRefsBySystemIdMap.keySet()) {
+                    resolvedAssessmentItemMap.put(itemSystemId, resolveAssessmentItem(itemSystemId, cachedResourceProvider));
+                }
             }
         }
         return new ResolvedAssessmentTest(testLookup, assessmentItemRefs,
                 systemIdByItemRefMap, itemRefsBySystemIdMap, resolvedAssessmentItemMap);
     }
 
+    private void resolveAssessmentItemsInParallel(final Iterable<URI> itemSystemIds,
+            final CachedResourceProvider cachedResourceProvider,
+            final Map<URI, ResolvedAssessmentItem> resolvedAssessmentItemMap) {
+        final Map<URI, ForkJoinTask<ResolvedAssessmentItem>> taskMap = new LinkedHashMap<URI, ForkJoinTask<ResolvedAssessmentItem>>();
+        for (final URI itemSystemId : itemSystemIds) {
+            taskMap.put(itemSystemId, forkJoinPool.submit(new Callable<ResolvedAssessmentItem>() {
+                @Override
+                public ResolvedAssessmentItem call() {
+                    return resolveAssessmentItem(itemSystemId, cachedResourceProvider);
+                }
+            }));
+        }
+        logger.debug("Resolving {} items in parallel", taskMap.size());
+
+        /* Collect results in the same order as the items were submitted, so that the resulting
+         * Map is the same as when resolving one at a time */
+        for (final Map.Entry<URI, ForkJoinTask<ResolvedAssessmentItem>> taskEntry : taskMap.entrySet()) {
+            resolvedAssessmentItemMap.put(taskEntry.getKey(), taskEntry.getValue().join());
+        }
+    }
+
     //-------------------------------------------------------------------
 
     private URI resolveUri(final RootNode baseObject, final URI href) {
@@ -197,6 +249,7 @@ public final class AssessmentObjectResolver {
     public String toString() {
         return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
                 + "(rootNodeProvider=" + rootNodeProvider
+                + ",forkJoinPool=" + forkJoinPool
                 + ")";
     }
 }
@@ -42,8 +42,9 @@ import uk.ac.ed.ph.jqtiplus.provision.RootNodeHolder;
 import uk.ac.ed.ph.jqtiplus.provision.RootNodeProvider;
 
 import java.net.URI;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -51,6 +52,9 @@ import org.slf4j.LoggerFactory;
 /**
  * Helper class that caches the results of calls to {@link AssessmentObjectResolver} during
  * resolution so that we only need to build once.
+ * <p>
+ * An instance of this class may safely be used by multiple threads, provided that the
+ * underlying {@link RootNodeProvider} may too.
  *
  * @author David McKain
  */
@@ -59,11 +63,13 @@ final class CachedResourceProvider {
     private static final Logger logger = LoggerFactory.getLogger(CachedResourceProvider.class);
 
     private final RootNodeProvider rootNodeProvider;
-    private final Map<URI, RootNodeLookup<?>> cacheData;
+    private final ConcurrentMap<URI, RootNodeLookup<?>> cacheData;
+    private final ConcurrentMap<URI, Object> lookupLocks;
 
     public CachedResourceProvider(final RootNodeProvider rootNodeProvider) {
         this.rootNodeProvider = rootNodeProvider;
-        this.cacheData = new HashMap<URI, RootNodeLookup<?>>();
+        this.cacheData = new ConcurrentHashMap<URI, RootNodeLookup<?>>();
+        this.lookupLocks = new ConcurrentHashMap<URI, Object>();
     }
 
     public RootNodeProvider getRootNodeProvider() {
@@ -78,28 +84,40 @@ final class CachedResourceProvider {
     @SuppressWarnings("unchecked")
     public <E extends RootNode> RootNodeLookup<E> getLookup(final URI systemId, final Class<E> resultClass) {
         RootNodeLookup<E> frozenResult = (RootNodeLookup<E>) cacheData.get(systemId);
-        if (frozenResult!=null) {
-            /* Cache hit */
-            logger.debug("Resource cache hit for key {} yielded {}", systemId, frozenResult);
-        }
-        else {
-            /* Cache miss */
-            try {
-                final RootNodeHolder<E> result = rootNodeProvider.lookupRootNode(systemId, resultClass);
-                frozenResult = new RootNodeLookup<E>(systemId, result);
-            }
-            catch (final BadResourceException e) {
-                frozenResult = new RootNodeLookup<E>(systemId, resultClass, e);
-            }
-            catch (final ResourceNotFoundException e) {
-                frozenResult = new RootNodeLookup<E>(systemId, resultClass, e);
+        if (frozenResult==null) {
+            /* Lock on the system ID so that resources shared by items being resolved in parallel
+             * (e.g. RP templates) are only looked up once */
+            synchronized (getLookupLock(systemId)) {
+                frozenResult = (RootNodeLookup<E>) cacheData.get(systemId);
+                if (frozenResult==null) {
+                    /* Cache miss */
+                    try {
+                        final RootNodeHolder<E> result = rootNodeProvider.lookupRootNode(systemId, resultClass);
+                        frozenResult = new RootNodeLookup<E>(systemId, result);
+                    }
+                    catch (final BadResourceException e) {
+                        frozenResult = new RootNodeLookup<E>(systemId, resultClass, e);
+                    }
+                    catch (final ResourceNotFoundException e) {
+                        frozenResult = new RootNodeLookup<E>(systemId, resultClass, e);
+                    }
+                    cacheData.put(systemId, frozenResult);
+                    logger.debug("Resource cache miss for key {} stored {}", systemId, frozenResult);
+                    return frozenResult;
+                }
             }
-            cacheData.put(systemId, frozenResult);
-            logger.debug("Resource cache miss for key {} stored {}", systemId, frozenResult);
         }
+        /* Cache hit */
+        logger.debug("Resource cache hit for key {} yielded {}", systemId, frozenResult);
         return frozenResult;
     }
 
+    private Object getLookupLock(final URI systemId) {
+        final Object newLock = new Object();
+        final Object existingLock = lookupLocks.putIfAbsent(systemId, newLock);
+        return existingLock!=null ? existingLock : newLock;
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
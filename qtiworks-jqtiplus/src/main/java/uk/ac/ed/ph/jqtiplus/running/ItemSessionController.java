@@ -51,7 +51,6 @@ import uk.ac.ed.ph.jqtiplus.node.item.interaction.choice.Choice;
 import uk.ac.ed.ph.jqtiplus.node.item.response.declaration.ResponseDeclaration;
 import uk.ac.ed.ph.jqtiplus.node.item.response.processing.ResponseProcessing;
 import uk.ac.ed.ph.jqtiplus.node.item.template.declaration.TemplateDeclaration;
-import uk.ac.ed.ph.jqtiplus.node.item.template.processing.TemplateProcessing;
 import uk.ac.ed.ph.jqtiplus.node.item.template.processing.TemplateProcessingRule;
 import uk.ac.ed.ph.jqtiplus.node.outcome.declaration.OutcomeDeclaration;
 import uk.ac.ed.ph.jqtiplus.node.result.AssessmentResult;
@@ -67,7 +66,6 @@ import uk.ac.ed.ph.jqtiplus.node.shared.VariableDeclaration;
 import uk.ac.ed.ph.jqtiplus.node.shared.VariableType;
 import uk.ac.ed.ph.jqtiplus.node.shared.declaration.DefaultValue;
 import uk.ac.ed.ph.jqtiplus.node.test.TemplateDefault;
-import uk.ac.ed.ph.jqtiplus.resolution.RootNodeLookup;
 import uk.ac.ed.ph.jqtiplus.state.ItemProcessingMap;
 import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
 import uk.ac.ed.ph.jqtiplus.types.Identifier;
@@ -245,7 +243,7 @@ public final class ItemSessionController extends ItemProcessingController implem
      */
     private void updateClosedStatus(final Date timestamp) {
         boolean shouldClose;
-        if (item.getAdaptive()) {
+        if (itemProcessingMap.isAdaptive()) {
             /* For adaptive items, attempts are limited by the value of the completion status variable */
             final String completionStatus = itemSessionState.getCompletionStatus();
             shouldClose = QtiConstants.COMPLETION_STATUS_COMPLETED.equals(completionStatus);
@@ -357,11 +355,11 @@ public final class ItemSessionController extends ItemProcessingController implem
         }
 
         /* Perform templateProcessing. */
-        final TemplateProcessing templateProcessing = item.getTemplateProcessing();
-        if (templateProcessing != null) {
+        final List<TemplateProcessingRule> templateProcessingRules = itemProcessingMap.getTemplateProcessingRules();
+        if (!templateProcessingRules.isEmpty()) {
             logger.trace("Evaluating template processing rules");
             try {
-                for (final TemplateProcessingRule templateProcessingRule : templateProcessing.getTemplateProcessingRules()) {
+                for (final TemplateProcessingRule templateProcessingRule : templateProcessingRules) {
                     templateProcessingRule.evaluate(this);
                 }
             }
@@ -829,29 +827,18 @@ public final class ItemSessionController extends ItemProcessingController implem
             }
 
             /* For non-adaptive items, reset outcome variables to default values */
-            if (!item.getAdaptive()) {
+            if (!itemProcessingMap.isAdaptive()) {
                 initOutcomeVariables();
             }
 
-            /* Work out which RP logic to perform */
-            ResponseProcessing responseProcessing = null;
-            final RootNodeLookup<ResponseProcessing> resolvedResponseProcessingTemplateLookup = resolvedAssessmentItem.getResolvedResponseProcessingTemplateLookup();
-            if (resolvedResponseProcessingTemplateLookup!=null) {
-                /* Template specified, so try to use that */
-                responseProcessing = resolvedResponseProcessingTemplateLookup.extractIfSuccessful();
-                if (responseProcessing==null) {
-                    fireRuntimeWarning(item.getResponseProcessing(), "responseProcessing template could not be loaded, so no responseProcessing will not be performed");
-                }
-            }
-            else {
-                /* Use RP specified within the item (if available) */
-                responseProcessing = item.getResponseProcessing();
-            }
-
-            /* Invoke response processing */
+            /* Invoke response processing, using the RP logic worked out in the ItemProcessingMap */
+            final ResponseProcessing responseProcessing = itemProcessingMap.getResponseProcessing();
             if (responseProcessing!=null) {
                 responseProcessing.evaluate(this);
             }
+            else if (resolvedAssessmentItem.getResolvedResponseProcessingTemplateLookup()!=null) {
+                fireRuntimeWarning(item.getResponseProcessing(), "responseProcessing template could not be loaded, so no responseProcessing will not be performed");
+            }
             else {
                 fireRuntimeWarning(item, "There is no responseProcessing to be performed here");
                 logger.debug("No responseProcessing rules or responseProcessing template exists, so no response processing will be performed");
@@ -37,9 +37,13 @@ import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
 import uk.ac.ed.ph.jqtiplus.node.item.AssessmentItem;
 import uk.ac.ed.ph.jqtiplus.node.item.interaction.Interaction;
 import uk.ac.ed.ph.jqtiplus.node.item.response.declaration.ResponseDeclaration;
+import uk.ac.ed.ph.jqtiplus.node.item.response.processing.ResponseProcessing;
 import uk.ac.ed.ph.jqtiplus.node.item.template.declaration.TemplateDeclaration;
+import uk.ac.ed.ph.jqtiplus.node.item.template.processing.TemplateProcessing;
+import uk.ac.ed.ph.jqtiplus.node.item.template.processing.TemplateProcessingRule;
 import uk.ac.ed.ph.jqtiplus.node.outcome.declaration.OutcomeDeclaration;
 import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentItem;
+import uk.ac.ed.ph.jqtiplus.resolution.RootNodeLookup;
 import uk.ac.ed.ph.jqtiplus.running.ItemProcessingInitializer;
 import uk.ac.ed.ph.jqtiplus.types.Identifier;
 
@@ -56,6 +60,11 @@ import java.util.Set;
 /**
  * Encapsulates the key information about an {@link AssessmentItem} used during processing.
  * <p>
+ * This includes the response and template processing rules that will actually be run,
+ * which are worked out once here rather than each time processing is performed. If the
+ * item is valid then these rules (and the expressions within them) will be run without
+ * being re-validated at runtime.
+ * <p>
  * Usage: an instance of this class can be safely used by multiple Threads
  *
  * @see ItemProcessingInitializer
@@ -68,20 +77,40 @@ public final class ItemProcessingMap implements Serializable {
 
     private final ResolvedAssessmentItem resolvedAssessmentItem;
     private final boolean isValid;
+    private final boolean isAdaptive;
     private final List<Interaction> interactions;
     private final Map<Identifier, Interaction> interactionByResponseIdentifierMap;
     private final Set<Identifier> validVariableIdentifierSet;
     private final Map<Identifier, TemplateDeclaration> validTemplateDeclarationMap;
     private final Map<Identifier, ResponseDeclaration> validResponseDeclarationMap;
     private final Map<Identifier, OutcomeDeclaration> validOutcomeDeclarationMap;
+    private final ResponseProcessing responseProcessing;
+    private final List<TemplateProcessingRule> templateProcessingRules;
 
+    /**
+     * Creates an {@link ItemProcessingMap}, working out the adaptive flag and the processing
+     * rules to be run from the item within the given {@link ResolvedAssessmentItem}.
+     */
     public ItemProcessingMap(final ResolvedAssessmentItem resolvedAssessmentItem, final boolean isValid,
             final List<Interaction> interactionsBuilder,
             final LinkedHashMap<Identifier, TemplateDeclaration> validTemplateDeclarationMapBuilder,
             final Map<Identifier, ResponseDeclaration> validResponseDeclarationMapBuilder,
             final Map<Identifier, OutcomeDeclaration> validOutcomeDeclarationMapBuilder) {
+        this(resolvedAssessmentItem, isValid, isAdaptive(resolvedAssessmentItem), interactionsBuilder,
+                resolveResponseProcessing(resolvedAssessmentItem), resolveTemplateProcessingRules(resolvedAssessmentItem),
+                validTemplateDeclarationMapBuilder, validResponseDeclarationMapBuilder, validOutcomeDeclarationMapBuilder);
+    }
+
+    public ItemProcessingMap(final ResolvedAssessmentItem resolvedAssessmentItem, final boolean isValid,
+            final boolean isAdaptive, final List<Interaction> interactionsBuilder,
+            final ResponseProcessing responseProcessing,
+            final List<TemplateProcessingRule> templateProcessingRulesBuilder,
+            final LinkedHashMap<Identifier, TemplateDeclaration> validTemplateDeclarationMapBuilder,
+            final Map<Identifier, ResponseDeclaration> validResponseDeclarationMapBuilder,
+            final Map<Identifier, OutcomeDeclaration> validOutcomeDeclarationMapBuilder) {
         this.resolvedAssessmentItem = resolvedAssessmentItem;
         this.isValid = isValid;
+        this.isAdaptive = isAdaptive;
 
         /* Record interactions and build helper map */
         this.interactions = Collections.unmodifiableList(new ArrayList<Interaction>(interactionsBuilder));
@@ -102,12 +131,49 @@ public final class ItemProcessingMap implements Serializable {
         variableIdentifierSetBuilder.addAll(validResponseDeclarationMap.keySet());
         variableIdentifierSetBuilder.addAll(validOutcomeDeclarationMap.keySet());
         this.validVariableIdentifierSet = Collections.unmodifiableSet(variableIdentifierSetBuilder);
+
+        /* Record processing rules to be run */
+        this.responseProcessing = responseProcessing;
+        this.templateProcessingRules = Collections.unmodifiableList(new ArrayList<TemplateProcessingRule>(templateProcessingRulesBuilder));
+    }
+
+    private static boolean isAdaptive(final ResolvedAssessmentItem resolvedAssessmentItem) {
+        final AssessmentItem item = resolvedAssessmentItem.getItemLookup().extractIfSuccessful();
+        return item!=null && item.getAdaptive();
+    }
+
+    /**
+     * Returns the {@link ResponseProcessing} to be run for the given item, which will be the
+     * resolved template if one is specified. Returns null if there's no responseProcessing or
+     * if the template could not be resolved.
+     */
+    private static ResponseProcessing resolveResponseProcessing(final ResolvedAssessmentItem resolvedAssessmentItem) {
+        final RootNodeLookup<ResponseProcessing> resolvedResponseProcessingTemplateLookup = resolvedAssessmentItem.getResolvedResponseProcessingTemplateLookup();
+        if (resolvedResponseProcessingTemplateLookup!=null) {
+            return resolvedResponseProcessingTemplateLookup.extractIfSuccessful();
+        }
+        final AssessmentItem item = resolvedAssessmentItem.getItemLookup().extractIfSuccessful();
+        return item!=null ? item.getResponseProcessing() : null;
+    }
+
+    private static List<TemplateProcessingRule> resolveTemplateProcessingRules(final ResolvedAssessmentItem resolvedAssessmentItem) {
+        final AssessmentItem item = resolvedAssessmentItem.getItemLookup().extractIfSuccessful();
+        final TemplateProcessing templateProcessing = item!=null ? item.getTemplateProcessing() : null;
+        return templateProcessing!=null
+                ? templateProcessing.getTemplateProcessingRules()
+                : Collections.<TemplateProcessingRule>emptyList();
     }
 
+    //----------------------------------------------------------------
+
     public boolean isValid() {
         return isValid;
     }
 
+    public boolean isAdaptive() {
+        return isAdaptive;
+    }
+
     public ResolvedAssessmentItem getResolvedAssessmentItem() {
         return resolvedAssessmentItem;
     }
@@ -140,6 +206,23 @@ public final class ItemProcessingMap implements Serializable {
         return interactionByResponseIdentifierMap;
     }
 
+    /**
+     * Returns the {@link ResponseProcessing} that will be run, which will be the resolved
+     * responseProcessing template if one is used. This will be null if the item has no
+     * responseProcessing or if its template could not be resolved.
+     */
+    public ResponseProcessing getResponseProcessing() {
+        return responseProcessing;
+    }
+
+    /**
+     * Returns an unmodifiable List of the item's {@link TemplateProcessingRule}s, which will
+     * be empty if there is no templateProcessing.
+     */
+    public List<TemplateProcessingRule> getTemplateProcessingRules() {
+        return templateProcessingRules;
+    }
+
     @Override
     public String toString() {
         return ObjectUtilities.beanToString(this);
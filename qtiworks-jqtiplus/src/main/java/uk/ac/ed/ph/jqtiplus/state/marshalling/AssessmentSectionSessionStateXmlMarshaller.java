@@ -41,8 +41,9 @@ import javax.xml.parsers.DocumentBuilder;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import org.w3c.dom.Node;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
 
 /**
  * Marshals an {@link AssessmentSectionSessionState} to/from XML
@@ -52,15 +53,21 @@ import org.xml.sax.InputSource;
 public final class AssessmentSectionSessionStateXmlMarshaller {
 
     public static Document marshal(final AssessmentSectionSessionState assessmentSectionSessionState) {
-        final DocumentBuilder documentBuilder = XmlMarshallerCore.createNsAwareDocumentBuilder();
-        final Document document = documentBuilder.newDocument();
-        appendAssessmentSectionSessionState(document, assessmentSectionSessionState);
-        return document;
+        return XmlMarshallerCore.buildDocument(new StateXmlReader() {
+            @Override
+            protected void fireStateDocument(final ContentHandler targetHandler) throws SAXException {
+                final StateSaxFirer saxFirer = new StateSaxFirer(targetHandler);
+                saxFirer.fireStartDocument();
+                fireAssessmentSectionSessionState(saxFirer, assessmentSectionSessionState);
+                saxFirer.fireEndDocument();
+            }
+        });
     }
 
-    static void appendAssessmentSectionSessionState(final Node documentOrElement, final AssessmentSectionSessionState testPartSessionState) {
-        final Element element = XmlMarshallerCore.appendElement(documentOrElement, "assessmentSectionSessionState");
-        XmlMarshallerCore.addAbstractPartSessionStateAttributes(element, testPartSessionState);
+    static void fireAssessmentSectionSessionState(final StateSaxFirer saxFirer, final AssessmentSectionSessionState assessmentSectionSessionState) throws SAXException {
+        saxFirer.fireStartElement("assessmentSectionSessionState");
+        XmlMarshallerCore.addAbstractPartSessionStateAttributes(saxFirer, assessmentSectionSessionState);
+        saxFirer.fireEndElement("assessmentSectionSessionState");
     }
 
     //----------------------------------------------
@@ -0,0 +1,402 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state.marshalling;
+
+import uk.ac.ed.ph.jqtiplus.exception.QtiLogicException;
+import uk.ac.ed.ph.jqtiplus.exception.QtiParseException;
+import uk.ac.ed.ph.jqtiplus.state.AbstractPartSessionState;
+import uk.ac.ed.ph.jqtiplus.state.ControlObjectSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.value.BaseType;
+import uk.ac.ed.ph.jqtiplus.value.BooleanValue;
+import uk.ac.ed.ph.jqtiplus.value.Cardinality;
+import uk.ac.ed.ph.jqtiplus.value.FileValue;
+import uk.ac.ed.ph.jqtiplus.value.FloatValue;
+import uk.ac.ed.ph.jqtiplus.value.IdentifierValue;
+import uk.ac.ed.ph.jqtiplus.value.IntegerValue;
+import uk.ac.ed.ph.jqtiplus.value.ListValue;
+import uk.ac.ed.ph.jqtiplus.value.MultipleValue;
+import uk.ac.ed.ph.jqtiplus.value.NullValue;
+import uk.ac.ed.ph.jqtiplus.value.OrderedValue;
+import uk.ac.ed.ph.jqtiplus.value.RecordValue;
+import uk.ac.ed.ph.jqtiplus.value.SingleValue;
+import uk.ac.ed.ph.jqtiplus.value.Value;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Core for the compact binary marshalling of JQTI+ state Objects. This is an alternative
+ * to the XML marshalling provided by {@link XmlMarshallerCore} that avoids building and
+ * parsing DOMs, and is intended for storing state between requests. The XML form should
+ * still be used for anything that needs to be human-readable or passed to the rendering
+ * layers.
+ * <p>
+ * Each marshalled Object starts with a short header containing {@link #MAGIC_NUMBER},
+ * the {@link #FORMAT_VERSION} and a code saying what type of Object follows.
+ * Values of enumerated types (e.g. {@link BaseType}) are written using their ordinals,
+ * so any change to these enumerations must be accompanied by a new {@link #FORMAT_VERSION}.
+ *
+ * @author David McKain
+ */
+public final class BinaryMarshallerCore {
+
+    /** Magic number at the start of all binary state data ("QWBS") */
+    public static final int MAGIC_NUMBER = 0x51574253;
+
+    /** Current (and only) version of the binary state format */
+    public static final int FORMAT_VERSION = 1;
+
+    static final Charset STRING_ENCODING = Charset.forName("UTF-8");
+
+    static final byte ITEM_SESSION_STATE_CODE = 'I';
+    static final byte TEST_SESSION_STATE_CODE = 'T';
+    static final byte TEST_PLAN_CODE = 'P';
+    static final byte TEST_SESSION_STATE_DELTA_CODE = 'D';
+
+    /** Cardinality code used to denote a {@link NullValue} */
+    private static final byte NULL_CARDINALITY_CODE = -1;
+
+    /**
+     * Returns whether the given data starts with the binary state {@link #MAGIC_NUMBER}.
+     * This can be used to tell binary state data apart from XML.
+     */
+    public static boolean isBinaryState(final byte[] data) {
+        return data.length>=4
+                && ((data[0] & 0xFF) << 24 | (data[1] & 0xFF) << 16 | (data[2] & 0xFF) << 8 | (data[3] & 0xFF))==MAGIC_NUMBER;
+    }
+
+    //----------------------------------------------
+    // Marshalling
+
+    static void writeHeader(final BinaryStateWriter writer, final byte typeCode) throws IOException {
+        writer.writeInt(MAGIC_NUMBER);
+        writer.writeByte(FORMAT_VERSION);
+        writer.writeByte(typeCode);
+    }
+
+    static void writeIdentifier(final BinaryStateWriter writer, final Identifier identifier) throws IOException {
+        writer.writeSymbol(identifier.toString());
+    }
+
+    static void writeIdentifiers(final BinaryStateWriter writer, final Collection<Identifier> identifiers) throws IOException {
+        writer.writeCount(identifiers.size());
+        for (final Identifier identifier : identifiers) {
+            writeIdentifier(writer, identifier);
+        }
+    }
+
+    static void writeOptionalTestPlanNodeKey(final BinaryStateWriter writer, final TestPlanNodeKey key) throws IOException {
+        if (key==null) {
+            writer.writeBoolean(false);
+        }
+        else {
+            writer.writeBoolean(true);
+            writeTestPlanNodeKey(writer, key);
+        }
+    }
+
+    static void writeTestPlanNodeKey(final BinaryStateWriter writer, final TestPlanNodeKey key) throws IOException {
+        writeIdentifier(writer, key.getIdentifier());
+        writer.writeCount(key.getAbstractPartGlobalIndex());
+        writer.writeCount(key.getInstanceNumber());
+    }
+
+    static void writeAbstractPartSessionState(final BinaryStateWriter writer, final AbstractPartSessionState abstractPartSessionState) throws IOException {
+        writeControlObjectSessionState(writer, abstractPartSessionState);
+        writer.writeBoolean(abstractPartSessionState.isPreConditionFailed());
+        writer.writeBoolean(abstractPartSessionState.isJumpedByBranchRule());
+        writer.writeString(abstractPartSessionState.getBranchRuleTarget());
+    }
+
+    static void writeControlObjectSessionState(final BinaryStateWriter writer, final ControlObjectSessionState controlObjectState) throws IOException {
+        writer.writeDate(controlObjectState.getEntryTime());
+        writer.writeDate(controlObjectState.getEndTime());
+        writer.writeDate(controlObjectState.getExitTime());
+        writer.writeDate(controlObjectState.getDurationIntervalStartTime());
+        writer.writeLong(controlObjectState.getDurationAccumulated());
+    }
+
+    static void writeValues(final BinaryStateWriter writer, final Map<Identifier, Value> valueMap) throws IOException {
+        writer.writeCount(valueMap.size());
+        for (final Entry<Identifier, Value> entry : valueMap.entrySet()) {
+            writeIdentifier(writer, entry.getKey());
+            writeValue(writer, entry.getValue());
+        }
+    }
+
+    static void writeValue(final BinaryStateWriter writer, final Value value) throws IOException {
+        if (value.isNull()) {
+            writer.writeByte(NULL_CARDINALITY_CODE);
+            return;
+        }
+        final Cardinality cardinality = value.getCardinality();
+        writer.writeByte(cardinality.ordinal());
+        switch (cardinality) {
+            case SINGLE:
+                final SingleValue singleValue = (SingleValue) value;
+                writer.writeByte(singleValue.getBaseType().ordinal());
+                writeSingleValue(writer, singleValue);
+                break;
+
+            case MULTIPLE:
+            case ORDERED:
+                final ListValue listValue = (ListValue) value;
+                writer.writeByte(listValue.getBaseType().ordinal());
+                writer.writeCount(listValue.size());
+                for (final SingleValue listItem : listValue) {
+                    writeSingleValue(writer, listItem);
+                }
+                break;
+
+            case RECORD:
+                final RecordValue recordValue = (RecordValue) value;
+                writer.writeCount(recordValue.size());
+                for (final Entry<Identifier, SingleValue> entry : recordValue.entrySet()) {
+                    final SingleValue itemValue = entry.getValue();
+                    writeIdentifier(writer, entry.getKey());
+                    writer.writeByte(itemValue.getBaseType().ordinal());
+                    writeSingleValue(writer, itemValue);
+                }
+                break;
+
+            default:
+                throw new QtiLogicException("Unexpected logic branch: " + cardinality);
+        }
+    }
+
+    /**
+     * Writes the given {@link SingleValue}, without its {@link BaseType}. The most commonly-used
+     * types are written natively; others use their QTI string form.
+     */
+    static void writeSingleValue(final BinaryStateWriter writer, final SingleValue value) throws IOException {
+        switch (value.getBaseType()) {
+            case BOOLEAN:
+                writer.writeBoolean(((BooleanValue) value).booleanValue());
+                break;
+
+            case INTEGER:
+                writer.writeInt(((IntegerValue) value).intValue());
+                break;
+
+            case FLOAT:
+                writer.writeDouble(((FloatValue) value).doubleValue());
+                break;
+
+            case IDENTIFIER:
+                writeIdentifier(writer, ((IdentifierValue) value).identifierValue());
+                break;
+
+            case FILE:
+                final FileValue fileValue = (FileValue) value;
+                writer.writeString(fileValue.getFile().getAbsolutePath());
+                writer.writeString(fileValue.getContentType());
+                writer.writeString(fileValue.getFileName());
+                break;
+
+            default:
+                writer.writeString(value.toQtiString());
+                break;
+        }
+    }
+
+    //----------------------------------------------
+    // Unmarshalling
+
+    static void readHeader(final BinaryStateReader reader, final byte expectedTypeCode) throws IOException {
+        final int magicNumber = reader.readInt();
+        if (magicNumber!=MAGIC_NUMBER) {
+            throw new BinaryUnmarshallingException("Data does not start with the expected magic number");
+        }
+        final int formatVersion = reader.readByte();
+        if (formatVersion!=FORMAT_VERSION) {
+            throw new BinaryUnmarshallingException("Unsupported binary state format version " + formatVersion
+                    + " (expected " + FORMAT_VERSION + ")");
+        }
+        final byte typeCode = reader.readByte();
+        if (typeCode!=expectedTypeCode) {
+            throw new BinaryUnmarshallingException("Expected data of type '" + (char) expectedTypeCode
+                    + "' but got '" + (char) typeCode + "'");
+        }
+    }
+
+    static Identifier readIdentifier(final BinaryStateReader reader) throws IOException {
+        final String identifierString = reader.readSymbol();
+        try {
+            return Identifier.parseString(identifierString);
+        }
+        catch (final QtiParseException e) {
+            throw new BinaryUnmarshallingException("Value " + identifierString + " is not a valid QTI Identifier");
+        }
+    }
+
+    static List<Identifier> readIdentifiers(final BinaryStateReader reader) throws IOException {
+        final int count = reader.readCount();
+        final List<Identifier> result = new ArrayList<Identifier>(count);
+        for (int i=0; i<count; i++) {
+            result.add(readIdentifier(reader));
+        }
+        return result;
+    }
+
+    static TestPlanNodeKey readOptionalTestPlanNodeKey(final BinaryStateReader reader) throws IOException {
+        return reader.readBoolean() ? readTestPlanNodeKey(reader) : null;
+    }
+
+    static TestPlanNodeKey readTestPlanNodeKey(final BinaryStateReader reader) throws IOException {
+        final Identifier identifier = readIdentifier(reader);
+        final int abstractPartGlobalIndex = reader.readCount();
+        final int instanceNumber = reader.readCount();
+        if (instanceNumber<=0) {
+            throw new BinaryUnmarshallingException("Expected instance number " + instanceNumber
+                    + " of " + TestPlanNodeKey.class.getSimpleName() + " to be strictly positive");
+        }
+        return new TestPlanNodeKey(identifier, abstractPartGlobalIndex, instanceNumber);
+    }
+
+    static void readAbstractPartSessionState(final BinaryStateReader reader, final AbstractPartSessionState target) throws IOException {
+        readControlObjectSessionState(reader, target);
+        target.setPreConditionFailed(reader.readBoolean());
+        target.setJumpedByBranchRule(reader.readBoolean());
+        target.setBranchRuleTarget(reader.readString());
+    }
+
+    static void readControlObjectSessionState(final BinaryStateReader reader, final ControlObjectSessionState target) throws IOException {
+        target.setEntryTime(reader.readDate());
+        target.setEndTime(reader.readDate());
+        target.setExitTime(reader.readDate());
+        target.setDurationIntervalStartTime(reader.readDate());
+        target.setDurationAccumulated(reader.readLong());
+    }
+
+    static Map<Identifier, Value> readValues(final BinaryStateReader reader) throws IOException {
+        final int count = reader.readCount();
+        final Map<Identifier, Value> result = new HashMap<Identifier, Value>(count * 2);
+        for (int i=0; i<count; i++) {
+            final Identifier identifier = readIdentifier(reader);
+            result.put(identifier, readValue(reader));
+        }
+        return result;
+    }
+
+    static Value readValue(final BinaryStateReader reader) throws IOException {
+        final byte cardinalityCode = reader.readByte();
+        if (cardinalityCode==NULL_CARDINALITY_CODE) {
+            return NullValue.INSTANCE;
+        }
+        final Cardinality cardinality = decodeEnum(Cardinality.values(), cardinalityCode, "cardinality");
+        switch (cardinality) {
+            case SINGLE:
+                return readSingleValue(reader, readBaseType(reader));
+
+            case MULTIPLE:
+                return MultipleValue.createMultipleValue(readListValues(reader));
+
+            case ORDERED:
+                return OrderedValue.createOrderedValue(readListValues(reader));
+
+            case RECORD:
+                final int fieldCount = reader.readCount();
+                final Map<Identifier, SingleValue> recordBuilder = new HashMap<Identifier, SingleValue>(fieldCount * 2);
+                for (int i=0; i<fieldCount; i++) {
+                    final Identifier fieldIdentifier = readIdentifier(reader);
+                    recordBuilder.put(fieldIdentifier, readSingleValue(reader, readBaseType(reader)));
+                }
+                return RecordValue.createRecordValue(recordBuilder);
+
+            default:
+                throw new QtiLogicException("Unexpected logic branch " + cardinality);
+        }
+    }
+
+    static List<SingleValue> readListValues(final BinaryStateReader reader) throws IOException {
+        final BaseType baseType = readBaseType(reader);
+        final int count = reader.readCount();
+        final List<SingleValue> result = new ArrayList<SingleValue>(count);
+        for (int i=0; i<count; i++) {
+            result.add(readSingleValue(reader, baseType));
+        }
+        return result;
+    }
+
+    static SingleValue readSingleValue(final BinaryStateReader reader, final BaseType baseType) throws IOException {
+        switch (baseType) {
+            case BOOLEAN:
+                return BooleanValue.valueOf(reader.readBoolean());
+
+            case INTEGER:
+                return new IntegerValue(reader.readInt());
+
+            case FLOAT:
+                return new FloatValue(reader.readDouble());
+
+            case IDENTIFIER:
+                return new IdentifierValue(readIdentifier(reader));
+
+            case FILE:
+                final File file = new File(reader.requireString());
+                final String contentType = reader.requireString();
+                final String fileName = reader.requireString();
+                return new FileValue(file, contentType, fileName);
+
+            default:
+                final String singleValueString = reader.requireString();
+                try {
+                    return baseType.parseSingleValue(singleValueString);
+                }
+                catch (final QtiParseException e) {
+                    throw new BinaryUnmarshallingException("Could not parse single value " + singleValueString + " of baseType " + baseType, e);
+                }
+        }
+    }
+
+    static BaseType readBaseType(final BinaryStateReader reader) throws IOException {
+        return decodeEnum(BaseType.values(), reader.readByte(), "baseType");
+    }
+
+    static <E extends Enum<E>> E decodeEnum(final E[] values, final int ordinal, final String description) {
+        if (ordinal<0 || ordinal>=values.length) {
+            throw new BinaryUnmarshallingException("Bad " + description + " code " + ordinal);
+        }
+        return values[ordinal];
+    }
+}
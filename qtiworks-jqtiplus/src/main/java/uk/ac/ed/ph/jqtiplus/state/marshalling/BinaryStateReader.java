@@ -0,0 +1,133 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state.marshalling;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Low level reader for the binary state format, wrapping a {@link DataInputStream}.
+ * This mirrors {@link BinaryStateWriter}.
+ * <p>
+ * An instance of this class should only be used to read a single state Object.
+ *
+ * @see BinaryStateWriter
+ *
+ * @author David McKain
+ */
+final class BinaryStateReader {
+
+    private final DataInputStream dataInputStream;
+    private final List<String> symbolTable;
+
+    BinaryStateReader(final InputStream inputStream) {
+        this.dataInputStream = new DataInputStream(inputStream);
+        this.symbolTable = new ArrayList<String>();
+    }
+
+    byte readByte() throws IOException {
+        return dataInputStream.readByte();
+    }
+
+    boolean readBoolean() throws IOException {
+        return dataInputStream.readBoolean();
+    }
+
+    int readInt() throws IOException {
+        return dataInputStream.readInt();
+    }
+
+    long readLong() throws IOException {
+        return dataInputStream.readLong();
+    }
+
+    double readDouble() throws IOException {
+        return dataInputStream.readDouble();
+    }
+
+    int readCount() throws IOException {
+        int result = 0;
+        for (int shift=0; shift<32; shift+=7) {
+            final int b = dataInputStream.readUnsignedByte();
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80)==0) {
+                if (result<0) {
+                    throw new BinaryUnmarshallingException("Negative count " + result);
+                }
+                return result;
+            }
+        }
+        throw new BinaryUnmarshallingException("Malformed count encoding");
+    }
+
+    String readString() throws IOException {
+        final int lengthPlusOne = readCount();
+        if (lengthPlusOne==0) {
+            return null;
+        }
+        final byte[] bytes = new byte[lengthPlusOne - 1];
+        dataInputStream.readFully(bytes);
+        return new String(bytes, BinaryMarshallerCore.STRING_ENCODING);
+    }
+
+    String requireString() throws IOException {
+        final String result = readString();
+        if (result==null) {
+            throw new BinaryUnmarshallingException("Expected non-null String");
+        }
+        return result;
+    }
+
+    String readSymbol() throws IOException {
+        final int index = readCount();
+        final int symbolCount = symbolTable.size();
+        if (index<symbolCount) {
+            return symbolTable.get(index);
+        }
+        else if (index==symbolCount) {
+            final String symbol = requireString();
+            symbolTable.add(symbol);
+            return symbol;
+        }
+        throw new BinaryUnmarshallingException("Symbol index " + index + " is out of range");
+    }
+
+    Date readDate() throws IOException {
+        return readBoolean() ? new Date(readLong()) : null;
+    }
+}
@@ -0,0 +1,147 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state.marshalling;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Low level writer for the binary state format, wrapping a {@link DataOutputStream}.
+ * <p>
+ * Symbols (e.g. identifiers) are written in full the first time they are seen and
+ * then referred to by their index, which keeps repeated variable names and keys small.
+ * <p>
+ * An instance of this class should only be used to write a single state Object.
+ *
+ * @see BinaryStateReader
+ *
+ * @author David McKain
+ */
+final class BinaryStateWriter {
+
+    private final DataOutputStream dataOutputStream;
+    private final Map<String, Integer> symbolTable;
+
+    BinaryStateWriter(final OutputStream outputStream) {
+        this.dataOutputStream = new DataOutputStream(outputStream);
+        this.symbolTable = new HashMap<String, Integer>();
+    }
+
+    void writeByte(final int value) throws IOException {
+        dataOutputStream.writeByte(value);
+    }
+
+    void writeBoolean(final boolean value) throws IOException {
+        dataOutputStream.writeBoolean(value);
+    }
+
+    void writeInt(final int value) throws IOException {
+        dataOutputStream.writeInt(value);
+    }
+
+    void writeLong(final long value) throws IOException {
+        dataOutputStream.writeLong(value);
+    }
+
+    void writeDouble(final double value) throws IOException {
+        dataOutputStream.writeDouble(value);
+    }
+
+    /**
+     * Writes a non-negative integer using a variable length encoding, taking 1 byte for
+     * values less than 128.
+     */
+    void writeCount(final int count) throws IOException {
+        if (count<0) {
+            throw new IllegalArgumentException("Count must be non-negative: " + count);
+        }
+        int remaining = count;
+        while ((remaining & ~0x7F)!=0) {
+            dataOutputStream.writeByte((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        dataOutputStream.writeByte(remaining);
+    }
+
+    /**
+     * Writes a (possibly null) String as its UTF-8 encoded length + 1, followed by
+     * the encoded bytes. (A length of 0 denotes null.)
+     * <p>
+     * (This avoids the 64K limit of {@link DataOutputStream#writeUTF(String)}.)
+     */
+    void writeString(final String string) throws IOException {
+        if (string==null) {
+            writeCount(0);
+        }
+        else {
+            final byte[] bytes = string.getBytes(BinaryMarshallerCore.STRING_ENCODING);
+            writeCount(bytes.length + 1);
+            dataOutputStream.write(bytes);
+        }
+    }
+
+    /**
+     * Writes a non-null String that is likely to recur, using the symbol table.
+     */
+    void writeSymbol(final String symbol) throws IOException {
+        final Integer index = symbolTable.get(symbol);
+        if (index!=null) {
+            writeCount(index.intValue());
+        }
+        else {
+            final int newIndex = symbolTable.size();
+            symbolTable.put(symbol, Integer.valueOf(newIndex));
+            writeCount(newIndex);
+            writeString(symbol);
+        }
+    }
+
+    void writeDate(final Date date) throws IOException {
+        if (date==null) {
+            writeBoolean(false);
+        }
+        else {
+            writeBoolean(true);
+            writeLong(date.getTime());
+        }
+    }
+
+    void flush() throws IOException {
+        dataOutputStream.flush();
+    }
+}
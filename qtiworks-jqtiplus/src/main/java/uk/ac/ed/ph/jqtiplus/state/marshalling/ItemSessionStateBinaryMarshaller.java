@@ -0,0 +1,274 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state.marshalling;
+
+import uk.ac.ed.ph.jqtiplus.exception.QtiLogicException;
+import uk.ac.ed.ph.jqtiplus.node.result.SessionStatus;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.types.FileResponseData;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.types.ResponseData;
+import uk.ac.ed.ph.jqtiplus.types.ResponseData.ResponseDataType;
+import uk.ac.ed.ph.jqtiplus.types.StringResponseData;
+import uk.ac.ed.ph.jqtiplus.value.Value;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+
+/**
+ * Marshals an {@link ItemSessionState} to/from the compact binary format.
+ *
+ * @see BinaryMarshallerCore
+ * @see ItemSessionStateXmlMarshaller
+ *
+ * @author David McKain
+ */
+public final class ItemSessionStateBinaryMarshaller {
+
+    public static byte[] marshal(final ItemSessionState itemSessionState) {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try {
+            marshal(itemSessionState, outputStream);
+        }
+        catch (final IOException e) {
+            throw new QtiLogicException("Unexpected IOException writing to byte array", e);
+        }
+        return outputStream.toByteArray();
+    }
+
+    public static void marshal(final ItemSessionState itemSessionState, final OutputStream outputStream)
+            throws IOException {
+        final BinaryStateWriter writer = new BinaryStateWriter(outputStream);
+        BinaryMarshallerCore.writeHeader(writer, BinaryMarshallerCore.ITEM_SESSION_STATE_CODE);
+        writeItemSessionState(writer, itemSessionState);
+        writer.flush();
+    }
+
+    static void writeItemSessionState(final BinaryStateWriter writer, final ItemSessionState itemSessionState)
+            throws IOException {
+        BinaryMarshallerCore.writeAbstractPartSessionState(writer, itemSessionState);
+        writer.writeBoolean(itemSessionState.isInitialized());
+        writer.writeBoolean(itemSessionState.isResponded());
+        writer.writeDate(itemSessionState.getSuspendTime());
+        final SessionStatus sessionStatus = itemSessionState.getSessionStatus();
+        writer.writeByte(sessionStatus!=null ? sessionStatus.ordinal() : -1);
+
+        /* Write implicit variables */
+        writer.writeString(itemSessionState.getCompletionStatus());
+        writer.writeCount(itemSessionState.getNumAttempts());
+
+        /* Write unbound and/or invalid responses */
+        BinaryMarshallerCore.writeIdentifiers(writer, itemSessionState.getUnboundResponseIdentifiers());
+        BinaryMarshallerCore.writeIdentifiers(writer, itemSessionState.getInvalidResponseIdentifiers());
+
+        /* Write shuffled choice orders */
+        writer.writeCount(itemSessionState.getShuffledInteractionChoiceOrders().size());
+        for (final Entry<Identifier, List<Identifier>> entry : itemSessionState.getShuffledInteractionChoiceOrders().entrySet()) {
+            BinaryMarshallerCore.writeIdentifier(writer, entry.getKey());
+            BinaryMarshallerCore.writeIdentifiers(writer, entry.getValue());
+        }
+
+        /* Write raw responses */
+        writer.writeCount(itemSessionState.getRawResponseDataMap().size());
+        for (final Entry<Identifier, ResponseData> entry : itemSessionState.getRawResponseDataMap().entrySet()) {
+            BinaryMarshallerCore.writeIdentifier(writer, entry.getKey());
+            writeResponseData(writer, entry.getValue());
+        }
+
+        /* Write candidate comment */
+        writer.writeString(itemSessionState.getCandidateComment());
+
+        /* Do various values */
+        BinaryMarshallerCore.writeValues(writer, itemSessionState.getUncommittedResponseValues());
+        BinaryMarshallerCore.writeValues(writer, itemSessionState.getTemplateValues());
+        BinaryMarshallerCore.writeValues(writer, itemSessionState.getResponseValues());
+        BinaryMarshallerCore.writeValues(writer, itemSessionState.getOutcomeValues());
+        BinaryMarshallerCore.writeValues(writer, itemSessionState.getOverriddenTemplateDefaultValues());
+        BinaryMarshallerCore.writeValues(writer, itemSessionState.getOverriddenResponseDefaultValues());
+        BinaryMarshallerCore.writeValues(writer, itemSessionState.getOverriddenOutcomeDefaultValues());
+        BinaryMarshallerCore.writeValues(writer, itemSessionState.getOverriddenCorrectResponseValues());
+    }
+
+    private static void writeResponseData(final BinaryStateWriter writer, final ResponseData responseData)
+            throws IOException {
+        final ResponseDataType responseDataType = responseData.getType();
+        writer.writeByte(responseDataType.ordinal());
+        switch (responseDataType) {
+            case STRING:
+                final StringResponseData stringResponseData = (StringResponseData) responseData;
+                final List<String> responseDataList = stringResponseData.getResponseData();
+                writer.writeCount(responseDataList.size());
+                for (final String responseDatum : responseDataList) {
+                    writer.writeString(responseDatum);
+                }
+                break;
+
+            case FILE:
+                final FileResponseData fileResponseData = (FileResponseData) responseData;
+                writer.writeString(fileResponseData.getContentType());
+                writer.writeString(fileResponseData.getFileName());
+                writer.writeString(fileResponseData.getFile().getAbsolutePath());
+                break;
+
+            default:
+                throw new QtiLogicException("Unexpected switch case " + responseDataType);
+        }
+    }
+
+    //----------------------------------------------
+
+    public static ItemSessionState unmarshal(final byte[] data) {
+        try {
+            return unmarshal(new ByteArrayInputStream(data));
+        }
+        catch (final IOException e) {
+            throw new QtiLogicException("Unexpected IOException reading from byte array", e);
+        }
+    }
+
+    /**
+     * Unmarshals an {@link ItemSessionState} from the given {@link InputStream}. The stream
+     * is not closed afterwards.
+     *
+     * @throws BinaryUnmarshallingException if the data is not a valid binary {@link ItemSessionState}
+     * @throws IOException if reading from the stream fails
+     */
+    public static ItemSessionState unmarshal(final InputStream inputStream) throws IOException {
+        final BinaryStateReader reader = new BinaryStateReader(inputStream);
+        try {
+            BinaryMarshallerCore.readHeader(reader, BinaryMarshallerCore.ITEM_SESSION_STATE_CODE);
+            return readItemSessionState(reader);
+        }
+        catch (final EOFException e) {
+            throw new BinaryUnmarshallingException("Unexpected end of binary state data", e);
+        }
+    }
+
+    static ItemSessionState readItemSessionState(final BinaryStateReader reader) throws IOException {
+        final ItemSessionState result = new ItemSessionState();
+
+        BinaryMarshallerCore.readAbstractPartSessionState(reader, result);
+        result.setInitialized(reader.readBoolean());
+        result.setResponded(reader.readBoolean());
+        result.setSuspendTime(reader.readDate());
+        final byte sessionStatusCode = reader.readByte();
+        if (sessionStatusCode!=-1) {
+            result.setSessionStatus(BinaryMarshallerCore.decodeEnum(SessionStatus.values(), sessionStatusCode, "sessionStatus"));
+        }
+
+        final String completionStatus = reader.readString();
+        if (completionStatus!=null) {
+            try {
+                result.setCompletionStatus(completionStatus);
+            }
+            catch (final IllegalArgumentException e) {
+                throw new BinaryUnmarshallingException("Unexpected value for completionStatus: " + completionStatus);
+            }
+        }
+        result.setNumAttempts(reader.readCount());
+
+        result.setUnboundResponseIdentifiers(BinaryMarshallerCore.readIdentifiers(reader));
+        result.setInvalidResponseIdentifiers(BinaryMarshallerCore.readIdentifiers(reader));
+
+        final int shuffledInteractionCount = reader.readCount();
+        for (int i=0; i<shuffledInteractionCount; i++) {
+            final Identifier responseIdentifier = BinaryMarshallerCore.readIdentifier(reader);
+            result.setShuffledInteractionChoiceOrder(responseIdentifier, BinaryMarshallerCore.readIdentifiers(reader));
+        }
+
+        final int rawResponseCount = reader.readCount();
+        for (int i=0; i<rawResponseCount; i++) {
+            final Identifier identifier = BinaryMarshallerCore.readIdentifier(reader);
+            result.setRawResponseData(identifier, readResponseData(reader));
+        }
+
+        result.setCandidateComment(reader.readString());
+
+        for (final Entry<Identifier, Value> entry : BinaryMarshallerCore.readValues(reader).entrySet()) {
+            result.setUncommittedResponseValue(entry.getKey(), entry.getValue());
+        }
+        for (final Entry<Identifier, Value> entry : BinaryMarshallerCore.readValues(reader).entrySet()) {
+            result.setTemplateValue(entry.getKey(), entry.getValue());
+        }
+        for (final Entry<Identifier, Value> entry : BinaryMarshallerCore.readValues(reader).entrySet()) {
+            result.setResponseValue(entry.getKey(), entry.getValue());
+        }
+        for (final Entry<Identifier, Value> entry : BinaryMarshallerCore.readValues(reader).entrySet()) {
+            result.setOutcomeValue(entry.getKey(), entry.getValue());
+        }
+        for (final Entry<Identifier, Value> entry : BinaryMarshallerCore.readValues(reader).entrySet()) {
+            result.setOverriddenTemplateDefaultValue(entry.getKey(), entry.getValue());
+        }
+        for (final Entry<Identifier, Value> entry : BinaryMarshallerCore.readValues(reader).entrySet()) {
+            result.setOverriddenResponseDefaultValue(entry.getKey(), entry.getValue());
+        }
+        for (final Entry<Identifier, Value> entry : BinaryMarshallerCore.readValues(reader).entrySet()) {
+            result.setOverriddenOutcomeDefaultValue(entry.getKey(), entry.getValue());
+        }
+        for (final Entry<Identifier, Value> entry : BinaryMarshallerCore.readValues(reader).entrySet()) {
+            result.setOverriddenCorrectResponseValue(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    private static ResponseData readResponseData(final BinaryStateReader reader) throws IOException {
+        final ResponseDataType responseDataType = BinaryMarshallerCore.decodeEnum(ResponseDataType.values(), reader.readByte(), "responseDataType");
+        switch (responseDataType) {
+            case STRING:
+                final int count = reader.readCount();
+                final List<String> stringResponseBuilder = new ArrayList<String>(count);
+                for (int i=0; i<count; i++) {
+                    stringResponseBuilder.add(reader.readString());
+                }
+                return new StringResponseData(stringResponseBuilder);
+
+            case FILE:
+                final String contentType = reader.requireString();
+                final String fileName = reader.requireString();
+                final String absoluteFilePath = reader.requireString();
+                return new FileResponseData(new File(absoluteFilePath), contentType, fileName);
+
+            default:
+                throw new QtiLogicException("Unexpected switch case " + responseDataType);
+        }
+    }
+}
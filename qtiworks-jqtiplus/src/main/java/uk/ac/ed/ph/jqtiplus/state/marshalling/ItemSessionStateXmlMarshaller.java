@@ -52,11 +52,13 @@ import java.util.List;
 import java.util.Map.Entry;
 
 import javax.xml.parsers.DocumentBuilder;
+import javax.xml.transform.sax.SAXSource;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import org.w3c.dom.Node;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
 
 /**
  * Marshals an {@link ItemSessionState} to/from XML
@@ -66,78 +68,100 @@ import org.xml.sax.InputSource;
 public final class ItemSessionStateXmlMarshaller {
 
     public static Document marshal(final ItemSessionState itemSessionState) {
-        final DocumentBuilder documentBuilder = XmlMarshallerCore.createNsAwareDocumentBuilder();
-        final Document document = documentBuilder.newDocument();
-        appendItemSessionState(document, itemSessionState);
-        return document;
+        return XmlMarshallerCore.buildDocument(new ItemSessionStateXmlReader(itemSessionState));
+    }
+
+    /**
+     * Fires the XML form of the given {@link ItemSessionState} as SAX events at the given
+     * {@link ContentHandler}, without building an intermediate DOM.
+     */
+    public static void marshal(final ItemSessionState itemSessionState, final ContentHandler targetHandler)
+            throws SAXException {
+        final StateSaxFirer saxFirer = new StateSaxFirer(targetHandler);
+        saxFirer.fireStartDocument();
+        fireItemSessionState(saxFirer, itemSessionState);
+        saxFirer.fireEndDocument();
     }
 
-    static void appendItemSessionState(final Node documentOrElement, final ItemSessionState itemSessionState) {
-        final Element element = XmlMarshallerCore.appendElement(documentOrElement, "itemSessionState");
-        XmlMarshallerCore.addAbstractPartSessionStateAttributes(element, itemSessionState);
-        element.setAttribute("initialized", StringUtilities.toTrueFalse(itemSessionState.isInitialized()));
-        element.setAttribute("responded", StringUtilities.toTrueFalse(itemSessionState.isResponded()));
-        XmlMarshallerCore.maybeAddDateAttribute(element, "suspendTime", itemSessionState.getSuspendTime());
+    /**
+     * Creates a {@link SAXSource} for the XML form of the given {@link ItemSessionState}. This
+     * lets an XSLT processor build its own tree directly from the state, and is the preferred
+     * way of passing state to stylesheets.
+     */
+    public static SAXSource createSource(final ItemSessionState itemSessionState) {
+        return new SAXSource(new ItemSessionStateXmlReader(itemSessionState), new InputSource());
+    }
+
+    static void fireItemSessionState(final StateSaxFirer saxFirer, final ItemSessionState itemSessionState) throws SAXException {
+        saxFirer.fireStartElement("itemSessionState");
+        XmlMarshallerCore.addAbstractPartSessionStateAttributes(saxFirer, itemSessionState);
+        saxFirer.addAttribute("initialized", StringUtilities.toTrueFalse(itemSessionState.isInitialized()));
+        saxFirer.addAttribute("responded", StringUtilities.toTrueFalse(itemSessionState.isResponded()));
+        XmlMarshallerCore.maybeAddDateAttribute(saxFirer, "suspendTime", itemSessionState.getSuspendTime());
         final SessionStatus sessionStatus = itemSessionState.getSessionStatus();
         if (sessionStatus!=null) {
-            element.setAttribute("sessionStatus", sessionStatus.toQtiString());
+            saxFirer.addAttribute("sessionStatus", sessionStatus.toQtiString());
         }
 
         /* Append implicit variables */
-        XmlMarshallerCore.maybeAddStringAttribute(element, "completionStatus", itemSessionState.getCompletionStatus());
-        element.setAttribute("numAttempts", Integer.toString(itemSessionState.getNumAttempts()));
+        XmlMarshallerCore.maybeAddStringAttribute(saxFirer, "completionStatus", itemSessionState.getCompletionStatus());
+        saxFirer.addAttribute("numAttempts", Integer.toString(itemSessionState.getNumAttempts()));
 
         /* Show any unbound and/or invalid responses (as attribute) */
-        XmlMarshallerCore.maybeAddIdentifierListAttribute(element, "unboundResponseIdentifiers", itemSessionState.getUnboundResponseIdentifiers());
-        XmlMarshallerCore.maybeAddIdentifierListAttribute(element, "invalidResponseIdentifiers", itemSessionState.getInvalidResponseIdentifiers());
+        XmlMarshallerCore.maybeAddIdentifierListAttribute(saxFirer, "unboundResponseIdentifiers", itemSessionState.getUnboundResponseIdentifiers());
+        XmlMarshallerCore.maybeAddIdentifierListAttribute(saxFirer, "invalidResponseIdentifiers", itemSessionState.getInvalidResponseIdentifiers());
 
         /* Output shuffled choice orders */
         for (final Entry<Identifier, List<Identifier>> entry : itemSessionState.getShuffledInteractionChoiceOrders().entrySet()) {
             final Identifier responseIdentifier = entry.getKey();
             final List<Identifier> choiceIdentifiers = entry.getValue();
-            final Element orderElement = XmlMarshallerCore.appendElement(element, "shuffledInteractionChoiceOrder");
-            orderElement.setAttribute("responseIdentifier", responseIdentifier.toString());
-            orderElement.setAttribute("choiceSequence", StringUtilities.join(choiceIdentifiers, " "));
+            saxFirer.fireStartElement("shuffledInteractionChoiceOrder");
+            saxFirer.addAttribute("responseIdentifier", responseIdentifier.toString());
+            saxFirer.addAttribute("choiceSequence", StringUtilities.join(choiceIdentifiers, " "));
+            saxFirer.fireEndElement("shuffledInteractionChoiceOrder");
         }
 
         /* Output raw responses (as elements) */
         for (final Entry<Identifier, ResponseData> entry : itemSessionState.getRawResponseDataMap().entrySet()) {
             final Identifier identifier = entry.getKey();
             final ResponseData responseData = entry.getValue();
-            final Element responseInputElement = XmlMarshallerCore.appendElement(element, "responseInput");
-            responseInputElement.setAttribute("identifier", identifier.toString());
-            appendResponseData(responseInputElement, responseData);
+            saxFirer.fireStartElement("responseInput");
+            saxFirer.addAttribute("identifier", identifier.toString());
+            fireResponseData(saxFirer, responseData);
+            saxFirer.fireEndElement("responseInput");
         }
 
         /* Output candidate comment */
-        XmlMarshallerCore.maybeAppendTextElement(element, "candidateComment", itemSessionState.getCandidateComment());
+        XmlMarshallerCore.maybeFireTextElement(saxFirer, "candidateComment", itemSessionState.getCandidateComment());
 
         /* Do various values */
-        XmlMarshallerCore.appendValues(element, "uncommittedResponseValue", itemSessionState.getUncommittedResponseValues());
-        XmlMarshallerCore.appendValues(element, "templateVariable", itemSessionState.getTemplateValues());
-        XmlMarshallerCore.appendValues(element, "responseVariable", itemSessionState.getResponseValues());
-        XmlMarshallerCore.appendValues(element, "outcomeVariable", itemSessionState.getOutcomeValues());
-        XmlMarshallerCore.appendValues(element, "overriddenTemplateDefault", itemSessionState.getOverriddenTemplateDefaultValues());
-        XmlMarshallerCore.appendValues(element, "overriddenResponseDefault", itemSessionState.getOverriddenResponseDefaultValues());
-        XmlMarshallerCore.appendValues(element, "overriddenOutcomeDefault", itemSessionState.getOverriddenOutcomeDefaultValues());
-        XmlMarshallerCore.appendValues(element, "overriddenCorrectResponse", itemSessionState.getOverriddenCorrectResponseValues());
+        XmlMarshallerCore.fireValues(saxFirer, "uncommittedResponseValue", itemSessionState.getUncommittedResponseValues());
+        XmlMarshallerCore.fireValues(saxFirer, "templateVariable", itemSessionState.getTemplateValues());
+        XmlMarshallerCore.fireValues(saxFirer, "responseVariable", itemSessionState.getResponseValues());
+        XmlMarshallerCore.fireValues(saxFirer, "outcomeVariable", itemSessionState.getOutcomeValues());
+        XmlMarshallerCore.fireValues(saxFirer, "overriddenTemplateDefault", itemSessionState.getOverriddenTemplateDefaultValues());
+        XmlMarshallerCore.fireValues(saxFirer, "overriddenResponseDefault", itemSessionState.getOverriddenResponseDefaultValues());
+        XmlMarshallerCore.fireValues(saxFirer, "overriddenOutcomeDefault", itemSessionState.getOverriddenOutcomeDefaultValues());
+        XmlMarshallerCore.fireValues(saxFirer, "overriddenCorrectResponse", itemSessionState.getOverriddenCorrectResponseValues());
+        saxFirer.fireEndElement("itemSessionState");
     }
 
-    private static void appendResponseData(final Element element, final ResponseData responseData) {
+    private static void fireResponseData(final StateSaxFirer saxFirer, final ResponseData responseData) throws SAXException {
         switch (responseData.getType()) {
             case STRING:
                 final StringResponseData stringResponseData = (StringResponseData) responseData;
                 for (final String responseDatum : stringResponseData.getResponseData()) {
-                    XmlMarshallerCore.maybeAppendTextElement(element, "string", responseDatum);
+                    XmlMarshallerCore.maybeFireTextElement(saxFirer, "string", responseDatum);
                 }
                 break;
 
             case FILE:
                 final FileResponseData fileResponseData = (FileResponseData) responseData;
-                final Element fileElement = XmlMarshallerCore.appendElement(element, "file");
-                fileElement.setAttribute("contentType", fileResponseData.getContentType());
-                fileElement.setAttribute("fileName", fileResponseData.getFileName());
-                fileElement.setAttribute("absoluteFilePath", fileResponseData.getFile().getAbsolutePath());
+                saxFirer.fireStartElement("file");
+                saxFirer.addAttribute("contentType", fileResponseData.getContentType());
+                saxFirer.addAttribute("fileName", fileResponseData.getFileName());
+                saxFirer.addAttribute("absoluteFilePath", fileResponseData.getFile().getAbsolutePath());
+                saxFirer.fireEndElement("file");
                 break;
 
             default:
@@ -145,6 +169,23 @@ public final class ItemSessionStateXmlMarshaller {
         }
     }
 
+    /**
+     * {@link StateXmlReader} for an {@link ItemSessionState}
+     */
+    private static final class ItemSessionStateXmlReader extends StateXmlReader {
+
+        private final ItemSessionState itemSessionState;
+
+        public ItemSessionStateXmlReader(final ItemSessionState itemSessionState) {
+            this.itemSessionState = itemSessionState;
+        }
+
+        @Override
+        protected void fireStateDocument(final ContentHandler targetHandler) throws SAXException {
+            marshal(itemSessionState, targetHandler);
+        }
+    }
+
     //----------------------------------------------
 
     public static ItemSessionState unmarshal(final String xmlString) {
@@ -0,0 +1,109 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state.marshalling;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Fires the SAX events making up the XML form of a JQTI+ state Object at a target
+ * {@link ContentHandler}.
+ * <p>
+ * All elements are in the {@link XmlMarshallerCore#QTIWORKS_NAMESPACE}, which is declared as
+ * the default namespace. Attributes of the current element may be added up until its first
+ * child (or its end) is fired, which matches how the marshallers have always built their
+ * output.
+ * <p>
+ * Usage: not thread safe, not reusable.
+ *
+ * @author David McKain
+ */
+final class StateSaxFirer {
+
+    private final ContentHandler targetHandler;
+
+    /** Local name of the element whose start has not yet been fired, or null if none */
+    private String pendingLocalName;
+
+    /** Attributes for the pending element */
+    private final AttributesImpl pendingAttributes;
+
+    StateSaxFirer(final ContentHandler targetHandler) {
+        this.targetHandler = targetHandler;
+        this.pendingLocalName = null;
+        this.pendingAttributes = new AttributesImpl();
+    }
+
+    void fireStartDocument() throws SAXException {
+        targetHandler.startDocument();
+        targetHandler.startPrefixMapping("", XmlMarshallerCore.QTIWORKS_NAMESPACE);
+    }
+
+    void fireEndDocument() throws SAXException {
+        flushPendingElement();
+        targetHandler.endPrefixMapping("");
+        targetHandler.endDocument();
+    }
+
+    void fireStartElement(final String localName) throws SAXException {
+        flushPendingElement();
+        pendingLocalName = localName;
+    }
+
+    void addAttribute(final String localName, final String value) {
+        if (pendingLocalName==null) {
+            throw new IllegalStateException("Attribute " + localName + " must be added before any children of the current element");
+        }
+        pendingAttributes.addAttribute("", localName, localName, "CDATA", value);
+    }
+
+    void fireText(final String text) throws SAXException {
+        flushPendingElement();
+        targetHandler.characters(text.toCharArray(), 0, text.length());
+    }
+
+    void fireEndElement(final String localName) throws SAXException {
+        flushPendingElement();
+        targetHandler.endElement(XmlMarshallerCore.QTIWORKS_NAMESPACE, localName, localName);
+    }
+
+    private void flushPendingElement() throws SAXException {
+        if (pendingLocalName!=null) {
+            targetHandler.startElement(XmlMarshallerCore.QTIWORKS_NAMESPACE, pendingLocalName, pendingLocalName, pendingAttributes);
+            pendingLocalName = null;
+            pendingAttributes.clear();
+        }
+    }
+}
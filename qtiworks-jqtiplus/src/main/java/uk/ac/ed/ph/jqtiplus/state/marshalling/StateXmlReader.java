@@ -0,0 +1,152 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state.marshalling;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Pseudo {@link XMLReader} that ignores its input and instead fires the SAX events making up
+ * the XML form of a JQTI+ state Object. This lets the state be passed around as a
+ * {@link javax.xml.transform.sax.SAXSource}, so that an XSLT processor can build its own
+ * internal tree directly from the state without going via DOM.
+ * <p>
+ * Usage: not thread safe. Each call to {@link #parse(InputSource)} fires the state afresh.
+ *
+ * @author David McKain
+ */
+abstract class StateXmlReader implements XMLReader {
+
+    private static final String NAMESPACES_FEATURE = "http://xml.org/sax/features/namespaces";
+    private static final String NAMESPACE_PREFIXES_FEATURE = "http://xml.org/sax/features/namespace-prefixes";
+
+    private ContentHandler contentHandler;
+    private DTDHandler dtdHandler;
+    private EntityResolver entityResolver;
+    private ErrorHandler errorHandler;
+
+    /**
+     * Subclasses should fire the SAX events for their state at the given {@link ContentHandler}.
+     */
+    protected abstract void fireStateDocument(ContentHandler targetHandler) throws SAXException;
+
+    @Override
+    public final void parse(final InputSource input) throws SAXException {
+        if (contentHandler==null) {
+            throw new IllegalStateException("No ContentHandler has been set");
+        }
+        fireStateDocument(contentHandler);
+    }
+
+    @Override
+    public final void parse(final String systemId) throws SAXException {
+        parse((InputSource) null);
+    }
+
+    @Override
+    public final boolean getFeature(final String name) throws SAXNotRecognizedException {
+        if (NAMESPACES_FEATURE.equals(name)) {
+            return true;
+        }
+        else if (NAMESPACE_PREFIXES_FEATURE.equals(name)) {
+            return false;
+        }
+        throw new SAXNotRecognizedException(name);
+    }
+
+    @Override
+    public final void setFeature(final String name, final boolean value)
+            throws SAXNotRecognizedException, SAXNotSupportedException {
+        if (getFeature(name)!=value) {
+            throw new SAXNotSupportedException(name);
+        }
+    }
+
+    @Override
+    public final Object getProperty(final String name) throws SAXNotRecognizedException {
+        throw new SAXNotRecognizedException(name);
+    }
+
+    @Override
+    public final void setProperty(final String name, final Object value) throws SAXNotRecognizedException {
+        throw new SAXNotRecognizedException(name);
+    }
+
+    @Override
+    public final ContentHandler getContentHandler() {
+        return contentHandler;
+    }
+
+    @Override
+    public final void setContentHandler(final ContentHandler contentHandler) {
+        this.contentHandler = contentHandler;
+    }
+
+    @Override
+    public final DTDHandler getDTDHandler() {
+        return dtdHandler;
+    }
+
+    @Override
+    public final void setDTDHandler(final DTDHandler dtdHandler) {
+        this.dtdHandler = dtdHandler;
+    }
+
+    @Override
+    public final EntityResolver getEntityResolver() {
+        return entityResolver;
+    }
+
+    @Override
+    public final void setEntityResolver(final EntityResolver entityResolver) {
+        this.entityResolver = entityResolver;
+    }
+
+    @Override
+    public final ErrorHandler getErrorHandler() {
+        return errorHandler;
+    }
+
+    @Override
+    public final void setErrorHandler(final ErrorHandler errorHandler) {
+        this.errorHandler = errorHandler;
+    }
+}
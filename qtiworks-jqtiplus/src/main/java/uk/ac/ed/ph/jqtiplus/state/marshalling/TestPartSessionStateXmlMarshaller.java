@@ -41,8 +41,9 @@ import javax.xml.parsers.DocumentBuilder;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import org.w3c.dom.Node;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
 
 /**
  * Marshals an {@link TestPartSessionState} to/from XML
@@ -52,15 +53,21 @@ import org.xml.sax.InputSource;
 public final class TestPartSessionStateXmlMarshaller {
 
     public static Document marshal(final TestPartSessionState testPartSessionState) {
-        final DocumentBuilder documentBuilder = XmlMarshallerCore.createNsAwareDocumentBuilder();
-        final Document document = documentBuilder.newDocument();
-        appendTestPartSessionState(document, testPartSessionState);
-        return document;
+        return XmlMarshallerCore.buildDocument(new StateXmlReader() {
+            @Override
+            protected void fireStateDocument(final ContentHandler targetHandler) throws SAXException {
+                final StateSaxFirer saxFirer = new StateSaxFirer(targetHandler);
+                saxFirer.fireStartDocument();
+                fireTestPartSessionState(saxFirer, testPartSessionState);
+                saxFirer.fireEndDocument();
+            }
+        });
     }
 
-    static void appendTestPartSessionState(final Node documentOrElement, final TestPartSessionState testPartSessionState) {
-        final Element element = XmlMarshallerCore.appendElement(documentOrElement, "testPartSessionState");
-        XmlMarshallerCore.addAbstractPartSessionStateAttributes(element, testPartSessionState);
+    static void fireTestPartSessionState(final StateSaxFirer saxFirer, final TestPartSessionState testPartSessionState) throws SAXException {
+        saxFirer.fireStartElement("testPartSessionState");
+        XmlMarshallerCore.addAbstractPartSessionStateAttributes(saxFirer, testPartSessionState);
+        saxFirer.fireEndElement("testPartSessionState");
     }
 
     //----------------------------------------------
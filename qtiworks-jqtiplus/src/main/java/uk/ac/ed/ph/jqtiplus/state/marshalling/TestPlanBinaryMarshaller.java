@@ -0,0 +1,190 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state.marshalling;
+
+import uk.ac.ed.ph.jqtiplus.exception.QtiLogicException;
+import uk.ac.ed.ph.jqtiplus.state.EffectiveItemSessionControl;
+import uk.ac.ed.ph.jqtiplus.state.TestPlan;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNode;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNode.TestNodeType;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.List;
+
+/**
+ * Marshals a {@link TestPlan} to/from the compact binary format.
+ *
+ * @see BinaryMarshallerCore
+ * @see TestPlanXmlMarshaller
+ *
+ * @author David McKain
+ */
+public final class TestPlanBinaryMarshaller {
+
+    public static byte[] marshal(final TestPlan testPlan) {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try {
+            marshal(testPlan, outputStream);
+        }
+        catch (final IOException e) {
+            throw new QtiLogicException("Unexpected IOException writing to byte array", e);
+        }
+        return outputStream.toByteArray();
+    }
+
+    public static void marshal(final TestPlan testPlan, final OutputStream outputStream)
+            throws IOException {
+        final BinaryStateWriter writer = new BinaryStateWriter(outputStream);
+        BinaryMarshallerCore.writeHeader(writer, BinaryMarshallerCore.TEST_PLAN_CODE);
+        writeTestPlan(writer, testPlan);
+        writer.flush();
+    }
+
+    static void writeTestPlan(final BinaryStateWriter writer, final TestPlan testPlan) throws IOException {
+        writeTestPlanNodeChildren(writer, testPlan.getTestPlanRootNode());
+    }
+
+    private static void writeTestPlanNodeChildren(final BinaryStateWriter writer, final TestPlanNode testPlanNode)
+            throws IOException {
+        final List<TestPlanNode> children = testPlanNode.getChildren();
+        writer.writeCount(children.size());
+        for (final TestPlanNode childNode : children) {
+            writeTestPlanNode(writer, childNode);
+        }
+    }
+
+    private static void writeTestPlanNode(final BinaryStateWriter writer, final TestPlanNode testPlanNode)
+            throws IOException {
+        writer.writeByte(testPlanNode.getTestNodeType().ordinal());
+        BinaryMarshallerCore.writeTestPlanNodeKey(writer, testPlanNode.getKey());
+        final EffectiveItemSessionControl effectiveItemSessionControl = testPlanNode.getEffectiveItemSessionControl();
+        if (effectiveItemSessionControl!=null) {
+            writer.writeBoolean(true);
+            writer.writeInt(effectiveItemSessionControl.getMaxAttempts());
+            writer.writeBoolean(effectiveItemSessionControl.isShowFeedback());
+            writer.writeBoolean(effectiveItemSessionControl.isAllowReview());
+            writer.writeBoolean(effectiveItemSessionControl.isShowSolution());
+            writer.writeBoolean(effectiveItemSessionControl.isAllowComment());
+            writer.writeBoolean(effectiveItemSessionControl.isAllowSkipping());
+            writer.writeBoolean(effectiveItemSessionControl.isValidateResponses());
+        }
+        else {
+            writer.writeBoolean(false);
+        }
+        writer.writeString(testPlanNode.getSectionPartTitle());
+        final URI itemSystemId = testPlanNode.getItemSystemId();
+        writer.writeString(itemSystemId!=null ? itemSystemId.toString() : null);
+
+        /* Descend into children */
+        writeTestPlanNodeChildren(writer, testPlanNode);
+    }
+
+    //----------------------------------------------
+
+    public static TestPlan unmarshal(final byte[] data) {
+        try {
+            return unmarshal(new ByteArrayInputStream(data));
+        }
+        catch (final IOException e) {
+            throw new QtiLogicException("Unexpected IOException reading from byte array", e);
+        }
+    }
+
+    /**
+     * Unmarshals a {@link TestPlan} from the given {@link InputStream}. The stream
+     * is not closed afterwards.
+     *
+     * @throws BinaryUnmarshallingException if the data is not a valid binary {@link TestPlan}
+     * @throws IOException if reading from the stream fails
+     */
+    public static TestPlan unmarshal(final InputStream inputStream) throws IOException {
+        final BinaryStateReader reader = new BinaryStateReader(inputStream);
+        try {
+            BinaryMarshallerCore.readHeader(reader, BinaryMarshallerCore.TEST_PLAN_CODE);
+            return readTestPlan(reader);
+        }
+        catch (final EOFException e) {
+            throw new BinaryUnmarshallingException("Unexpected end of binary state data", e);
+        }
+    }
+
+    static TestPlan readTestPlan(final BinaryStateReader reader) throws IOException {
+        final TestPlanNode rootNode = TestPlanNode.createRoot();
+        readTestPlanNodeChildren(reader, rootNode);
+        return new TestPlan(rootNode);
+    }
+
+    private static void readTestPlanNodeChildren(final BinaryStateReader reader, final TestPlanNode targetOwner)
+            throws IOException {
+        final int childCount = reader.readCount();
+        for (int i=0; i<childCount; i++) {
+            final TestNodeType type = BinaryMarshallerCore.decodeEnum(TestNodeType.values(), reader.readByte(), "testNodeType");
+            final TestPlanNodeKey key = BinaryMarshallerCore.readTestPlanNodeKey(reader);
+            EffectiveItemSessionControl effectiveItemSessionControl = null;
+            if (reader.readBoolean()) {
+                final int maxAttempts = reader.readInt();
+                final boolean showFeedback = reader.readBoolean();
+                final boolean allowReview = reader.readBoolean();
+                final boolean showSolution = reader.readBoolean();
+                final boolean allowComment = reader.readBoolean();
+                final boolean allowSkipping = reader.readBoolean();
+                final boolean validateResponses = reader.readBoolean();
+                effectiveItemSessionControl = new EffectiveItemSessionControl(maxAttempts, showFeedback, allowReview, showSolution, allowComment, allowSkipping, validateResponses);
+            }
+            final String sectionPartTitle = reader.readString();
+            final URI itemSystemId = parseOptionalUri(reader.readString());
+
+            final TestPlanNode childTestPlanNode = new TestPlanNode(type, key, effectiveItemSessionControl, sectionPartTitle, itemSystemId);
+            targetOwner.addChild(childTestPlanNode);
+            readTestPlanNodeChildren(reader, childTestPlanNode);
+        }
+    }
+
+    private static URI parseOptionalUri(final String uriString) {
+        try {
+            return uriString!=null ? new URI(uriString) : null;
+        }
+        catch (final URISyntaxException e) {
+            throw new BinaryUnmarshallingException("Could not parse URI " + uriString, e);
+        }
+    }
+}
@@ -49,8 +49,9 @@ import javax.xml.parsers.DocumentBuilder;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import org.w3c.dom.Node;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
 
 /**
  * Marshals a {@link TestPlan} to/from XML
@@ -60,48 +61,54 @@ import org.xml.sax.InputSource;
 public final class TestPlanXmlMarshaller {
 
     public static Document marshal(final TestPlan testPlan) {
-        final DocumentBuilder documentBuilder = XmlMarshallerCore.createNsAwareDocumentBuilder();
-        final Document document = documentBuilder.newDocument();
-        appendTestPlan(document, testPlan);
-        return document;
+        return XmlMarshallerCore.buildDocument(new StateXmlReader() {
+            @Override
+            protected void fireStateDocument(final ContentHandler targetHandler) throws SAXException {
+                final StateSaxFirer saxFirer = new StateSaxFirer(targetHandler);
+                saxFirer.fireStartDocument();
+                fireTestPlan(saxFirer, testPlan);
+                saxFirer.fireEndDocument();
+            }
+        });
     }
 
-    public static void appendTestPlan(final Node documentOrElement, final TestPlan testPlan) {
-        final Element element = XmlMarshallerCore.appendElement(documentOrElement, "testPlan");
-
+    static void fireTestPlan(final StateSaxFirer saxFirer, final TestPlan testPlan) throws SAXException {
+        saxFirer.fireStartElement("testPlan");
         final TestPlanNode rootNode = testPlan.getTestPlanRootNode();
         for (final TestPlanNode testPlanNode : rootNode.getChildren()) {
-            appendTestPlanNode(element, testPlanNode);
+            fireTestPlanNode(saxFirer, testPlanNode);
         }
+        saxFirer.fireEndElement("testPlan");
     }
 
-    static void appendTestPlanNode(final Element parent, final TestPlanNode testPlanNode) {
-        final Element element = XmlMarshallerCore.appendElement(parent, "node");
-        element.setAttribute("type", testPlanNode.getTestNodeType().toString());
-        element.setAttribute("key", testPlanNode.getKey().toString());
+    static void fireTestPlanNode(final StateSaxFirer saxFirer, final TestPlanNode testPlanNode) throws SAXException {
+        saxFirer.fireStartElement("node");
+        saxFirer.addAttribute("type", testPlanNode.getTestNodeType().toString());
+        saxFirer.addAttribute("key", testPlanNode.getKey().toString());
         final EffectiveItemSessionControl effectiveItemSessionControl = testPlanNode.getEffectiveItemSessionControl();
         if (effectiveItemSessionControl!=null) {
-            element.setAttribute("maxAttempts", Integer.toString(effectiveItemSessionControl.getMaxAttempts()));
-            element.setAttribute("showFeedback", StringUtilities.toTrueFalse(effectiveItemSessionControl.isShowFeedback()));
-            element.setAttribute("allowReview", StringUtilities.toTrueFalse(effectiveItemSessionControl.isAllowReview()));
-            element.setAttribute("showSolution", StringUtilities.toTrueFalse(effectiveItemSessionControl.isShowSolution()));
-            element.setAttribute("allowComment", StringUtilities.toTrueFalse(effectiveItemSessionControl.isAllowComment()));
-            element.setAttribute("allowSkipping", StringUtilities.toTrueFalse(effectiveItemSessionControl.isAllowSkipping()));
-            element.setAttribute("validateResponses", StringUtilities.toTrueFalse(effectiveItemSessionControl.isValidateResponses()));
+            saxFirer.addAttribute("maxAttempts", Integer.toString(effectiveItemSessionControl.getMaxAttempts()));
+            saxFirer.addAttribute("showFeedback", StringUtilities.toTrueFalse(effectiveItemSessionControl.isShowFeedback()));
+            saxFirer.addAttribute("allowReview", StringUtilities.toTrueFalse(effectiveItemSessionControl.isAllowReview()));
+            saxFirer.addAttribute("showSolution", StringUtilities.toTrueFalse(effectiveItemSessionControl.isShowSolution()));
+            saxFirer.addAttribute("allowComment", StringUtilities.toTrueFalse(effectiveItemSessionControl.isAllowComment()));
+            saxFirer.addAttribute("allowSkipping", StringUtilities.toTrueFalse(effectiveItemSessionControl.isAllowSkipping()));
+            saxFirer.addAttribute("validateResponses", StringUtilities.toTrueFalse(effectiveItemSessionControl.isValidateResponses()));
         }
         final String sectionPartTitle = testPlanNode.getSectionPartTitle();
         if (sectionPartTitle!=null) {
-            element.setAttribute("sectionPartTitle", sectionPartTitle);
+            saxFirer.addAttribute("sectionPartTitle", sectionPartTitle);
         }
         final URI itemSystemId = testPlanNode.getItemSystemId();
         if (itemSystemId!=null) {
-            element.setAttribute("itemSystemId", itemSystemId.toString());
+            saxFirer.addAttribute("itemSystemId", itemSystemId.toString());
         }
 
         /* Descend into children */
         for (final TestPlanNode childNode : testPlanNode.getChildren()) {
-            appendTestPlanNode(element, childNode);
+            fireTestPlanNode(saxFirer, childNode);
         }
+        saxFirer.fireEndElement("node");
     }
 
     //----------------------------------------------
@@ -0,0 +1,273 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state.marshalling;
+
+import uk.ac.ed.ph.jqtiplus.exception.QtiLogicException;
+import uk.ac.ed.ph.jqtiplus.state.AssessmentSectionSessionState;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestPartSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestPlan;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.value.Value;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * Marshals a {@link TestSessionState} to/from the compact binary format.
+ *
+ * @see BinaryMarshallerCore
+ * @see TestSessionStateXmlMarshaller
+ *
+ * @author David McKain
+ */
+public final class TestSessionStateBinaryMarshaller {
+
+    public static byte[] marshal(final TestSessionState testSessionState) {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try {
+            marshal(testSessionState, outputStream);
+        }
+        catch (final IOException e) {
+            throw new QtiLogicException("Unexpected IOException writing to byte array", e);
+        }
+        return outputStream.toByteArray();
+    }
+
+    public static void marshal(final TestSessionState testSessionState, final OutputStream outputStream)
+            throws IOException {
+        final BinaryStateWriter writer = new BinaryStateWriter(outputStream);
+        BinaryMarshallerCore.writeHeader(writer, BinaryMarshallerCore.TEST_SESSION_STATE_CODE);
+        writeTestSessionState(writer, testSessionState);
+        writer.flush();
+    }
+
+    static void writeTestSessionState(final BinaryStateWriter writer, final TestSessionState testSessionState)
+            throws IOException {
+        /* Do test plan first, as we need this to create the TestSessionState when reading */
+        TestPlanBinaryMarshaller.writeTestPlan(writer, testSessionState.getTestPlan());
+
+        /* Do everything else apart from items */
+        writeTestSessionStateFields(writer, testSessionState);
+
+        /* Do states for each item */
+        final Map<TestPlanNodeKey, ItemSessionState> itemSessionStates = testSessionState.getItemSessionStates();
+        writer.writeCount(itemSessionStates.size());
+        for (final Entry<TestPlanNodeKey, ItemSessionState> entry : itemSessionStates.entrySet()) {
+            BinaryMarshallerCore.writeTestPlanNodeKey(writer, entry.getKey());
+            ItemSessionStateBinaryMarshaller.writeItemSessionState(writer, entry.getValue());
+        }
+    }
+
+    /**
+     * Marshals the given {@link TestSessionState} as a delta, which omits the {@link TestPlan}
+     * and only includes the {@link ItemSessionState}s having the given keys. All other parts of
+     * the state are included in full, as they are small.
+     * <p>
+     * The result can be turned back into a full {@link TestSessionState} by calling
+     * {@link #unmarshalDelta(InputStream, TestSessionState)} with the state that the caller used
+     * to decide which {@link ItemSessionState}s had changed.
+     */
+    public static void marshalDelta(final TestSessionState testSessionState, final Set<TestPlanNodeKey> includedItemKeys,
+            final OutputStream outputStream)
+            throws IOException {
+        final BinaryStateWriter writer = new BinaryStateWriter(outputStream);
+        BinaryMarshallerCore.writeHeader(writer, BinaryMarshallerCore.TEST_SESSION_STATE_DELTA_CODE);
+        writeTestSessionStateFields(writer, testSessionState);
+
+        /* Write all item keys (so that removals are recorded), with state for the included ones only */
+        final Map<TestPlanNodeKey, ItemSessionState> itemSessionStates = testSessionState.getItemSessionStates();
+        writer.writeCount(itemSessionStates.size());
+        for (final Entry<TestPlanNodeKey, ItemSessionState> entry : itemSessionStates.entrySet()) {
+            final TestPlanNodeKey key = entry.getKey();
+            BinaryMarshallerCore.writeTestPlanNodeKey(writer, key);
+            if (includedItemKeys.contains(key)) {
+                writer.writeBoolean(true);
+                ItemSessionStateBinaryMarshaller.writeItemSessionState(writer, entry.getValue());
+            }
+            else {
+                writer.writeBoolean(false);
+            }
+        }
+        writer.flush();
+    }
+
+    private static void writeTestSessionStateFields(final BinaryStateWriter writer, final TestSessionState testSessionState)
+            throws IOException {
+        BinaryMarshallerCore.writeControlObjectSessionState(writer, testSessionState);
+        writer.writeBoolean(testSessionState.isInitialized());
+        BinaryMarshallerCore.writeOptionalTestPlanNodeKey(writer, testSessionState.getCurrentTestPartKey());
+        BinaryMarshallerCore.writeOptionalTestPlanNodeKey(writer, testSessionState.getCurrentItemKey());
+
+        /* Do outcome variables */
+        BinaryMarshallerCore.writeValues(writer, testSessionState.getOutcomeValues());
+
+        /* Do states for each TestPart */
+        final Map<TestPlanNodeKey, TestPartSessionState> testPartSessionStates = testSessionState.getTestPartSessionStates();
+        writer.writeCount(testPartSessionStates.size());
+        for (final Entry<TestPlanNodeKey, TestPartSessionState> entry : testPartSessionStates.entrySet()) {
+            BinaryMarshallerCore.writeTestPlanNodeKey(writer, entry.getKey());
+            BinaryMarshallerCore.writeAbstractPartSessionState(writer, entry.getValue());
+        }
+
+        /* Do states for each AssessmentSection */
+        final Map<TestPlanNodeKey, AssessmentSectionSessionState> assessmentSectionSessionStates = testSessionState.getAssessmentSectionSessionStates();
+        writer.writeCount(assessmentSectionSessionStates.size());
+        for (final Entry<TestPlanNodeKey, AssessmentSectionSessionState> entry : assessmentSectionSessionStates.entrySet()) {
+            BinaryMarshallerCore.writeTestPlanNodeKey(writer, entry.getKey());
+            BinaryMarshallerCore.writeAbstractPartSessionState(writer, entry.getValue());
+        }
+    }
+
+    //----------------------------------------------
+
+    public static TestSessionState unmarshal(final byte[] data) {
+        try {
+            return unmarshal(new ByteArrayInputStream(data));
+        }
+        catch (final IOException e) {
+            throw new QtiLogicException("Unexpected IOException reading from byte array", e);
+        }
+    }
+
+    /**
+     * Unmarshals a {@link TestSessionState} from the given {@link InputStream}. The stream
+     * is not closed afterwards.
+     *
+     * @throws BinaryUnmarshallingException if the data is not a valid binary {@link TestSessionState}
+     * @throws IOException if reading from the stream fails
+     */
+    public static TestSessionState unmarshal(final InputStream inputStream) throws IOException {
+        final BinaryStateReader reader = new BinaryStateReader(inputStream);
+        try {
+            BinaryMarshallerCore.readHeader(reader, BinaryMarshallerCore.TEST_SESSION_STATE_CODE);
+            return readTestSessionState(reader);
+        }
+        catch (final EOFException e) {
+            throw new BinaryUnmarshallingException("Unexpected end of binary state data", e);
+        }
+    }
+
+    static TestSessionState readTestSessionState(final BinaryStateReader reader) throws IOException {
+        /* Create TestSessionState from TestPlan */
+        final TestPlan testPlan = TestPlanBinaryMarshaller.readTestPlan(reader);
+        final TestSessionState result = new TestSessionState(testPlan);
+        readTestSessionStateFields(reader, result);
+
+        final int itemCount = reader.readCount();
+        for (int i=0; i<itemCount; i++) {
+            final TestPlanNodeKey key = BinaryMarshallerCore.readTestPlanNodeKey(reader);
+            final ItemSessionState itemSessionState = ItemSessionStateBinaryMarshaller.readItemSessionState(reader);
+            result.getItemSessionStates().put(key, itemSessionState);
+        }
+        return result;
+    }
+
+    /**
+     * Unmarshals a delta created by {@link #marshalDelta(TestSessionState, Set, OutputStream)},
+     * applying it to the given base state to produce a new {@link TestSessionState}. The base state
+     * is not modified, but {@link ItemSessionState}s not included in the delta will be shared
+     * with it.
+     *
+     * @throws BinaryUnmarshallingException if the data is not a valid delta, or does not fit the base state
+     * @throws IOException if reading from the stream fails
+     */
+    public static TestSessionState unmarshalDelta(final InputStream inputStream, final TestSessionState baseState)
+            throws IOException {
+        final BinaryStateReader reader = new BinaryStateReader(inputStream);
+        try {
+            BinaryMarshallerCore.readHeader(reader, BinaryMarshallerCore.TEST_SESSION_STATE_DELTA_CODE);
+            final TestSessionState result = new TestSessionState(baseState.getTestPlan());
+            readTestSessionStateFields(reader, result);
+
+            final Map<TestPlanNodeKey, ItemSessionState> baseItemSessionStates = baseState.getItemSessionStates();
+            final int itemCount = reader.readCount();
+            for (int i=0; i<itemCount; i++) {
+                final TestPlanNodeKey key = BinaryMarshallerCore.readTestPlanNodeKey(reader);
+                final ItemSessionState itemSessionState;
+                if (reader.readBoolean()) {
+                    itemSessionState = ItemSessionStateBinaryMarshaller.readItemSessionState(reader);
+                }
+                else {
+                    itemSessionState = baseItemSessionStates.get(key);
+                    if (itemSessionState==null) {
+                        throw new BinaryUnmarshallingException("Delta refers to item " + key + " which is not in the base state");
+                    }
+                }
+                result.getItemSessionStates().put(key, itemSessionState);
+            }
+            return result;
+        }
+        catch (final EOFException e) {
+            throw new BinaryUnmarshallingException("Unexpected end of binary state data", e);
+        }
+    }
+
+    private static void readTestSessionStateFields(final BinaryStateReader reader, final TestSessionState result)
+            throws IOException {
+        BinaryMarshallerCore.readControlObjectSessionState(reader, result);
+        result.setInitialized(reader.readBoolean());
+        result.setCurrentTestPartKey(BinaryMarshallerCore.readOptionalTestPlanNodeKey(reader));
+        result.setCurrentItemKey(BinaryMarshallerCore.readOptionalTestPlanNodeKey(reader));
+
+        for (final Entry<Identifier, Value> entry : BinaryMarshallerCore.readValues(reader).entrySet()) {
+            result.setOutcomeValue(entry.getKey(), entry.getValue());
+        }
+
+        final int testPartCount = reader.readCount();
+        for (int i=0; i<testPartCount; i++) {
+            final TestPlanNodeKey key = BinaryMarshallerCore.readTestPlanNodeKey(reader);
+            final TestPartSessionState testPartSessionState = new TestPartSessionState();
+            BinaryMarshallerCore.readAbstractPartSessionState(reader, testPartSessionState);
+            result.getTestPartSessionStates().put(key, testPartSessionState);
+        }
+
+        final int assessmentSectionCount = reader.readCount();
+        for (int i=0; i<assessmentSectionCount; i++) {
+            final TestPlanNodeKey key = BinaryMarshallerCore.readTestPlanNodeKey(reader);
+            final AssessmentSectionSessionState assessmentSectionSessionState = new AssessmentSectionSessionState();
+            BinaryMarshallerCore.readAbstractPartSessionState(reader, assessmentSectionSessionState);
+            result.getAssessmentSectionSessionStates().put(key, assessmentSectionSessionState);
+        }
+    }
+}
@@ -49,11 +49,13 @@ import java.util.Map;
 import java.util.Map.Entry;
 
 import javax.xml.parsers.DocumentBuilder;
+import javax.xml.transform.sax.SAXSource;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import org.w3c.dom.Node;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
 
 /**
  * Marshals an {@link TestSessionState} to/from XML
@@ -64,39 +66,58 @@ public final class TestSessionStateXmlMarshaller {
 
 
     public static Document marshal(final TestSessionState testSessionState) {
-        final DocumentBuilder documentBuilder = XmlMarshallerCore.createNsAwareDocumentBuilder();
-        final Document document = documentBuilder.newDocument();
-        appendTestSessionState(document, testSessionState);
-        return document;
+        return XmlMarshallerCore.buildDocument(new TestSessionStateXmlReader(testSessionState));
+    }
+
+    /**
+     * Fires the XML form of the given {@link TestSessionState} as SAX events at the given
+     * {@link ContentHandler}, without building an intermediate DOM.
+     */
+    public static void marshal(final TestSessionState testSessionState, final ContentHandler targetHandler)
+            throws SAXException {
+        final StateSaxFirer saxFirer = new StateSaxFirer(targetHandler);
+        saxFirer.fireStartDocument();
+        fireTestSessionState(saxFirer, testSessionState);
+        saxFirer.fireEndDocument();
     }
 
-    static void maybeAddStringifiableAttribute(final Element element, final String attrName, final Object attrValue) {
+    /**
+     * Creates a {@link SAXSource} for the XML form of the given {@link TestSessionState}. This
+     * lets an XSLT processor build its own tree directly from the state, and is the preferred
+     * way of passing state to stylesheets.
+     */
+    public static SAXSource createSource(final TestSessionState testSessionState) {
+        return new SAXSource(new TestSessionStateXmlReader(testSessionState), new InputSource());
+    }
+
+    static void maybeAddStringifiableAttribute(final StateSaxFirer saxFirer, final String attrName, final Object attrValue) {
         if (attrValue!=null) {
-            element.setAttribute(attrName, attrValue.toString());
+            saxFirer.addAttribute(attrName, attrValue.toString());
         }
     }
 
-    static void appendTestSessionState(final Node documentOrElement, final TestSessionState testSessionState) {
-        final Element element = XmlMarshallerCore.appendElement(documentOrElement, "testSessionState");
-        XmlMarshallerCore.addControlObjectSessionStateAttributes(element, testSessionState);
-        element.setAttribute("initialized", StringUtilities.toTrueFalse(testSessionState.isInitialized()));
-        maybeAddStringifiableAttribute(element, "currentTestPartKey", testSessionState.getCurrentTestPartKey());
-        maybeAddStringifiableAttribute(element, "currentItemKey", testSessionState.getCurrentItemKey());
+    static void fireTestSessionState(final StateSaxFirer saxFirer, final TestSessionState testSessionState) throws SAXException {
+        saxFirer.fireStartElement("testSessionState");
+        XmlMarshallerCore.addControlObjectSessionStateAttributes(saxFirer, testSessionState);
+        saxFirer.addAttribute("initialized", StringUtilities.toTrueFalse(testSessionState.isInitialized()));
+        maybeAddStringifiableAttribute(saxFirer, "currentTestPartKey", testSessionState.getCurrentTestPartKey());
+        maybeAddStringifiableAttribute(saxFirer, "currentItemKey", testSessionState.getCurrentItemKey());
 
         /* Do test plan */
-        TestPlanXmlMarshaller.appendTestPlan(element, testSessionState.getTestPlan());
+        TestPlanXmlMarshaller.fireTestPlan(saxFirer, testSessionState.getTestPlan());
 
         /* Do outcome variables */
-        XmlMarshallerCore.appendValues(element, "outcomeVariable", testSessionState.getOutcomeValues());
+        XmlMarshallerCore.fireValues(saxFirer, "outcomeVariable", testSessionState.getOutcomeValues());
 
         /* Do states for each TestPart */
         final Map<TestPlanNodeKey, TestPartSessionState> testPartSessionStates = testSessionState.getTestPartSessionStates();
         for (final Entry<TestPlanNodeKey, TestPartSessionState> entry : testPartSessionStates.entrySet()) {
             final TestPlanNodeKey key = entry.getKey();
             final TestPartSessionState testPartSessionState = entry.getValue();
-            final Element testPartElement = XmlMarshallerCore.appendElement(element, "testPart");
-            testPartElement.setAttribute("key", key.toString());
-            TestPartSessionStateXmlMarshaller.appendTestPartSessionState(testPartElement, testPartSessionState);
+            saxFirer.fireStartElement("testPart");
+            saxFirer.addAttribute("key", key.toString());
+            TestPartSessionStateXmlMarshaller.fireTestPartSessionState(saxFirer, testPartSessionState);
+            saxFirer.fireEndElement("testPart");
         }
 
         /* Do states for each AssessmentSection */
@@ -104,9 +125,10 @@ public final class TestSessionStateXmlMarshaller {
         for (final Entry<TestPlanNodeKey, AssessmentSectionSessionState> entry : assessmentSectionSessionStates.entrySet()) {
             final TestPlanNodeKey key = entry.getKey();
             final AssessmentSectionSessionState assessmentSectionSessionState = entry.getValue();
-            final Element testPartElement = XmlMarshallerCore.appendElement(element, "assessmentSection");
-            testPartElement.setAttribute("key", key.toString());
-            AssessmentSectionSessionStateXmlMarshaller.appendAssessmentSectionSessionState(testPartElement, assessmentSectionSessionState);
+            saxFirer.fireStartElement("assessmentSection");
+            saxFirer.addAttribute("key", key.toString());
+            AssessmentSectionSessionStateXmlMarshaller.fireAssessmentSectionSessionState(saxFirer, assessmentSectionSessionState);
+            saxFirer.fireEndElement("assessmentSection");
         }
 
         /* Do states for each item */
@@ -114,9 +136,28 @@ public final class TestSessionStateXmlMarshaller {
         for (final Entry<TestPlanNodeKey, ItemSessionState> entry : itemSessionStates.entrySet()) {
             final TestPlanNodeKey key = entry.getKey();
             final ItemSessionState itemSessionState = entry.getValue();
-            final Element itemElement = XmlMarshallerCore.appendElement(element, "item");
-            itemElement.setAttribute("key", key.toString());
-            ItemSessionStateXmlMarshaller.appendItemSessionState(itemElement, itemSessionState);
+            saxFirer.fireStartElement("item");
+            saxFirer.addAttribute("key", key.toString());
+            ItemSessionStateXmlMarshaller.fireItemSessionState(saxFirer, itemSessionState);
+            saxFirer.fireEndElement("item");
+        }
+        saxFirer.fireEndElement("testSessionState");
+    }
+
+    /**
+     * {@link StateXmlReader} for a {@link TestSessionState}
+     */
+    private static final class TestSessionStateXmlReader extends StateXmlReader {
+
+        private final TestSessionState testSessionState;
+
+        public TestSessionStateXmlReader(final TestSessionState testSessionState) {
+            this.testSessionState = testSessionState;
+        }
+
+        @Override
+        protected void fireStateDocument(final ContentHandler targetHandler) throws SAXException {
+            marshal(testSessionState, targetHandler);
         }
     }
 
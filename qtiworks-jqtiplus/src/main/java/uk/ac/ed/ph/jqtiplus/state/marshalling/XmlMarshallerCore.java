@@ -50,6 +50,7 @@ import uk.ac.ed.ph.jqtiplus.value.OrderedValue;
 import uk.ac.ed.ph.jqtiplus.value.RecordValue;
 import uk.ac.ed.ph.jqtiplus.value.SingleValue;
 import uk.ac.ed.ph.jqtiplus.value.Value;
+import uk.ac.ed.ph.jqtiplus.xmlutils.SimpleDomBuilderHandler;
 
 import java.io.File;
 import java.net.URI;
@@ -72,6 +73,7 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
 
 /**
  * Core for the (horribly cheap and nasty) XML marshalling we do for serializing JQTI+ state
@@ -90,95 +92,87 @@ public final class XmlMarshallerCore {
     //----------------------------------------------
     // Marshalling to XML
 
-    static Document getOwnerDocument(final Node documentOrElement) {
-        return documentOrElement instanceof Document ? (Document) documentOrElement : documentOrElement.getOwnerDocument();
+    static void fireTextElement(final StateSaxFirer saxFirer, final String elementName, final String content) throws SAXException {
+        saxFirer.fireStartElement(elementName);
+        saxFirer.fireText(content);
+        saxFirer.fireEndElement(elementName);
     }
 
-    static Element createElement(final Node parent, final String localName) {
-        return getOwnerDocument(parent).createElementNS(QTIWORKS_NAMESPACE, localName);
-    }
-
-    static Element appendElement(final Node parent, final String localName) {
-        final Element element = getOwnerDocument(parent).createElementNS(QTIWORKS_NAMESPACE, localName);
-        parent.appendChild(element);
-        return element;
-    }
-
-    static void maybeAppendTextElement(final Element parentElement, final String elementName, final String content) {
+    static void maybeFireTextElement(final StateSaxFirer saxFirer, final String elementName, final String content) throws SAXException {
         if (content!=null) {
-            final Element element = appendElement(parentElement, elementName);
-            element.appendChild(parentElement.getOwnerDocument().createTextNode(content));
+            fireTextElement(saxFirer, elementName, content);
         }
     }
 
-    static void maybeAddStringAttribute(final Element element, final String attributeName, final String value) {
+    static void maybeAddStringAttribute(final StateSaxFirer saxFirer, final String attributeName, final String value) {
         if (value!=null) {
-            element.setAttribute(attributeName, value);
+            saxFirer.addAttribute(attributeName, value);
         }
     }
 
-    static void maybeAddIdentifierListAttribute(final Element element, final String attributeName, final Collection<Identifier> values) {
+    static void maybeAddIdentifierListAttribute(final StateSaxFirer saxFirer, final String attributeName, final Collection<Identifier> values) {
         if (!values.isEmpty()) {
-            element.setAttribute(attributeName, StringUtilities.join(values, " "));
+            saxFirer.addAttribute(attributeName, StringUtilities.join(values, " "));
         }
     }
 
-    static void maybeAddDateAttribute(final Element element, final String attributeName, final Date date) {
+    static void maybeAddDateAttribute(final StateSaxFirer saxFirer, final String attributeName, final Date date) {
         if (date!=null) {
-            element.setAttribute(attributeName, new SimpleDateFormat(dateFormatString).format(date));
+            saxFirer.addAttribute(attributeName, new SimpleDateFormat(dateFormatString).format(date));
         }
     }
 
-    static void addAbstractPartSessionStateAttributes(final Element element, final AbstractPartSessionState abstractPartSessionState) {
-        addControlObjectSessionStateAttributes(element, abstractPartSessionState);
-        element.setAttribute("preConditionFailed", StringUtilities.toTrueFalse(abstractPartSessionState.isPreConditionFailed()));
-        element.setAttribute("jumpedByBranchRule", StringUtilities.toTrueFalse(abstractPartSessionState.isJumpedByBranchRule()));
+    static void addAbstractPartSessionStateAttributes(final StateSaxFirer saxFirer, final AbstractPartSessionState abstractPartSessionState) {
+        addControlObjectSessionStateAttributes(saxFirer, abstractPartSessionState);
+        saxFirer.addAttribute("preConditionFailed", StringUtilities.toTrueFalse(abstractPartSessionState.isPreConditionFailed()));
+        saxFirer.addAttribute("jumpedByBranchRule", StringUtilities.toTrueFalse(abstractPartSessionState.isJumpedByBranchRule()));
         final String branchRuleTarget = abstractPartSessionState.getBranchRuleTarget();
         if (branchRuleTarget!=null) {
-            element.setAttribute("branchRuleTarget", branchRuleTarget.toString());
+            saxFirer.addAttribute("branchRuleTarget", branchRuleTarget.toString());
         }
     }
 
-    static void addControlObjectSessionStateAttributes(final Element element, final ControlObjectSessionState controlObjectState) {
-        maybeAddDateAttribute(element, "entryTime", controlObjectState.getEntryTime());
-        maybeAddDateAttribute(element, "endTime", controlObjectState.getEndTime());
-        maybeAddDateAttribute(element, "exitTime", controlObjectState.getExitTime());
-        maybeAddDateAttribute(element, "durationIntervalStartTime", controlObjectState.getDurationIntervalStartTime());
-        element.setAttribute("durationAccumulated", Long.toString(controlObjectState.getDurationAccumulated()));
+    static void addControlObjectSessionStateAttributes(final StateSaxFirer saxFirer, final ControlObjectSessionState controlObjectState) {
+        maybeAddDateAttribute(saxFirer, "entryTime", controlObjectState.getEntryTime());
+        maybeAddDateAttribute(saxFirer, "endTime", controlObjectState.getEndTime());
+        maybeAddDateAttribute(saxFirer, "exitTime", controlObjectState.getExitTime());
+        maybeAddDateAttribute(saxFirer, "durationIntervalStartTime", controlObjectState.getDurationIntervalStartTime());
+        saxFirer.addAttribute("durationAccumulated", Long.toString(controlObjectState.getDurationAccumulated()));
     }
 
-    static void appendValues(final Element parentElement, final String elementName, final Map<Identifier, Value> valueMap) {
+    static void fireValues(final StateSaxFirer saxFirer, final String elementName, final Map<Identifier, Value> valueMap) throws SAXException {
         for (final Entry<Identifier, Value> entry : valueMap.entrySet()) {
             final Identifier identifier = entry.getKey();
             final Value value = entry.getValue();
 
-            final Element valueElement = appendElement(parentElement, elementName);
-            valueElement.setAttribute("identifier", identifier.toString());
-            appendValueToElement(valueElement, value);
+            saxFirer.fireStartElement(elementName);
+            saxFirer.addAttribute("identifier", identifier.toString());
+            fireValueContent(saxFirer, value);
+            saxFirer.fireEndElement(elementName);
         }
     }
 
-    static void appendValueToElement(final Element element, final Value value) {
+    static void fireValueContent(final StateSaxFirer saxFirer, final Value value) throws SAXException {
         if (value.isNull()) {
             /* Currently we'll indicate null by outputting no value */
         }
         else {
             final Cardinality cardinality = value.getCardinality();
             final BaseType baseType = value.getBaseType(); /* (NB: may be null) */
-            element.setAttribute("cardinality", cardinality.toQtiString());
+            saxFirer.addAttribute("cardinality", cardinality.toQtiString());
             if (baseType!=null) {
-                element.setAttribute("baseType", baseType.toQtiString());
+                saxFirer.addAttribute("baseType", baseType.toQtiString());
             }
             switch (cardinality) {
                 case SINGLE:
-                    appendSingleValue(element, (SingleValue) value);
+                    fireSingleValue(saxFirer, (SingleValue) value);
                     break;
 
                 case MULTIPLE:
                 case ORDERED:
                     final ListValue listValue = (ListValue) value;
                     for (final SingleValue listItem : listValue) {
-                        appendSingleValue(element, listItem);
+                        fireSingleValue(saxFirer, listItem);
                     }
                     break;
 
@@ -187,10 +181,11 @@ public final class XmlMarshallerCore {
                     for (final Entry<Identifier, SingleValue> entry : recordValue.entrySet()) {
                         final Identifier itemIdentifier = entry.getKey();
                         final SingleValue itemValue = entry.getValue();
-                        final Element v = appendElement(element, "value");
-                        v.setAttribute("baseType", itemValue.getBaseType().toQtiString());
-                        v.setAttribute("fieldIdentifier",itemIdentifier.toString());
-                        appendSingleValue(v, itemValue);
+                        saxFirer.fireStartElement("value");
+                        saxFirer.addAttribute("baseType", itemValue.getBaseType().toQtiString());
+                        saxFirer.addAttribute("fieldIdentifier",itemIdentifier.toString());
+                        fireSingleValue(saxFirer, itemValue);
+                        saxFirer.fireEndElement("value");
                     }
                     break;
 
@@ -201,18 +196,33 @@ public final class XmlMarshallerCore {
         }
     }
 
-    static void appendSingleValue(final Element parent, final SingleValue value) {
-        final Element singleValueElement = appendElement(parent, "value");
+    static void fireSingleValue(final StateSaxFirer saxFirer, final SingleValue value) throws SAXException {
+        saxFirer.fireStartElement("value");
         if (value instanceof FileValue) {
             /* FIXME: Not sure how much we'll do with this */
             final FileValue fileValue = (FileValue) value;
-            singleValueElement.setAttribute("absolutePath", fileValue.getFile().getAbsolutePath());
-            singleValueElement.setAttribute("contentType", fileValue.getContentType());
-            singleValueElement.setAttribute("fileName", fileValue.getFileName());
+            saxFirer.addAttribute("absolutePath", fileValue.getFile().getAbsolutePath());
+            saxFirer.addAttribute("contentType", fileValue.getContentType());
+            saxFirer.addAttribute("fileName", fileValue.getFileName());
         }
         else {
-            singleValueElement.setTextContent(value.toQtiString());
+            saxFirer.fireText(value.toQtiString());
+        }
+        saxFirer.fireEndElement("value");
+    }
+
+    /**
+     * Creates a new DOM {@link Document} and fires the given {@link StateXmlReader}'s state into it.
+     */
+    static Document buildDocument(final StateXmlReader stateXmlReader) {
+        final Document document = createNsAwareDocumentBuilder().newDocument();
+        try {
+            stateXmlReader.fireStateDocument(new SimpleDomBuilderHandler(document));
+        }
+        catch (final SAXException e) {
+            throw new QtiLogicException("Unexpected Exception firing state SAX events at DOM builder", e);
         }
+        return document;
     }
 
     //----------------------------------------------
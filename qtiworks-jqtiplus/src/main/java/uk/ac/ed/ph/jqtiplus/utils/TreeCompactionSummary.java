@@ -0,0 +1,104 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.utils;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
+
+import java.io.Serializable;
+
+/**
+ * Result Object for {@link TreeCompactor#compact(Iterable)}, summarising the
+ * {@link uk.ac.ed.ph.jqtiplus.node.QtiNode} tree(s) that were compacted.
+ *
+ * @author David McKain
+ */
+public final class TreeCompactionSummary implements Serializable {
+
+    private static final long serialVersionUID = -2936011875839478213L;
+
+    private final int nodeCount;
+    private final int attributeCount;
+    private final int nodeGroupCount;
+    private final int sharedValueCount;
+    private final long estimatedSize;
+
+    public TreeCompactionSummary(final int nodeCount, final int attributeCount, final int nodeGroupCount,
+            final int sharedValueCount, final long estimatedSize) {
+        this.nodeCount = nodeCount;
+        this.attributeCount = attributeCount;
+        this.nodeGroupCount = nodeGroupCount;
+        this.sharedValueCount = sharedValueCount;
+        this.estimatedSize = estimatedSize;
+    }
+
+    /** Number of nodes in the compacted tree(s) */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /** Number of attributes owned by the nodes, whether set or not */
+    public int getAttributeCount() {
+        return attributeCount;
+    }
+
+    /** Number of node groups owned by the nodes, whether empty or not */
+    public int getNodeGroupCount() {
+        return nodeGroupCount;
+    }
+
+    /**
+     * Number of identifier and text values that were replaced by an equal value found
+     * elsewhere in the tree(s)
+     */
+    public int getSharedValueCount() {
+        return sharedValueCount;
+    }
+
+    /**
+     * Estimated heap footprint of the compacted tree(s), in bytes.
+     * <p>
+     * This is only a rough estimate, as it is computed from the typical sizes of the objects
+     * making up the tree on a 64 bit JVM with compressed object pointers. (It doesn't count
+     * any fields that particular types of node might add, or the sizes of attribute values
+     * other than identifiers and strings.)
+     */
+    public long getEstimatedSize() {
+        return estimatedSize;
+    }
+
+    @Override
+    public String toString() {
+        return ObjectUtilities.beanToString(this);
+    }
+}
@@ -0,0 +1,247 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.utils;
+
+import uk.ac.ed.ph.jqtiplus.attribute.Attribute;
+import uk.ac.ed.ph.jqtiplus.attribute.AttributeList;
+import uk.ac.ed.ph.jqtiplus.group.NodeGroup;
+import uk.ac.ed.ph.jqtiplus.group.NodeGroupList;
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.node.AbstractNode;
+import uk.ac.ed.ph.jqtiplus.node.QtiNode;
+import uk.ac.ed.ph.jqtiplus.node.RootNode;
+import uk.ac.ed.ph.jqtiplus.node.content.basic.TextRun;
+import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentItem;
+import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentObject;
+import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentTest;
+import uk.ac.ed.ph.jqtiplus.resolution.RootNodeLookup;
+import uk.ac.ed.ph.jqtiplus.types.ComplexReferenceIdentifier;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.xmlutils.XmlSourceLocationInformation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compacts fully-built {@link QtiNode} trees so that they take up less memory when they
+ * are kept around for a long time, e.g. when cached for running candidate sessions.
+ * <p>
+ * Compacting a tree:
+ * <ul>
+ *   <li>trims all attribute lists, node group lists and lists of children to their current sizes
+ *     (empty lists then share the same empty array);</li>
+ *   <li>replaces equal {@link Identifier}, {@link ComplexReferenceIdentifier} and String values
+ *     (attribute values, text content and source location information) with a single shared
+ *     instance;</li>
+ *   <li>estimates the resulting heap footprint of the tree(s), returned within a
+ *     {@link TreeCompactionSummary}.</li>
+ * </ul>
+ * The tree(s) are still perfectly usable afterwards, though lists will simply grow again
+ * if anything is added to them. As the tree(s) are modified in place, compaction must be
+ * done before they are shared with other threads.
+ *
+ * @author David McKain
+ */
+public final class TreeCompactor {
+
+    /*
+     * Typical sizes (in bytes) of the objects making up a tree on a 64 bit JVM using
+     * compressed object pointers, where each object has a 12 byte header, each reference
+     * takes 4 bytes and objects are padded to a multiple of 8 bytes.
+     */
+    private static final int NODE_SIZE = 32;
+    private static final int ATTRIBUTE_LIST_SIZE = 24;
+    private static final int ATTRIBUTE_SIZE = 40;
+    private static final int NODE_GROUP_LIST_SIZE = 24;
+    private static final int NODE_GROUP_SIZE = 32;
+    private static final int ARRAY_LIST_SIZE = 24;
+    private static final int SOURCE_LOCATION_SIZE = 32;
+    private static final int STRING_SIZE = 24;
+    private static final int IDENTIFIER_SIZE = 16;
+    private static final int OTHER_VALUE_SIZE = 16;
+
+    private final Map<Object, Object> sharedValues;
+    private int nodeCount;
+    private int attributeCount;
+    private int nodeGroupCount;
+    private int sharedValueCount;
+    private long estimatedSize;
+
+    private TreeCompactor() {
+        this.sharedValues = new HashMap<Object, Object>();
+    }
+
+    /**
+     * Compacts all of the {@link QtiNode} trees making up the given {@link ResolvedAssessmentObject},
+     * i.e. the {@link ResolvedAssessmentItem} and any response processing template it uses, or the
+     * {@link ResolvedAssessmentTest} and all of its resolved items.
+     * Equal values are shared across all of these trees.
+     *
+     * @param resolvedAssessmentObject resolved object to compact, which must not be null
+     * @return summary of the compacted trees
+     */
+    public static TreeCompactionSummary compact(final ResolvedAssessmentObject<?> resolvedAssessmentObject) {
+        Assert.notNull(resolvedAssessmentObject, "resolvedAssessmentObject");
+        final List<QtiNode> rootNodes = new ArrayList<QtiNode>();
+        if (resolvedAssessmentObject instanceof ResolvedAssessmentTest) {
+            final ResolvedAssessmentTest resolvedAssessmentTest = (ResolvedAssessmentTest) resolvedAssessmentObject;
+            addRootNode(rootNodes, resolvedAssessmentTest.getTestLookup());
+            for (final ResolvedAssessmentItem resolvedAssessmentItem : resolvedAssessmentTest.getResolvedAssessmentItemBySystemIdMap().values()) {
+                addItemRootNodes(rootNodes, resolvedAssessmentItem);
+            }
+        }
+        else {
+            addItemRootNodes(rootNodes, (ResolvedAssessmentItem) resolvedAssessmentObject);
+        }
+        return compact(rootNodes);
+    }
+
+    /**
+     * Compacts the {@link QtiNode} trees starting at each of the given {@link QtiNode}s.
+     * Equal values are shared across all of these trees.
+     *
+     * @param startNodes nodes to start compacting at, which must not be null
+     * @return summary of the compacted trees
+     */
+    public static TreeCompactionSummary compact(final Iterable<? extends QtiNode> startNodes) {
+        Assert.notNull(startNodes, "startNodes");
+        final TreeCompactor compactor = new TreeCompactor();
+        QueryUtils.walkTree(new TreeWalkNodeHandler() {
+            @Override
+            public boolean handleNode(final QtiNode node) {
+                compactor.compactNode(node);
+                return true;
+            }
+        }, startNodes);
+        return new TreeCompactionSummary(compactor.nodeCount, compactor.attributeCount, compactor.nodeGroupCount,
+                compactor.sharedValueCount, compactor.estimatedSize);
+    }
+
+    private static void addItemRootNodes(final List<QtiNode> rootNodes, final ResolvedAssessmentItem resolvedAssessmentItem) {
+        addRootNode(rootNodes, resolvedAssessmentItem.getItemLookup());
+        addRootNode(rootNodes, resolvedAssessmentItem.getResolvedResponseProcessingTemplateLookup());
+    }
+
+    private static void addRootNode(final List<QtiNode> rootNodes, final RootNodeLookup<? extends RootNode> rootNodeLookup) {
+        if (rootNodeLookup!=null && rootNodeLookup.wasSuccessful()) {
+            rootNodes.add(rootNodeLookup.extractAssumingSuccessful());
+        }
+    }
+
+    //-------------------------------------------------
+
+    private void compactNode(final QtiNode node) {
+        nodeCount++;
+        estimatedSize += NODE_SIZE;
+
+        final AttributeList attributes = node.getAttributes();
+        attributes.trimToSize();
+        estimatedSize += ATTRIBUTE_LIST_SIZE + ARRAY_LIST_SIZE + arraySize(attributes.size(), 4);
+        for (final Attribute<?> attribute : attributes) {
+            attributeCount++;
+            estimatedSize += ATTRIBUTE_SIZE;
+            compactAttribute(attribute);
+        }
+
+        final NodeGroupList nodeGroups = node.getNodeGroups();
+        nodeGroups.trimToSize();
+        estimatedSize += NODE_GROUP_LIST_SIZE + ARRAY_LIST_SIZE + arraySize(nodeGroups.size(), 4);
+        for (final NodeGroup<?,?> nodeGroup : nodeGroups) {
+            nodeGroupCount++;
+            nodeGroup.trimToSize();
+            estimatedSize += NODE_GROUP_SIZE + ARRAY_LIST_SIZE + arraySize(nodeGroup.getChildren().size(), 4);
+        }
+
+        if (node instanceof TextRun) {
+            final TextRun textRun = (TextRun) node;
+            textRun.setTextContent(shareValue(textRun.getTextContent()));
+        }
+
+        final XmlSourceLocationInformation sourceLocation = node.getSourceLocation();
+        if (sourceLocation!=null && node instanceof AbstractNode) {
+            estimatedSize += SOURCE_LOCATION_SIZE;
+            sourceLocation.setSystemId(shareValue(sourceLocation.getSystemId()));
+            sourceLocation.setPublicId(shareValue(sourceLocation.getPublicId()));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <V> void compactAttribute(final Attribute<V> attribute) {
+        final V value = attribute.getValue();
+        if (value instanceof ArrayList) {
+            final ArrayList<Object> values = (ArrayList<Object>) value;
+            values.trimToSize();
+            estimatedSize += ARRAY_LIST_SIZE + arraySize(values.size(), 4);
+            for (int i=0; i<values.size(); i++) {
+                values.set(i, shareValue(values.get(i)));
+            }
+        }
+        else if (value!=null) {
+            attribute.setValue(shareValue(value));
+        }
+    }
+
+    /**
+     * Returns the shared instance of the given value if it is of a type that we share, adding
+     * it to the shared values if it is the first such value seen. Other values are returned
+     * as-is.
+     */
+    @SuppressWarnings("unchecked")
+    private <V> V shareValue(final V value) {
+        if (!(value instanceof String || value instanceof Identifier || value instanceof ComplexReferenceIdentifier)) {
+            if (value!=null && !(value instanceof Enum)) {
+                estimatedSize += OTHER_VALUE_SIZE;
+            }
+            return value;
+        }
+        final Object sharedValue = sharedValues.get(value);
+        if (sharedValue==null) {
+            sharedValues.put(value, value);
+            estimatedSize += value instanceof String ? STRING_SIZE : IDENTIFIER_SIZE + STRING_SIZE;
+            estimatedSize += arraySize(value.toString().length(), 1);
+            return value;
+        }
+        if (sharedValue!=value) {
+            sharedValueCount++;
+        }
+        return (V) sharedValue;
+    }
+
+    /** Estimated size of an array of the given length, having elements of the given size */
+    private static long arraySize(final int length, final int elementSize) {
+        return (16 + (long) length * elementSize + 7) & ~7L;
+    }
+}
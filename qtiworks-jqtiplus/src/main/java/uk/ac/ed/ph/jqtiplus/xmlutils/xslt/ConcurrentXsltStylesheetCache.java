@@ -0,0 +1,174 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.xmlutils.xslt;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.transform.Templates;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Thread-safe implementation of {@link XsltStylesheetCache}, which also keeps some simple
+ * statistics about its use.
+ * <p>
+ * When used with an {@link XsltStylesheetManager}, stylesheets are compiled via
+ * {@link #getStylesheet(String, StylesheetCompiler)}. This guarantees that each stylesheet
+ * is compiled only once, even if many threads ask for it at the same time, without
+ * blocking lookups of stylesheets that have already been compiled or the compilation
+ * of different stylesheets.
+ *
+ * @author David McKain
+ */
+public class ConcurrentXsltStylesheetCache implements XsltStylesheetCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConcurrentXsltStylesheetCache.class);
+
+    /**
+     * Callback used to compile a stylesheet that isn't already in the cache.
+     */
+    public interface StylesheetCompiler {
+
+        Templates compileStylesheet();
+
+    }
+
+    private final ConcurrentMap<String, Templates> cacheData;
+    private final ConcurrentMap<String, Object> compileLocks;
+    private final AtomicLong hitCount;
+    private final AtomicLong missCount;
+    private final AtomicLong compileCount;
+    private final AtomicLong compileNanos;
+
+    public ConcurrentXsltStylesheetCache() {
+        this.cacheData = new ConcurrentHashMap<String, Templates>();
+        this.compileLocks = new ConcurrentHashMap<String, Object>();
+        this.hitCount = new AtomicLong();
+        this.missCount = new AtomicLong();
+        this.compileCount = new AtomicLong();
+        this.compileNanos = new AtomicLong();
+    }
+
+    @Override
+    public Templates getStylesheet(final String key) {
+        final Templates result = cacheData.get(key);
+        if (result!=null) {
+            hitCount.incrementAndGet();
+        }
+        else {
+            missCount.incrementAndGet();
+        }
+        return result;
+    }
+
+    @Override
+    public void putStylesheet(final String key, final Templates stylesheet) {
+        cacheData.put(key, stylesheet);
+    }
+
+    /**
+     * Returns the stylesheet having the given key, using the given {@link StylesheetCompiler}
+     * to compile and store it if it's not already in the cache. Concurrent calls for the same
+     * key will wait for the first one to finish compiling.
+     */
+    public Templates getStylesheet(final String key, final StylesheetCompiler stylesheetCompiler) {
+        Assert.notNull(key, "key");
+        Assert.notNull(stylesheetCompiler, "stylesheetCompiler");
+        Templates result = getStylesheet(key);
+        if (result==null) {
+            synchronized (getCompileLock(key)) {
+                result = cacheData.get(key);
+                if (result==null) {
+                    final long startTime = System.nanoTime();
+                    result = stylesheetCompiler.compileStylesheet();
+                    final long duration = System.nanoTime() - startTime;
+                    compileCount.incrementAndGet();
+                    compileNanos.addAndGet(duration);
+                    logger.debug("Compiled stylesheet {} in {}ms", key, Long.valueOf(duration / 1000000L));
+                    cacheData.put(key, result);
+                }
+            }
+        }
+        return result;
+    }
+
+    private Object getCompileLock(final String key) {
+        final Object newLock = new Object();
+        final Object existingLock = compileLocks.putIfAbsent(key, newLock);
+        return existingLock!=null ? existingLock : newLock;
+    }
+
+    //----------------------------------------------------------
+
+    /** Returns the number of stylesheets currently in the cache */
+    public int getSize() {
+        return cacheData.size();
+    }
+
+    /** Returns the number of lookups that found a stylesheet in the cache */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /** Returns the number of lookups that did not find a stylesheet in the cache */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /** Returns the number of stylesheets compiled via {@link #getStylesheet(String, StylesheetCompiler)} */
+    public long getCompileCount() {
+        return compileCount.get();
+    }
+
+    /** Returns the total time (in ms) spent compiling stylesheets via {@link #getStylesheet(String, StylesheetCompiler)} */
+    public long getTotalCompileTime() {
+        return compileNanos.get() / 1000000L;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
+                + "(size=" + getSize()
+                + ",hitCount=" + getHitCount()
+                + ",missCount=" + getMissCount()
+                + ",compileCount=" + getCompileCount()
+                + ",totalCompileTime=" + getTotalCompileTime()
+                + ")";
+    }
+}
@@ -38,8 +38,9 @@ import javax.xml.transform.Templates;
 /**
  * Interface for a simple XSLT stylesheet cache.
  * <p>
- * All use of this cache within this application is done in a thread-safe manner, so
- * implementations need not be thread-safe.
+ * All use of this cache by {@link XsltStylesheetManager} is done in a thread-safe manner, so
+ * implementations need not be thread-safe. (However, use {@link ConcurrentXsltStylesheetCache}
+ * if the cache is going to be shared by many threads, as this avoids the need for locking.)
  *
  * @author  David McKain
  */
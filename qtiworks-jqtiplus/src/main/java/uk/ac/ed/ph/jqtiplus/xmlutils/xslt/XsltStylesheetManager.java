@@ -164,16 +164,35 @@ public final class XsltStylesheetManager {
      */
     public Templates getCompiledStylesheet(final URI xsltUri) {
         Assert.notNull(xsltUri, "xsltUri");
+        return getCachedStylesheet(xsltUri.toString(), new ConcurrentXsltStylesheetCache.StylesheetCompiler() {
+            @Override
+            public Templates compileStylesheet() {
+                return XsltStylesheetManager.this.compileStylesheet(xsltUri);
+            }
+        });
+    }
+
+    /**
+     * Obtains the stylesheet with the given key from the {@link XsltStylesheetCache} (if set),
+     * using the given {@link ConcurrentXsltStylesheetCache.StylesheetCompiler} to compile it if required.
+     * <p>
+     * A {@link ConcurrentXsltStylesheetCache} is allowed to handle compilation itself. Other
+     * caches are not assumed to be thread-safe, so are locked for the duration.
+     */
+    private Templates getCachedStylesheet(final String cacheKey, final ConcurrentXsltStylesheetCache.StylesheetCompiler stylesheetCompiler) {
         Templates result;
         if (xsltStylesheetCache==null) {
-            result = compileStylesheet(xsltUri);
+            result = stylesheetCompiler.compileStylesheet();
+        }
+        else if (xsltStylesheetCache instanceof ConcurrentXsltStylesheetCache) {
+            result = ((ConcurrentXsltStylesheetCache) xsltStylesheetCache).getStylesheet(cacheKey, stylesheetCompiler);
         }
         else {
             synchronized(xsltStylesheetCache) {
-                result = xsltStylesheetCache.getStylesheet(xsltUri.toString());
+                result = xsltStylesheetCache.getStylesheet(cacheKey);
                 if (result==null) {
-                    result = compileStylesheet(xsltUri);
-                    xsltStylesheetCache.putStylesheet(xsltUri.toString(), result);
+                    result = stylesheetCompiler.compileStylesheet();
+                    xsltStylesheetCache.putStylesheet(cacheKey, result);
                 }
             }
         }
@@ -182,12 +201,21 @@ public final class XsltStylesheetManager {
 
     public TransformerHandler getCompiledStylesheetHandler(final URI xsltUri, final ResourceLocator runtimeResourceLocator) {
         Assert.notNull(xsltUri, "xsltUri");
+        return getCompiledStylesheetHandler(getCompiledStylesheet(xsltUri), runtimeResourceLocator);
+    }
+
+    /**
+     * Creates a {@link TransformerHandler} for the given compiled stylesheet, configured to use
+     * the given (optional) {@link ResourceLocator} to locate XML resources when run.
+     */
+    public TransformerHandler getCompiledStylesheetHandler(final Templates stylesheet, final ResourceLocator runtimeResourceLocator) {
+        Assert.notNull(stylesheet, "stylesheet");
         TransformerHandler transformerHandler;
         try {
-            transformerHandler = getSaxTransformerFactory().newTransformerHandler(getCompiledStylesheet(xsltUri));
+            transformerHandler = getSaxTransformerFactory().newTransformerHandler(stylesheet);
         }
         catch (final TransformerConfigurationException e) {
-            throw new QtiSerializationException("Unexpected failure instantiating TransformerHandler " + xsltUri, e);
+            throw new QtiSerializationException("Unexpected failure instantiating TransformerHandler", e);
         }
         if (runtimeResourceLocator!=null) {
             configureRuntimeUriResolution(transformerHandler.getTransformer(), runtimeResourceLocator);
@@ -195,6 +223,32 @@ public final class XsltStylesheetManager {
         return transformerHandler;
     }
 
+    /**
+     * Obtains the compiled form of the given XSLT stylesheet source, using the
+     * {@link XsltStylesheetCache} (if set) to cache it under the given key.
+     * <p>
+     * The XSLT has no base URI, so should only refer to other stylesheets using absolute URIs,
+     * which are located using the {@link #getXsltResourceLocator()}.
+     *
+     * @param cacheKey key for the compiled stylesheet within the cache, which must not be null
+     * @param xslt source of the XSLT stylesheet, which must not be null
+     */
+    public Templates getCompiledStylesheet(final String cacheKey, final String xslt) {
+        Assert.notNull(cacheKey, "cacheKey");
+        Assert.notNull(xslt, "xslt");
+        return getCachedStylesheet(cacheKey, new ConcurrentXsltStylesheetCache.StylesheetCompiler() {
+            @Override
+            public Templates compileStylesheet() {
+                try {
+                    return getTransformerFactory().newTemplates(new StreamSource(new StringReader(xslt)));
+                }
+                catch (final TransformerConfigurationException e) {
+                    throw new QtiSerializationException("Could not compile stylesheet " + cacheKey, e);
+                }
+            }
+        });
+    }
+
     private Templates compileStylesheet(final URI xsltUri) {
         final TransformerFactory transformerFactory = getTransformerFactory();
         Source resolved;
@@ -212,21 +266,13 @@ public final class XsltStylesheetManager {
     }
 
     public Templates getCompiledStylesheetDriver(final List<URI> xsltUris) {
-        Templates result;
-        if (xsltStylesheetCache==null) {
-            result = compileStylesheetDriver(xsltUris);
-        }
-        else {
-            final String cacheKey = "xslt-driver(" + StringUtilities.join(xsltUris, ",") + ")";
-            synchronized(xsltStylesheetCache) {
-                result = xsltStylesheetCache.getStylesheet(cacheKey);
-                if (result==null) {
-                    result = compileStylesheetDriver(xsltUris);
-                    xsltStylesheetCache.putStylesheet(cacheKey, result);
-                }
+        final String cacheKey = "xslt-driver(" + StringUtilities.join(xsltUris, ",") + ")";
+        return getCachedStylesheet(cacheKey, new ConcurrentXsltStylesheetCache.StylesheetCompiler() {
+            @Override
+            public Templates compileStylesheet() {
+                return compileStylesheetDriver(xsltUris);
             }
-        }
-        return result;
+        });
     }
 
     private Templates compileStylesheetDriver(final List<URI> xsltUris) {
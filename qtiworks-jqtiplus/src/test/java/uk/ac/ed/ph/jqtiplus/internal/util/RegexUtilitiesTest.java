@@ -0,0 +1,82 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.internal.util;
+
+import java.util.regex.PatternSyntaxException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link RegexUtilities}
+ */
+public class RegexUtilitiesTest {
+
+    private static final String[] REGEXES = {
+        "", "abc", "a b-c,d", "a.c", "a*", "[a-c]+", "(ab)|c", "a{2}", "a\\.c", "^abc$", "a+?"
+    };
+
+    private static final String[] INPUTS = {
+        "", "abc", "a b-c,d", "a.c", "axc", "aa", "ab", "c", "abcabc", "ABC"
+    };
+
+    @Test
+    public void testMatchesAgreesWithString() {
+        for (final String regex : REGEXES) {
+            for (final String input : INPUTS) {
+                Assert.assertEquals("Matching '" + input + "' against '" + regex + "'",
+                        input.matches(regex), RegexUtilities.matches(input, regex));
+            }
+        }
+    }
+
+    @Test
+    public void testIsLiteral() {
+        Assert.assertTrue(RegexUtilities.isLiteral(""));
+        Assert.assertTrue(RegexUtilities.isLiteral("a b-c,d"));
+        Assert.assertFalse(RegexUtilities.isLiteral("a.c"));
+        Assert.assertFalse(RegexUtilities.isLiteral("a\\.c"));
+        Assert.assertFalse(RegexUtilities.isLiteral("[a-c]"));
+    }
+
+    @Test
+    public void testCompileReusesPattern() {
+        Assert.assertSame(RegexUtilities.compile("[0-9]+"), RegexUtilities.compile("[0-9]+"));
+    }
+
+    @Test(expected=PatternSyntaxException.class)
+    public void testInvalidRegex() {
+        RegexUtilities.matches("abc", "[a-");
+    }
+}
@@ -0,0 +1,97 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTITools and MathAssessEngine.
+ * QTITools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.resolution;
+
+import uk.ac.ed.ph.jqtiplus.node.item.response.processing.ResponseProcessing;
+import uk.ac.ed.ph.jqtiplus.testutils.UnitTestHelper;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests {@link AssessmentObjectResolver}, checking that resolving the items in a test in
+ * parallel gives the same results as resolving them one at a time.
+ *
+ * @author David McKain
+ */
+public final class AssessmentObjectResolverTest {
+
+    private static final String TEST_FILE_PATH = "resolution/test.xml";
+
+    @Test
+    public void testResolveSequential() {
+        assertResolvedTest(new AssessmentObjectResolver(UnitTestHelper.createUnitTestQtiObjectReader(false)));
+    }
+
+    @Test
+    public void testResolveParallel() {
+        final ForkJoinPool forkJoinPool = new ForkJoinPool(4);
+        try {
+            assertResolvedTest(new AssessmentObjectResolver(UnitTestHelper.createUnitTestQtiObjectReader(false), forkJoinPool));
+        }
+        finally {
+            forkJoinPool.shutdown();
+        }
+    }
+
+    private void assertResolvedTest(final AssessmentObjectResolver assessmentObjectResolver) {
+        final ResolvedAssessmentTest resolvedAssessmentTest = assessmentObjectResolver.resolveAssessmentTest(UnitTestHelper.createTestResourceUri(TEST_FILE_PATH));
+        Assert.assertTrue(resolvedAssessmentTest.getTestLookup().wasSuccessful());
+
+        /* Items should be in document order, whether or not they could be read */
+        final List<URI> expectedSystemIds = new ArrayList<URI>();
+        expectedSystemIds.add(UnitTestHelper.createTestResourceUri("running/choice.xml"));
+        expectedSystemIds.add(UnitTestHelper.createTestResourceUri("resolution/choice.xml"));
+        expectedSystemIds.add(UnitTestHelper.createTestResourceUri("resolution/missing.xml"));
+        expectedSystemIds.add(UnitTestHelper.createTestResourceUri("reading/choice.xml"));
+        Assert.assertEquals(expectedSystemIds, new ArrayList<URI>(resolvedAssessmentTest.getResolvedAssessmentItemBySystemIdMap().keySet()));
+        Assert.assertTrue(resolvedAssessmentTest.getResolvedAssessmentItemBySystemIdMap().get(expectedSystemIds.get(0)).getItemLookup().wasSuccessful());
+        Assert.assertTrue(resolvedAssessmentTest.getResolvedAssessmentItemBySystemIdMap().get(expectedSystemIds.get(1)).getItemLookup().wasSuccessful());
+        Assert.assertFalse(resolvedAssessmentTest.getResolvedAssessmentItemBySystemIdMap().get(expectedSystemIds.get(2)).getItemLookup().wasSuccessful());
+        Assert.assertTrue(resolvedAssessmentTest.getResolvedAssessmentItemBySystemIdMap().get(expectedSystemIds.get(3)).getItemLookup().wasSuccessful());
+
+        /* Items using the same RP template should share the same lookup */
+        final RootNodeLookup<ResponseProcessing> templateLookup = resolvedAssessmentTest.getResolvedAssessmentItemBySystemIdMap()
+                .get(expectedSystemIds.get(1)).getResolvedResponseProcessingTemplateLookup();
+        Assert.assertNotNull(templateLookup);
+        Assert.assertTrue(templateLookup.wasSuccessful());
+        Assert.assertSame(templateLookup, resolvedAssessmentTest.getResolvedAssessmentItemBySystemIdMap()
+                .get(expectedSystemIds.get(3)).getResolvedResponseProcessingTemplateLookup());
+    }
+}
@@ -43,6 +43,7 @@ import uk.ac.ed.ph.jqtiplus.internal.util.ObjectDumper;
 import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
 import uk.ac.ed.ph.jqtiplus.node.result.SessionStatus;
 import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.ItemSessionStateBinaryMarshaller;
 import uk.ac.ed.ph.jqtiplus.state.marshalling.ItemSessionStateXmlMarshaller;
 import uk.ac.ed.ph.jqtiplus.testutils.UnitTestHelper;
 import uk.ac.ed.ph.jqtiplus.types.FileResponseData;
@@ -116,7 +117,7 @@ public final class ChoiceItemRunningTest {
     @After
     public void after() {
         /* This is strictly outside what we're testing here, but let's just check that the
-         * state -> XML -> state process is idempotent in this instance
+         * state -> XML -> state and state -> binary -> state processes are idempotent in this instance
          */
         final Document itemSessionStateXmlDocument = ItemSessionStateXmlMarshaller.marshal(itemSessionState);
         final ItemSessionState refried = ItemSessionStateXmlMarshaller.unmarshal(itemSessionStateXmlDocument.getDocumentElement());
@@ -125,6 +126,10 @@ public final class ChoiceItemRunningTest {
             System.err.println("State after marshalling: " + ObjectDumper.dumpObject(refried));
             Assert.assertEquals(itemSessionState, refried);
         }
+
+        /* Same again for the binary format */
+        final byte[] itemSessionStateBinary = ItemSessionStateBinaryMarshaller.marshal(itemSessionState);
+        Assert.assertEquals(itemSessionState, ItemSessionStateBinaryMarshaller.unmarshal(itemSessionStateBinary));
     }
 
     @Test
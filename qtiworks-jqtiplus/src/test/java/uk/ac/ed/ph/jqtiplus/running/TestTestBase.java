@@ -41,6 +41,7 @@ import uk.ac.ed.ph.jqtiplus.state.TestPlan;
 import uk.ac.ed.ph.jqtiplus.state.TestPlanNode;
 import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
 import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateBinaryMarshaller;
 import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateXmlMarshaller;
 import uk.ac.ed.ph.jqtiplus.testutils.UnitTestHelper;
 import uk.ac.ed.ph.jqtiplus.types.Identifier;
@@ -48,8 +49,12 @@ import uk.ac.ed.ph.jqtiplus.types.ResponseData;
 import uk.ac.ed.ph.jqtiplus.types.StringResponseData;
 import uk.ac.ed.ph.jqtiplus.value.BooleanValue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -110,9 +115,9 @@ public abstract class TestTestBase {
     }
 
     @After
-    public void checkMarshalling() {
+    public void checkMarshalling() throws IOException {
         /* This is strictly outside what we're testing here, but let's just check that the
-         * state -> XML -> state process is idempotent in this instance
+         * state -> XML -> state and state -> binary -> state processes are idempotent in this instance
          */
         final Document testSessionStateXmlDocument = TestSessionStateXmlMarshaller.marshal(testSessionState);
         final TestSessionState refried = TestSessionStateXmlMarshaller.unmarshal(testSessionStateXmlDocument.getDocumentElement());
@@ -121,6 +126,15 @@ public abstract class TestTestBase {
             System.err.println("State after marshalling: " + ObjectDumper.dumpObject(refried));
             Assert.assertEquals(testSessionState, refried);
         }
+
+        /* Same again for the binary format */
+        final byte[] testSessionStateBinary = TestSessionStateBinaryMarshaller.marshal(testSessionState);
+        Assert.assertEquals(testSessionState, TestSessionStateBinaryMarshaller.unmarshal(testSessionStateBinary));
+
+        /* ...and for a delta against the same state, which needs no item states */
+        final ByteArrayOutputStream deltaStream = new ByteArrayOutputStream();
+        TestSessionStateBinaryMarshaller.marshalDelta(testSessionState, Collections.<TestPlanNodeKey>emptySet(), deltaStream);
+        Assert.assertEquals(testSessionState, TestSessionStateBinaryMarshaller.unmarshalDelta(new ByteArrayInputStream(deltaStream.toByteArray()), testSessionState));
     }
 
     //-------------------------------------------------------
@@ -0,0 +1,173 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTITools and MathAssessEngine.
+ * QTITools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state.marshalling;
+
+import uk.ac.ed.ph.jqtiplus.node.result.SessionStatus;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.types.FileResponseData;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.types.StringResponseData;
+import uk.ac.ed.ph.jqtiplus.value.BooleanValue;
+import uk.ac.ed.ph.jqtiplus.value.DirectedPairValue;
+import uk.ac.ed.ph.jqtiplus.value.DurationValue;
+import uk.ac.ed.ph.jqtiplus.value.FileValue;
+import uk.ac.ed.ph.jqtiplus.value.FloatValue;
+import uk.ac.ed.ph.jqtiplus.value.IdentifierValue;
+import uk.ac.ed.ph.jqtiplus.value.IntegerValue;
+import uk.ac.ed.ph.jqtiplus.value.MultipleValue;
+import uk.ac.ed.ph.jqtiplus.value.NullValue;
+import uk.ac.ed.ph.jqtiplus.value.OrderedValue;
+import uk.ac.ed.ph.jqtiplus.value.PairValue;
+import uk.ac.ed.ph.jqtiplus.value.PointValue;
+import uk.ac.ed.ph.jqtiplus.value.RecordValue;
+import uk.ac.ed.ph.jqtiplus.value.SingleValue;
+import uk.ac.ed.ph.jqtiplus.value.StringValue;
+import uk.ac.ed.ph.jqtiplus.value.UriValue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+/**
+ * Checks that {@link ItemSessionStateBinaryMarshaller} round-trips {@link ItemSessionState}s
+ * and agrees with {@link ItemSessionStateXmlMarshaller}.
+ *
+ * @author David McKain
+ */
+public final class ItemSessionStateBinaryMarshallerTest {
+
+    @Test
+    public void testEmptyState() {
+        assertRoundTrip(new ItemSessionState());
+    }
+
+    @Test
+    public void testNullValues() {
+        final ItemSessionState itemSessionState = new ItemSessionState();
+        itemSessionState.setTemplateValue(Identifier.assumedLegal("T"), NullValue.INSTANCE);
+        itemSessionState.setResponseValue(Identifier.assumedLegal("RESPONSE"), NullValue.INSTANCE);
+        itemSessionState.setUncommittedResponseValue(Identifier.assumedLegal("RESPONSE"), NullValue.INSTANCE);
+        itemSessionState.setOutcomeValue(Identifier.assumedLegal("SCORE"), NullValue.INSTANCE);
+        itemSessionState.setOverriddenCorrectResponseValue(Identifier.assumedLegal("RESPONSE"), NullValue.INSTANCE);
+        assertRoundTrip(itemSessionState);
+    }
+
+    @Test
+    public void testSingleValues() {
+        final ItemSessionState itemSessionState = new ItemSessionState();
+        itemSessionState.setOutcomeValue(Identifier.assumedLegal("B"), BooleanValue.TRUE);
+        itemSessionState.setOutcomeValue(Identifier.assumedLegal("I"), new IntegerValue(-42));
+        itemSessionState.setOutcomeValue(Identifier.assumedLegal("F"), new FloatValue(3.25));
+        itemSessionState.setOutcomeValue(Identifier.assumedLegal("S"), new StringValue("café & <tea>"));
+        itemSessionState.setOutcomeValue(Identifier.assumedLegal("ID"), new IdentifierValue("ChoiceA"));
+        itemSessionState.setOutcomeValue(Identifier.assumedLegal("P"), new PointValue(10, 20));
+        itemSessionState.setOutcomeValue(Identifier.assumedLegal("PAIR"), new PairValue("A", "B"));
+        itemSessionState.setOutcomeValue(Identifier.assumedLegal("DPAIR"), new DirectedPairValue("A", "B"));
+        itemSessionState.setOutcomeValue(Identifier.assumedLegal("URI"), new UriValue("http://www.example.com/a?b=c"));
+        itemSessionState.setOutcomeValue(Identifier.assumedLegal("D"), new DurationValue(12.5));
+        assertRoundTrip(itemSessionState);
+    }
+
+    @Test
+    public void testContainerValues() {
+        final ItemSessionState itemSessionState = new ItemSessionState();
+        itemSessionState.setResponseValue(Identifier.assumedLegal("MULTIPLE"),
+                MultipleValue.createMultipleValue(new IdentifierValue("A"), new IdentifierValue("C")));
+        itemSessionState.setResponseValue(Identifier.assumedLegal("ORDERED"),
+                OrderedValue.createOrderedValue(new DirectedPairValue("A", "B"), new DirectedPairValue("C", "D")));
+        itemSessionState.setTemplateValue(Identifier.assumedLegal("EMPTY"), MultipleValue.emptyValue());
+
+        final Map<Identifier, SingleValue> recordMap = new LinkedHashMap<Identifier, SingleValue>();
+        recordMap.put(Identifier.assumedLegal("i"), new IntegerValue(1));
+        recordMap.put(Identifier.assumedLegal("f"), new FloatValue(0.5));
+        recordMap.put(Identifier.assumedLegal("d"), new DurationValue(3.0));
+        recordMap.put(Identifier.assumedLegal("s"), new StringValue(""));
+        itemSessionState.setOutcomeValue(Identifier.assumedLegal("RECORD"), RecordValue.createRecordValue(recordMap));
+        assertRoundTrip(itemSessionState);
+    }
+
+    @Test
+    public void testFiles() {
+        final ItemSessionState itemSessionState = new ItemSessionState();
+        final File file = new File("/tmp/uploads/response.txt");
+        itemSessionState.setRawResponseData(Identifier.assumedLegal("UPLOAD"),
+                new FileResponseData(file, "text/plain", "response.txt"));
+        itemSessionState.setResponseValue(Identifier.assumedLegal("UPLOAD"),
+                new FileValue(file, "text/plain", "response.txt"));
+        assertRoundTrip(itemSessionState);
+    }
+
+    @Test
+    public void testFullState() {
+        final Date entryTime = new Date(1000000L);
+        final ItemSessionState itemSessionState = new ItemSessionState();
+        itemSessionState.setInitialized(true);
+        itemSessionState.setSessionStatus(SessionStatus.PENDING_RESPONSE_PROCESSING);
+        itemSessionState.setResponded(true);
+        itemSessionState.setNumAttempts(2);
+        itemSessionState.setCompletionStatus("completed");
+        itemSessionState.setCandidateComment("A comment");
+        itemSessionState.setEntryTime(entryTime);
+        itemSessionState.setDurationIntervalStartTime(new Date(entryTime.getTime() + 5000L));
+        itemSessionState.setDurationAccumulated(4000L);
+        itemSessionState.setSuspendTime(new Date(entryTime.getTime() + 9000L));
+        itemSessionState.setShuffledInteractionChoiceOrder(Identifier.assumedLegal("RESPONSE"),
+                Arrays.asList(Identifier.assumedLegal("C"), Identifier.assumedLegal("A"), Identifier.assumedLegal("B")));
+        itemSessionState.setOverriddenTemplateDefaultValue(Identifier.assumedLegal("T"), new IntegerValue(3));
+        itemSessionState.setOverriddenResponseDefaultValue(Identifier.assumedLegal("RESPONSE"), new IdentifierValue("A"));
+        itemSessionState.setOverriddenOutcomeDefaultValue(Identifier.assumedLegal("SCORE"), new FloatValue(1.0));
+        itemSessionState.setRawResponseData(Identifier.assumedLegal("RESPONSE"), new StringResponseData("A", "B"));
+        itemSessionState.setUncommittedResponseValue(Identifier.assumedLegal("RESPONSE"),
+                MultipleValue.createMultipleValue(new IdentifierValue("A"), new IdentifierValue("B")));
+        itemSessionState.setUnboundResponseIdentifiers(Arrays.asList(Identifier.assumedLegal("OTHER")));
+        itemSessionState.setInvalidResponseIdentifiers(Arrays.asList(Identifier.assumedLegal("RESPONSE")));
+        itemSessionState.setOutcomeValue(Identifier.assumedLegal("SCORE"), new FloatValue(0.0));
+        assertRoundTrip(itemSessionState);
+    }
+
+    private static void assertRoundTrip(final ItemSessionState itemSessionState) {
+        final ItemSessionState fromBinary = ItemSessionStateBinaryMarshaller.unmarshal(ItemSessionStateBinaryMarshaller.marshal(itemSessionState));
+        Assert.assertEquals(itemSessionState, fromBinary);
+
+        final Document xmlDocument = ItemSessionStateXmlMarshaller.marshal(itemSessionState);
+        final ItemSessionState fromXml = ItemSessionStateXmlMarshaller.unmarshal(xmlDocument.getDocumentElement());
+        Assert.assertEquals(fromXml, fromBinary);
+    }
+}
@@ -0,0 +1,154 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTITools and MathAssessEngine.
+ * QTITools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state.marshalling;
+
+import uk.ac.ed.ph.jqtiplus.running.TestSessionController;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestPartSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.testutils.UnitTestHelper;
+import uk.ac.ed.ph.jqtiplus.types.FileResponseData;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.value.DurationValue;
+import uk.ac.ed.ph.jqtiplus.value.FileValue;
+import uk.ac.ed.ph.jqtiplus.value.FloatValue;
+import uk.ac.ed.ph.jqtiplus.value.IdentifierValue;
+import uk.ac.ed.ph.jqtiplus.value.IntegerValue;
+import uk.ac.ed.ph.jqtiplus.value.MultipleValue;
+import uk.ac.ed.ph.jqtiplus.value.NullValue;
+import uk.ac.ed.ph.jqtiplus.value.OrderedValue;
+import uk.ac.ed.ph.jqtiplus.value.RecordValue;
+import uk.ac.ed.ph.jqtiplus.value.SingleValue;
+import uk.ac.ed.ph.jqtiplus.value.StringValue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+/**
+ * Checks that {@link TestSessionStateBinaryMarshaller} round-trips {@link TestSessionState}s
+ * and agrees with {@link TestSessionStateXmlMarshaller}.
+ *
+ * @author David McKain
+ */
+public final class TestSessionStateBinaryMarshallerTest {
+
+    public static final String TEST_FILE_PATH = "running/simple-nonlinear-individual.xml";
+
+    private TestSessionState testSessionState;
+
+    @Before
+    public void before() {
+        final Date testEntryTimestamp = new Date(1000000L);
+        final TestSessionController testSessionController = UnitTestHelper.loadUnitTestAssessmentTestForControl(TEST_FILE_PATH, true);
+        testSessionController.initialize(testEntryTimestamp);
+        testSessionState = testSessionController.getTestSessionState();
+    }
+
+    @Test
+    public void testInitialState() throws IOException {
+        assertRoundTrip(testSessionState);
+    }
+
+    @Test
+    public void testPopulatedState() throws IOException {
+        final Date entryTime = new Date(2000000L);
+        testSessionState.setEntryTime(entryTime);
+        testSessionState.setDurationIntervalStartTime(entryTime);
+        testSessionState.setDurationAccumulated(1500L);
+        testSessionState.setOutcomeValue(Identifier.assumedLegal("NULL"), NullValue.INSTANCE);
+        testSessionState.setOutcomeValue(Identifier.assumedLegal("TOTAL"), new FloatValue(2.5));
+        testSessionState.setOutcomeValue(Identifier.assumedLegal("TIME"), new DurationValue(61.25));
+
+        for (final TestPartSessionState testPartSessionState : testSessionState.getTestPartSessionStates().values()) {
+            testPartSessionState.setEntryTime(entryTime);
+            testPartSessionState.setDurationAccumulated(500L);
+        }
+
+        final File file = new File("/tmp/uploads/essay.pdf");
+        final Map<Identifier, SingleValue> recordMap = new LinkedHashMap<Identifier, SingleValue>();
+        recordMap.put(Identifier.assumedLegal("count"), new IntegerValue(3));
+        recordMap.put(Identifier.assumedLegal("label"), new StringValue("x"));
+        recordMap.put(Identifier.assumedLegal("time"), new DurationValue(0.5));
+        int itemIndex = 0;
+        for (final ItemSessionState itemSessionState : testSessionState.getItemSessionStates().values()) {
+            itemIndex++;
+            itemSessionState.setEntryTime(entryTime);
+            itemSessionState.setDurationAccumulated(itemIndex * 1000L);
+            itemSessionState.setNumAttempts(itemIndex);
+            itemSessionState.setResponseValue(Identifier.assumedLegal("RESPONSE"),
+                    MultipleValue.createMultipleValue(new IdentifierValue("A"), new IdentifierValue("B")));
+            itemSessionState.setResponseValue(Identifier.assumedLegal("ORDER"),
+                    OrderedValue.createOrderedValue(new IdentifierValue("B"), new IdentifierValue("A")));
+            itemSessionState.setResponseValue(Identifier.assumedLegal("EMPTY"), NullValue.INSTANCE);
+            itemSessionState.setRawResponseData(Identifier.assumedLegal("UPLOAD"),
+                    new FileResponseData(file, "application/pdf", "essay.pdf"));
+            itemSessionState.setResponseValue(Identifier.assumedLegal("UPLOAD"),
+                    new FileValue(file, "application/pdf", "essay.pdf"));
+            itemSessionState.setOutcomeValue(Identifier.assumedLegal("RECORD"), RecordValue.createRecordValue(recordMap));
+        }
+        assertRoundTrip(testSessionState);
+    }
+
+    private static void assertRoundTrip(final TestSessionState testSessionState) throws IOException {
+        final TestSessionState fromBinary = TestSessionStateBinaryMarshaller.unmarshal(TestSessionStateBinaryMarshaller.marshal(testSessionState));
+        Assert.assertEquals(testSessionState, fromBinary);
+
+        final Document xmlDocument = TestSessionStateXmlMarshaller.marshal(testSessionState);
+        final TestSessionState fromXml = TestSessionStateXmlMarshaller.unmarshal(xmlDocument.getDocumentElement());
+        Assert.assertEquals(fromXml, fromBinary);
+
+        /* A delta including every item state must rebuild the same state from the XML copy */
+        final ByteArrayOutputStream deltaStream = new ByteArrayOutputStream();
+        TestSessionStateBinaryMarshaller.marshalDelta(testSessionState, testSessionState.getItemSessionStates().keySet(), deltaStream);
+        final TestSessionState fromDelta = TestSessionStateBinaryMarshaller.unmarshalDelta(new ByteArrayInputStream(deltaStream.toByteArray()), fromXml);
+        Assert.assertEquals(testSessionState, fromDelta);
+
+        /* ...and an empty delta must carry over the item states of the base state */
+        final ByteArrayOutputStream emptyDeltaStream = new ByteArrayOutputStream();
+        TestSessionStateBinaryMarshaller.marshalDelta(testSessionState, Collections.<TestPlanNodeKey>emptySet(), emptyDeltaStream);
+        Assert.assertEquals(testSessionState, TestSessionStateBinaryMarshaller.unmarshalDelta(new ByteArrayInputStream(emptyDeltaStream.toByteArray()), fromBinary));
+    }
+}
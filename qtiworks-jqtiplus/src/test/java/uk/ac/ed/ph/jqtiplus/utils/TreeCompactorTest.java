@@ -0,0 +1,139 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTITools and MathAssessEngine.
+ * QTITools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.utils;
+
+import uk.ac.ed.ph.jqtiplus.node.item.AssessmentItem;
+import uk.ac.ed.ph.jqtiplus.node.item.template.processing.SetTemplateValue;
+import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentItem;
+import uk.ac.ed.ph.jqtiplus.running.ItemProcessingInitializer;
+import uk.ac.ed.ph.jqtiplus.running.ItemProcessorControllerTest;
+import uk.ac.ed.ph.jqtiplus.running.ItemSessionController;
+import uk.ac.ed.ph.jqtiplus.running.ItemSessionControllerSettings;
+import uk.ac.ed.ph.jqtiplus.state.ItemProcessingMap;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.testutils.UnitTestHelper;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.value.IdentifierValue;
+import uk.ac.ed.ph.jqtiplus.value.MultipleValue;
+import uk.ac.ed.ph.jqtiplus.value.Value;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link TreeCompactor}
+ *
+ * @author David McKain
+ */
+public final class TreeCompactorTest {
+
+    private static final Identifier RESPONSE = Identifier.assumedLegal("RESPONSE");
+
+    private ResolvedAssessmentItem resolvedAssessmentItem;
+
+    @Before
+    public void before() {
+        resolvedAssessmentItem = UnitTestHelper.resolveUnitTestAssessmentItem(ItemProcessorControllerTest.TEST_FILE_PATH);
+    }
+
+    @Test
+    public void testSummary() {
+        final TreeCompactionSummary summary = TreeCompactor.compact(resolvedAssessmentItem);
+        Assert.assertTrue(summary.getNodeCount() > 1);
+        Assert.assertTrue(summary.getAttributeCount() > 0);
+        Assert.assertTrue(summary.getNodeGroupCount() > 0);
+        Assert.assertTrue(summary.getSharedValueCount() > 0);
+        Assert.assertTrue(summary.getEstimatedSize() > 0L);
+    }
+
+    @Test
+    public void testIdentifiersShared() {
+        TreeCompactor.compact(resolvedAssessmentItem);
+        final AssessmentItem item = resolvedAssessmentItem.getRootNodeLookup().extractAssumingSuccessful();
+        final SetTemplateValue setTemplateValue = (SetTemplateValue) item.getTemplateProcessing().getTemplateProcessingRules().get(0);
+        Assert.assertSame(item.getTemplateDeclaration(setTemplateValue.getIdentifier()).getIdentifier(), setTemplateValue.getIdentifier());
+    }
+
+    @Test
+    public void testCompactAgain() {
+        final TreeCompactionSummary firstSummary = TreeCompactor.compact(resolvedAssessmentItem);
+        final TreeCompactionSummary secondSummary = TreeCompactor.compact(resolvedAssessmentItem);
+        Assert.assertEquals(firstSummary.getNodeCount(), secondSummary.getNodeCount());
+        Assert.assertEquals(firstSummary.getEstimatedSize(), secondSummary.getEstimatedSize());
+        Assert.assertEquals(0, secondSummary.getSharedValueCount());
+    }
+
+    @Test
+    public void testResponseProcessingUnchanged() {
+        /* (Covers the item's own rules, a resolved RP template and a mapping) */
+        assertResponseProcessingUnchanged(ItemProcessorControllerTest.TEST_FILE_PATH, createIdentifierValue("ChoiceA"));
+        assertResponseProcessingUnchanged(ItemProcessorControllerTest.TEST_FILE_PATH, createIdentifierValue("ChoiceB"));
+        assertResponseProcessingUnchanged("resolution/choice.xml", createIdentifierValue("ChoiceA"));
+        assertResponseProcessingUnchanged("resolution/choice.xml", createIdentifierValue("ChoiceC"));
+        assertResponseProcessingUnchanged("item/mapResponse/MapResponse-Multiple.xml",
+                MultipleValue.createMultipleValue(createIdentifierValue("B"), createIdentifierValue("C")));
+    }
+
+    private static void assertResponseProcessingUnchanged(final String testFilePath, final Value response) {
+        final Map<Identifier, Value> expectedOutcomeValues = runResponseProcessing(UnitTestHelper.resolveUnitTestAssessmentItem(testFilePath), response);
+
+        final ResolvedAssessmentItem compactedResolvedAssessmentItem = UnitTestHelper.resolveUnitTestAssessmentItem(testFilePath);
+        TreeCompactor.compact(compactedResolvedAssessmentItem);
+        Assert.assertEquals(expectedOutcomeValues, runResponseProcessing(compactedResolvedAssessmentItem, response));
+    }
+
+    private static Map<Identifier, Value> runResponseProcessing(final ResolvedAssessmentItem resolvedAssessmentItem, final Value response) {
+        final ItemProcessingMap itemProcessingMap = new ItemProcessingInitializer(resolvedAssessmentItem, true).initialize();
+        final ItemSessionController itemSessionController = new ItemSessionController(UnitTestHelper.createJqtiExtensionManager(),
+                new ItemSessionControllerSettings(), itemProcessingMap, new ItemSessionState());
+        final Date timestamp = new Date();
+        itemSessionController.initialize(timestamp);
+        itemSessionController.performTemplateProcessing(timestamp);
+        itemSessionController.enterItem(timestamp);
+
+        final ItemSessionState itemSessionState = itemSessionController.getItemSessionState();
+        itemSessionState.setResponseValue(RESPONSE, response);
+        itemSessionController.performResponseProcessing(timestamp);
+        return new HashMap<Identifier, Value>(itemSessionState.getOutcomeValues());
+    }
+
+    private static IdentifierValue createIdentifierValue(final String identifier) {
+        return new IdentifierValue(Identifier.assumedLegal(identifier));
+    }
+}